@@ -59,9 +59,35 @@ public final class Compiler {
         case "--emulator":
           driver.enableEmulator();
           break;
+        case "--compiled-emulator":
+          driver.enableCompiledEmulator();
+          break;
+        case "--dispatch-stats":
+          driver.enableDispatchStats();
+          break;
+        case "--memoize":
+          driver.enableMemoization();
+          break;
+        case "--truffle":
+          driver.enableTruffle();
+          break;
         case "--debug-emulator":
           driver.enableDebugEmulator();
           break;
+        case "--antlr-lexer":
+          driver.enableAntlrLexer();
+          break;
+        case "-O0":
+        case "-O1":
+        case "-O2":
+          driver.setOptimizationLevel(arg.charAt(2) - '0');
+          break;
+        case "--pass-stats":
+          driver.enablePassStats();
+          break;
+        case "--compact-ast":
+          driver.enableCompactAst();
+          break;
         case "--read-ast":
           try {
             driver.readAST(new FileInputStream(args[i + 1]));
@@ -89,6 +115,36 @@ public final class Compiler {
           }
           i++;
           break;
+        case "--profile":
+          driver.setProfileFile(args[++i]);
+          break;
+        case "--profile-stacks":
+          driver.setProfileStacksFile(args[++i]);
+          break;
+        case "--write-profile":
+          driver.setWriteProfileFile(args[++i]);
+          break;
+        case "--use-profile":
+          driver.setUseProfileFile(args[++i]);
+          break;
+        case "--record":
+          driver.setRecordFile(args[++i]);
+          break;
+        case "--replay":
+          driver.setReplayFile(args[++i], false);
+          break;
+        case "--replay-verify":
+          driver.setReplayFile(args[++i], true);
+          break;
+        case "--batch":
+          driver.setBatchDirectory(args[++i]);
+          break;
+        case "--batch-output":
+          driver.setBatchOutputDirectory(args[++i]);
+          break;
+        case "--emit-object":
+          driver.enableObjectOutput();
+          break;
         case "--emulator-input": {
           if (driver.hasEmulatorInputFile())
             throw new RuntimeException("multiple input files");
@@ -129,8 +185,34 @@ public final class Compiler {
         "--serialize\t\t\tDump serialized versions of compiler represenatations out to files.");
     System.out.println("--print-ir\t\t\tDump dot compatible representation of IR.");
     System.out.println("--emulator\t\t\tRun Emulator on IR.");
+    System.out.println("--compiled-emulator\t\tRun IR translated to pre-linked nodes.");
+    System.out.println(
+        "--dispatch-stats\t\tRun the compiled emulator and print its dispatch counts.");
+    System.out.println("--memoize\t\t\tRun Emulator reusing the results of pure calls.");
+    System.out.println("--truffle\t\t\tRun the typed AST on the Truffle interpreter.");
     System.out.println("--debug-emulator\t\tRun Emulator on IR with debugging turned on.");
+    System.out.println("--antlr-lexer\t\t\tLex with the generated ANTLR lexer.");
+    System.out.println("-O0, -O1, -O2\t\t\tOptimization level of the IR (default -O0).");
+    System.out.println("--pass-stats\t\t\tPrint time and instruction counts of each pass.");
+    System.out.println("--compact-ast\t\t\tKeep the AST in a compact array encoding.");
     System.out.println("--emulator-input <input file>\tInput File for the emulator");
+    System.out.println("--profile <output file>\t\tRun Emulator and write a JSON execution profile.");
+    System.out.println(
+        "--profile-stacks <output file>\tRun Emulator and write collapsed call stacks.");
+    System.out.println(
+        "--write-profile <output file>\tRun Emulator and write branch and call counts.");
+    System.out.println(
+        "--use-profile <input file>\tOptimize for counts written by --write-profile.");
+    System.out.println("--record <output file>\t\tRun Emulator and write its input and output.");
+    System.out.println(
+        "--replay <input file>\t\tRun Emulator on the input of --record, printing nothing.");
+    System.out.println(
+        "--replay-verify <input file>\tRun Emulator on the input of --record, checking output.");
+    System.out.println(
+        "--batch <input directory>\tRun Emulator on every .in file of the directory in parallel.");
+    System.out.println(
+        "--batch-output <directory>\tWrite the output of each --batch input to a .out file.");
+    System.out.println("--emit-object\t\t\tWrite native code to the object a.o instead of a.s.");
     System.out.println("--read-ast <input file>\t\tRead serialized version of AST in,");
     System.out.println("--read-type <input file>\tRead serialized version of type-checked AST in,");
     System.out.println("--read-ir <input file>\t\tRead serialized version of IR/CFG in,");
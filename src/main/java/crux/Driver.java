@@ -1,23 +1,38 @@
 package crux;
 
 import crux.ast.ANTLRErrorRecorder;
+import crux.ast.CompactAst;
 import crux.ast.ParseTreeLower;
 import crux.ast.DeclarationList;
 import crux.pt.CruxLexer;
 import crux.pt.CruxParser;
+import crux.pt.CruxScanner;
+import crux.pt.MappedCharStream;
 import crux.ast.types.TypeChecker;
 import crux.ir.ASTLower;
 import crux.printing.IRPrinter;
 import crux.ir.Program;
+import crux.ir.CompiledEmulator;
+import crux.ir.ConcurrentRunner;
 import crux.ir.Emulator;
+import crux.ir.IOTranscript;
+import crux.ir.MemoTable;
+import crux.ir.Profile;
+import crux.ir.ProgramIO;
+import crux.ir.SiteCounts;
+import crux.ir.pass.PassManager;
 import crux.backend.CodeGen;
 import crux.printing.ASTPrinter;
+import crux.printing.IRValueFormatter;
 import crux.printing.ParseTreePrinter;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.function.Supplier;
 
 enum State {
@@ -47,6 +62,10 @@ public final class Driver {
   private boolean printIR = false;
   private boolean runEmulator = false;
   private boolean serialize = false;
+  private boolean antlrLexer = false;
+  private boolean compactAst = false;
+  private int optimizationLevel = 0;
+  private boolean passStats = false;
 
   // Set this flag to false if earlier stages in your compiler do not work.
   private final boolean supportsEndToEnd = true;
@@ -55,9 +74,26 @@ public final class Driver {
   private InputStream inputStream;
   private String emulatorInputFile = null;
   private InputStream emulatorInputStream = null;
+  private String profileFile = null;
+  private String profileStacksFile = null;
+  private String siteCountsFile = null;
+  private String useProfileFile = null;
+  private boolean profileApplied = false;
+  private boolean emitObject = false;
+  private boolean compiledEmulator = false;
+  private boolean dispatchStats = false;
+  private boolean memoize = false;
+  private boolean debugEmulator = false;
+  private String batchDirectory = null;
+  private String batchOutputDirectory = null;
+  private String recordFile = null;
+  private String replayFile = null;
+  private boolean verifyReplay = false;
+  private boolean truffle = false;
 
   private CruxParser.ProgramContext parseTree;
   private DeclarationList ast;
+  private CompactAst encodedAst;
   private Program irProgram;
   private Stage startStage = Stage.PARSE;
 
@@ -66,8 +102,12 @@ public final class Driver {
     this(System.in, System.out, System.err);
   }
 
+  /**
+   * Make a driver whose emulator reads nothing unless given input with
+   * {@link #setEmulatorInput} or {@link #setEmulatorInputFile}.
+   */
   public Driver(PrintStream out, PrintStream err) {
-    this(System.in, out, err);
+    this(InputStream.nullInputStream(), out, err);
   }
 
   public Driver(InputStream in, PrintStream out, PrintStream err) {
@@ -109,9 +149,154 @@ public final class Driver {
     runEmulator = true;
   }
 
+  /**
+   * Lex with the generated ANTLR lexer instead of the hand-written {@link CruxScanner}.
+   */
+  public void enableAntlrLexer() {
+    antlrLexer = true;
+  }
+
+  /**
+   * Lower the parse tree straight into the struct-of-arrays {@link CompactAst} encoding and keep
+   * the AST in it between stages. The type checker walks the arrays; the IR lowering and the
+   * printers run on views materialized from it.
+   */
+  public void enableCompactAst() {
+    compactAst = true;
+  }
+
+  /**
+   * Select the IR optimization pipeline, see {@link PassManager#forLevel(int)}.
+   */
+  public void setOptimizationLevel(int level) {
+    optimizationLevel = level;
+  }
+
+  /**
+   * Print the time and instruction count of every optimization pass to stderr.
+   */
+  public void enablePassStats() {
+    passStats = true;
+  }
+
+  /**
+   * Run the IR on the {@link CompiledEmulator} instead of the {@link Emulator}. Runs that debug
+   * or profile the program still use the Emulator.
+   */
+  public void enableCompiledEmulator() {
+    runEmulator = true;
+    compiledEmulator = true;
+  }
+
+  /**
+   * Run the IR on the {@link CompiledEmulator} and print to stderr how many dispatches its
+   * superinstructions saved.
+   */
+  public void enableDispatchStats() {
+    enableCompiledEmulator();
+    dispatchStats = true;
+  }
+
+  /**
+   * Run the IR on the {@link Emulator} reusing the results of calls to pure functions, and print
+   * to stderr how often it could.
+   */
+  public void enableMemoization() {
+    runEmulator = true;
+    memoize = true;
+  }
+
+  /**
+   * Run the emulator and write the input and output of the run to file, for
+   * {@link #setReplayFile}.
+   */
+  public void setRecordFile(String file) {
+    runEmulator = true;
+    recordFile = file;
+  }
+
+  /**
+   * Run the emulator on the input recorded in file by {@link #setRecordFile}, without printing.
+   * With verify, the output is checked against the recorded output instead.
+   */
+  public void setReplayFile(String file, boolean verify) {
+    runEmulator = true;
+    replayFile = file;
+    verifyReplay = verify;
+  }
+
+  /**
+   * Compile the program once and run it in parallel on every {@code .in} file in directory
+   * instead of on one input, on the {@link CompiledEmulator} if it is enabled. Each output is
+   * printed after a line with the name of its input, or written to the output directory.
+   * Debugging, profiling, memoization and recording do not apply to batch runs.
+   */
+  public void setBatchDirectory(String directory) {
+    runEmulator = true;
+    batchDirectory = directory;
+  }
+
+  /**
+   * Write the output of the batch run on {@code name.in} to {@code name.out} in directory.
+   */
+  public void setBatchOutputDirectory(String directory) {
+    batchOutputDirectory = directory;
+  }
+
+  /**
+   * Run the type checked AST on the Truffle interpreter of {@code crux.truffle}, which is only
+   * built with the {@code truffle} Maven profile. Without it, or when the run is recorded or
+   * replayed, the program runs on the {@link CompiledEmulator} after a warning.
+   */
+  public void enableTruffle() {
+    runEmulator = true;
+    truffle = true;
+  }
+
   public void enableDebugEmulator() {
     runEmulator = true;
-    Emulator.DEBUG = true;
+    debugEmulator = true;
+  }
+
+  /**
+   * Run the emulator with a {@link Profile} and write it to file as JSON.
+   */
+  public void setProfileFile(String file) {
+    runEmulator = true;
+    profileFile = file;
+  }
+
+  /**
+   * Run the emulator with a {@link Profile} and write its call stacks to file in the collapsed
+   * format of flame graph tools.
+   */
+  public void setProfileStacksFile(String file) {
+    runEmulator = true;
+    profileStacksFile = file;
+  }
+
+  /**
+   * Run the emulator and write how often each branch and call ran to file, for
+   * {@link #setUseProfileFile} in a later compile.
+   */
+  public void setWriteProfileFile(String file) {
+    runEmulator = true;
+    siteCountsFile = file;
+  }
+
+  /**
+   * Optimize and lay out code for the branch and call counts in file, written by an earlier run
+   * with {@link #setWriteProfileFile}.
+   */
+  public void setUseProfileFile(String file) {
+    useProfileFile = file;
+  }
+
+  /**
+   * Write native code as the ELF object a.o, encoded without an assembler, instead of a.s.
+   */
+  public void enableObjectOutput() {
+    emitObject = true;
   }
 
   public boolean hasInputFile() {
@@ -162,6 +347,9 @@ public final class Driver {
         if (state != State.Continue)
           break;
       case IR:
+        state = truffle();
+        if (state != State.Continue)
+          break;
         state = emitIR();
         if (state != State.Continue)
           break;
@@ -176,6 +364,34 @@ public final class Driver {
     return state;
   }
 
+  /**
+   * Parse, check and lower the input, optimized at the current level, without running or
+   * emitting anything. Returns the program, or null if it has errors, which go to err.
+   */
+  public Program compile() {
+    State state = State.Continue;
+    switch (startStage) {
+      case PARSE:
+        state = parse();
+        if (state != State.Continue)
+          break;
+      case AST:
+        state = makeAST();
+        if (state != State.Continue)
+          break;
+      case TYPECHECK:
+        state = typeCheck();
+        if (state != State.Continue)
+          break;
+      case IR:
+        state = emitIR();
+        break;
+      case CODEGEN:
+        break;
+    }
+    return state == State.Continue ? irProgram : null;
+  }
+
   public void readASTTYPE(InputStream is) {
     try {
       ObjectInputStream ois = new ObjectInputStream(is);
@@ -214,7 +430,7 @@ public final class Driver {
 
   private State parse() {
     var input = openInput();
-    var lexer = new CruxLexer(input);
+    var lexer = antlrLexer ? new CruxLexer(input) : new CruxScanner(input);
     var tokenStream = new CommonTokenStream(lexer);
 
     var parser = new CruxParser(tokenStream);
@@ -242,7 +458,11 @@ public final class Driver {
 
   private State makeAST() {
     var parseTreeLower = new ParseTreeLower(err);
-    ast = parseTreeLower.lower(parseTree);
+    if (compactAst) {
+      encodedAst = parseTreeLower.lowerCompact(parseTree);
+    } else {
+      ast = parseTreeLower.lower(parseTree);
+    }
 
     if (parseTreeLower.hasEncounteredError()) {
       return State.Error;
@@ -253,17 +473,18 @@ public final class Driver {
       if (includeTypes)
         astPrinter.enableTypes();
 
-      astPrinter.print(ast);
+      astPrinter.print(ast());
       return State.Finished;
     }
     if (serialize) {
       try {
         ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("ast.ser"));
-        oos.writeObject(ast);
+        oos.writeObject(ast());
         oos.close();
       } catch (Exception e) {
         System.out.println("Failed to serialize AST");
       }
+      releaseViews();
     }
 
     return State.Continue;
@@ -271,7 +492,11 @@ public final class Driver {
 
   private State typeCheck() {
     TypeChecker typeChecker = new TypeChecker();
-    typeChecker.check(ast);
+    if (encodedAst != null) {
+      typeChecker.check(encodedAst);
+    } else {
+      typeChecker.check(ast);
+    }
 
     if (typeCheck) {
       if (typeChecker.getErrors().isEmpty()) {
@@ -279,7 +504,7 @@ public final class Driver {
         var astPrinter = new ASTPrinter(out, typeChecker);
         if (includeTypes)
           astPrinter.enableTypes();
-        astPrinter.print(ast);
+        astPrinter.print(ast());
       } else {
         out.println("Error type-checking file.");
       }
@@ -296,11 +521,12 @@ public final class Driver {
     if (serialize) {
       try {
         ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("typedast.ser"));
-        oos.writeObject(ast);
+        oos.writeObject(ast());
         oos.close();
       } catch (Exception e) {
         System.out.println("Failed to serialize Typed AST");
       }
+      releaseViews();
     }
 
     return typeCheck ? State.Finished : State.Continue;
@@ -308,7 +534,16 @@ public final class Driver {
 
   private State emitIR() {
     var astLower = new ASTLower();
-    irProgram = astLower.lower(ast);
+    irProgram = astLower.lower(ast());
+    releaseViews();
+
+    applyProfile();
+    if (optimizationLevel > 0 || passStats) {
+      var passManager = PassManager.forLevel(optimizationLevel);
+      passManager.run(irProgram);
+      if (passStats)
+        passManager.getStatistics().print(err);
+    }
 
     if (printIR) {
       var printer = new IRPrinter(out);
@@ -329,40 +564,238 @@ public final class Driver {
     return State.Continue;
   }
 
+  /**
+   * Returns the AST, materialized from its compact encoding if there is one.
+   */
+  private DeclarationList ast() {
+    if (encodedAst != null) {
+      return (DeclarationList) encodedAst.view(encodedAst.root());
+    }
+    return ast;
+  }
+
+  /**
+   * Drop the nodes {@link #ast()} materialized, so only the compact encoding stays reachable.
+   */
+  private void releaseViews() {
+    if (encodedAst != null) {
+      encodedAst.releaseViews();
+    }
+  }
+
   private State emitASM() {
-    var codegen = new CodeGen(irProgram);
+    applyProfile();
+    var codegen = new CodeGen(irProgram, emitObject);
     codegen.genCode();
 
     return State.Finished;
   }
 
   private State emulator() {
+    if (runEmulator && batchDirectory != null)
+      return batch();
     if (runEmulator) {
-      var emulatorInput = openEmulatorInput();
-      var emulator = new Emulator(irProgram, emulatorInput, out);
-      emulator.run();
+      IOTranscript.Replay replay = null;
+      ProgramIO io;
+      if (replayFile != null) {
+        try (var log = new FileInputStream(replayFile)) {
+          replay = IOTranscript.replay(log, verifyReplay);
+        } catch (IOException e) {
+          throw new RuntimeException(String.format("cannot read file '%s'", replayFile), e);
+        }
+        io = replay;
+      } else {
+        io = ProgramIO.of(openEmulatorInput(), out);
+      }
+      IOTranscript.Recorder recorder = null;
+      if (recordFile != null) {
+        try {
+          recorder = IOTranscript.record(io, new FileOutputStream(recordFile));
+        } catch (IOException e) {
+          throw new RuntimeException(String.format("cannot write file '%s'", recordFile), e);
+        }
+        io = recorder;
+      }
+      try {
+        emulate(io);
+      } finally {
+        if (recorder != null) {
+          try {
+            recorder.close();
+          } catch (IOException e) {
+            throw new RuntimeException(String.format("cannot write file '%s'", recordFile), e);
+          }
+        }
+      }
+      if (replay != null)
+        replay.finish(err);
       return State.Finished;
     }
 
     return State.Continue;
   }
 
-  private CharStream openInput() {
+  private State batch() {
+    File[] inputs = new File(batchDirectory).listFiles((dir, name) -> name.endsWith(".in"));
+    if (inputs == null)
+      throw new RuntimeException(String.format("cannot read directory '%s'", batchDirectory));
+    Arrays.sort(inputs);
+    var jobs = new ArrayList<ConcurrentRunner.Job>();
+    for (File input : inputs) {
+      String name = input.getName().substring(0, input.getName().length() - 3);
+      try {
+        jobs.add(new ConcurrentRunner.Job(name, irProgram, Files.readAllBytes(input.toPath())));
+      } catch (IOException e) {
+        throw new RuntimeException(String.format("cannot read file '%s'", input), e);
+      }
+    }
+    try (var runner = new ConcurrentRunner(compiledEmulator)) {
+      runner.runAll(jobs, result -> {
+        if (batchOutputDirectory == null) {
+          byte[] output = result.getOutput();
+          out.println("== " + result.getName());
+          out.write(output, 0, output.length);
+          if (output.length > 0 && output[output.length - 1] != '\n')
+            out.println();
+          out.flush();
+        } else {
+          var file = new File(batchOutputDirectory, result.getName() + ".out");
+          try {
+            Files.write(file.toPath(), result.getOutput());
+          } catch (IOException e) {
+            throw new RuntimeException(String.format("cannot write file '%s'", file), e);
+          }
+        }
+        if (result.getError() != null)
+          err.println(result.getName() + ": " + result.getError());
+      });
+    }
+    return State.Finished;
+  }
+
+  private void emulate(ProgramIO io) {
+    boolean profiling =
+        profileFile != null || profileStacksFile != null || siteCountsFile != null;
+    if (compiledEmulator && !profiling && !memoize && !debugEmulator) {
+      var compiled = new CompiledEmulator(irProgram, io);
+      if (dispatchStats)
+        compiled.enableDispatchStatistics();
+      compiled.run();
+      if (dispatchStats)
+        compiled.printDispatchStatistics(err);
+      return;
+    }
+    var emulator = new Emulator(irProgram, io);
+    emulator.setDebug(debugEmulator);
+    Profile profile = null;
+    if (profiling) {
+      profile = new Profile();
+      emulator.setProfile(profile);
+    }
+    MemoTable memo = memoize ? emulator.enableMemoization(MEMO_CAPACITY) : null;
+    emulator.run();
+    if (memo != null)
+      memo.printStatistics(err);
+    if (profile != null)
+      writeProfile(profile);
+  }
+
+  /** How many results of pure calls the emulator keeps with {@link #enableMemoization}. */
+  private static final int MEMO_CAPACITY = 1 << 16;
+
+  private static final String TRUFFLE_RUNNER = "crux.truffle.TruffleRunner";
+
+  /**
+   * Run the program on the Truffle interpreter if it was asked for and is on the class path.
+   */
+  private State truffle() {
+    if (!truffle)
+      return State.Continue;
+    if (recordFile != null || replayFile != null) {
+      // The Truffle runner reads and prints on its own, so it cannot be recorded.
+      err.println("warning: Truffle is not available with --record or --replay, running the "
+          + "compiled emulator");
+      compiledEmulator = true;
+      return State.Continue;
+    }
+    Method run;
+    try {
+      run = Class.forName(TRUFFLE_RUNNER).getMethod("run", DeclarationList.class,
+          InputStream.class, PrintStream.class);
+    } catch (ClassNotFoundException | NoSuchMethodException | LinkageError e) {
+      err.println("warning: Truffle is not available, running the compiled emulator");
+      compiledEmulator = true;
+      return State.Continue;
+    }
+    try {
+      run.invoke(null, ast(), openEmulatorInput(), out);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      if (e.getCause() instanceof Error)
+        throw (Error) e.getCause();
+      throw new RuntimeException(e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+    return State.Finished;
+  }
+
+  private MappedCharStream openInput() {
     if (inputStream == null) {
       try {
-        return CharStreams.fromFileName(inputFile);
+        return MappedCharStream.fromFileName(inputFile);
       } catch (IOException e) {
         throw new RuntimeException(String.format("cannot read file '%s'", inputFile), e);
       }
     } else {
       try {
-        return CharStreams.fromStream(inputStream);
+        return MappedCharStream.fromStream(inputStream);
       } catch (IOException e) {
         throw new RuntimeException("cannot read from input stream.");
       }
     }
   }
 
+  private void writeProfile(Profile profile) {
+    if (profileFile != null) {
+      try (var profileOut = new PrintStream(new FileOutputStream(profileFile))) {
+        profile.writeJson(profileOut, new IRValueFormatter());
+      } catch (IOException e) {
+        throw new RuntimeException(String.format("cannot write file '%s'", profileFile), e);
+      }
+    }
+    if (siteCountsFile != null) {
+      try (var profileOut = new PrintStream(new FileOutputStream(siteCountsFile))) {
+        profile.writeSiteCounts(profileOut, irProgram);
+      } catch (IOException e) {
+        throw new RuntimeException(String.format("cannot write file '%s'", siteCountsFile), e);
+      }
+    }
+    if (profileStacksFile != null) {
+      try (var profileOut = new PrintStream(new FileOutputStream(profileStacksFile))) {
+        profile.writeCollapsedStacks(profileOut);
+      } catch (IOException e) {
+        throw new RuntimeException(String.format("cannot write file '%s'", profileStacksFile), e);
+      }
+    }
+  }
+
+  /**
+   * Attach the counts of the profile file given with --use-profile to the IR, once.
+   */
+  private void applyProfile() {
+    if (useProfileFile == null || profileApplied)
+      return;
+    profileApplied = true;
+    try (var profileIn = new FileInputStream(useProfileFile)) {
+      for (var name : SiteCounts.apply(irProgram, SiteCounts.read(profileIn)))
+        err.printf("warning: ignoring stale profile of function '%s'%n", name);
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("cannot read profile '%s'", useProfileFile), e);
+    }
+  }
+
   private InputStream openEmulatorInput() {
     if (emulatorInputFile != null) {
       try {
@@ -373,7 +806,7 @@ public final class Driver {
     } else if (emulatorInputStream != null) {
       return emulatorInputStream;
     } else {
-      return System.in;
+      return in;
     }
   }
 }
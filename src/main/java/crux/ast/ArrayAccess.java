@@ -41,7 +41,7 @@ public final class ArrayAccess extends BaseNode implements Expression, java.io.S
   }
 
   @Override
-  public List<Node> getChildren() {
+  protected List<Node> childList() {
     return List.of(index);
   }
 
@@ -36,7 +36,7 @@ public final class Assignment extends BaseNode implements Statement, java.io.Ser
   }
 
   @Override
-  public List<Node> getChildren() {
+  protected List<Node> childList() {
     return List.of(location, value);
   }
 
@@ -0,0 +1,146 @@
+package crux.ast;
+
+import crux.ast.OpExpr.Operation;
+import crux.ast.SymbolTable.Symbol;
+
+import java.util.List;
+
+/**
+ * Creates the nodes {@link ParseTreeLower} lowers a parse tree to, either as {@link Node} objects
+ * or appended to a {@link CompactAst}. Children are always created before their parent, left to
+ * right, so a builder sees the nodes in post-order.
+ */
+interface AstBuilder<N> {
+  N declarationList(int line, List<N> declarations);
+
+  N variableDeclaration(int line, Symbol symbol);
+
+  N arrayDeclaration(int line, Symbol symbol);
+
+  N functionDefinition(int line, Symbol symbol, List<Symbol> parameters, N statements);
+
+  N statementList(int line, List<N> statements);
+
+  N assignment(int line, N location, N value);
+
+  N call(int line, Symbol callee, List<N> arguments);
+
+  N ifElseBranch(int line, N condition, N thenBlock, N elseBlock);
+
+  N forLoop(int line, N init, N cond, N increment, N body);
+
+  N returnStatement(int line, N value);
+
+  N breakStatement(int line);
+
+  /**
+   * Returns an operator node. right is null for {@link Operation#LOGIC_NOT}.
+   */
+  N opExpr(int line, Operation op, N left, N right);
+
+  N varAccess(int line, Symbol symbol);
+
+  N arrayAccess(int line, Symbol base, N index);
+
+  N literalInt(int line, long value);
+
+  N literalBool(int line, boolean value);
+
+  /**
+   * Builds ordinary {@link Node} objects.
+   */
+  final class Nodes implements AstBuilder<Node> {
+    static final Nodes INSTANCE = new Nodes();
+
+    private Nodes() {}
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> cast(List<Node> nodes) {
+      return (List<T>) (List<?>) nodes;
+    }
+
+    @Override
+    public Node declarationList(int line, List<Node> declarations) {
+      return new DeclarationList(new Position(line), cast(declarations));
+    }
+
+    @Override
+    public Node variableDeclaration(int line, Symbol symbol) {
+      return new VariableDeclaration(new Position(line), symbol);
+    }
+
+    @Override
+    public Node arrayDeclaration(int line, Symbol symbol) {
+      return new ArrayDeclaration(new Position(line), symbol);
+    }
+
+    @Override
+    public Node functionDefinition(int line, Symbol symbol, List<Symbol> parameters,
+        Node statements) {
+      return new FunctionDefinition(new Position(line), symbol, parameters,
+          (StatementList) statements);
+    }
+
+    @Override
+    public Node statementList(int line, List<Node> statements) {
+      return new StatementList(new Position(line), cast(statements));
+    }
+
+    @Override
+    public Node assignment(int line, Node location, Node value) {
+      return new Assignment(new Position(line), (Expression) location, (Expression) value);
+    }
+
+    @Override
+    public Node call(int line, Symbol callee, List<Node> arguments) {
+      return new Call(new Position(line), callee, cast(arguments));
+    }
+
+    @Override
+    public Node ifElseBranch(int line, Node condition, Node thenBlock, Node elseBlock) {
+      return new IfElseBranch(new Position(line), (Expression) condition,
+          (StatementList) thenBlock, (StatementList) elseBlock);
+    }
+
+    @Override
+    public Node forLoop(int line, Node init, Node cond, Node increment, Node body) {
+      return new For(new Position(line), (Assignment) init, (Expression) cond,
+          (Assignment) increment, (StatementList) body);
+    }
+
+    @Override
+    public Node returnStatement(int line, Node value) {
+      return new Return(new Position(line), (Expression) value);
+    }
+
+    @Override
+    public Node breakStatement(int line) {
+      return new Break(new Position(line));
+    }
+
+    @Override
+    public Node opExpr(int line, Operation op, Node left, Node right) {
+      return new OpExpr(new Position(line), op, (Expression) left, (Expression) right);
+    }
+
+    @Override
+    public Node varAccess(int line, Symbol symbol) {
+      return new VarAccess(new Position(line), symbol);
+    }
+
+    @Override
+    public Node arrayAccess(int line, Symbol base, Node index) {
+      return new ArrayAccess(new Position(line), base, (Expression) index);
+    }
+
+    @Override
+    public Node literalInt(int line, long value) {
+      return new LiteralInt(new Position(line), value);
+    }
+
+    @Override
+    public Node literalBool(int line, boolean value) {
+      return new LiteralBool(new Position(line), value);
+    }
+  }
+}
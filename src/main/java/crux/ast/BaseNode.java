@@ -11,13 +11,24 @@ public abstract class BaseNode implements Node, java.io.Serializable {
   static final long serialVersionUID = 12022L;
   private final Position position;
   private Type type;
+  private transient List<Node> children;
 
   BaseNode(Position position) {
     this.position = position;
   }
 
+  /**
+   * Returns the children of this node. The list is built once by {@link #childList()} and shared
+   * by all later calls.
+   */
   @Override
-  public List<Node> getChildren() {
+  public final List<Node> getChildren() {
+    if (children == null)
+      children = childList();
+    return children;
+  }
+
+  protected List<Node> childList() {
     return List.of();
   }
 
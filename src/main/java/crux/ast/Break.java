@@ -15,7 +15,7 @@ public final class Break extends BaseNode implements Statement, java.io.Serializ
   }
 
   @Override
-  public List<Node> getChildren() {
+  protected List<Node> childList() {
     return List.of();
   }
 
@@ -3,7 +3,6 @@ package crux.ast;
 import crux.ast.traversal.NodeVisitor;
 import crux.ast.SymbolTable.Symbol;
 import java.util.List;
-import java.util.ArrayList;
 
 /**
  * AST node for function Call expression or statement.
@@ -36,8 +35,8 @@ public final class Call extends BaseNode implements Expression, Statement, java.
   }
 
   @Override
-  public List<Node> getChildren() {
-    return new ArrayList<Node>(arguments);
+  protected List<Node> childList() {
+    return List.copyOf(arguments);
   }
 
   @Override
@@ -0,0 +1,598 @@
+package crux.ast;
+
+import crux.ast.OpExpr.Operation;
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, struct-of-arrays encoding of an AST. Every node is an int id; its kind, source line,
+ * type, symbol, literal value and children live in primitive arrays indexed by that id, and types
+ * and symbols are stored once in side tables.
+ * <p>
+ * Nodes are numbered in post-order, so children always have smaller ids than their parent, the
+ * nodes of a subtree occupy a contiguous range of ids ending at its root, and a loop over
+ * 0..size()-1 is a post-order traversal that walks the arrays sequentially.
+ * <p>
+ * {@link ParseTreeLower#lowerCompact} appends nodes to the arrays as it lowers the parse tree, so
+ * no node objects are created, and {@link crux.ast.types.TypeChecker#check(CompactAst)} walks
+ * the arrays directly. {@link #view(int)} materializes a subtree as ordinary {@link Node} objects
+ * for the passes that still need them. Types assigned to the view are written back with
+ * {@link #updateTypes()}.
+ */
+public final class CompactAst implements java.io.Serializable {
+  static final long serialVersionUID = 12022L;
+
+  /**
+   * Node kinds, one for each concrete AST node class.
+   */
+  public enum Kind {
+    ARRAY_ACCESS, ARRAY_DECLARATION, ASSIGNMENT, BREAK, CALL, DECLARATION_LIST, FOR,
+    FUNCTION_DEFINITION, IF_ELSE_BRANCH, LITERAL_BOOL, LITERAL_INT, OP_EXPR, RETURN,
+    STATEMENT_LIST, VAR_ACCESS, VARIABLE_DECLARATION
+  }
+
+  private static final Kind[] KINDS = Kind.values();
+  private static final Operation[] OPERATIONS = Operation.values();
+  private static final int NONE = -1;
+
+  private int size = 0;
+  private byte[] kinds;
+  private int[] lines;
+  private int[] typeIds;
+  private int[] symbolIds;
+  /** Literal value, operator ordinal, or start and count of the parameters in paramPool. */
+  private long[] values;
+  /** Start of the children in childPool. Nodes append their children in id order. */
+  private int[] childStart;
+
+  private int[] childPool;
+  private int childPoolSize = 0;
+  private int[] paramPool;
+  private int paramPoolSize = 0;
+
+  private final ArrayList<Symbol> symbolTable = new ArrayList<>();
+  private final ArrayList<Type> typeTable = new ArrayList<>();
+
+  private transient Map<Symbol, Integer> symbolIndex;
+  private transient Map<Type, Integer> typeIndex;
+  private transient Node[] views;
+
+  private CompactAst(int capacity) {
+    kinds = new byte[capacity];
+    lines = new int[capacity];
+    typeIds = new int[capacity];
+    symbolIds = new int[capacity];
+    values = new long[capacity];
+    childStart = new int[capacity];
+    childPool = new int[capacity];
+    paramPool = new int[16];
+  }
+
+  /**
+   * Encode the tree rooted at root, including any types already assigned to its nodes. The tree
+   * is walked with an explicit stack.
+   */
+  public static CompactAst encode(Node root) {
+    var ast = new CompactAst(64);
+    // One frame per node on the path from the root: the node, its children, the next child to
+    // encode, and where the ids of its encoded children start on the id stack.
+    var nodes = new ArrayList<Node>();
+    var childLists = new ArrayList<List<Node>>();
+    var nextChild = new int[16];
+    var bases = new int[16];
+    var ids = new int[16];
+    int idCount = 0;
+
+    nodes.add(root);
+    childLists.add(layout(root));
+    while (!nodes.isEmpty()) {
+      int top = nodes.size() - 1;
+      var children = childLists.get(top);
+      if (nextChild[top] < children.size()) {
+        var child = children.get(nextChild[top]++);
+        if (top + 1 == nextChild.length) {
+          nextChild = Arrays.copyOf(nextChild, nextChild.length * 2);
+          bases = Arrays.copyOf(bases, bases.length * 2);
+        }
+        nodes.add(child);
+        childLists.add(layout(child));
+        nextChild[top + 1] = 0;
+        bases[top + 1] = idCount;
+        continue;
+      }
+      int base = bases[top];
+      int id = ast.add(nodes.remove(top), ids, base, idCount - base);
+      childLists.remove(top);
+      idCount = base;
+      if (idCount == ids.length) {
+        ids = Arrays.copyOf(ids, ids.length * 2);
+      }
+      ids[idCount++] = id;
+    }
+    ast.trimToSize();
+    return ast;
+  }
+
+  /**
+   * Returns the children of node in encoding order. This is getChildren() except for loops,
+   * whose getChildren() only lists the body.
+   */
+  private static List<Node> layout(Node node) {
+    if (node instanceof For) {
+      var loop = (For) node;
+      return List.of(loop.getInit(), loop.getCond(), loop.getIncrement(), loop.getBody());
+    }
+    return node.getChildren();
+  }
+
+  /**
+   * Returns an empty encoding for {@link ParseTreeLower#lowerCompact} to fill with
+   * {@link #builder()}.
+   */
+  static CompactAst empty() {
+    return new CompactAst(64);
+  }
+
+  AstBuilder<Integer> builder() {
+    return new Builder();
+  }
+
+  /**
+   * Appends each node as it is created. The parse tree is lowered in post-order, so the ids come
+   * out in the same order as from {@link #encode(Node)}.
+   */
+  private final class Builder implements AstBuilder<Integer> {
+    private int[] ids = new int[4];
+
+    private int node(Kind kind, int line, Symbol symbol, long value, List<Integer> children) {
+      if (children.size() > ids.length) {
+        ids = new int[Math.max(ids.length * 2, children.size())];
+      }
+      for (int k = 0; k < children.size(); k++) {
+        ids[k] = children.get(k);
+      }
+      return append(kind, line, null, symbol, value, ids, 0, children.size());
+    }
+
+    private int node(Kind kind, int line, Symbol symbol, long value, int... children) {
+      return append(kind, line, null, symbol, value, children, 0, children.length);
+    }
+
+    @Override
+    public Integer declarationList(int line, List<Integer> declarations) {
+      return node(Kind.DECLARATION_LIST, line, null, 0, declarations);
+    }
+
+    @Override
+    public Integer variableDeclaration(int line, Symbol symbol) {
+      return node(Kind.VARIABLE_DECLARATION, line, symbol, 0);
+    }
+
+    @Override
+    public Integer arrayDeclaration(int line, Symbol symbol) {
+      return node(Kind.ARRAY_DECLARATION, line, symbol, 0);
+    }
+
+    @Override
+    public Integer functionDefinition(int line, Symbol symbol, List<Symbol> parameters,
+        Integer statements) {
+      return node(Kind.FUNCTION_DEFINITION, line, symbol, addParameters(parameters), statements);
+    }
+
+    @Override
+    public Integer statementList(int line, List<Integer> statements) {
+      return node(Kind.STATEMENT_LIST, line, null, 0, statements);
+    }
+
+    @Override
+    public Integer assignment(int line, Integer location, Integer value) {
+      return node(Kind.ASSIGNMENT, line, null, 0, location, value);
+    }
+
+    @Override
+    public Integer call(int line, Symbol callee, List<Integer> arguments) {
+      return node(Kind.CALL, line, callee, 0, arguments);
+    }
+
+    @Override
+    public Integer ifElseBranch(int line, Integer condition, Integer thenBlock,
+        Integer elseBlock) {
+      return node(Kind.IF_ELSE_BRANCH, line, null, 0, condition, thenBlock, elseBlock);
+    }
+
+    @Override
+    public Integer forLoop(int line, Integer init, Integer cond, Integer increment,
+        Integer body) {
+      return node(Kind.FOR, line, null, 0, init, cond, increment, body);
+    }
+
+    @Override
+    public Integer returnStatement(int line, Integer value) {
+      return node(Kind.RETURN, line, null, 0, value);
+    }
+
+    @Override
+    public Integer breakStatement(int line) {
+      return node(Kind.BREAK, line, null, 0);
+    }
+
+    @Override
+    public Integer opExpr(int line, Operation op, Integer left, Integer right) {
+      return right == null ? node(Kind.OP_EXPR, line, null, op.ordinal(), left)
+          : node(Kind.OP_EXPR, line, null, op.ordinal(), left, right);
+    }
+
+    @Override
+    public Integer varAccess(int line, Symbol symbol) {
+      return node(Kind.VAR_ACCESS, line, symbol, 0);
+    }
+
+    @Override
+    public Integer arrayAccess(int line, Symbol base, Integer index) {
+      return node(Kind.ARRAY_ACCESS, line, base, 0, index);
+    }
+
+    @Override
+    public Integer literalInt(int line, long value) {
+      return node(Kind.LITERAL_INT, line, null, value);
+    }
+
+    @Override
+    public Integer literalBool(int line, boolean value) {
+      return node(Kind.LITERAL_BOOL, line, null, value ? 1 : 0);
+    }
+  }
+
+  private int add(Node node, int[] children, int from, int count) {
+    Kind kind;
+    Symbol symbol = null;
+    long value = 0;
+    if (node instanceof ArrayAccess) {
+      kind = Kind.ARRAY_ACCESS;
+      symbol = ((ArrayAccess) node).getBase();
+    } else if (node instanceof ArrayDeclaration) {
+      kind = Kind.ARRAY_DECLARATION;
+      symbol = ((ArrayDeclaration) node).getSymbol();
+    } else if (node instanceof Assignment) {
+      kind = Kind.ASSIGNMENT;
+    } else if (node instanceof Break) {
+      kind = Kind.BREAK;
+    } else if (node instanceof Call) {
+      kind = Kind.CALL;
+      symbol = ((Call) node).getCallee();
+    } else if (node instanceof DeclarationList) {
+      kind = Kind.DECLARATION_LIST;
+    } else if (node instanceof For) {
+      kind = Kind.FOR;
+    } else if (node instanceof FunctionDefinition) {
+      kind = Kind.FUNCTION_DEFINITION;
+      var functionDefinition = (FunctionDefinition) node;
+      symbol = functionDefinition.getSymbol();
+      value = addParameters(functionDefinition.getParameters());
+    } else if (node instanceof IfElseBranch) {
+      kind = Kind.IF_ELSE_BRANCH;
+    } else if (node instanceof LiteralBool) {
+      kind = Kind.LITERAL_BOOL;
+      value = ((LiteralBool) node).getValue() ? 1 : 0;
+    } else if (node instanceof LiteralInt) {
+      kind = Kind.LITERAL_INT;
+      value = ((LiteralInt) node).getValue();
+    } else if (node instanceof OpExpr) {
+      kind = Kind.OP_EXPR;
+      value = ((OpExpr) node).getOp().ordinal();
+    } else if (node instanceof Return) {
+      kind = Kind.RETURN;
+    } else if (node instanceof StatementList) {
+      kind = Kind.STATEMENT_LIST;
+    } else if (node instanceof VarAccess) {
+      kind = Kind.VAR_ACCESS;
+      symbol = ((VarAccess) node).getSymbol();
+    } else if (node instanceof VariableDeclaration) {
+      kind = Kind.VARIABLE_DECLARATION;
+      symbol = ((VariableDeclaration) node).getSymbol();
+    } else {
+      throw new IllegalArgumentException("unknown AST node " + node.getClass().getName());
+    }
+    return append(kind, node.getPosition().line, ((BaseNode) node).getType(), symbol, value,
+        children, from, count);
+  }
+
+  /**
+   * Append a node whose children are children[from..from+count) and return its id.
+   */
+  private int append(Kind kind, int line, Type type, Symbol symbol, long value, int[] children,
+      int from, int count) {
+    if (size == kinds.length) {
+      grow(Math.max(size * 2, 64));
+    }
+    int id = size++;
+    kinds[id] = (byte) kind.ordinal();
+    lines[id] = line;
+    typeIds[id] = typeId(type);
+    symbolIds[id] = symbol == null ? NONE : symbolId(symbol);
+    values[id] = value;
+
+    if (childPoolSize + count > childPool.length) {
+      childPool = Arrays.copyOf(childPool, Math.max(childPool.length * 2, childPoolSize + count));
+    }
+    childStart[id] = childPoolSize;
+    System.arraycopy(children, from, childPool, childPoolSize, count);
+    childPoolSize += count;
+    return id;
+  }
+
+  /**
+   * Store parameters in paramPool and return their start and count as a node value.
+   */
+  private long addParameters(List<Symbol> parameters) {
+    long value = ((long) paramPoolSize << 32) | parameters.size();
+    for (Symbol parameter : parameters) {
+      if (paramPoolSize == paramPool.length) {
+        paramPool = Arrays.copyOf(paramPool, Math.max(paramPool.length * 2, 16));
+      }
+      paramPool[paramPoolSize++] = symbolId(parameter);
+    }
+    return value;
+  }
+
+  /**
+   * Shrink the arrays to the nodes they hold and drop the indexes of the side tables, once no
+   * more nodes are added. The indexes are rebuilt if {@link #setType} needs them.
+   */
+  void trimToSize() {
+    grow(size);
+    childPool = Arrays.copyOf(childPool, childPoolSize);
+    paramPool = Arrays.copyOf(paramPool, paramPoolSize);
+    symbolTable.trimToSize();
+    typeTable.trimToSize();
+    symbolIndex = null;
+    typeIndex = null;
+  }
+
+  private void grow(int capacity) {
+    kinds = Arrays.copyOf(kinds, capacity);
+    lines = Arrays.copyOf(lines, capacity);
+    typeIds = Arrays.copyOf(typeIds, capacity);
+    symbolIds = Arrays.copyOf(symbolIds, capacity);
+    values = Arrays.copyOf(values, capacity);
+    childStart = Arrays.copyOf(childStart, capacity);
+  }
+
+  private int symbolId(Symbol symbol) {
+    if (symbolIndex == null) {
+      symbolIndex = new IdentityHashMap<>();
+      for (int i = 0; i < symbolTable.size(); i++) {
+        symbolIndex.put(symbolTable.get(i), i);
+      }
+    }
+    return symbolIndex.computeIfAbsent(symbol, s -> {
+      symbolTable.add(s);
+      return symbolTable.size() - 1;
+    });
+  }
+
+  /**
+   * Types are canonical (see {@link crux.ast.types.TypeFactory}), so they are shared by identity.
+   */
+  private int typeId(Type type) {
+    if (type == null) {
+      return NONE;
+    }
+    if (typeIndex == null) {
+      typeIndex = new IdentityHashMap<>();
+      for (int i = 0; i < typeTable.size(); i++) {
+        typeIndex.put(typeTable.get(i), i);
+      }
+    }
+    return typeIndex.computeIfAbsent(type, k -> {
+      typeTable.add(type);
+      return typeTable.size() - 1;
+    });
+  }
+
+  /**
+   * Returns the number of nodes.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the id of the root, which is always the last node.
+   */
+  public int root() {
+    return size - 1;
+  }
+
+  public Kind kind(int id) {
+    return KINDS[kinds[id]];
+  }
+
+  public int line(int id) {
+    return lines[id];
+  }
+
+  public int numChildren(int id) {
+    return (id + 1 < size ? childStart[id + 1] : childPoolSize) - childStart[id];
+  }
+
+  /**
+   * Returns the id of child k of node id. Loops store init, cond, increment and body, the other
+   * kinds store their children in {@link Node#getChildren()} order.
+   */
+  public int child(int id, int k) {
+    return childPool[childStart[id] + k];
+  }
+
+  /**
+   * Returns the type of node id, or null if it has none.
+   */
+  public Type type(int id) {
+    return typeIds[id] == NONE ? null : typeTable.get(typeIds[id]);
+  }
+
+  /**
+   * Returns the symbol of a name, call, declaration or array access, or null for other kinds.
+   */
+  public Symbol symbol(int id) {
+    return symbolIds[id] == NONE ? null : symbolTable.get(symbolIds[id]);
+  }
+
+  public long intValue(int id) {
+    return values[id];
+  }
+
+  public boolean boolValue(int id) {
+    return values[id] != 0;
+  }
+
+  public Operation operation(int id) {
+    return OPERATIONS[(int) values[id]];
+  }
+
+  public List<Symbol> parameters(int id) {
+    int start = (int) (values[id] >>> 32);
+    int count = (int) values[id];
+    var parameters = new ArrayList<Symbol>(count);
+    for (int i = 0; i < count; i++) {
+      parameters.add(symbolTable.get(paramPool[start + i]));
+    }
+    return parameters;
+  }
+
+  /**
+   * Returns node id as an ordinary AST node. The subtree is built on first use and the same
+   * objects are returned until {@link #releaseViews()}.
+   */
+  public Node view(int id) {
+    if (views == null) {
+      views = new Node[size];
+    }
+    if (views[id] != null) {
+      return views[id];
+    }
+    int first = first(id);
+    var positions = new HashMap<Integer, Position>();
+    for (int i = first; i <= id; i++) {
+      if (views[i] == null) {
+        var position = positions.computeIfAbsent(lines[i], Position::new);
+        var node = build(i, position);
+        node.setType(type(i));
+        views[i] = node;
+      }
+    }
+    return views[id];
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Node> List<T> childViews(int id) {
+    int count = numChildren(id);
+    var children = new ArrayList<T>(count);
+    for (int k = 0; k < count; k++) {
+      children.add((T) views[child(id, k)]);
+    }
+    return children;
+  }
+
+  private Node childView(int id, int k) {
+    return views[child(id, k)];
+  }
+
+  private BaseNode build(int id, Position position) {
+    switch (kind(id)) {
+      case ARRAY_ACCESS:
+        return new ArrayAccess(position, symbol(id), (Expression) childView(id, 0));
+      case ARRAY_DECLARATION:
+        return new ArrayDeclaration(position, symbol(id));
+      case ASSIGNMENT:
+        return new Assignment(position, (Expression) childView(id, 0),
+            (Expression) childView(id, 1));
+      case BREAK:
+        return new Break(position);
+      case CALL:
+        return new Call(position, symbol(id), childViews(id));
+      case DECLARATION_LIST:
+        return new DeclarationList(position, childViews(id));
+      case FOR:
+        return new For(position, (Assignment) childView(id, 0), (Expression) childView(id, 1),
+            (Assignment) childView(id, 2), (StatementList) childView(id, 3));
+      case FUNCTION_DEFINITION:
+        return new FunctionDefinition(position, symbol(id), parameters(id),
+            (StatementList) childView(id, 0));
+      case IF_ELSE_BRANCH:
+        return new IfElseBranch(position, (Expression) childView(id, 0),
+            (StatementList) childView(id, 1), (StatementList) childView(id, 2));
+      case LITERAL_BOOL:
+        return new LiteralBool(position, boolValue(id));
+      case LITERAL_INT:
+        return new LiteralInt(position, intValue(id));
+      case OP_EXPR:
+        return new OpExpr(position, operation(id), (Expression) childView(id, 0),
+            numChildren(id) > 1 ? (Expression) childView(id, 1) : null);
+      case RETURN:
+        return new Return(position, (Expression) childView(id, 0));
+      case STATEMENT_LIST:
+        return new StatementList(position, childViews(id));
+      case VAR_ACCESS:
+        return new VarAccess(position, symbol(id));
+      case VARIABLE_DECLARATION:
+        return new VariableDeclaration(position, symbol(id));
+      default:
+        throw new IllegalStateException("unknown node kind " + kind(id));
+    }
+  }
+
+  /**
+   * Copy the types of all materialized nodes back into the encoding.
+   */
+  public void updateTypes() {
+    if (views == null) {
+      return;
+    }
+    for (int i = 0; i < size; i++) {
+      if (views[i] != null) {
+        typeIds[i] = typeId(((BaseNode) views[i]).getType());
+      }
+    }
+  }
+
+  /**
+   * Copy the types of the materialized subtree of node id back into the encoding and drop its
+   * nodes.
+   */
+  public void releaseView(int id) {
+    if (views == null) {
+      return;
+    }
+    for (int i = first(id); i <= id; i++) {
+      if (views[i] != null) {
+        typeIds[i] = typeId(((BaseNode) views[i]).getType());
+        views[i] = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the smallest id in the subtree of node id, its leftmost leaf.
+   */
+  private int first(int id) {
+    while (numChildren(id) > 0) {
+      id = child(id, 0);
+    }
+    return id;
+  }
+
+  /**
+   * Drop the materialized nodes so only the compact encoding stays reachable.
+   */
+  public void releaseViews() {
+    views = null;
+  }
+}
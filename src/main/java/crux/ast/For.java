@@ -48,7 +48,7 @@ public final class For extends BaseNode implements Statement, java.io.Serializab
   }
 
   @Override
-  public List<Node> getChildren() {
+  protected List<Node> childList() {
     return List.of(body);
   }
 
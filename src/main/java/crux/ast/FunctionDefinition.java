@@ -59,7 +59,7 @@ public final class FunctionDefinition extends BaseNode
   }
 
   @Override
-  public List<Node> getChildren() {
+  protected List<Node> childList() {
     return List.of(statements);
   }
 
@@ -41,7 +41,7 @@ public final class IfElseBranch extends BaseNode implements Statement, java.io.S
   }
 
   @Override
-  public List<Node> getChildren() {
+  protected List<Node> childList() {
     return List.of(condition, thenBlock, elseBlock);
   }
 
@@ -16,7 +16,7 @@ public abstract class ListNode<T extends Node> extends BaseNode implements java.
   }
 
   @Override
-  public List<Node> getChildren() {
+  protected List<Node> childList() {
     return List.copyOf(children);
   }
 }
@@ -56,7 +56,7 @@ public final class OpExpr extends BaseNode implements Expression, java.io.Serial
   }
 
   @Override
-  public List<Node> getChildren() {
+  protected List<Node> childList() {
     if (right != null)
       return List.of(left, right);
     else
@@ -9,6 +9,7 @@ import crux.ast.SymbolTable.Symbol;
 import org.antlr.v4.runtime.ParserRuleContext;
 
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -17,6 +18,9 @@ import java.util.stream.Collectors;
  * This class will convert the parse tree generated by ANTLR to AST It follows the visitor pattern
  * where decls will be by DeclVisitor Class Stmts will be resolved by StmtVisitor Class Exprs will
  * be resolved by ExprVisitor Class
+ * <p>
+ * The visitors create nodes through an {@link AstBuilder}, so the same lowering produces either
+ * {@link Node} objects or a {@link CompactAst}.
  */
 
 public final class ParseTreeLower {
@@ -25,6 +29,8 @@ public final class ParseTreeLower {
   private final ExprVisitor exprVisitor = new ExprVisitor();
 
   private final SymbolTable symTab;
+  /** Creates the nodes of the current {@link #lowerProgram}. */
+  private AstBuilder<Object> builder;
 
   public ParseTreeLower(PrintStream err) {
     symTab = new SymbolTable(err);
@@ -35,6 +41,10 @@ public final class ParseTreeLower {
     return new Position(start.getLine());
   }
 
+  private static int line(ParserRuleContext ctx) {
+    return ctx.start.getLine();
+  }
+
   /**
    *
    * @return True if any errors
@@ -51,16 +61,33 @@ public final class ParseTreeLower {
    */
 
   public DeclarationList lower(CruxParser.ProgramContext program) {
+    return (DeclarationList) lowerProgram(program, AstBuilder.Nodes.INSTANCE);
+  }
+
+  /**
+   * Lower top-level parse tree straight into a {@link CompactAst}, without creating AST nodes.
+   *
+   * @return the encoded AST, whose root is the declaration list.
+   */
+  public CompactAst lowerCompact(CruxParser.ProgramContext program) {
+    var ast = CompactAst.empty();
+    lowerProgram(program, ast.builder());
+    ast.trimToSize();
+    return ast;
+  }
 
-    List<Declaration> declarations = new ArrayList<>();
+  @SuppressWarnings("unchecked")
+  private Object lowerProgram(CruxParser.ProgramContext program, AstBuilder<?> nodes) {
+    builder = (AstBuilder<Object>) nodes;
+    List<Object> declarations = new ArrayList<>();
 
     CruxParser.DeclListContext declListContext =  program.declList();
     for(CruxParser.DeclContext declContext : declListContext.decl()){
-      Declaration declaration = declContext.accept(declVisitor) ;
+      Object declaration = declContext.accept(declVisitor) ;
       declarations.add(declaration);
     }
 
-    return new DeclarationList(makePosition(program), declarations);
+    return builder.declarationList(line(program), declarations);
   }
 
 
@@ -88,61 +115,61 @@ public final class ParseTreeLower {
   /**
    * A parse tree visitor to create AST nodes derived from {@link Declaration}
    */
-  private final class DeclVisitor extends CruxBaseVisitor<Declaration> {
+  private final class DeclVisitor extends CruxBaseVisitor<Object> {
     /**
      * Visit a parse tree var decl and create an AST {@link VarariableDeclaration}
      *
      * @return an AST {@link VariableDeclaration}
      */
 
-    public VariableDeclaration visitVarDecl(CruxParser.VarDeclContext ctx) {
+    public Object visitVarDecl(CruxParser.VarDeclContext ctx) {
       CruxParser.TypeContext t = ctx.type();
       Type type;
       if(t.getText().equals("bool")){
-        type = new BoolType();
+        type = TypeFactory.boolType();
       }else{
-        type = new IntType();
+        type = TypeFactory.intType();
       }
       Position position = makePosition(ctx);
       Symbol symbol = symTab.add(position, ctx.Identifier().getText(), type);
-      return new VariableDeclaration(position, symbol);
+      return builder.variableDeclaration(position.line, symbol);
     }
 
-    public Declaration visitArrayDecl(CruxParser.ArrayDeclContext ctx) {
+    public Object visitArrayDecl(CruxParser.ArrayDeclContext ctx) {
       CruxParser.TypeContext t = ctx.type();
       Type type;
       int size = Integer.parseInt(ctx.Integer().getText());
       if(t.getText().equals("bool")){
-        type = new ArrayType(size, new BoolType());
+        type = TypeFactory.arrayType(size, TypeFactory.boolType());
       }else{
-        type = new ArrayType(size, new IntType());
+        type = TypeFactory.arrayType(size, TypeFactory.intType());
       }
       Position position = makePosition(ctx);
       Symbol symbol = symTab.add(position, ctx.Identifier().getText(), type);
-      return new ArrayDeclaration(position, symbol);
+      return builder.arrayDeclaration(position.line, symbol);
     }
-    public Declaration visitFunctionDefn(CruxParser.FunctionDefnContext ctx) {
+    public Object visitFunctionDefn(CruxParser.FunctionDefnContext ctx) {
       CruxParser.TypeContext t = ctx.type();
       CruxParser.ParamListContext paramListContext = ctx.paramList();
       CruxParser.StmtBlockContext stmtBlockContext = ctx.stmtBlock();
       Type ret;
       if(t.getText().equals("bool")){
-        ret = new BoolType();
+        ret = TypeFactory.boolType();
       }else if(t.getText().equals("void")){
-        ret = new VoidType();
+        ret = TypeFactory.voidType();
       }else{
-        ret = new IntType();
+        ret = TypeFactory.intType();
       }
       List<Type> list = new ArrayList<>();
       for(CruxParser.ParamContext paramContext: paramListContext.param()){
         if(paramContext.type().getText().equals("bool")){
-          list.add(new BoolType());
+          list.add(TypeFactory.boolType());
         }else{
-          list.add(new IntType());
+          list.add(TypeFactory.intType());
         }
       }
-      TypeList args = new TypeList(list);
-      Type type = new FuncType(args, ret);
+      TypeList args = TypeFactory.typeList(list);
+      Type type = TypeFactory.funcType(args, ret);
 
       Position position = makePosition(ctx);
       Symbol symbol = symTab.add(position, ctx.Identifier().getText(), type);
@@ -152,22 +179,22 @@ public final class ParseTreeLower {
       symTab.enter();
       for(CruxParser.ParamContext paramContext: paramListContext.param()){
         if(paramContext.type().getText().equals("bool")){
-          parameters.add(symTab.add(makePosition(paramContext), paramContext.Identifier().getText(), new BoolType()));
+          parameters.add(symTab.add(makePosition(paramContext), paramContext.Identifier().getText(), TypeFactory.boolType()));
         }else{
-          parameters.add(symTab.add(makePosition(paramContext), paramContext.Identifier().getText(), new IntType()));
+          parameters.add(symTab.add(makePosition(paramContext), paramContext.Identifier().getText(), TypeFactory.intType()));
         }
       }
       //symTab.exit();
       CruxParser.StmtListContext stmtListContext = stmtBlockContext.stmtList();
 
-      List<Statement> statementList = new ArrayList<>();
+      List<Object> statementList = new ArrayList<>();
       for(CruxParser.StmtContext stmtContext : stmtListContext.stmt()){
-        Statement statement = stmtContext.accept(stmtVisitor);
+        Object statement = stmtContext.accept(stmtVisitor);
         statementList.add(statement);
       }
-      StatementList statements = new StatementList(makePosition(stmtListContext), statementList);
+      Object statements = builder.statementList(line(stmtListContext), statementList);
       symTab.exit();
-      return new FunctionDefinition(position, symbol, parameters, statements);
+      return builder.functionDefinition(position.line, symbol, parameters, statements);
     }
 
   }
@@ -177,7 +204,7 @@ public final class ParseTreeLower {
    * A parse tree visitor to create AST nodes derived from {@link Stmt}
    */
 
-  private final class StmtVisitor extends CruxBaseVisitor<Statement> {
+  private final class StmtVisitor extends CruxBaseVisitor<Object> {
     /**
      * Visit a parse tree var decl and create an AST {@link VariableDeclaration}. Since
      * {@link VariableDeclaration} is both {@link Declaration} and {@link Statement}, we simply
@@ -186,7 +213,7 @@ public final class ParseTreeLower {
      *
      * @return an AST {@link VariableDeclaration}
      */
-    public Statement visitVarDecl(CruxParser.VarDeclContext ctx) {
+    public Object visitVarDecl(CruxParser.VarDeclContext ctx) {
       return declVisitor.visitVarDecl(ctx);
     }
 
@@ -197,14 +224,13 @@ public final class ParseTreeLower {
      * @return an AST {@link Assignment}
      */
 
-    public Statement visitAssignStmt(CruxParser.AssignStmtContext ctx) {
+    public Object visitAssignStmt(CruxParser.AssignStmtContext ctx) {
       CruxParser.DesignatorContext designatorContext = ctx.designator();
       CruxParser.Expr0Context expr0Context = ctx.expr0();
 
-      Position position = makePosition(ctx);
-      Expression location = designatorContext.accept(exprVisitor);
-      Expression value = expr0Context.accept(exprVisitor);
-      return new Assignment(position, location, value);
+      Object location = designatorContext.accept(exprVisitor);
+      Object value = expr0Context.accept(exprVisitor);
+      return builder.assignment(line(ctx), location, value);
     }
 
     
@@ -213,14 +239,13 @@ public final class ParseTreeLower {
      *
      * @return an AST {@link Assignment}
      */
-    public Statement visitAssignStmtNoSemi(CruxParser.AssignStmtNoSemiContext ctx) {
+    public Object visitAssignStmtNoSemi(CruxParser.AssignStmtNoSemiContext ctx) {
       CruxParser.DesignatorContext designatorContext = ctx.designator();
       CruxParser.Expr0Context expr0Context = ctx.expr0();
 
-      Position position = makePosition(ctx);
-      Expression location = designatorContext.accept(exprVisitor);
-      Expression value = expr0Context.accept(exprVisitor);
-      return new Assignment(position, location, value);
+      Object location = designatorContext.accept(exprVisitor);
+      Object value = expr0Context.accept(exprVisitor);
+      return builder.assignment(line(ctx), location, value);
     }
 
 
@@ -232,91 +257,142 @@ public final class ParseTreeLower {
      * @return an AST {@link Call}
      */
 
-    public Statement visitCallStmt(CruxParser.CallStmtContext ctx) {
+    public Object visitCallStmt(CruxParser.CallStmtContext ctx) {
       return exprVisitor.visitCallExpr(ctx.callExpr());
     }
 
     
     /**
-     * Visit a parse tree if-else branch and create an AST {@link IfElseBranch}. The template code
-     * shows partial implementations that visit the then block and else block recursively before
-     * using those returned AST nodes to construct {@link IfElseBranch} object.
+     * Visit a parse tree if-else branch and create an AST {@link IfElseBranch}. Each block is
+     * lowered in a scope of its own, and a missing else block becomes an empty one. Nested blocks
+     * are lowered by {@link #lower(ParserRuleContext)}.
      *
      * @return an AST {@link IfElseBranch}
      */
-    public Statement visitIfStmt(CruxParser.IfStmtContext ctx) {
+    public Object visitIfStmt(CruxParser.IfStmtContext ctx) {
+      return lower(ctx);
+    }
 
-      CruxParser.Expr0Context expr0Context = ctx.expr0();
-      List<CruxParser.StmtBlockContext> stmtBlockContexts = ctx.stmtBlock();
+    /**
+     * Visit a parse tree for loop and create an AST {@link For}. The header and the body share
+     * one scope.
+     *
+     * @return an AST {@link For}
+     */
+    public Object visitForStmt(CruxParser.ForStmtContext ctx) {
+      return lower(ctx);
+    }
 
-      Position position = makePosition(ctx);
+    /**
+     * An if or for statement whose blocks are being lowered.
+     */
+    private final class Frame {
+      final ParserRuleContext ctx;
+      final int line;
+      /** The blocks to lower, with null for the missing else block of an if. */
+      final List<CruxParser.StmtBlockContext> blocks = new ArrayList<>();
+      final List<Object> lowered = new ArrayList<>();
+      /** The statements of the block being lowered, or null between blocks. */
+      List<Object> statements;
+      int next;
+      Object condition;
+      Object init;
+      Object increment;
+
+      Frame(ParserRuleContext ctx) {
+        this.ctx = ctx;
+        line = line(ctx);
+      }
 
-      Expression condition = exprVisitor.visitExpr0(expr0Context);
-      List<Statement> then_statement_list = new ArrayList<>();
-      List<Statement> else_statement_list = new ArrayList<>();
-
-//      for(CruxParser.StmtContext stmtContext : stmtBlockContexts.get(0).stmtList().stmt()){
-//        then_statement_list.add(stmtContext.accept(stmtVisitor));
-//      }
-//
-//      for(CruxParser.StmtContext stmtContext : stmtBlockContexts.get(1).stmtList().stmt()){
-//        else_statement_list.add(stmtContext.accept(stmtVisitor));
-//      }
-//
-//      StatementList thenBlock = new StatementList(makePosition(stmtBlockContexts.get(0)), then_statement_list);
-//      StatementList elseBlock = new StatementList(makePosition(stmtBlockContexts.get(1)), else_statement_list);
-//
-//      return new IfElseBranch(position, condition, thenBlock, elseBlock);
-      symTab.enter();
-      for(CruxParser.StmtContext stmtContext : stmtBlockContexts.get(0).stmtList().stmt()){
-        then_statement_list.add(stmtContext.accept(stmtVisitor));
+      boolean isIf() {
+        return ctx instanceof CruxParser.IfStmtContext;
       }
-      StatementList thenBlock = new StatementList(makePosition(stmtBlockContexts.get(0)), then_statement_list);
-      symTab.exit();
-      //StatementList elseBlock = null;
-      StatementList elseBlock = new StatementList(makePosition(stmtBlockContexts.get(0)), new ArrayList<>());
-      symTab.enter();
-      if(stmtBlockContexts.size() > 1){
-        for(CruxParser.StmtContext stmtContext : stmtBlockContexts.get(1).stmtList().stmt()){
-          else_statement_list.add(stmtContext.accept(stmtVisitor));
+    }
+
+    /**
+     * Lower the if or for statement root. Blocks nest one parse tree level per statement, so
+     * nested if and for statements are kept on an explicit stack instead of recursing.
+     */
+    private Object lower(ParserRuleContext root) {
+      var stack = new ArrayDeque<Frame>();
+      stack.push(open(root));
+      while (true) {
+        var frame = stack.peek();
+        if (frame.statements == null) {
+          if (frame.lowered.size() < frame.blocks.size()) {
+            if (frame.isIf()) {
+              symTab.enter();
+            }
+            frame.statements = new ArrayList<>();
+            frame.next = 0;
+            continue;
+          }
+          stack.pop();
+          var statement = build(frame);
+          if (stack.isEmpty()) {
+            return statement;
+          }
+          stack.peek().statements.add(statement);
+          continue;
+        }
+        var block = frame.blocks.get(frame.lowered.size());
+        List<CruxParser.StmtContext> stmts = block == null ? List.of() : block.stmtList().stmt();
+        if (frame.next < stmts.size()) {
+          var stmt = stmts.get(frame.next++);
+          if (stmt.ifStmt() != null) {
+            stack.push(open(stmt.ifStmt()));
+          } else if (stmt.forStmt() != null) {
+            stack.push(open(stmt.forStmt()));
+          } else {
+            frame.statements.add(stmt.accept(this));
+          }
+          continue;
+        }
+        var where = block == null ? frame.blocks.get(0) : block;
+        frame.lowered.add(builder.statementList(line(where), frame.statements));
+        frame.statements = null;
+        if (frame.isIf()) {
+          symTab.exit();
         }
-        elseBlock = new StatementList(makePosition(stmtBlockContexts.get(1)), else_statement_list);
       }
-      symTab.exit();
-      return new IfElseBranch(position, condition, thenBlock, elseBlock);
     }
 
-     
-    
     /**
-     * Visit a parse tree for loop and create an AST {@link For}. You'll going to use a similar
-     * techniques as {@link #visitIfStmt(CruxParser.IfStmtContext)} to decompose this construction.
-     *
-     * @return an AST {@link Loop}
+     * Returns a frame for ctx with its condition, and for a loop its header, already lowered.
      */
-    public Statement visitForStmt(CruxParser.ForStmtContext ctx) {
-      symTab.enter();
-      CruxParser.AssignStmtContext assignStmtContext = ctx.assignStmt();
-      CruxParser.Expr0Context expr0Context = ctx.expr0();
-      CruxParser.AssignStmtNoSemiContext assignStmtNoSemiContext = ctx.assignStmtNoSemi();
-      CruxParser.StmtBlockContext stmtBlockContext = ctx.stmtBlock();
-
-      Position position = makePosition(ctx);
-      Assignment init = (Assignment)assignStmtContext.accept(stmtVisitor);
-      Expression cond = expr0Context.accept(exprVisitor);
-      Assignment increment = (Assignment)assignStmtNoSemiContext.accept(stmtVisitor);
+    private Frame open(ParserRuleContext ctx) {
+      var frame = new Frame(ctx);
+      if (frame.isIf()) {
+        var ifStmt = (CruxParser.IfStmtContext) ctx;
+        frame.condition = exprVisitor.visitExpr0(ifStmt.expr0());
+        frame.blocks.addAll(ifStmt.stmtBlock());
+        if (frame.blocks.size() < 2) {
+          frame.blocks.add(null);
+        }
+      } else {
+        var forStmt = (CruxParser.ForStmtContext) ctx;
+        symTab.enter();
+        frame.init = forStmt.assignStmt().accept(this);
+        frame.condition = forStmt.expr0().accept(exprVisitor);
+        frame.increment = forStmt.assignStmtNoSemi().accept(this);
+        frame.blocks.add(forStmt.stmtBlock());
+      }
+      return frame;
+    }
 
-      List<Statement> statements = new ArrayList<>();
-      for(CruxParser.StmtContext stmtContext : stmtBlockContext.stmtList().stmt()){
-        statements.add(stmtContext.accept(stmtVisitor));
+    /**
+     * Create the AST node for a frame whose blocks have all been lowered.
+     */
+    private Object build(Frame frame) {
+      if (frame.isIf()) {
+        return builder.ifElseBranch(frame.line, frame.condition, frame.lowered.get(0),
+            frame.lowered.get(1));
       }
-      StatementList body = new StatementList(makePosition(stmtBlockContext), statements);
       symTab.exit();
-      return new For(position, init, cond, increment, body);
+      return builder.forLoop(frame.line, frame.init, frame.condition, frame.increment,
+          frame.lowered.get(0));
     }
 
-     
-
     /**
      * Visit a parse tree return stmt and create an AST {@link Return}. Here we show a simple
      * example of how to lower a simple parse tree construction.
@@ -324,11 +400,10 @@ public final class ParseTreeLower {
      * @return an AST {@link Return}
      */
 
-    public Statement visitReturnStmt(CruxParser.ReturnStmtContext ctx) {
+    public Object visitReturnStmt(CruxParser.ReturnStmtContext ctx) {
       CruxParser.Expr0Context expr0Context = ctx.expr0();
-      Expression value = expr0Context.accept(exprVisitor);
-      Position position = makePosition(ctx);
-      return new Return(position, value);
+      Object value = expr0Context.accept(exprVisitor);
+      return builder.returnStatement(line(ctx), value);
     }
 
      
@@ -337,27 +412,142 @@ public final class ParseTreeLower {
      * Creates a Break node
      */
 
-    public Statement visitBreakStmt(CruxParser.BreakStmtContext ctx) {
-      Position position = makePosition(ctx);
-      return new Break(position);
+    public Object visitBreakStmt(CruxParser.BreakStmtContext ctx) {
+      return builder.breakStatement(line(ctx));
     }
 
     
   }
 
-  //'>=' | '<=' | '!=' | '==' | '>' | '<'
-  private final class ExprVisitor extends CruxBaseVisitor<Expression> {
+  /**
+   * A parse tree visitor to create AST nodes derived from {@link Expression}. Operator chains like
+   * a + b + c nest one parse tree level per operator, so all visit methods hand the expression to
+   * {@link #lower(ParserRuleContext)}, which walks it with an explicit stack instead of recursing.
+   */
+  private final class ExprVisitor extends CruxBaseVisitor<Object> {
     /**
-     * Parse Expr0 to OpExpr Node Parsing the expr should be exactly as described in the grammer
+     * A parse tree node whose operands are being lowered.
      */
-    public Expression visitExpr0(CruxParser.Expr0Context ctx) {
-      List<CruxParser.Expr1Context> expr1ContextList = ctx.expr1();
-      CruxParser.Op0Context op0Context = ctx.op0();
-      if(op0Context == null){
-        return expr1ContextList.get(0).accept(exprVisitor);
-      }else{
-        Expression left = expr1ContextList.get(0).accept(exprVisitor);
-        Expression right = expr1ContextList.get(1).accept(exprVisitor);
+    private final class Frame {
+      final ParserRuleContext ctx;
+      final List<ParserRuleContext> operands;
+      final List<Object> values = new ArrayList<>();
+      final Symbol symbol;
+
+      Frame(ParserRuleContext ctx, List<? extends ParserRuleContext> operands, Symbol symbol) {
+        this.ctx = ctx;
+        this.operands = List.copyOf(operands);
+        this.symbol = symbol;
+      }
+    }
+
+    public Object visitExpr0(CruxParser.Expr0Context ctx) {
+      return lower(ctx);
+    }
+
+    public Object visitExpr1(CruxParser.Expr1Context ctx) {
+      return lower(ctx);
+    }
+
+    public Object visitExpr2(CruxParser.Expr2Context ctx) {
+      return lower(ctx);
+    }
+
+    @Override
+    public Object visitExpr3(CruxParser.Expr3Context ctx) {
+      return lower(ctx);
+    }
+
+    @Override
+    public Object visitCallExpr(CruxParser.CallExprContext ctx) {
+      return lower(ctx);
+    }
+
+    @Override
+    public Object visitDesignator(CruxParser.DesignatorContext ctx) {
+      return lower(ctx);
+    }
+
+    @Override
+    public Object visitLiteral(CruxParser.LiteralContext ctx) {
+      return lower(ctx);
+    }
+
+    /**
+     * Lower the expression rooted at ctx. Operands are lowered left to right, and names are
+     * looked up before their operands, so errors are reported in source order.
+     */
+    private Object lower(ParserRuleContext root) {
+      var stack = new ArrayDeque<Frame>();
+      stack.push(open(root));
+      while (true) {
+        var frame = stack.peek();
+        if (frame.values.size() < frame.operands.size()) {
+          stack.push(open(frame.operands.get(frame.values.size())));
+          continue;
+        }
+        stack.pop();
+        var value = build(frame);
+        if (stack.isEmpty()) {
+          return value;
+        }
+        stack.peek().values.add(value);
+      }
+    }
+
+    /**
+     * Returns a frame with the operands of ctx that have to be lowered before ctx itself.
+     */
+    private Frame open(ParserRuleContext ctx) {
+      if (ctx instanceof CruxParser.Expr0Context) {
+        return new Frame(ctx, ((CruxParser.Expr0Context) ctx).expr1(), null);
+      } else if (ctx instanceof CruxParser.Expr1Context) {
+        var expr1 = (CruxParser.Expr1Context) ctx;
+        return new Frame(ctx, expr1.op1() == null ? List.of(expr1.expr2())
+            : List.of(expr1.expr1(), expr1.expr2()), null);
+      } else if (ctx instanceof CruxParser.Expr2Context) {
+        var expr2 = (CruxParser.Expr2Context) ctx;
+        return new Frame(ctx, expr2.op2() == null ? List.of(expr2.expr3())
+            : List.of(expr2.expr2(), expr2.expr3()), null);
+      } else if (ctx instanceof CruxParser.Expr3Context) {
+        var expr3 = (CruxParser.Expr3Context) ctx;
+        ParserRuleContext operand;
+        if (expr3.expr3() != null) {
+          operand = expr3.expr3();
+        } else if (expr3.expr0() != null) {
+          operand = expr3.expr0();
+        } else if (expr3.designator() != null) {
+          operand = expr3.designator();
+        } else if (expr3.callExpr() != null) {
+          operand = expr3.callExpr();
+        } else {
+          operand = expr3.literal();
+        }
+        return new Frame(ctx, List.of(operand), null);
+      } else if (ctx instanceof CruxParser.DesignatorContext) {
+        var designator = (CruxParser.DesignatorContext) ctx;
+        Symbol symbol = symTab.lookup(makePosition(ctx), designator.Identifier().getText());
+        return new Frame(ctx,
+            designator.expr0() == null ? List.of() : List.of(designator.expr0()), symbol);
+      } else if (ctx instanceof CruxParser.CallExprContext) {
+        var callExpr = (CruxParser.CallExprContext) ctx;
+        Symbol callee = symTab.lookup(makePosition(ctx), callExpr.Identifier().getText());
+        return new Frame(ctx, callExpr.exprList().expr0(), callee);
+      }
+      return new Frame(ctx, List.of(), null);
+    }
+
+    /**
+     * Create the AST node for a frame whose operands have all been lowered.
+     */
+    private Object build(Frame frame) {
+      var ctx = frame.ctx;
+      var values = frame.values;
+      if (ctx instanceof CruxParser.Expr0Context) {
+        CruxParser.Op0Context op0Context = ((CruxParser.Expr0Context) ctx).op0();
+        if (op0Context == null) {
+          return values.get(0);
+        }
         Operation op = Operation.GE;
         switch (op0Context.getText()){
           case ">=":
@@ -378,23 +568,12 @@ public final class ParseTreeLower {
           case "<":
             op = Operation.LT;
         }
-        return new OpExpr(makePosition(ctx), op, left, right);
-      }
-    }
-
-    /** '+' | '-' | '||' ;
-     * Parse Expr1 to OpExpr Node Parsing the expr should be exactly as described in the grammer
-     */
-    public Expression visitExpr1(CruxParser.Expr1Context ctx) {
-      CruxParser.Expr2Context expr2Context = ctx.expr2();
-      CruxParser.Expr1Context expr1Context = ctx.expr1();
-      CruxParser.Op1Context op1Context = ctx.op1();
-
-      if(op1Context == null){
-        return expr2Context.accept(exprVisitor);
-      }else{
-        Expression left = expr1Context.accept(exprVisitor);
-        Expression right = expr2Context.accept(exprVisitor);
+        return builder.opExpr(line(ctx), op, values.get(0), values.get(1));
+      } else if (ctx instanceof CruxParser.Expr1Context) {
+        CruxParser.Op1Context op1Context = ((CruxParser.Expr1Context) ctx).op1();
+        if (op1Context == null) {
+          return values.get(0);
+        }
         Operation op = Operation.MULT;
         switch (op1Context.getText()){
           case "+":
@@ -407,24 +586,12 @@ public final class ParseTreeLower {
             op = Operation.LOGIC_OR;
             break;
         }
-        return new OpExpr(makePosition(ctx), op, left, right);
-      }
-    }
-
-
-    /** op2 : '*' | '/' | '&&' ;
-     * Parse Expr2 to OpExpr Node Parsing the expr should be exactly as described in the grammer
-     */
-    public Expression visitExpr2(CruxParser.Expr2Context ctx) {
-      CruxParser.Expr3Context expr3Context = ctx.expr3();
-      CruxParser.Expr2Context expr2Context = ctx.expr2();
-      CruxParser.Op2Context op2Context = ctx.op2();
-
-      if(op2Context == null){
-        return expr3Context.accept(exprVisitor);
-      }else{
-        Expression left = expr2Context.accept(exprVisitor);
-        Expression right = expr3Context.accept(exprVisitor);
+        return builder.opExpr(line(ctx), op, values.get(0), values.get(1));
+      } else if (ctx instanceof CruxParser.Expr2Context) {
+        CruxParser.Op2Context op2Context = ((CruxParser.Expr2Context) ctx).op2();
+        if (op2Context == null) {
+          return values.get(0);
+        }
         Operation op = Operation.MULT;
         switch (op2Context.getText()){
           case "*":
@@ -437,84 +604,26 @@ public final class ParseTreeLower {
             op = Operation.LOGIC_AND;
             break;
         }
-        return new OpExpr(makePosition(ctx), op, left, right);
+        return builder.opExpr(line(ctx), op, values.get(0), values.get(1));
+      } else if (ctx instanceof CruxParser.Expr3Context) {
+        if (((CruxParser.Expr3Context) ctx).expr3() != null) {
+          return builder.opExpr(line(ctx), Operation.LOGIC_NOT, values.get(0), null);
+        }
+        return values.get(0);
+      } else if (ctx instanceof CruxParser.DesignatorContext) {
+        if (values.isEmpty()) {
+          return builder.varAccess(line(ctx), frame.symbol);
+        }
+        return builder.arrayAccess(line(ctx), frame.symbol, values.get(0));
+      } else if (ctx instanceof CruxParser.CallExprContext) {
+        return builder.call(line(ctx), frame.symbol, values);
+      }
+      var literal = (CruxParser.LiteralContext) ctx;
+      if(literal.Integer() != null){
+        return builder.literalInt(line(literal), Long.parseLong(literal.Integer().getText()));
+      }else{
+        return builder.literalBool(line(literal), literal.True() != null);
       }
     }
-
-
-    /**
-     * Parse Expr3 to OpExpr Node Parsing the expr should be exactly as described in the grammer
-     */
-     @Override
-     public Expression visitExpr3(CruxParser.Expr3Context ctx) {
-       CruxParser.Expr3Context expr3Context = ctx.expr3();
-       CruxParser.Expr0Context expr0Context = ctx.expr0();
-       CruxParser.DesignatorContext designatorContext = ctx.designator();
-       CruxParser.CallExprContext callExprContext = ctx.callExpr();
-       CruxParser.LiteralContext literalContext = ctx.literal();
-       if(expr3Context != null){
-         //return expr3Context.accept(exprVisitor);
-         Expression expression = expr3Context.accept(exprVisitor);
-         Operation operation = Operation.LOGIC_NOT;
-         return new OpExpr(makePosition(ctx), operation, expression, null);
-       }else if(expr0Context != null){
-         return expr0Context.accept(exprVisitor);
-       }else if(designatorContext != null){
-         return designatorContext.accept(exprVisitor);
-       }else if(callExprContext != null){
-         return callExprContext.accept(exprVisitor);
-       }else{
-         return literalContext.accept(exprVisitor);
-       }
-     }
-
-    /**
-     * Create an Call Node
-     */
-     @Override
-     public Call visitCallExpr(CruxParser.CallExprContext ctx) {
-       Position position = makePosition(ctx);
-       Symbol callee = symTab.lookup(makePosition(ctx), ctx.Identifier().getText());
-       CruxParser.ExprListContext exprListContext = ctx.exprList();
-       List<Expression> arguments = new ArrayList<>();
-       for(CruxParser.Expr0Context expr0Context : exprListContext.expr0()){
-         arguments.add(expr0Context.accept(exprVisitor));
-       }
-       return new Call(position, callee, arguments);
-     }
-
-    /**
-     * visitDesignator will check for a name or ArrayAccess FYI it should account for the case when
-     * the designator was dereferenced
-     */
-     @Override
-     public Expression visitDesignator(CruxParser.DesignatorContext ctx) {
-
-       CruxParser.Expr0Context expr0Context = ctx.expr0();
-       Symbol symbol = symTab.lookup(makePosition(ctx), ctx.Identifier().getText());
-       if(expr0Context == null){
-         return new VarAccess(makePosition(ctx), symbol);
-       }else{
-         Expression expression = expr0Context.accept(exprVisitor);
-         return new ArrayAccess(makePosition(ctx), symbol, expression);
-       }
-     }
-
-    /**
-     * Create an Literal Node
-     */
-     @Override
-     public Expression visitLiteral(CruxParser.LiteralContext ctx) {
-       Position position = makePosition(ctx);
-       if(ctx.Integer() != null){
-         return new LiteralInt(position, Long.parseLong(ctx.Integer().getText()));
-       }else{
-         if(ctx.True() != null){
-           return new LiteralBool(position, true);
-         }else{
-           return new LiteralBool(position, false);
-         }
-       }
-     }
   }
 }
@@ -26,7 +26,7 @@ public final class Return extends BaseNode implements Statement, java.io.Seriali
   }
 
   @Override
-  public List<Node> getChildren() {
+  protected List<Node> childList() {
     return List.of(value);
   }
 
@@ -6,7 +6,6 @@ import crux.ast.types.*;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -88,13 +87,13 @@ public final class SymbolTable {
     //TODO
     //Add the built in function names
     Map<String, Symbol> globalScope = new HashMap<>();
-    //globalScope.put("main", new Symbol("main", new FuncType(new TypeList(), new VoidType())));
-    globalScope.put("readInt", new Symbol("readInt", new FuncType(new TypeList(), new IntType())));
-    globalScope.put("readChar", new Symbol("readChar", new FuncType(new TypeList(), new IntType())));
-    globalScope.put("printBool", new Symbol("printBool", new FuncType(new TypeList(new ArrayList<>(Arrays.asList(new BoolType()))), new VoidType())));
-    globalScope.put("printInt", new Symbol("printInt", new FuncType(new TypeList(new ArrayList<>(Arrays.asList(new IntType()))), new VoidType())));
-    globalScope.put("printChar", new Symbol("printChar", new FuncType(new TypeList(new ArrayList<>(Arrays.asList(new IntType()))), new VoidType())));
-    globalScope.put("println", new Symbol("println", new FuncType(new TypeList(), new VoidType())));
+    //globalScope.put("main", new Symbol("main", TypeFactory.funcType(TypeList.of(), TypeFactory.voidType())));
+    globalScope.put("readInt", new Symbol("readInt", TypeFactory.funcType(TypeList.of(), TypeFactory.intType())));
+    globalScope.put("readChar", new Symbol("readChar", TypeFactory.funcType(TypeList.of(), TypeFactory.intType())));
+    globalScope.put("printBool", new Symbol("printBool", TypeFactory.funcType(TypeList.of(TypeFactory.boolType()), TypeFactory.voidType())));
+    globalScope.put("printInt", new Symbol("printInt", TypeFactory.funcType(TypeList.of(TypeFactory.intType()), TypeFactory.voidType())));
+    globalScope.put("printChar", new Symbol("printChar", TypeFactory.funcType(TypeList.of(TypeFactory.intType()), TypeFactory.voidType())));
+    globalScope.put("println", new Symbol("println", TypeFactory.funcType(TypeList.of(), TypeFactory.voidType())));
     //Add the global scope containing inbuilt functions
     symbolScopes.add(globalScope);
     currScopeIndex++;
@@ -163,17 +162,12 @@ public final class SymbolTable {
    */
   private Symbol find(String name) {
     //will return null if no symbol found
-    return findByIndex(name, currScopeIndex);
-  }
-  private Symbol findByIndex(String name, int index){
-    //If did not find till global scope, then no symbol exists
-    if(index == -1) return null;
-    if(symbolScopes.get(index).containsKey(name)){
-      return symbolScopes.get(index).get(name);
-    }else{
-      index--;
-      Symbol symbol = findByIndex(name, index);
-      return symbol;
+    for (int index = currScopeIndex; index >= 0; index--) {
+      Symbol symbol = symbolScopes.get(index).get(name);
+      if (symbol != null) {
+        return symbol;
+      }
     }
+    return null;
   }
 }
@@ -0,0 +1,112 @@
+package crux.ast.traversal;
+
+import crux.ast.Node;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link NodeVisitor} that is driven by an explicit stack instead of the Java call stack, so the
+ * depth of the AST it can handle is bounded by the heap rather than by -Xss.
+ * <p>
+ * {@link #traverse(Node)} walks the tree in post-order. The visit methods are called once all
+ * children of a node have been visited, and read the children's results through
+ * {@link #childResult(int)} instead of calling accept on them. Subclasses can change which
+ * children are visited and in what order with {@link #children(Node)}, act before the children
+ * with {@link #preVisit(Node)}, and act between children with {@link #postChild(Node, int, Object)}.
+ */
+public abstract class IterativeNodeVisitor<T> implements NodeVisitor<T> {
+  private static final class Frame<T> {
+    final Node node;
+    final List<? extends Node> children;
+    final List<T> results;
+    int next = 0;
+
+    Frame(Node node, List<? extends Node> children) {
+      this.node = node;
+      this.children = children;
+      this.results = new ArrayList<>(children.size());
+    }
+  }
+
+  private Frame<T> current;
+
+  /**
+   * Called before the children of node are visited. Returning false skips the children and the
+   * visit method of node; its result is then null.
+   */
+  protected boolean preVisit(Node node) {
+    return true;
+  }
+
+  /**
+   * Returns the children of node in the order they are visited. Defaults to
+   * {@link Node#getChildren()}.
+   */
+  protected List<? extends Node> children(Node node) {
+    return node.getChildren();
+  }
+
+  /**
+   * Called after the child at index of node has been visited, before the next child.
+   * {@link #childResult(int)} and {@link #numChildren()} refer to node while it runs.
+   */
+  protected void postChild(Node node, int index, T result) {}
+
+  /**
+   * Returns the result of the child at index of the node whose visit method is running.
+   */
+  protected final T childResult(int index) {
+    return current.results.get(index);
+  }
+
+  /**
+   * Returns the number of children, as returned by {@link #children(Node)}, of the node whose
+   * visit method is running.
+   */
+  protected final int numChildren() {
+    return current.children.size();
+  }
+
+  /**
+   * Visit root and all nodes below it and return the result of root's visit method.
+   */
+  public final T traverse(Node root) {
+    if (!preVisit(root)) {
+      return null;
+    }
+    var stack = new ArrayDeque<Frame<T>>();
+    stack.push(new Frame<>(root, children(root)));
+    while (true) {
+      var frame = stack.peek();
+      if (frame.next < frame.children.size()) {
+        var child = frame.children.get(frame.next);
+        if (preVisit(child)) {
+          stack.push(new Frame<>(child, children(child)));
+        } else {
+          finishChild(frame, null);
+        }
+        continue;
+      }
+      stack.pop();
+      var saved = current;
+      current = frame;
+      T result = frame.node.accept(this);
+      current = saved;
+      if (stack.isEmpty()) {
+        return result;
+      }
+      finishChild(stack.peek(), result);
+    }
+  }
+
+  private void finishChild(Frame<T> frame, T result) {
+    frame.results.add(result);
+    var saved = current;
+    current = frame;
+    postChild(frame.node, frame.next, result);
+    current = saved;
+    frame.next++;
+  }
+}
@@ -10,7 +10,7 @@ public final class ArrayType extends Type implements java.io.Serializable {
   private final Type base;
   private final long extent;
 
-  public ArrayType(long extent, Type base) {
+  ArrayType(long extent, Type base) {
     this.extent = extent;
     this.base = base;
   }
@@ -38,9 +38,10 @@ public final class ArrayType extends Type implements java.io.Serializable {
 
   @Override
   public boolean equivalent(Type that) {
-    if(!(that instanceof ArrayType)) return false;
-    ArrayType given = (ArrayType) that;
-    if((this.base.equivalent(given.base)) && (given.extent == this.extent)) return true;
-    return false;
+    return this == that;
+  }
+
+  private Object readResolve() {
+    return TypeFactory.intern(this);
   }
 }
@@ -7,6 +7,8 @@ package crux.ast.types;
 public final class BoolType extends Type implements java.io.Serializable {
   static final long serialVersionUID = 12022L;
 
+  BoolType() {}
+
   @Override
   public String toString() {
     return "bool";
@@ -14,43 +16,46 @@ public final class BoolType extends Type implements java.io.Serializable {
 
   @Override
   Type or(Type that){
-    if(that.equivalent(new BoolType())){
-      return new BoolType();
+    if(that.equivalent(TypeFactory.boolType())){
+      return TypeFactory.boolType();
     }
     return super.or(that);
   }
 
   @Override
   Type not(){
-    return new BoolType();
+    return TypeFactory.boolType();
   }
 
   @Override
   Type and(Type that) {
-    if(that.equivalent(new BoolType())){
-      return new BoolType();
+    if(that.equivalent(TypeFactory.boolType())){
+      return TypeFactory.boolType();
     }
     return super.and(that);
   }
 
   @Override
   Type assign(Type that){
-    if(that.equivalent(new BoolType())){
-      return new BoolType();
+    if(that.equivalent(TypeFactory.boolType())){
+      return TypeFactory.boolType();
     }
     return super.assign(that);
   }
   @Override
   Type compare(Type that){
-    if(that.equivalent(new BoolType())){
-      return new BoolType();
+    if(that.equivalent(TypeFactory.boolType())){
+      return TypeFactory.boolType();
     }
     return super.compare(that);
   }
 
   @Override
   public boolean equivalent(Type that) {
-    if(that instanceof BoolType) return true;
-    return false;
+    return this == that;
+  }
+
+  private Object readResolve() {
+    return TypeFactory.intern(this);
   }
 }
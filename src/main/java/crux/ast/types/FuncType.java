@@ -1,7 +1,5 @@
 package crux.ast.types;
 
-import java.util.Iterator;
-
 /**
  * The field args is a TypeList with a type for each param. The type ret is the type of the function
  * return. The function return could be int, bool, or void. This class should implement the call
@@ -10,10 +8,10 @@ import java.util.Iterator;
 public final class FuncType extends Type implements java.io.Serializable {
   static final long serialVersionUID = 12022L;
 
-  private TypeList args;
-  private Type ret;
+  private final TypeList args;
+  private final Type ret;
 
-  public FuncType(TypeList args, Type returnType) {
+  FuncType(TypeList args, Type returnType) {
     this.args = args;
     this.ret = returnType;
   }
@@ -39,10 +37,10 @@ public final class FuncType extends Type implements java.io.Serializable {
 
   @Override
   public boolean equivalent(Type that) {
-    if(!(that instanceof FuncType)) return false;
-    FuncType given = (FuncType) that;
-    if(!this.ret.equivalent(given.ret)) return false;
-    if(!this.args.equivalent(given.args)) return false;
-    return true;
+    return this == that;
+  }
+
+  private Object readResolve() {
+    return TypeFactory.intern(this);
   }
 }
@@ -7,6 +7,8 @@ package crux.ast.types;
 public final class IntType extends Type implements java.io.Serializable {
   static final long serialVersionUID = 12022L;
 
+  IntType() {}
+
   @Override
   public String toString() {
     return "int";
@@ -14,35 +16,35 @@ public final class IntType extends Type implements java.io.Serializable {
 
   @Override
   Type add(Type that){
-    if(that instanceof IntType) return new IntType();
+    if(that instanceof IntType) return TypeFactory.intType();
     else{
       return super.add(that);
     }
   }
   @Override
   Type sub(Type that){
-    if(that instanceof IntType) return new IntType();
+    if(that instanceof IntType) return TypeFactory.intType();
     else{
       return super.sub(that);
     }
   }
   @Override
   Type mul(Type that){
-    if(that instanceof IntType) return new IntType();
+    if(that instanceof IntType) return TypeFactory.intType();
     else{
       return super.mul(that);
     }
   }
   @Override
   Type div(Type that){
-    if(that instanceof IntType) return new IntType();
+    if(that instanceof IntType) return TypeFactory.intType();
     else{
       return super.div(that);
     }
   }
   @Override
   Type compare(Type that){
-    if(that instanceof IntType) return new BoolType();
+    if(that instanceof IntType) return TypeFactory.boolType();
     else{
       return super.compare(that);
     }
@@ -50,8 +52,8 @@ public final class IntType extends Type implements java.io.Serializable {
 
   @Override
   Type assign(Type that){
-    if(that.equivalent(new IntType())){
-      return new IntType();
+    if(that.equivalent(TypeFactory.intType())){
+      return TypeFactory.intType();
     }
     return super.assign(that);
   }
@@ -73,7 +75,10 @@ public final class IntType extends Type implements java.io.Serializable {
 
   @Override
   public boolean equivalent(Type that) {
-    if(that instanceof IntType) return true;
-    return false;
+    return this == that;
+  }
+
+  private Object readResolve() {
+    return TypeFactory.intern(this);
   }
 }
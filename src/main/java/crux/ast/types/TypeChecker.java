@@ -2,7 +2,8 @@ package crux.ast.types;
 
 import crux.ast.SymbolTable.Symbol;
 import crux.ast.*;
-import crux.ast.traversal.NullNodeVisitor;
+import crux.ast.OpExpr.Operation;
+import crux.ast.traversal.IterativeNodeVisitor;
 
 import java.util.ArrayList;
 import java.util.*;
@@ -12,17 +13,30 @@ import java.util.*;
  */
 public final class TypeChecker {
   private final ArrayList<String> errors = new ArrayList<>();
-  private boolean[] flagReturn;
-  private int[] count;
+
   public ArrayList<String> getErrors() {
     return errors;
   }
 
   public void check(DeclarationList ast) {
-    flagReturn = new boolean[1];
-    count = new int[1];
     var inferenceVisitor = new TypeInferenceVisitor();
-    inferenceVisitor.visit(ast);
+    inferenceVisitor.traverse(ast);
+  }
+
+  /**
+   * Type check an encoded AST with the same visitor, one declaration at a time. Each declaration
+   * is materialized as nodes, checked, and its types stored back in the encoding before its
+   * nodes are dropped, so the errors are the same and in the same order.
+   */
+  public void check(CompactAst ast) {
+    var inferenceVisitor = new TypeInferenceVisitor();
+    int root = ast.root();
+    for (int k = 0; k < ast.numChildren(root); k++) {
+      int declaration = ast.child(root, k);
+      inferenceVisitor.traverse(ast.view(declaration));
+      ast.releaseView(declaration);
+    }
+    ast.releaseViews();
   }
 
   /**
@@ -54,93 +68,112 @@ public final class TypeChecker {
 
   /**
    * This calls will visit each AST node and try to resolve it's type with the help of the
-   * symbolTable.
+   * symbolTable. The result of each visit is whether the node returns on all paths.
    */
-  private final class TypeInferenceVisitor extends NullNodeVisitor<Void> {
+  private final class TypeInferenceVisitor extends IterativeNodeVisitor<Boolean> {
     @Override
-    public Void visit(VarAccess varAccess) {
+    protected boolean preVisit(Node node) {
+      if (!(node instanceof FunctionDefinition)) {
+        return true;
+      }
+      var functionDefinition = (FunctionDefinition) node;
+      Symbol symbol = functionDefinition.getSymbol();
+      FuncType currFuncType = (FuncType) symbol.getType();
+      if(symbol.getName().equals("main")){
+        if(!currFuncType.getRet().equivalent(TypeFactory.voidType())){
+          addTypeError(functionDefinition, "main function need to be type void");
+          return false;
+        }
+        if(functionDefinition.getParameters().size() != 0){
+          addTypeError(functionDefinition, "main function should have zero arguments");
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    protected List<? extends Node> children(Node node) {
+      if (node instanceof For) {
+        var forloop = (For) node;
+        return List.of(forloop.getInit(), forloop.getCond(), forloop.getIncrement(),
+            forloop.getBody());
+      }
+      return node.getChildren();
+    }
+
+    @Override
+    protected void postChild(Node node, int index, Boolean returns) {
+      if (node instanceof IfElseBranch && index == 0) {
+        Expression cond = ((IfElseBranch) node).getCondition();
+        if(!(TypeFactory.boolType().equivalent(((BaseNode)cond).getType()))){
+          addTypeError(node, "the condition of if else should be of type boolean");
+        }
+      } else if (node instanceof For && index == 1) {
+        Expression condition = ((For) node).getCond();
+        if(!(TypeFactory.boolType().equivalent(((BaseNode)condition).getType()))){
+          addTypeError(node, "the condition of for loop should be of type boolean");
+        }
+      }
+    }
+
+    @Override
+    public Boolean visit(VarAccess varAccess) {
       Symbol symbol = varAccess.getSymbol();
       setNodeType(varAccess, symbol.getType());
-      return null;
+      return false;
     }
 
     @Override
-    public Void visit(ArrayDeclaration arrayDeclaration) {
+    public Boolean visit(ArrayDeclaration arrayDeclaration) {
       Symbol symbol = arrayDeclaration.getSymbol();
       setNodeType(arrayDeclaration, symbol.getType());
-      return null;
+      return false;
     }
 
     @Override
-    public Void visit(Assignment assignment) {
+    public Boolean visit(Assignment assignment) {
       //Can be a=4 type Or no arr[9]=10 type
-      assignment.getLocation().accept(this);
       Expression value = assignment.getValue();
-      value.accept(this);
       Type locationType = ((BaseNode)assignment.getLocation()).getType();
       Type type = locationType.assign(((BaseNode)value).getType());
       setNodeType(assignment, type);
-      return null;
+      return false;
     }
 
     @Override
-    public Void visit(Break brk) {
-      setNodeType(brk, new VoidType());
-      return null;
+    public Boolean visit(Break brk) {
+      setNodeType(brk, TypeFactory.voidType());
+      return false;
     }
 
     @Override
-    public Void visit(Call call) {
+    public Boolean visit(Call call) {
       Symbol symbol = call.getCallee();
       FuncType funcType = (FuncType) symbol.getType();
-      TypeList requiredArgType = funcType.getArgs();
-      TypeList callList = new TypeList();
+      List<Type> argTypes = new ArrayList<>();
       for(Expression expression : call.getArguments()){
-        expression.accept(this);
-        callList.append(((BaseNode)expression).getType());
+        argTypes.add(((BaseNode)expression).getType());
       }
+      TypeList callList = TypeFactory.typeList(argTypes);
       setNodeType(call, funcType.call(callList));
-      return null;
+      return false;
     }
 
     @Override
-    public Void visit(DeclarationList declarationList) {
-      List<Node> declarations;
-      declarations = declarationList.getChildren();
-      for(Node node : declarations){
-        Declaration declaration = (Declaration) node;
-        declaration.accept(this);
-      }
-      return null;
+    public Boolean visit(DeclarationList declarationList) {
+      return false;
     }
 
     @Override
-    public Void visit(FunctionDefinition functionDefinition) {
-
+    public Boolean visit(FunctionDefinition functionDefinition) {
       Symbol symbol = functionDefinition.getSymbol();
-      List<Symbol> parameters = functionDefinition.getParameters();
       StatementList statementList = functionDefinition.getStatements();
       FuncType currFuncType = (FuncType) symbol.getType();
 
-      boolean return_required = false;
+      boolean return_required = !currFuncType.getRet().equivalent(TypeFactory.voidType());
 
-      if(!currFuncType.getRet().equivalent(new VoidType())){
-        return_required = true;
-      }
-
-      if(symbol.getName().equals("main")){
-        if(return_required){
-          addTypeError(functionDefinition, "main function need to be type void");
-          return null;
-        }
-        if(parameters.size() != 0){
-          addTypeError(functionDefinition, "main function should have zero arguments");
-          return null;
-        }
-      }
-      statementList.accept(this);
-
-      if(return_required && getFlag()){
+      if(return_required && !childResult(0)){
         addTypeError(functionDefinition, "Not returning from all paths");
       }
       if(return_required){
@@ -152,167 +185,119 @@ public final class TypeChecker {
           }
         }
       }
-      return null;
+      return false;
     }
 
-    private boolean getFlag(){
-      return flagReturn[0];
-    }
-    private void setFlag(boolean val){
-      flagReturn[0] = val;
-    }
+    /**
+     * An if statement returns on all paths if both of its blocks do.
+     */
     @Override
-    public Void visit(IfElseBranch ifElseBranch) {
-      Expression cond = ifElseBranch.getCondition();
-      cond.accept(this);
-      if(!(new BoolType().equivalent(((BaseNode)cond).getType()))){
-        addTypeError(ifElseBranch, "the condition of if else should be of type boolean");
-      }
-      boolean[] temp = new boolean[2];
-      setFlag(true);
-      ifElseBranch.getThenBlock().accept(this);
-      temp[0] = getFlag();
-      setFlag(true);
-      ifElseBranch.getElseBlock().accept(this);
-      temp[1] = getFlag();
-      boolean newFlagVal = (temp[1] & temp[0]) || (temp[1] ^ temp[0]);
-      setFlag(newFlagVal);
-      return null;
+    public Boolean visit(IfElseBranch ifElseBranch) {
+      return childResult(1) && childResult(2);
     }
 
     @Override
-    public Void visit(ArrayAccess access) {
+    public Boolean visit(ArrayAccess access) {
       ArrayType arrayType =(ArrayType) access.getBase().getType();
-      access.getIndex().accept(this);
-
       setNodeType(access, arrayType.index(((BaseNode)access.getIndex()).getType()));
-      return null;
+      return false;
     }
 
     @Override
-    public Void visit(LiteralBool literalBool) {
-      setNodeType(literalBool, new BoolType());
-      //literalBool.setType(new BoolType());
-      return null;
+    public Boolean visit(LiteralBool literalBool) {
+      setNodeType(literalBool, TypeFactory.boolType());
+      return false;
     }
 
     @Override
-    public Void visit(LiteralInt literalInt) {
-      setNodeType(literalInt, new IntType());
-      //literalInt.setType(new IntType());
-      return null;
+    public Boolean visit(LiteralInt literalInt) {
+      setNodeType(literalInt, TypeFactory.intType());
+      return false;
     }
 
+    /**
+     * The body of a loop might not run, so a loop never counts as returning.
+     */
     @Override
-    public Void visit(For forloop) {
-      Assignment assignment = forloop.getInit();
-      assignment.accept(this);
-
-      Expression condition = forloop.getCond();
-      condition.accept(this);
-      if(!(new BoolType().equivalent(((BaseNode)condition).getType()))){
-        addTypeError(forloop, "the condition of for loop should be of type boolean");
-      }
-      Assignment increment = forloop.getIncrement();
-      increment.accept(this);
-      StatementList statementList = forloop.getBody();
-      int prevCount = count[0];
-      setFlag(true);
-      statementList.accept(this);
-      int currCount = count[0];
-      setFlag((currCount > prevCount) || getFlag());
-      return null;
+    public Boolean visit(For forloop) {
+      return false;
     }
 
     @Override
-    public Void visit(OpExpr op) {
-      op.getLeft().accept(this);
-      if(op.getRight() != null){
-        op.getRight().accept(this);
-      }
-      Type resultType = new BoolType();
-      switch (op.getOp()){
-        case GE:
-        case LE:
-        case NE:
-        case EQ:
-        case GT:
-        case LT:
-          //This will either result in bool type or error type. so dont even need
-          // to check equivalence with bool type
-          resultType = ((BaseNode)op.getLeft()).getType().compare(((BaseNode)op.getRight()).getType());
-          setNodeType(op, resultType);
-          break;
-        case ADD:
-          resultType = ((BaseNode)op.getLeft()).getType().add(((BaseNode)op.getRight()).getType());
-          setNodeType(op, resultType);
-          break;
-        case SUB:
-          resultType = ((BaseNode)op.getLeft()).getType().sub(((BaseNode)op.getRight()).getType());
-          setNodeType(op, resultType);
-          break;
-        case MULT:
-          resultType = ((BaseNode)op.getLeft()).getType().mul(((BaseNode)op.getRight()).getType());
-          setNodeType(op, resultType);
-          break;
-        case DIV:
-          resultType = ((BaseNode)op.getLeft()).getType().div(((BaseNode)op.getRight()).getType());
-          setNodeType(op, resultType);
-          break;
-        case LOGIC_AND:
-          resultType = ((BaseNode)op.getLeft()).getType().and(((BaseNode)op.getRight()).getType());
-          setNodeType(op, resultType);
-          break;
-        case LOGIC_OR:
-          resultType = ((BaseNode)op.getLeft()).getType().or(((BaseNode)op.getRight()).getType());
-          setNodeType(op, resultType);
-          break;
-        case LOGIC_NOT:
-          resultType = ((BaseNode)op.getLeft()).getType().not();
-          setNodeType(op, resultType);
-          break;
-      }
-      return null;
+    public Boolean visit(OpExpr op) {
+      Type left = ((BaseNode)op.getLeft()).getType();
+      Type right = op.getRight() != null ? ((BaseNode)op.getRight()).getType() : null;
+      setNodeType(op, opType(op.getOp(), left, right));
+      return false;
     }
 
     @Override
-    public Void visit(Return ret) {
+    public Boolean visit(Return ret) {
       Expression expression = ret.getValue();
-      expression.accept(this);
       setNodeType(ret, ((BaseNode)expression).getType());
-      setFlag(false);
-      incrementCount();
-      return null;
-    }
-
-    private void incrementCount(){
-      count[0]++;
+      return true;
     }
 
+    /**
+     * A statement list returns on all paths once any of its statements does.
+     */
     @Override
-    public Void visit(StatementList statementList) {
-      setFlag(true);
-      boolean found = false;
-      List<Node> list = statementList.getChildren();
-      for(Node node: list){
-        Statement statement = (Statement) node;
-        statement.accept(this);
-        if(!getFlag()){
-          found = true;
+    public Boolean visit(StatementList statementList) {
+      for (int i = 0; i < numChildren(); i++) {
+        if (childResult(i)) {
+          return true;
         }
       }
-      setFlag(!found);
-      return null;
-    }
-    private boolean is_return_type(Statement statement){
-      if(statement instanceof Return) return true;
       return false;
     }
+
     @Override
-    public Void visit(VariableDeclaration variableDeclaration) {
+    public Boolean visit(VariableDeclaration variableDeclaration) {
       Symbol symbol = variableDeclaration.getSymbol();
       setNodeType(variableDeclaration, symbol.getType());
-      return null;
+      return false;
+    }
+  }
+
+  /**
+   * Returns the type of an operator applied to operands of type left and right. right is null
+   * for {@link Operation#LOGIC_NOT}.
+   */
+  private static Type opType(Operation operation, Type left, Type right) {
+    Type resultType = TypeFactory.boolType();
+    switch (operation){
+      case GE:
+      case LE:
+      case NE:
+      case EQ:
+      case GT:
+      case LT:
+        //This will either result in bool type or error type. so dont even need
+        // to check equivalence with bool type
+        resultType = left.compare(right);
+        break;
+      case ADD:
+        resultType = left.add(right);
+        break;
+      case SUB:
+        resultType = left.sub(right);
+        break;
+      case MULT:
+        resultType = left.mul(right);
+        break;
+      case DIV:
+        resultType = left.div(right);
+        break;
+      case LOGIC_AND:
+        resultType = left.and(right);
+        break;
+      case LOGIC_OR:
+        resultType = left.or(right);
+        break;
+      case LOGIC_NOT:
+        resultType = left.not();
+        break;
     }
+    return resultType;
   }
 }
@@ -0,0 +1,152 @@
+package crux.ast.types;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Creates the canonical instance of every type. Types are hash-consed: two types built from the
+ * same parts are the same object, so type equality is reference equality.
+ * <p>
+ * {@link ErrorType} is the exception. Each error carries its own message and is never interned,
+ * and neither is a list, function or array type that contains one.
+ * <p>
+ * The table only holds its types weakly, so that a long-running compiler does not keep every
+ * array type any program ever declared. A type that nothing else refers to can be built again
+ * without anyone seeing two instances.
+ */
+public final class TypeFactory {
+  private static final IntType INT = new IntType();
+  private static final BoolType BOOL = new BoolType();
+  private static final VoidType VOID = new VoidType();
+  private static final TypeList EMPTY = new TypeList(List.of());
+
+  private static final ConcurrentHashMap<List<Object>, Entry> table = new ConcurrentHashMap<>();
+  private static final ReferenceQueue<Type> collected = new ReferenceQueue<>();
+
+  private static final class Entry extends WeakReference<Type> {
+    final List<Object> key;
+
+    Entry(List<Object> key, Type type) {
+      super(type, collected);
+      this.key = key;
+    }
+  }
+
+  private TypeFactory() {}
+
+  public static IntType intType() {
+    return INT;
+  }
+
+  public static BoolType boolType() {
+    return BOOL;
+  }
+
+  public static VoidType voidType() {
+    return VOID;
+  }
+
+  public static TypeList typeList(Type... types) {
+    return typeList(Arrays.asList(types));
+  }
+
+  public static TypeList typeList(List<Type> types) {
+    if (types.isEmpty()) {
+      return EMPTY;
+    }
+    var copy = List.copyOf(types);
+    if (containsError(copy)) {
+      return new TypeList(copy);
+    }
+    return canonical(List.of(TypeList.class, copy), () -> new TypeList(copy));
+  }
+
+  public static FuncType funcType(TypeList args, Type ret) {
+    if (!isCanonical(args) || !isCanonical(ret)) {
+      return new FuncType(args, ret);
+    }
+    return canonical(List.of(FuncType.class, args, ret), () -> new FuncType(args, ret));
+  }
+
+  public static ArrayType arrayType(long extent, Type base) {
+    if (!isCanonical(base)) {
+      return new ArrayType(extent, base);
+    }
+    return canonical(List.of(ArrayType.class, extent, base), () -> new ArrayType(extent, base));
+  }
+
+  /**
+   * Returns the type interned under key, building and interning it first if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T extends Type> T canonical(List<Object> key, Supplier<T> build) {
+    for (Entry entry; (entry = (Entry) collected.poll()) != null;) {
+      table.remove(entry.key, entry);
+    }
+    while (true) {
+      var entry = table.get(key);
+      var type = entry == null ? null : entry.get();
+      if (type != null) {
+        return (T) type;
+      }
+      var fresh = build.get();
+      var replacement = new Entry(key, fresh);
+      if (entry == null ? table.putIfAbsent(key, replacement) == null
+          : table.replace(key, entry, replacement)) {
+        return fresh;
+      }
+    }
+  }
+
+  /**
+   * Returns the canonical instance equal to type. Used when types are deserialized.
+   */
+  static Type intern(Type type) {
+    if (type instanceof IntType) {
+      return INT;
+    } else if (type instanceof BoolType) {
+      return BOOL;
+    } else if (type instanceof VoidType) {
+      return VOID;
+    } else if (type instanceof TypeList) {
+      return typeList(((TypeList) type).asList());
+    } else if (type instanceof FuncType) {
+      var funcType = (FuncType) type;
+      return funcType(typeList(funcType.getArgs().asList()), intern(funcType.getRet()));
+    } else if (type instanceof ArrayType) {
+      var arrayType = (ArrayType) type;
+      return arrayType(arrayType.getExtent(), intern(arrayType.getBase()));
+    }
+    return type;
+  }
+
+  private static boolean isCanonical(Type type) {
+    if (type instanceof ErrorType) {
+      return false;
+    }
+    if (type instanceof TypeList) {
+      return !containsError(((TypeList) type).asList());
+    }
+    if (type instanceof FuncType) {
+      var funcType = (FuncType) type;
+      return isCanonical(funcType.getArgs()) && isCanonical(funcType.getRet());
+    }
+    if (type instanceof ArrayType) {
+      return isCanonical(((ArrayType) type).getBase());
+    }
+    return true;
+  }
+
+  private static boolean containsError(List<Type> types) {
+    for (var type : types) {
+      if (!isCanonical(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
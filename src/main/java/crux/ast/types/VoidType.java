@@ -6,6 +6,8 @@ package crux.ast.types;
 public final class VoidType extends Type implements java.io.Serializable {
   static final long serialVersionUID = 12022L;
 
+  VoidType() {}
+
   @Override
   public String toString() {
     return "void";
@@ -14,7 +16,10 @@ public final class VoidType extends Type implements java.io.Serializable {
 
   @Override
   public boolean equivalent(Type that) {
-    if(that instanceof VoidType) return true;
-    return false;
+    return this == that;
+  }
+
+  private Object readResolve() {
+    return TypeFactory.intern(this);
   }
 }
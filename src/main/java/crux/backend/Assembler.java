@@ -0,0 +1,375 @@
+package crux.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Encodes the x86-64 assembly that {@link CodeGen} prints into machine code, so that the backend
+ * can write an object file without running an assembler. It understands exactly the AT&amp;T
+ * syntax CodeGen uses: 64-bit moves, arithmetic, compares and conditional moves between
+ * registers, immediates and {@code disp(%reg)} or {@code sym@GOTPCREL(%rip)} memory operands,
+ * jumps and calls, and the {@code .globl} and {@code .comm} directives.
+ * <p>
+ * Jumps to labels of the same unit are resolved when the unit is finished and always take a
+ * 32-bit displacement. Calls and jumps to functions, and references to globals, become
+ * relocations, so the linker can resolve them against the runtime and the GOT.
+ */
+public final class Assembler {
+  /** A place in the code that the linker has to fill in. */
+  static final class Relocation {
+    final int offset;
+    final String symbol;
+    final int type;
+    final long addend;
+
+    Relocation(int offset, String symbol, int type, long addend) {
+      this.offset = offset;
+      this.symbol = symbol;
+      this.type = type;
+      this.addend = addend;
+    }
+  }
+
+  static final int R_X86_64_GOTPCREL = 9;
+  static final int R_X86_64_PLT32 = 4;
+
+  private static final Map<String, Integer> REGISTERS = new HashMap<>();
+  static {
+    String[] names = {"rax", "rcx", "rdx", "rbx", "rsp", "rbp", "rsi", "rdi", "r8", "r9", "r10",
+        "r11", "r12", "r13", "r14", "r15"};
+    for (int r = 0; r < names.length; r++)
+      REGISTERS.put("%" + names[r], r);
+  }
+
+  private static final Map<String, Integer> CONDITIONS = Map.of("e", 0x4, "ne", 0x5, "l", 0xc,
+      "ge", 0xd, "le", 0xe, "g", 0xf);
+
+  private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+  private final Map<String, Integer> labels = new HashMap<>();
+  private final Set<String> globals = new LinkedHashSet<>();
+  private final Map<String, long[]> commons = new LinkedHashMap<>();
+  private final List<Relocation> relocations = new ArrayList<>();
+  /** Jumps to local labels: the offset of the displacement and the label. */
+  private final List<Object[]> fixups = new ArrayList<>();
+
+  /**
+   * Define label at the current position. Labels named by {@code .globl} become function
+   * symbols, the others stay local to the unit.
+   */
+  public void label(String name) {
+    if (labels.put(name, code.size()) != null)
+      throw new IllegalArgumentException(String.format("label '%s' defined twice", name));
+  }
+
+  /**
+   * Encode one directive or instruction.
+   */
+  public void line(String text) {
+    text = text.trim();
+    int space = text.indexOf(' ');
+    String mnemonic = space < 0 ? text : text.substring(0, space);
+    String[] operands = space < 0 ? new String[0] : splitOperands(text.substring(space + 1));
+    try {
+      encode(mnemonic, operands);
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException(String.format("cannot assemble '%s': %s", text,
+          e.getMessage()), e);
+    }
+  }
+
+  private static String[] splitOperands(String text) {
+    var operands = new ArrayList<String>();
+    int depth = 0;
+    int start = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '(')
+        depth++;
+      else if (c == ')')
+        depth--;
+      else if (c == ',' && depth == 0) {
+        operands.add(text.substring(start, i).trim());
+        start = i + 1;
+      }
+    }
+    operands.add(text.substring(start).trim());
+    return operands.toArray(new String[0]);
+  }
+
+  private void encode(String mnemonic, String[] operands) {
+    switch (mnemonic) {
+      case ".globl":
+        globals.add(operands[0]);
+        return;
+      case ".comm":
+        commons.put(operands[0], new long[] {Long.parseLong(operands[1]),
+            operands.length > 2 ? Long.parseLong(operands[2]) : 8});
+        return;
+      case "enter": {
+        long size = immediate(operands[0]);
+        if (size < 0 || size > 0xffff)
+          throw new IllegalArgumentException("frame too large");
+        emit(0xc8);
+        emit16((int) size);
+        emit((int) immediate(operands[1]));
+        return;
+      }
+      case "leave":
+        emit(0xc9);
+        return;
+      case "ret":
+        emit(0xc3);
+        return;
+      case "cqto":
+        emit(0x48);
+        emit(0x99);
+        return;
+      case "movq":
+        move(operands[0], operands[1]);
+        return;
+      case "addq":
+        arithmetic(0x01, operands[0], operands[1]);
+        return;
+      case "subq":
+        arithmetic(0x29, operands[0], operands[1]);
+        return;
+      case "cmp":
+      case "cmpq":
+        compare(operands[0], operands[1]);
+        return;
+      case "imulq":
+        multiply(operands[0], operands[1]);
+        return;
+      case "idivq":
+        modrm(new int[] {0xf7}, 7, operands[0]);
+        return;
+      case "not":
+      case "notq":
+        modrm(new int[] {0xf7}, 2, operands[0]);
+        return;
+      case "call":
+        emit(0xe8);
+        relocate(operands[0], R_X86_64_PLT32);
+        return;
+      case "jmp":
+        emit(0xe9);
+        jumpTarget(operands[0]);
+        return;
+      default:
+        break;
+    }
+    if (mnemonic.startsWith("cmov") && CONDITIONS.containsKey(mnemonic.substring(4))) {
+      modrm(new int[] {0x0f, 0x40 | CONDITIONS.get(mnemonic.substring(4))},
+          register(operands[1]), operands[0]);
+      return;
+    }
+    if (mnemonic.startsWith("j") && CONDITIONS.containsKey(mnemonic.substring(1))) {
+      emit(0x0f);
+      emit(0x80 | CONDITIONS.get(mnemonic.substring(1)));
+      jumpTarget(operands[0]);
+      return;
+    }
+    throw new IllegalArgumentException("unknown instruction");
+  }
+
+  private void move(String source, String destination) {
+    if (source.startsWith("$")) {
+      long value = immediate(source);
+      if (isRegister(destination) && (int) value != value) {
+        int r = register(destination);
+        emit(0x48 | (r >> 3));
+        emit(0xb8 | (r & 7));
+        emit32((int) value);
+        emit32((int) (value >>> 32));
+        return;
+      }
+      modrm(new int[] {0xc7}, 0, destination);
+      emit32((int) value);
+    } else if (isRegister(source)) {
+      modrm(new int[] {0x89}, register(source), destination);
+    } else {
+      modrm(new int[] {0x8b}, register(destination), source);
+    }
+  }
+
+  private void arithmetic(int opcode, String source, String destination) {
+    if (isRegister(source))
+      modrm(new int[] {opcode}, register(source), destination);
+    else
+      modrm(new int[] {opcode + 2}, register(destination), source);
+  }
+
+  private void compare(String source, String destination) {
+    if (source.startsWith("$")) {
+      long value = immediate(source);
+      if (value == (byte) value) {
+        modrm(new int[] {0x83}, 7, destination);
+        emit((int) value);
+      } else {
+        modrm(new int[] {0x81}, 7, destination);
+        emit32((int) value);
+      }
+    } else if (isRegister(source)) {
+      modrm(new int[] {0x39}, register(source), destination);
+    } else {
+      modrm(new int[] {0x3b}, register(destination), source);
+    }
+  }
+
+  private void multiply(String source, String destination) {
+    if (source.startsWith("$")) {
+      long value = immediate(source);
+      int r = register(destination);
+      if (value == (byte) value) {
+        modrm(new int[] {0x6b}, r, destination);
+        emit((int) value);
+      } else {
+        modrm(new int[] {0x69}, r, destination);
+        emit32((int) value);
+      }
+    } else {
+      modrm(new int[] {0x0f, 0xaf}, register(destination), source);
+    }
+  }
+
+  /**
+   * Emit a REX.W prefix, the opcode bytes and a ModRM byte with reg in its reg field and the
+   * register or memory operand rm, followed by any SIB byte and displacement.
+   */
+  private void modrm(int[] opcode, int reg, String rm) {
+    if (isRegister(rm)) {
+      int r = register(rm);
+      emit(0x48 | ((reg >> 3) << 2) | (r >> 3));
+      for (int b : opcode)
+        emit(b);
+      emit(0xc0 | ((reg & 7) << 3) | (r & 7));
+      return;
+    }
+    int open = rm.indexOf('(');
+    if (open < 0 || !rm.endsWith(")"))
+      throw new IllegalArgumentException("bad operand " + rm);
+    String displacement = rm.substring(0, open).trim();
+    String base = rm.substring(open + 1, rm.length() - 1).trim();
+    if (base.equals("%rip")) {
+      if (!displacement.endsWith("@GOTPCREL"))
+        throw new IllegalArgumentException("only GOTPCREL references to %rip are supported");
+      emit(0x48 | ((reg >> 3) << 2));
+      for (int b : opcode)
+        emit(b);
+      emit(((reg & 7) << 3) | 5);
+      // The displacement is relative to the end of the instruction, 4 bytes further on.
+      relocations.add(new Relocation(code.size(),
+          displacement.substring(0, displacement.length() - "@GOTPCREL".length()),
+          R_X86_64_GOTPCREL, -4));
+      emit32(0);
+      return;
+    }
+    int b = register(base);
+    long disp = displacement.isEmpty() ? 0 : Long.parseLong(displacement);
+    emit(0x48 | ((reg >> 3) << 2) | (b >> 3));
+    for (int o : opcode)
+      emit(o);
+    // rbp and r13 cannot be addressed without a displacement, rsp and r12 need a SIB byte.
+    int mod = disp == 0 && (b & 7) != 5 ? 0 : disp == (byte) disp ? 1 : 2;
+    emit((mod << 6) | ((reg & 7) << 3) | (b & 7));
+    if ((b & 7) == 4)
+      emit(0x24);
+    if (mod == 1)
+      emit((int) disp);
+    else if (mod == 2)
+      emit32((int) disp);
+  }
+
+  private void jumpTarget(String target) {
+    if (globals.contains(target) || !isLocalLabel(target)) {
+      relocate(target, R_X86_64_PLT32);
+      return;
+    }
+    fixups.add(new Object[] {code.size(), target});
+    emit32(0);
+  }
+
+  /**
+   * Returns whether target names a label of this unit that is not a function. Functions are
+   * declared with {@code .globl} before their label, so any other name that is defined, or will
+   * be, is one CodeGen made up.
+   */
+  private boolean isLocalLabel(String target) {
+    return !globals.contains(target) && target.matches("L[0-9]+");
+  }
+
+  private void relocate(String symbol, int type) {
+    relocations.add(new Relocation(code.size(), symbol, type, -4));
+    emit32(0);
+  }
+
+  private static boolean isRegister(String operand) {
+    return REGISTERS.containsKey(operand);
+  }
+
+  private static int register(String operand) {
+    var r = REGISTERS.get(operand);
+    if (r == null)
+      throw new IllegalArgumentException("expected a register, found " + operand);
+    return r;
+  }
+
+  /**
+   * Parses {@code $n} and the {@code $(a * b)} form CodeGen uses for frame sizes.
+   */
+  private static long immediate(String operand) {
+    if (!operand.startsWith("$"))
+      throw new IllegalArgumentException("expected an immediate, found " + operand);
+    String value = operand.substring(1).trim();
+    if (value.startsWith("(") && value.endsWith(")")) {
+      long product = 1;
+      for (String factor : value.substring(1, value.length() - 1).split("\\*"))
+        product *= Long.parseLong(factor.trim());
+      return product;
+    }
+    return Long.parseLong(value);
+  }
+
+  private void emit(int b) {
+    code.write(b);
+  }
+
+  private void emit16(int value) {
+    emit(value & 0xff);
+    emit((value >>> 8) & 0xff);
+  }
+
+  private void emit32(int value) {
+    for (int i = 0; i < 4; i++)
+      emit((value >>> (8 * i)) & 0xff);
+  }
+
+  /**
+   * Resolve the jumps to local labels and return the finished unit.
+   */
+  public ObjectCode finish() {
+    byte[] bytes = code.toByteArray();
+    for (var fixup : fixups) {
+      int offset = (Integer) fixup[0];
+      var target = labels.get((String) fixup[1]);
+      if (target == null)
+        throw new IllegalArgumentException(String.format("undefined label '%s'", fixup[1]));
+      int displacement = target - (offset + 4);
+      for (int i = 0; i < 4; i++)
+        bytes[offset + i] = (byte) (displacement >>> (8 * i));
+    }
+    var functions = new LinkedHashMap<String, Integer>();
+    for (var global : globals) {
+      var offset = labels.get(global);
+      if (offset != null)
+        functions.put(global, offset);
+    }
+    return new ObjectCode(bytes, functions, commons, relocations);
+  }
+}
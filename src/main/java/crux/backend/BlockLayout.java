@@ -0,0 +1,288 @@
+package crux.backend;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.SiteCounts;
+import crux.ir.insts.JumpInst;
+import crux.ir.insts.ReturnInst;
+import crux.ir.pass.AnalysisManager;
+import crux.ir.pass.Loops;
+import crux.ir.pass.PassStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Orders the basic blocks of a function for code generation so that as many edges as possible
+ * fall through, after Pettis and Hansen. Edges are weighed by how often they run and merged into
+ * chains of blocks, heaviest first. A chain that starts with a loop header and ends with a jump
+ * back to it is rotated, so that the loop condition ends up below the body and each iteration
+ * takes a single branch. The chains are then placed one after another, each next to the chain it
+ * is most strongly connected to, so that blocks that never run end up at the bottom.
+ * <p>
+ * Edge weights come from the function's {@link SiteCounts} when there is a profile. Without one
+ * a block is assumed to run 8 times as often for each loop around it, a branch that can leave a
+ * loop to stay in it 7 times out of 8, and other branches to go either way equally often.
+ */
+public final class BlockLayout {
+  private static final double LOOP_SCALE = 8;
+  private static final double STAY_IN_LOOP = 7.0 / 8;
+
+  private final List<BasicBlock> blocks;
+  private final Loops loops;
+  private final SiteCounts siteCounts;
+  /** weight[b][i] is the weight of edge i out of block b, 0 for missing and dead edges. */
+  private final double[][] weight;
+  private final int[] next;
+  private final int[] prev;
+  private final int[] chain;
+
+  private BlockLayout(Function function) {
+    blocks = function.getBlocks();
+    loops = new AnalysisManager(new PassStatistics()).get(Loops.ANALYSIS, function);
+    siteCounts = function.getSiteCounts();
+    int n = blocks.size();
+    weight = new double[n][];
+    next = new int[n];
+    prev = new int[n];
+    chain = new int[n];
+    Arrays.fill(next, -1);
+    Arrays.fill(prev, -1);
+    for (int b = 0; b < n; b++)
+      chain[b] = b;
+  }
+
+  /**
+   * Returns the blocks of function in the order to emit them. The entry block comes first.
+   */
+  public static List<BasicBlock> order(Function function) {
+    if (function.getBlocks().isEmpty())
+      return List.of();
+    var layout = new BlockLayout(function);
+    layout.weighEdges();
+    var edges = layout.sortedEdges();
+    layout.mergeChains(edges);
+    layout.rotateLoops();
+    layout.mergeChains(edges);
+    return layout.placeChains();
+  }
+
+  private void weighEdges() {
+    var frequency = siteCounts == null ? staticFrequencies() : profiledFrequencies();
+    for (var block : blocks) {
+      weight[block.getId()] = new double[block.numSuccessors()];
+      for (int i = 0; i < block.numSuccessors(); i++)
+        weight[block.getId()][i] = edgeWeight(block, i, frequency);
+    }
+  }
+
+  private double[] staticFrequencies() {
+    var frequency = new double[blocks.size()];
+    for (var block : blocks)
+      frequency[block.getId()] = Math.pow(LOOP_SCALE, loops.getDepth(block));
+    return frequency;
+  }
+
+  /**
+   * A block with a branch or call runs as often as the profile says it did. Other blocks run as
+   * often as the forward edges into them; a loop header without a site misses its back edges,
+   * which only makes it look colder than it is.
+   */
+  private double[] profiledFrequencies() {
+    var frequency = new double[blocks.size()];
+    for (var block : blocks) {
+      long count = -1;
+      for (int k = 0; k < block.size() && count < 0; k++)
+        count = siteCounts.getCount(block.get(k));
+      if (count >= 0) {
+        frequency[block.getId()] = count;
+        continue;
+      }
+      for (int p = 0; p < block.numPredecessors(); p++) {
+        var predecessor = block.getPredecessor(p);
+        if (predecessor.getId() >= block.getId())
+          continue;
+        for (int i = 0; i < predecessor.numSuccessors(); i++) {
+          if (predecessor.getSuccessor(i) == block)
+            frequency[block.getId()] += edgeWeight(predecessor, i, frequency);
+        }
+      }
+    }
+    return frequency;
+  }
+
+  private double edgeWeight(BasicBlock block, int edge, double[] frequency) {
+    var last = block.getLast();
+    var target = block.getSuccessor(edge);
+    if (target == null || last instanceof ReturnInst)
+      return 0;
+    double runs = frequency[block.getId()];
+    if (!(last instanceof JumpInst) || block.getSuccessor(0) == block.getSuccessor(1))
+      return edge == 0 ? runs : 0;
+    if (siteCounts != null && siteCounts.getTaken(last) >= 0) {
+      long taken = siteCounts.getTaken(last);
+      return edge == 1 ? taken : siteCounts.getCount(last) - taken;
+    }
+    var loop = loops.getLoopFor(block);
+    var other = block.getSuccessor(1 - edge);
+    if (loop != null && other != null && loop.contains(target) != loop.contains(other))
+      return runs * (loop.contains(target) ? STAY_IN_LOOP : 1 - STAY_IN_LOOP);
+    return runs / 2;
+  }
+
+  /**
+   * Returns the live edges, encoded as block * 2 + edge, heaviest first. Ties go to the earlier
+   * block in reverse post-order and then to the false edge, which keeps the layout of code
+   * without a profile close to the order it was written in.
+   */
+  private long[] sortedEdges() {
+    var edges = new ArrayList<Long>();
+    for (var block : blocks) {
+      for (int i = 0; i < block.numSuccessors(); i++) {
+        if (block.getSuccessor(i) != null && !(block.getLast() instanceof ReturnInst))
+          edges.add((long) block.getId() * 2 + i);
+      }
+    }
+    edges.sort((a, b) -> {
+      int byWeight = Double.compare(weightOf(b), weightOf(a));
+      return byWeight != 0 ? byWeight : Long.compare(a, b);
+    });
+    var result = new long[edges.size()];
+    for (int i = 0; i < result.length; i++)
+      result[i] = edges.get(i);
+    return result;
+  }
+
+  private double weightOf(long edge) {
+    return weight[(int) (edge / 2)][(int) (edge % 2)];
+  }
+
+  private int find(int b) {
+    while (chain[b] != b) {
+      chain[b] = chain[chain[b]];
+      b = chain[b];
+    }
+    return b;
+  }
+
+  /**
+   * Join the chain ending in the source of each edge to the chain starting with its target, as
+   * long as both are still chain ends. The entry block always starts its chain.
+   */
+  private void mergeChains(long[] edges) {
+    for (long edge : edges) {
+      int from = (int) (edge / 2);
+      var target = blocks.get(from).getSuccessor((int) (edge % 2));
+      int to = target.getId();
+      if (next[from] != -1 || prev[to] != -1 || to == 0 || find(from) == find(to))
+        continue;
+      next[from] = to;
+      prev[to] = from;
+      chain[find(to)] = find(from);
+    }
+  }
+
+  /**
+   * Move a loop header whose chain continues into the loop body and comes back to the header at
+   * its end to the end of that chain. A block before the header from outside the loop, such as
+   * the entry block, then falls through into the body instead.
+   */
+  private void rotateLoops() {
+    for (var loop : loops.getLoops()) {
+      int header = loop.getHeader().getId();
+      int before = prev[header];
+      int body = next[header];
+      if (header == 0 || body == -1 || !loop.contains(blocks.get(body)))
+        continue;
+      if (before != -1 && loop.contains(blocks.get(before)))
+        continue;
+      int tail = body;
+      while (next[tail] != -1)
+        tail = next[tail];
+      if (!loop.getLatches().contains(blocks.get(tail)))
+        continue;
+      if (!(loop.getHeader().getLast() instanceof JumpInst))
+        continue;
+      prev[body] = before;
+      if (before != -1)
+        next[before] = body;
+      next[tail] = header;
+      prev[header] = tail;
+      next[header] = -1;
+    }
+  }
+
+  /**
+   * Returns the blocks chain by chain, starting with the entry chain and then always taking the
+   * chain with the most weight on edges between it and the blocks placed so far.
+   */
+  private List<BasicBlock> placeChains() {
+    int n = blocks.size();
+    var score = new double[n];
+    var placed = new boolean[n];
+    var heads = new int[n];
+    for (int b = 0; b < n; b++) {
+      if (prev[b] == -1)
+        heads[find(b)] = b;
+    }
+    // Entries are {score, head}; stale entries are skipped when their score is out of date.
+    var queue = new PriorityQueue<double[]>((a, b) -> a[0] != b[0] ? Double.compare(b[0], a[0])
+        : Double.compare(a[1], b[1]));
+    var order = new ArrayList<BasicBlock>(n);
+    int head = 0;
+    for (int b = 0; b < n; b++) {
+      if (prev[b] == -1 && b != 0)
+        queue.add(new double[] {0, b});
+    }
+    while (true) {
+      placed[find(head)] = true;
+      for (int b = head; b != -1; b = next[b]) {
+        order.add(blocks.get(b));
+        connect(b, score, placed, heads, queue);
+      }
+      head = -1;
+      while (!queue.isEmpty()) {
+        var entry = queue.poll();
+        int candidate = (int) entry[1];
+        if (!placed[find(candidate)] && entry[0] == score[find(candidate)]) {
+          head = candidate;
+          break;
+        }
+      }
+      if (head == -1)
+        return order;
+    }
+  }
+
+  /**
+   * Add the weight of the edges between block b and unplaced chains to their scores.
+   */
+  private void connect(int b, double[] score, boolean[] placed, int[] heads,
+      PriorityQueue<double[]> queue) {
+    var block = blocks.get(b);
+    for (int i = 0; i < block.numSuccessors(); i++) {
+      var target = block.getSuccessor(i);
+      if (target != null)
+        raise(target.getId(), weight[b][i], score, placed, heads, queue);
+    }
+    for (int p = 0; p < block.numPredecessors(); p++) {
+      var predecessor = block.getPredecessor(p);
+      for (int i = 0; i < predecessor.numSuccessors(); i++) {
+        if (predecessor.getSuccessor(i) == block)
+          raise(predecessor.getId(), weight[predecessor.getId()][i], score, placed, heads,
+              queue);
+      }
+    }
+  }
+
+  private void raise(int b, double w, double[] score, boolean[] placed, int[] heads,
+      PriorityQueue<double[]> queue) {
+    int root = find(b);
+    if (placed[root] || w <= 0)
+      return;
+    score[root] += w;
+    queue.add(new double[] {score[root], heads[root]});
+  }
+}
@@ -15,33 +15,38 @@ public final class CodeGen extends InstVisitor {
   private int totalVarNum;
   private int slotNum;
   private HashMap<Variable, Integer> stack = new HashMap<>();
+  private StackSlots slots;
   private HashMap<Instruction, String> labels = new HashMap<>();
 
   public CodeGen(Program p) {
+    this(p, false);
+  }
+
+  /**
+   * With object set, encode the code directly and write the ELF object a.o instead of a.s.
+   */
+  public CodeGen(Program p, boolean object) {
     totalVarNum = 1;
     slotNum = 0;
     this.p = p;
     // Do not change the file name that is outputted or it will
     // break the grader!
 
-    out = new CodePrinter("a.s");
+    out = object ? CodePrinter.forObject("a.o") : new CodePrinter("a.s");
   }
 
   private Integer getVarFromStack(Variable variable){  // add to varStackMap if doesn't exists
     if(stack.containsKey(variable)){
       return stack.get(variable);
     } else {
-      stack.put(variable, totalVarNum*(-8));
-      return (-8)*(totalVarNum++);
-    }
-  }
-
-  private int getStackPosition(Variable variable){
-    if(!stack.containsKey(variable)){
-      totalVarNum++;
-      stack.put(variable, totalVarNum);
+      int slot = slots.get(variable);
+      if(slot == 0){
+        // The frame only has room for the slots StackSlots assigned.
+        throw new IllegalStateException("no stack slot for " + variable);
+      }
+      stack.put(variable, slot*(-8));
+      return (-8)*slot;
     }
-    return stack.get(variable);
   }
 
   /**
@@ -65,7 +70,10 @@ public final class CodeGen extends InstVisitor {
 
   private void genCode(Function function, int[] count){
 
-    labels = function.assignLabels(count);
+    // Variables that are never live at the same time share a slot; see StackSlots.
+    stack.clear();
+    slots = StackSlots.assign(function);
+    totalVarNum = slots.size() + 1;
     initialSignature(function);
     List<LocalVar> arguments = function.getArguments();
     int extra = 0;
@@ -79,16 +87,16 @@ public final class CodeGen extends InstVisitor {
         extra++;
       }
       putInRegister(i);
-      totalVarNum++;
     }
 
-    dfs(function);
+    emitBlocks(function, count);
   }
 
   private void initialSignature(Function function){
     out.printCode(".globl " + function.getName());
     out.printLabel(function.getName() + ":");
-    slotNum = function.getNumTempAddressVars() + function.getNumTempVars();
+    // One spare slot past the variables, for the stack arguments of calls.
+    slotNum = totalVarNum;
     if(slotNum % 2 != 0){
       slotNum++;
     }
@@ -118,39 +126,81 @@ public final class CodeGen extends InstVisitor {
     }
   }
 
-  private void dfs(Function function){
-    Stack<Instruction> s = new Stack<>();
-    HashSet<Instruction> seen = new HashSet<>();
-
-    s.push(function.getStart());
-
-    while(!s.isEmpty()){
-      Instruction instruction = s.pop();
-      if(labels.containsKey(instruction)){
-        out.printLabel(labels.get(instruction) + ":");
+  /**
+   * Emit the blocks in the order of {@link BlockLayout}. Each block ends with the jumps to its
+   * successors that do not come right after it, so only blocks that are jumped to get a label.
+   */
+  private void emitBlocks(Function function, int[] count){
+    List<BasicBlock> order = BlockLayout.order(function);
+    labels = new HashMap<>();
+    for(int p = 0; p < order.size(); p++){
+      BasicBlock block = order.get(p);
+      if(isJumpedTo(block, p == 0 ? null : order.get(p - 1))){
+        labels.put(block.getFirst(), "L" + (++count[0]));
       }
+    }
 
-      instruction.accept(this);
-      Instruction firstInst = instruction.getNext(0);
-      Instruction secondInst = instruction.getNext(1);
+    for(int p = 0; p < order.size(); p++){
+      BasicBlock block = order.get(p);
+      String label = labels.get(block.getFirst());
+      if(label != null){
+        out.printLabel(label + ":");
+      }
+      for(int k = 0; k < block.size(); k++){
+        block.get(k).accept(this);
+      }
+      emitTransfer(block, p + 1 < order.size() ? order.get(p + 1) : null);
+    }
+  }
 
-      if(secondInst != null && !seen.contains(secondInst)){
-        s.push(secondInst);
-        seen.add(secondInst);
+  /**
+   * Returns whether any edge into block is a jump rather than a fall through from previous, the
+   * block laid out before it. See {@link #emitTransfer}.
+   */
+  private boolean isJumpedTo(BasicBlock block, BasicBlock previous){
+    for(int p = 0; p < block.numPredecessors(); p++){
+      BasicBlock predecessor = block.getPredecessor(p);
+      if(predecessor.getLast() instanceof ReturnInst){
+        continue;
       }
-      if(firstInst == null){
-        out.printCode("leave");
-        out.printCode("ret");
+      if(predecessor != previous){
+        return true;
+      }
+      // A branch with a null false edge returns on false and jumps over that to its true side.
+      if(predecessor.getLast() instanceof JumpInst && predecessor.getSuccessor(0) == null
+          && predecessor.getSuccessor(1) == block){
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Emit the jumps from block to its successors, given that next is laid out right after it. A
+   * branch jumps on true, or on false when its true side comes next.
+   */
+  private void emitTransfer(BasicBlock block, BasicBlock next){
+    Instruction last = block.getLast();
+    if(last instanceof ReturnInst){
+      return;
+    }
+    BasicBlock falseBlock = block.getSuccessor(0);
+    BasicBlock trueBlock = block.getSuccessor(1);
+    BasicBlock target = falseBlock;
+    if(last instanceof JumpInst && trueBlock != falseBlock){
+      if(trueBlock != null && (trueBlock != next || falseBlock == null)){
+        out.printCode("je " + labels.get(trueBlock.getFirst()));
       }else{
-        if(!seen.contains(firstInst)){
-          s.push(firstInst);
-          seen.add(firstInst);
-        }
-        if(s.isEmpty() || firstInst != s.peek()){
-          out.printCode("jmp " + labels.get(firstInst));
-        }
+        out.printCode("jne " + labels.get(falseBlock.getFirst()));
+        target = trueBlock;
       }
     }
+    if(target == null){
+      out.printCode("leave");
+      out.printCode("ret");
+    }else if(target != next){
+      out.printCode("jmp " + labels.get(target.getFirst()));
+    }
   }
 
   public void visit(AddressAt i) {
@@ -265,12 +315,11 @@ public final class CodeGen extends InstVisitor {
   }
 
 
+  // The jumps themselves are emitted with the rest of the block's exits, see emitTransfer.
   public void visit(JumpInst i) {
-    String jmp = labels.get(i.getNext(1));
     int stackPosition = getVarFromStack(i.getPredicate());
     out.printCode("movq " + stackPosition + "(%rbp), %r11");
     out.printCode("cmp $1, %r11");
-    out.printCode("je " + jmp);
   }
 
   public void visit(LoadInst i) {
@@ -303,9 +352,8 @@ public final class CodeGen extends InstVisitor {
 
   public void visit(ReturnInst i) {
     LocalVar ret = i.getReturnValue();
-    int position = getVarFromStack(ret);
     if(ret != null){
-      out.printCode("movq " + position + "(%rbp), %rax");
+      out.printCode("movq " + getVarFromStack(ret) + "(%rbp), %rax");
     }
     out.printCode("leave");
     out.printCode("ret");
@@ -315,6 +363,13 @@ public final class CodeGen extends InstVisitor {
     String name =i.getCallee().getName();
     List<LocalVar> params = i.getParams();
     putParamsInSpecificRegisters(params);
+    // A tail call with register arguments only hands its frame over to the callee, which then
+    // returns straight to our caller.
+    if(i.isTailCall() && params.size() <= 6){
+      out.printCode("leave");
+      out.printCode("jmp " + name);
+      return;
+    }
     if(params.size() > 6){
       for(int j = params.size() - 1; j > 5; j--){
         int position = getVarFromStack(params.get(j));
@@ -358,8 +413,8 @@ public final class CodeGen extends InstVisitor {
     LocalVar dst = i.getDst();
     LocalVar inner = i.getInner();
 
-    int dstPosition = getStackPosition(dst)*(-8);
-    int innerPosition = getStackPosition(inner)*(-8);
+    int dstPosition = getVarFromStack(dst);
+    int innerPosition = getVarFromStack(inner);
 
     out.printCode("movq " + innerPosition + "(%rbp), %r10");
     out.printCode("movq $1, %r11");
@@ -5,6 +5,8 @@ import java.io.*;
 
 public class CodePrinter {
   PrintStream out;
+  private String name;
+  private Assembler assembler;
 
   public CodePrinter(String name) {
     try {
@@ -15,15 +17,46 @@ public class CodePrinter {
     }
   }
 
+  /**
+   * A printer that encodes the code with an {@link Assembler} and writes the ELF object file name
+   * when it is closed, instead of printing assembly.
+   */
+  public static CodePrinter forObject(String name) {
+    var printer = new CodePrinter();
+    printer.name = name;
+    printer.assembler = new Assembler();
+    return printer;
+  }
+
+  private CodePrinter() {
+  }
+
   public void printLabel(String s) {
+    if (assembler != null) {
+      assembler.label(s.substring(0, s.length() - 1));
+      return;
+    }
     out.println(s);
   }
 
   public void printCode(String s) {
+    if (assembler != null) {
+      assembler.line(s);
+      return;
+    }
     out.println("    " + s);
   }
 
   public void close() {
+    if (assembler != null) {
+      try (var file = new BufferedOutputStream(new FileOutputStream(name))) {
+        assembler.finish().write(file);
+      } catch (IOException e) {
+        e.printStackTrace();
+        System.exit(-1);
+      }
+      return;
+    }
     out.close();
   }
 }
@@ -0,0 +1,187 @@
+package crux.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The machine code of a unit as produced by {@link Assembler}, written out as a relocatable
+ * x86-64 ELF object that links like the output of {@code as a.s}.
+ * <p>
+ * The object has a single {@code .text} section. Functions are global symbols in it, globals are
+ * common symbols the linker allocates, and anything else the code refers to, such as the runtime,
+ * is left undefined.
+ */
+public final class ObjectCode {
+  private static final int SHT_PROGBITS = 1;
+  private static final int SHT_SYMTAB = 2;
+  private static final int SHT_STRTAB = 3;
+  private static final int SHT_RELA = 4;
+  private static final int SHF_ALLOC_EXECINSTR = 0x6;
+  private static final int SHF_INFO_LINK = 0x40;
+  private static final int SHN_COMMON = 0xfff2;
+  private static final int STB_GLOBAL = 1;
+  private static final int STT_NOTYPE = 0;
+  private static final int STT_OBJECT = 1;
+  private static final int STT_FUNC = 2;
+  private static final int EM_X86_64 = 62;
+
+  private final byte[] text;
+  private final Map<String, Integer> functions;
+  private final Map<String, long[]> commons;
+  private final List<Assembler.Relocation> relocations;
+
+  ObjectCode(byte[] text, Map<String, Integer> functions, Map<String, long[]> commons,
+      List<Assembler.Relocation> relocations) {
+    this.text = text;
+    this.functions = functions;
+    this.commons = commons;
+    this.relocations = relocations;
+  }
+
+  public byte[] getText() {
+    return text.clone();
+  }
+
+  /**
+   * Write the unit as an ELF object file.
+   */
+  public void write(OutputStream out) throws IOException {
+    var strtab = new StringTable();
+    var symbols = new ArrayList<byte[]>();
+    var index = new LinkedHashMap<String, Integer>();
+    symbols.add(symbol(0, 0, 0, 0, 0));
+
+    var names = new ArrayList<>(functions.keySet());
+    for (int f = 0; f < names.size(); f++) {
+      String name = names.get(f);
+      int start = functions.get(name);
+      int end = f + 1 < names.size() ? functions.get(names.get(f + 1)) : text.length;
+      index.put(name, symbols.size());
+      symbols.add(symbol(strtab.add(name), STT_FUNC, 1, start, end - start));
+    }
+    for (var common : commons.entrySet()) {
+      index.put(common.getKey(), symbols.size());
+      symbols.add(symbol(strtab.add(common.getKey()), STT_OBJECT, SHN_COMMON,
+          common.getValue()[1], common.getValue()[0]));
+    }
+    var rela = ByteBuffer.allocate(24 * relocations.size()).order(ByteOrder.LITTLE_ENDIAN);
+    for (var relocation : relocations) {
+      var sym = index.get(relocation.symbol);
+      if (sym == null) {
+        sym = symbols.size();
+        index.put(relocation.symbol, sym);
+        symbols.add(symbol(strtab.add(relocation.symbol), STT_NOTYPE, 0, 0, 0));
+      }
+      rela.putLong(relocation.offset);
+      rela.putLong(((long) sym << 32) | relocation.type);
+      rela.putLong(relocation.addend);
+    }
+    var symtab = new ByteArrayOutputStream();
+    for (byte[] s : symbols)
+      symtab.write(s);
+
+    var shstrtab = new StringTable();
+    int textName = shstrtab.add(".text");
+    int relaName = shstrtab.add(".rela.text");
+    int symtabName = shstrtab.add(".symtab");
+    int strtabName = shstrtab.add(".strtab");
+    int shstrtabName = shstrtab.add(".shstrtab");
+    int noteName = shstrtab.add(".note.GNU-stack");
+
+    byte[][] contents = {text, rela.array(), symtab.toByteArray(), strtab.toByteArray(),
+        shstrtab.toByteArray()};
+    long[] offsets = new long[contents.length];
+    var body = new ByteArrayOutputStream();
+    body.write(new byte[64]);
+    for (int s = 0; s < contents.length; s++) {
+      while (body.size() % 8 != 0)
+        body.write(0);
+      offsets[s] = body.size();
+      body.write(contents[s]);
+    }
+    while (body.size() % 8 != 0)
+      body.write(0);
+    long sectionHeaders = body.size();
+
+    var sections = ByteBuffer.allocate(64 * 7).order(ByteOrder.LITTLE_ENDIAN);
+    section(sections, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    section(sections, textName, SHT_PROGBITS, SHF_ALLOC_EXECINSTR, offsets[0], text.length, 0, 0,
+        16, 0);
+    section(sections, relaName, SHT_RELA, SHF_INFO_LINK, offsets[1], contents[1].length, 3, 1, 8,
+        24);
+    // Every symbol but the null one is global, so the first global is symbol 1.
+    section(sections, symtabName, SHT_SYMTAB, 0, offsets[2], contents[2].length, 4, 1, 8, 24);
+    section(sections, strtabName, SHT_STRTAB, 0, offsets[3], contents[3].length, 0, 0, 1, 0);
+    section(sections, shstrtabName, SHT_STRTAB, 0, offsets[4], contents[4].length, 0, 0, 1, 0);
+    section(sections, noteName, SHT_PROGBITS, 0, sectionHeaders, 0, 0, 0, 1, 0);
+
+    byte[] file = body.toByteArray();
+    var header = ByteBuffer.wrap(file, 0, 64).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(new byte[] {0x7f, 'E', 'L', 'F', 2, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+    header.putShort((short) 1); // ET_REL
+    header.putShort((short) EM_X86_64);
+    header.putInt(1);
+    header.putLong(0);
+    header.putLong(0);
+    header.putLong(sectionHeaders);
+    header.putInt(0);
+    header.putShort((short) 64);
+    header.putShort((short) 0);
+    header.putShort((short) 0);
+    header.putShort((short) 64);
+    header.putShort((short) 7);
+    header.putShort((short) 5);
+
+    out.write(file);
+    out.write(sections.array());
+  }
+
+  private static byte[] symbol(int name, int type, int shndx, long value, long size) {
+    var buffer = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(name);
+    buffer.put((byte) (name == 0 ? 0 : (STB_GLOBAL << 4) | type));
+    buffer.put((byte) 0);
+    buffer.putShort((short) shndx);
+    buffer.putLong(value);
+    buffer.putLong(size);
+    return buffer.array();
+  }
+
+  private static void section(ByteBuffer buffer, int name, int type, long flags, long offset,
+      long size, int link, int info, long align, long entsize) {
+    buffer.putInt(name);
+    buffer.putInt(type);
+    buffer.putLong(flags);
+    buffer.putLong(0);
+    buffer.putLong(offset);
+    buffer.putLong(size);
+    buffer.putInt(link);
+    buffer.putInt(info);
+    buffer.putLong(align);
+    buffer.putLong(entsize);
+  }
+
+  /**
+   * A string table: null terminated names, starting with the empty name at offset 0.
+   */
+  private static final class StringTable extends ByteArrayOutputStream {
+    StringTable() {
+      write(0);
+    }
+
+    int add(String name) {
+      int offset = size();
+      writeBytes(name.getBytes(StandardCharsets.UTF_8));
+      write(0);
+      return offset;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package crux.backend;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+import crux.ir.Variable;
+import crux.ir.pass.AnalysisManager;
+import crux.ir.pass.Liveness;
+import crux.ir.pass.PassStatistics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns the variables of a function to stack slots so that variables that are never live at
+ * the same time share a slot. Two variables interfere when one is written while the other is
+ * live; the interference graph is built by scanning each block backwards from the variables live
+ * on its exit, and colored greedily with the lowest free slot.
+ * <p>
+ * Slots are numbered from 1, slot i being at -8 * i from the frame pointer. The prologue stores
+ * argument i in slot i, so arguments keep those slots and interfere with each other and with
+ * everything live on entry.
+ */
+public final class StackSlots {
+  private final Map<Variable, Integer> slots = new HashMap<>();
+  private int numSlots = 0;
+
+  /**
+   * Returns the slot of variable, or 0 if the function does not mention it.
+   */
+  public int get(Variable variable) {
+    return slots.getOrDefault(variable, 0);
+  }
+
+  /**
+   * Returns the highest slot in use, which is the number of slots the frame needs.
+   */
+  public int size() {
+    return numSlots;
+  }
+
+  public static StackSlots assign(Function function) {
+    var result = new StackSlots();
+    var arguments = function.getArguments();
+    var liveness = new AnalysisManager(new PassStatistics()).get(Liveness.ANALYSIS, function);
+    int numVariables = liveness.numVariables();
+    var graph = new Graph(numVariables);
+    var live = new LiveSet(numVariables);
+
+    for (BasicBlock block : function.getBlocks()) {
+      live.clear();
+      for (int v : liveness.getLiveOut(block))
+        live.add(v);
+      for (int k = block.size() - 1; k >= 0; k--) {
+        Instruction inst = block.get(k);
+        var destination = inst.getDestination();
+        if (destination != null) {
+          int d = liveness.indexOf(destination);
+          for (int i = 0; i < live.size; i++)
+            graph.addEdge(d, live.members[i]);
+          live.remove(d);
+        }
+        for (Value operand : inst.getOperands()) {
+          if (operand instanceof Variable)
+            live.add(liveness.indexOf((Variable) operand));
+        }
+      }
+    }
+
+    // The prologue writes every argument on entry.
+    int[] color = new int[numVariables];
+    int[] entry = function.getBlocks().isEmpty() ? new int[0]
+        : liveness.getLiveIn(function.getEntryBlock());
+    for (int a = 0; a < arguments.size(); a++) {
+      int v = liveness.indexOf(arguments.get(a));
+      if (v < 0)
+        continue;
+      color[v] = a + 1;
+      for (int w : entry)
+        graph.addEdge(v, w);
+      for (LocalVar other : arguments) {
+        int w = liveness.indexOf(other);
+        if (w >= 0)
+          graph.addEdge(v, w);
+      }
+    }
+
+    // Colors taken by neighbours are stamped with the variable being colored.
+    int[] taken = new int[numVariables + arguments.size() + 2];
+    Arrays.fill(taken, -1);
+    result.numSlots = arguments.size();
+    for (int v = 0; v < numVariables; v++) {
+      if (color[v] == 0) {
+        for (int i = 0; i < graph.degree[v]; i++) {
+          int c = color[graph.edges[v][i]];
+          if (c > 0)
+            taken[c] = v;
+        }
+        int c = 1;
+        while (taken[c] == v)
+          c++;
+        color[v] = c;
+      }
+      result.numSlots = Math.max(result.numSlots, color[v]);
+      result.slots.put(liveness.getVariable(v), color[v]);
+    }
+    return result;
+  }
+
+  /**
+   * An interference graph as adjacency arrays. Edges may be recorded more than once.
+   */
+  private static final class Graph {
+    final int[][] edges;
+    final int[] degree;
+
+    Graph(int numVariables) {
+      edges = new int[numVariables][];
+      degree = new int[numVariables];
+    }
+
+    void addEdge(int v, int w) {
+      if (v == w)
+        return;
+      add(v, w);
+      add(w, v);
+    }
+
+    private void add(int v, int w) {
+      if (edges[v] == null)
+        edges[v] = new int[4];
+      else if (degree[v] > 0 && edges[v][degree[v] - 1] == w)
+        return;
+      else if (degree[v] == edges[v].length)
+        edges[v] = Arrays.copyOf(edges[v], degree[v] * 2);
+      edges[v][degree[v]++] = w;
+    }
+  }
+
+  /**
+   * A set of variable numbers that can list its members, with constant time add and remove.
+   */
+  private static final class LiveSet {
+    final int[] members;
+    final int[] position;
+    int size = 0;
+
+    LiveSet(int numVariables) {
+      members = new int[numVariables];
+      position = new int[numVariables];
+      Arrays.fill(position, -1);
+    }
+
+    void add(int v) {
+      if (position[v] >= 0)
+        return;
+      position[v] = size;
+      members[size++] = v;
+    }
+
+    void remove(int v) {
+      int p = position[v];
+      if (p < 0)
+        return;
+      int last = members[--size];
+      members[p] = last;
+      position[last] = p;
+      position[v] = -1;
+    }
+
+    void clear() {
+      for (int i = 0; i < size; i++)
+        position[members[i]] = -1;
+      size = 0;
+    }
+  }
+}
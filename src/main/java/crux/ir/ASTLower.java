@@ -3,7 +3,7 @@ package crux.ir;
 import crux.ast.SymbolTable.Symbol;
 import crux.ast.*;
 import crux.ast.OpExpr.Operation;
-import crux.ast.traversal.NodeVisitor;
+import crux.ast.traversal.IterativeNodeVisitor;
 import crux.ast.types.*;
 import crux.ir.insts.*;
 
@@ -38,30 +38,77 @@ class InstPair {
 /**
  * Convert AST to IR and build the CFG
  */
-public final class ASTLower implements NodeVisitor<InstPair> {
+public final class ASTLower extends IterativeNodeVisitor<InstPair> {
   private Program mCurrentProgram = null;
   private Function mCurrentFunction = null;
 
   private Map<Symbol, LocalVar> mCurrentLocalVarMap = null;
   Stack<Instruction> stack = new Stack<>();
+  /**
+   * Temporaries created between the children of a node, in the order the children are lowered.
+   * They are taken off again by the node's visit method.
+   */
+  private final Deque<Variable> mPendingVars = new ArrayDeque<>();
   /**
    * A constructor to initialize member variables
    */
   public ASTLower() {}
 
   public Program lower(DeclarationList ast) {
-    visit(ast);
+    traverse(ast);
     return mCurrentProgram;
   }
 
   @Override
-  public InstPair visit(DeclarationList declarationList) {
-    mCurrentProgram = new Program();
+  protected boolean preVisit(Node node) {
+    if (node instanceof DeclarationList) {
+      mCurrentProgram = new Program();
+    } else if (node instanceof FunctionDefinition) {
+      enterFunction((FunctionDefinition) node);
+    }
+    return true;
+  }
+
+  /**
+   * Children in the order their instructions are generated.
+   */
+  @Override
+  protected List<? extends Node> children(Node node) {
+    if (node instanceof Assignment) {
+      var assignment = (Assignment) node;
+      if (assignment.getLocation() instanceof ArrayAccess) {
+        return List.of(assignment.getValue(), ((ArrayAccess) assignment.getLocation()).getIndex());
+      }
+      return List.of(assignment.getValue());
+    } else if (node instanceof IfElseBranch) {
+      var ifElseBranch = (IfElseBranch) node;
+      return List.of(ifElseBranch.getCondition(), ifElseBranch.getElseBlock(),
+          ifElseBranch.getThenBlock());
+    } else if (node instanceof For) {
+      var loop = (For) node;
+      return List.of(loop.getInit(), loop.getCond(), loop.getBody(), loop.getIncrement());
+    }
+    return node.getChildren();
+  }
 
-    for(Node child: declarationList.getChildren()){
-      Declaration declaration = (Declaration) child;
-      declaration.accept(this);
+  @Override
+  protected void postChild(Node node, int index, InstPair pair) {
+    if (index == 0 && node instanceof Assignment
+        && ((Assignment) node).getLocation() instanceof ArrayAccess) {
+      // The address is allocated after the value, before the index.
+      var location = (ArrayAccess) ((Assignment) node).getLocation();
+      mPendingVars.push(mCurrentFunction.getTempAddressVar(location.getType()));
+    } else if (index == 0 && node instanceof OpExpr
+        && ((OpExpr) node).getOp() == Operation.LOGIC_AND) {
+      mPendingVars.push(mCurrentFunction.getTempVar(TypeFactory.boolType()));
+    } else if (index == 1 && node instanceof For) {
+      // Breaks in the body jump to the loop exit.
+      stack.push(new NopInst());
     }
+  }
+
+  @Override
+  public InstPair visit(DeclarationList declarationList) {
     return null;
   }
 
@@ -69,8 +116,7 @@ public final class ASTLower implements NodeVisitor<InstPair> {
    * This visitor should create a Function instance for the functionDefinition node, add parameters
    * to the localVarMap, add the function to the program, and init the function start Instruction.
    */
-  @Override
-  public InstPair visit(FunctionDefinition functionDefinition) {
+  private void enterFunction(FunctionDefinition functionDefinition) {
     mCurrentLocalVarMap = new HashMap<>();
     Symbol symbol = functionDefinition.getSymbol();
     FuncType funcType = (FuncType) symbol.getType();
@@ -87,10 +133,13 @@ public final class ASTLower implements NodeVisitor<InstPair> {
     mCurrentFunction.setArguments(listVars);
 
     mCurrentProgram.addFunction(mCurrentFunction);
+  }
 
-    StatementList statementList = functionDefinition.getStatements();
-    InstPair statementsPair = statementList.accept(this);
+  @Override
+  public InstPair visit(FunctionDefinition functionDefinition) {
+    InstPair statementsPair = childResult(0);
     mCurrentFunction.setStart(statementsPair.getStart());
+    mCurrentFunction.numberSites();
     mCurrentFunction = null;
     mCurrentLocalVarMap = null;
     return null;
@@ -99,15 +148,13 @@ public final class ASTLower implements NodeVisitor<InstPair> {
   @Override
   public InstPair visit(StatementList statementList) {
 
-    List<Node> statements = statementList.getChildren();
-
     Instruction firstNode = new NopInst();
     Instruction lastNode = firstNode;
-    if(statements.size() == 0){
+    if(numChildren() == 0){
       return new InstPair(firstNode, firstNode, null);
     }
-    for(Node statement : statements){
-      InstPair instPair = statement.accept(this);
+    for(int i = 0; i < numChildren(); i++){
+      InstPair instPair = childResult(i);
       lastNode.setNext(0, instPair.getStart());
       lastNode = instPair.getEnd();
     }
@@ -188,13 +235,13 @@ public final class ASTLower implements NodeVisitor<InstPair> {
       //local
       if(mCurrentLocalVarMap.containsKey(((VarAccess)assignment.getLocation()).getSymbol())){
         LocalVar destVar = mCurrentLocalVarMap.get(((VarAccess)assignment.getLocation()).getSymbol());
-        InstPair valuePair = assignment.getValue().accept(this);
+        InstPair valuePair = childResult(0);
         CopyInst copyInst = new CopyInst(destVar, valuePair.getVariable());
         valuePair.getEnd().setNext(0, copyInst);
         return new InstPair(valuePair.getStart(), copyInst, null);
       }else{
         //global
-        InstPair valuePair = assignment.getValue().accept(this);
+        InstPair valuePair = childResult(0);
         Symbol symbol = ((VarAccess)assignment.getLocation()).getSymbol();
         AddressVar destVar = mCurrentFunction.getTempAddressVar(((VarAccess)assignment.getLocation()).getType());
         AddressAt addressAt = new AddressAt(destVar, symbol);
@@ -206,12 +253,12 @@ public final class ASTLower implements NodeVisitor<InstPair> {
         return new InstPair(addressAt, storeInst, null);
       }
     }else if(assignment.getLocation() instanceof ArrayAccess){
-      InstPair valuePair = assignment.getValue().accept(this);
+      InstPair valuePair = childResult(0);
       Symbol symbol = ((ArrayAccess)assignment.getLocation()).getBase();
       //changed
-      AddressVar destVar = mCurrentFunction.getTempAddressVar(((ArrayAccess)assignment.getLocation()).getType());
+      AddressVar destVar = (AddressVar) mPendingVars.pop();
 
-      InstPair indexPair = ((ArrayAccess)assignment.getLocation()).getIndex().accept(this);
+      InstPair indexPair = childResult(1);
       AddressAt addressAt = new AddressAt(destVar, symbol, indexPair.getVariable());
 
       StoreInst storeInst = new StoreInst(valuePair.getVariable(), destVar);
@@ -242,8 +289,8 @@ public final class ASTLower implements NodeVisitor<InstPair> {
 
     List<LocalVar> params = new ArrayList<>();
 
-    for(Expression expression: arguments){
-      InstPair instPair = expression.accept(this);
+    for(int i = 0; i < arguments.size(); i++){
+      InstPair instPair = childResult(i);
       params.add(instPair.getVariable());
       if(firstArgumentNode == null){
         firstArgumentNode = instPair.getStart();
@@ -295,9 +342,9 @@ public final class ASTLower implements NodeVisitor<InstPair> {
         predicate = CompareInst.Predicate.LT;
       }
 
-      InstPair lhs = operation.getLeft().accept(this);
-      InstPair rhs = operation.getRight().accept(this);
-      LocalVar destVar = mCurrentFunction.getTempVar(new BoolType());
+      InstPair lhs = childResult(0);
+      InstPair rhs = childResult(1);
+      LocalVar destVar = mCurrentFunction.getTempVar(TypeFactory.boolType());
       CompareInst compareInst = new CompareInst(destVar, predicate, lhs.getVariable(), rhs.getVariable());
 
       lhs.getEnd().setNext(0, rhs.getStart());
@@ -316,9 +363,9 @@ public final class ASTLower implements NodeVisitor<InstPair> {
         binaryOp = BinaryOperator.Op.Div;
       }
 
-      InstPair lhs = operation.getLeft().accept(this);
-      InstPair rhs = operation.getRight().accept(this);
-      LocalVar destVar = mCurrentFunction.getTempVar(new BoolType());
+      InstPair lhs = childResult(0);
+      InstPair rhs = childResult(1);
+      LocalVar destVar = mCurrentFunction.getTempVar(TypeFactory.boolType());
       BinaryOperator binaryInst = new BinaryOperator(binaryOp, destVar, lhs.getVariable(), rhs.getVariable());
 
       lhs.getEnd().setNext(0, rhs.getStart());
@@ -327,11 +374,11 @@ public final class ASTLower implements NodeVisitor<InstPair> {
       return new InstPair(lhs.getStart(), binaryInst, destVar);
     }
     else if(op == Operation.LOGIC_AND){
-      InstPair lhs = operation.getLeft().accept(this);
+      InstPair lhs = childResult(0);
       JumpInst jumpInst = new JumpInst(lhs.getVariable());
-      LocalVar destVar = mCurrentFunction.getTempVar(new BoolType());
+      LocalVar destVar = (LocalVar) mPendingVars.pop();
       CopyInst copyInstLeft = new CopyInst(destVar, lhs.getVariable());
-      InstPair rhs = operation.getRight().accept(this);
+      InstPair rhs = childResult(1);
       CopyInst copyInstRight = new CopyInst(destVar, rhs.getVariable());
       NopInst nopInst = new NopInst();
 
@@ -346,11 +393,11 @@ public final class ASTLower implements NodeVisitor<InstPair> {
       return new InstPair(lhs.getStart(), nopInst, destVar);
 
     }else if(op == Operation.LOGIC_OR){
-      InstPair lhs = operation.getLeft().accept(this);
+      InstPair lhs = childResult(0);
       JumpInst jumpInst = new JumpInst(lhs.getVariable());
 
-      InstPair rhs = operation.getRight().accept(this);
-      LocalVar destVar = mCurrentFunction.getTempVar(new BoolType());
+      InstPair rhs = childResult(1);
+      LocalVar destVar = mCurrentFunction.getTempVar(TypeFactory.boolType());
       CopyInst rhsCopyInst = new CopyInst(destVar, rhs.getVariable());
 
       CopyInst truCopyInst = new CopyInst(destVar, lhs.getVariable());
@@ -367,8 +414,8 @@ public final class ASTLower implements NodeVisitor<InstPair> {
       return new InstPair(lhs.getStart(), nopInst, destVar);
 
     }else if(op == Operation.LOGIC_NOT){
-      InstPair lhs = operation.getLeft().accept(this);
-      LocalVar destVar = mCurrentFunction.getTempVar(new BoolType());
+      InstPair lhs = childResult(0);
+      LocalVar destVar = mCurrentFunction.getTempVar(TypeFactory.boolType());
 
       UnaryNotInst unaryNotInst = new UnaryNotInst(destVar, lhs.getVariable());
       lhs.getEnd().setNext(0, unaryNotInst);
@@ -402,16 +449,12 @@ public final class ASTLower implements NodeVisitor<InstPair> {
     return false;
   }
 
-  private InstPair visit(Expression expression) {
-    return null;
-  }
-
   /**
    * It should compute the address into the array, do the load, and return the value in a LocalVar.
    */
   @Override
   public InstPair visit(ArrayAccess access) {
-    InstPair index = access.getIndex().accept(this);
+    InstPair index = childResult(0);
     AddressVar addressVar = mCurrentFunction.getTempAddressVar(access.getType());
     AddressAt addressAt = new AddressAt(addressVar, access.getBase(), index.getVariable());
     LocalVar destVar = mCurrentFunction.getTempVar(access.getBase().getType());
@@ -427,7 +470,7 @@ public final class ASTLower implements NodeVisitor<InstPair> {
   @Override
   public InstPair visit(LiteralBool literalBool) {
     BooleanConstant booleanConstant = BooleanConstant.get(mCurrentProgram, literalBool.getValue());
-    LocalVar tempVar = mCurrentFunction.getTempVar(new BoolType());
+    LocalVar tempVar = mCurrentFunction.getTempVar(TypeFactory.boolType());
     CopyInst copyInst = new CopyInst(tempVar, booleanConstant);
     return new InstPair(copyInst, copyInst, tempVar);
   }
@@ -438,7 +481,7 @@ public final class ASTLower implements NodeVisitor<InstPair> {
   @Override
   public InstPair visit(LiteralInt literalInt) {
     IntegerConstant integerConstant = IntegerConstant.get(mCurrentProgram, literalInt.getValue());
-    LocalVar tempVar = mCurrentFunction.getTempVar(new IntType());
+    LocalVar tempVar = mCurrentFunction.getTempVar(TypeFactory.intType());
     CopyInst copyInst = new CopyInst(tempVar, integerConstant);
     return new InstPair(copyInst, copyInst, tempVar);
   }
@@ -448,7 +491,7 @@ public final class ASTLower implements NodeVisitor<InstPair> {
    */
   @Override
   public InstPair visit(Return ret) {
-    InstPair valPair = ret.getValue().accept(this);
+    InstPair valPair = childResult(0);
     ReturnInst returnInst = new ReturnInst(valPair.getVariable());
     valPair.getEnd().setNext(0, returnInst);
 
@@ -470,10 +513,10 @@ public final class ASTLower implements NodeVisitor<InstPair> {
   @Override
   public InstPair visit(IfElseBranch ifElseBranch) {
 
-    InstPair conditionPair = ifElseBranch.getCondition().accept(this);
+    InstPair conditionPair = childResult(0);
     JumpInst jumpInst = new JumpInst(conditionPair.getVariable());
-    InstPair elsePair = ifElseBranch.getElseBlock().accept(this);
-    InstPair thenPair = ifElseBranch.getThenBlock().accept(this);
+    InstPair elsePair = childResult(1);
+    InstPair thenPair = childResult(2);
     NopInst nopInst = new NopInst();
 
     conditionPair.getEnd().setNext(0, jumpInst);
@@ -491,13 +534,12 @@ public final class ASTLower implements NodeVisitor<InstPair> {
   @Override
   public InstPair visit(For loop) {
 
-    InstPair initPair = loop.getInit().accept(this);
-    InstPair condition = loop.getCond().accept(this);
+    InstPair initPair = childResult(0);
+    InstPair condition = childResult(1);
     JumpInst jumpInst = new JumpInst(condition.getVariable());
-    NopInst nopInst = new NopInst();
-    stack.push(nopInst);
-    InstPair body = loop.getBody().accept(this);
-    InstPair increment = loop.getIncrement().accept(this);
+    Instruction nopInst = stack.pop();
+    InstPair body = childResult(2);
+    InstPair increment = childResult(3);
 
     initPair.getEnd().setNext(0, condition.getStart());
     condition.getEnd().setNext(0, jumpInst);
@@ -505,7 +547,6 @@ public final class ASTLower implements NodeVisitor<InstPair> {
     jumpInst.setNext(1, body.getStart());
     body.getEnd().setNext(0, increment.getStart());
     increment.getEnd().setNext(0, condition.getStart());
-    stack.pop();
 
     return new InstPair(initPair.getStart(), nopInst, null);
   }
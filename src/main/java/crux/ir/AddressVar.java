@@ -13,17 +13,15 @@ public class AddressVar extends Variable implements java.io.Serializable {
    * Do not directly create a AddressVar. Instead use the getTempAddressVar method in the Function
    * class.
    */
-
-  public AddressVar(Type type) {
-    super(type);
+  AddressVar(Type type, int id, String name) {
+    super(type, id, name);
   }
 
-  public AddressVar(Type type, String name) {
-    super(type, name);
-    mName = String.format("%%%s", mName);
+  char sigil() {
+    return '%';
   }
 
-  public String toString() {
-    return mName;
+  String tempName() {
+    return "av";
   }
 }
@@ -0,0 +1,225 @@
+package crux.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A maximal straight-line run of instructions in a {@link Function}'s CFG. Control enters a block
+ * only at its first instruction and leaves only after its last one; the successors of the block
+ * are the successors of its last instruction, in the same order (0 = fallthrough or false,
+ * 1 = true).
+ * <p>
+ * Blocks are built and cached by {@link Function#getBlocks()}. Their id is their position in
+ * reverse post-order, so passes can keep per-block data in arrays indexed by {@link #getId()}.
+ */
+public final class BasicBlock {
+  private static final BasicBlock[] NONE = new BasicBlock[0];
+
+  private int mId;
+  private final Instruction[] mInstructions;
+  private BasicBlock[] mSuccessors = NONE;
+  private BasicBlock[] mPredecessors = NONE;
+
+  BasicBlock(Instruction[] instructions) {
+    mInstructions = instructions;
+  }
+
+  /**
+   * Returns the reverse post-order number of this block. The entry block is 0.
+   */
+  public int getId() {
+    return mId;
+  }
+
+  public int size() {
+    return mInstructions.length;
+  }
+
+  public Instruction get(int i) {
+    return mInstructions[i];
+  }
+
+  public Instruction getFirst() {
+    return mInstructions[0];
+  }
+
+  public Instruction getLast() {
+    return mInstructions[mInstructions.length - 1];
+  }
+
+  public List<Instruction> getInstructions() {
+    return List.of(mInstructions);
+  }
+
+  public int numSuccessors() {
+    return mSuccessors.length;
+  }
+
+  /**
+   * Returns the block that control reaches through edge i of the last instruction, or null if
+   * the function ends there.
+   */
+  public BasicBlock getSuccessor(int i) {
+    return i < mSuccessors.length ? mSuccessors[i] : null;
+  }
+
+  public int numPredecessors() {
+    return mPredecessors.length;
+  }
+
+  public BasicBlock getPredecessor(int i) {
+    return mPredecessors[i];
+  }
+
+  @Override
+  public String toString() {
+    return "B" + mId;
+  }
+
+  /**
+   * Split the instructions reachable from start into blocks and return them in reverse
+   * post-order. Uses the scratch fields {@link Instruction#mBlock} and {@link Instruction#mIndex}
+   * instead of hash maps; when it returns they hold each instruction's block and position in it.
+   */
+  static BasicBlock[] build(Instruction start) {
+    if (start == null) {
+      return NONE;
+    }
+    // Markers for instructions seen in this build and for block leaders. Values left over from
+    // an earlier build are never one of them.
+    var seen = new BasicBlock(null);
+    var leader = new BasicBlock(null);
+
+    // Find every reachable instruction, counting the edges into it in mIndex.
+    var reachable = new ArrayList<Instruction>();
+    reachable.add(start);
+    start.mBlock = seen;
+    start.mIndex = 0;
+    for (int k = 0; k < reachable.size(); k++) {
+      var inst = reachable.get(k);
+      for (int i = 0; i < inst.numNext(); i++) {
+        var child = inst.getNext(i);
+        if (child == null) {
+          continue;
+        }
+        if (child.mBlock != seen) {
+          child.mBlock = seen;
+          child.mIndex = 0;
+          reachable.add(child);
+        }
+        child.mIndex++;
+      }
+    }
+
+    // An instruction starts a block if it is the entry, a merge point or a branch target.
+    var leaders = new ArrayList<Instruction>();
+    start.mBlock = leader;
+    leaders.add(start);
+    for (var inst : reachable) {
+      if (inst.mIndex > 1 && inst.mBlock != leader) {
+        inst.mBlock = leader;
+        leaders.add(inst);
+      }
+      if (inst.numNext() > 1) {
+        for (int i = 0; i < inst.numNext(); i++) {
+          var target = inst.getNext(i);
+          if (target != null && target.mBlock != leader) {
+            target.mBlock = leader;
+            leaders.add(target);
+          }
+        }
+      }
+    }
+
+    // Only a block's own walk reaches its other instructions, so they are still marked seen.
+    var blocks = new BasicBlock[leaders.size()];
+    var body = new ArrayList<Instruction>();
+    for (int b = 0; b < blocks.length; b++) {
+      body.clear();
+      var inst = leaders.get(b);
+      body.add(inst);
+      while (inst.numNext() == 1 && inst.getNext(0) != null && inst.getNext(0).mBlock == seen) {
+        inst = inst.getNext(0);
+        body.add(inst);
+      }
+      var block = new BasicBlock(body.toArray(new Instruction[0]));
+      block.mId = b;
+      for (int i = 0; i < body.size(); i++) {
+        body.get(i).mBlock = block;
+        body.get(i).mIndex = i;
+      }
+      blocks[b] = block;
+    }
+    for (var block : blocks) {
+      var last = block.getLast();
+      block.mSuccessors = new BasicBlock[last.numNext()];
+      for (int i = 0; i < last.numNext(); i++) {
+        var target = last.getNext(i);
+        block.mSuccessors[i] = target == null ? null : target.mBlock;
+      }
+    }
+    return reversePostOrder(blocks);
+  }
+
+  /**
+   * Renumber blocks, whose ids are their index in blocks and of which blocks[0] is the entry, in
+   * reverse post-order and fill in their predecessors.
+   */
+  private static BasicBlock[] reversePostOrder(BasicBlock[] blocks) {
+    int n = blocks.length;
+    var postOrder = new int[n];
+    int done = 0;
+    var visited = new boolean[n];
+    var stack = new int[n];
+    var nextEdge = new int[n];
+    int top = 0;
+    stack[top++] = 0;
+    visited[0] = true;
+    while (top > 0) {
+      var block = blocks[stack[top - 1]];
+      int edge = nextEdge[top - 1];
+      if (edge < block.mSuccessors.length) {
+        nextEdge[top - 1]++;
+        var successor = block.mSuccessors[edge];
+        if (successor != null && !visited[successor.mId]) {
+          visited[successor.mId] = true;
+          stack[top] = successor.mId;
+          nextEdge[top] = 0;
+          top++;
+        }
+        continue;
+      }
+      top--;
+      postOrder[done++] = block.mId;
+    }
+
+    var order = new BasicBlock[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = blocks[postOrder[n - 1 - i]];
+    }
+    for (int i = 0; i < n; i++) {
+      order[i].mId = i;
+    }
+    int[] predCount = new int[n];
+    for (var block : order) {
+      for (var successor : block.mSuccessors) {
+        if (successor != null) {
+          predCount[successor.mId]++;
+        }
+      }
+    }
+    for (var block : order) {
+      block.mPredecessors = new BasicBlock[predCount[block.mId]];
+    }
+    Arrays.fill(predCount, 0);
+    for (var block : order) {
+      for (var successor : block.mSuccessors) {
+        if (successor != null) {
+          successor.mPredecessors[predCount[successor.mId]++] = block;
+        }
+      }
+    }
+    return order;
+  }
+}
@@ -1,7 +1,6 @@
 package crux.ir;
 
-import crux.ast.types.BoolType;
-import java.util.HashMap;
+import crux.ast.types.TypeFactory;
 
 /**
  * A constant boolean (i.e. true or false). This is equivalent to {@link crux.ast.LiteralBool}.
@@ -11,7 +10,7 @@ public final class BooleanConstant extends Constant implements java.io.Serializa
   private boolean mValue;
 
   private BooleanConstant(Program ctx, boolean val) {
-    super(new BoolType());
+    super(TypeFactory.boolType());
     mValue = val;
   }
 
@@ -20,7 +19,6 @@ public final class BooleanConstant extends Constant implements java.io.Serializa
   }
 
   public static BooleanConstant get(Program ctx, boolean value) {
-    var currentMap = mBoolConstantPool.computeIfAbsent(ctx, p -> new HashMap<>());
-    return currentMap.computeIfAbsent(value, p -> new BooleanConstant(ctx, value));
+    return ctx.boolConstants().computeIfAbsent(value, v -> new BooleanConstant(ctx, value));
   }
 }
@@ -0,0 +1,1332 @@
+package crux.ir;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.BoolType;
+import crux.ir.insts.*;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Runs a program like {@link Emulator}, but translates every instruction once, before the run,
+ * into a node that does exactly its work. Operands are resolved to slots of a {@code long[]}
+ * frame, constants and global offsets are folded into the nodes, calls are linked to the
+ * compiled callee, built-ins get their own nodes and every node holds its successors. Running a
+ * function is then the loop {@code node = node.exec(this)}.
+ * <p>
+ * Integers are stored as they are and booleans as 0 or 1. Calls push a frame on an explicit
+ * stack, so deep recursion does not use the Java stack. The engine neither profiles nor prints
+ * debug output; use the {@link Emulator} for those.
+ * <p>
+ * The sequences {@link ASTLower} emits for global accesses, literal operands and conditions are
+ * translated to {@link Superinstruction superinstructions}, single nodes that do the work of two
+ * or three instructions in one dispatch.
+ */
+public final class CompiledEmulator {
+  private final Code code;
+
+  /** Global memory, one long per 8 bytes; addresses outside of it go to overflow. */
+  private final long[] memory;
+  private final boolean[] written;
+  private final HashMap<Long, Long> overflow = new HashMap<>();
+
+  private final ProgramIO io;
+
+  private boolean countDispatches = false;
+  private long dispatches;
+  private long instructions;
+  private final long[] fusedDispatches = new long[Superinstruction.values().length];
+
+  /** The slots of the running function and the frame they belong to. */
+  long[] slots;
+  private Frame frame;
+  private int depth;
+  private int maxDepth;
+
+  public CompiledEmulator(Program p, InputStream emulatorInput, OutputStream emulatorOutput) {
+    this(p, ProgramIO.of(emulatorInput, emulatorOutput));
+  }
+
+  public CompiledEmulator(Program p, ProgramIO io) {
+    this(translate(p), io);
+  }
+
+  /**
+   * Make an emulator that runs code, which other emulators may run at the same time.
+   */
+  public CompiledEmulator(Code code, ProgramIO io) {
+    this.code = code;
+    this.io = io;
+    memory = new long[code.memorySize];
+    written = new boolean[memory.length];
+  }
+
+  /**
+   * The nodes of a translated program. They hold no state of a run, so one translation can be
+   * run by any number of emulators, one after another or at once.
+   */
+  public static final class Code {
+    private final CompiledFunction main;
+    private final int memorySize;
+    /** How often each superinstruction was translated, by ordinal. */
+    private final int[] sites = new int[Superinstruction.values().length];
+
+    private Code(Program p) {
+      var offsets = new HashMap<Symbol, Long>();
+      long offset = 0;
+      for (Iterator<GlobalDecl> glob_it = p.getGlobals(); glob_it.hasNext();) {
+        GlobalDecl g = glob_it.next();
+        offsets.put(g.getSymbol(), offset);
+        offset += g.getNumElement().getValue() * 8;
+      }
+      memorySize = (int) (offset / 8);
+
+      var functions = new IdentityHashMap<Function, CompiledFunction>();
+      var byName = new HashMap<String, CompiledFunction>();
+      for (Iterator<Function> func_it = p.getFunctions(); func_it.hasNext();) {
+        Function f = func_it.next();
+        var compiled = new CompiledFunction(f);
+        functions.put(f, compiled);
+        byName.put(f.getName(), compiled);
+      }
+      for (var compiled : functions.values())
+        new Translator(compiled, byName, offsets, sites).translate();
+      main = byName.get("main");
+    }
+  }
+
+  /**
+   * Translate p to nodes.
+   */
+  public static Code translate(Program p) {
+    return new Code(p);
+  }
+
+  /**
+   * Count the nodes the next run dispatches, for {@link #printDispatchStatistics}.
+   */
+  public void enableDispatchStatistics() {
+    countDispatches = true;
+  }
+
+  public void run() {
+    slots = new long[code.main.numSlots];
+    frame = new Frame(slots, null, null, -1);
+    depth = maxDepth = 1;
+    Node node = code.main.entry;
+    if (!countDispatches) {
+      while (node != null)
+        node = node.exec(this);
+      return;
+    }
+    while (node != null) {
+      var kind = node.kind;
+      if (kind == null) {
+        instructions++;
+      } else {
+        instructions += kind.width;
+        fusedDispatches[kind.ordinal()]++;
+      }
+      dispatches++;
+      node = node.exec(this);
+    }
+  }
+
+  /**
+   * Returns the most calls that were active at once, main included. A tail call replaces its
+   * caller, so it does not add to this.
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Print how often each superinstruction was translated and run, and how many dispatches they
+   * saved over running one node per instruction.
+   */
+  public void printDispatchStatistics(PrintStream out) {
+    out.printf("%-28s %6s %12s%n", "superinstruction", "sites", "dispatches");
+    for (var kind : Superinstruction.values()) {
+      out.printf("%-28s %6d %12d%n", kind.name, code.sites[kind.ordinal()],
+          fusedDispatches[kind.ordinal()]);
+    }
+    double saved = instructions == 0 ? 0 : 100.0 * (instructions - dispatches) / instructions;
+    out.printf("%d dispatches for %d instructions, %.1f%% fewer%n", dispatches, instructions,
+        saved);
+  }
+
+  /**
+   * Enter function with the given frame and return its first node.
+   */
+  Node call(CompiledFunction function, long[] callee, Node resume, int resultSlot) {
+    frame = new Frame(callee, frame, resume, resultSlot);
+    maxDepth = Math.max(maxDepth, ++depth);
+    slots = callee;
+    return function.entry;
+  }
+
+  /**
+   * Run function in place of the current one, which returns its result to our caller.
+   */
+  Node tailCall(CompiledFunction function, long[] callee) {
+    frame.slots = callee;
+    slots = callee;
+    return function.entry;
+  }
+
+  /**
+   * Leave the current function and return the node to continue with, or null at the end of
+   * main. A function without a value passes hasValue false.
+   */
+  Node ret(boolean hasValue, long value) {
+    var done = frame;
+    frame = done.caller;
+    depth--;
+    if (frame == null)
+      return null;
+    slots = frame.slots;
+    if (hasValue && done.resultSlot >= 0)
+      slots[done.resultSlot] = value;
+    return done.resume;
+  }
+
+  long load(long address) {
+    if (address >= 0 && (address & 7) == 0 && address / 8 < memory.length) {
+      int index = (int) (address / 8);
+      if (written[index])
+        return memory[index];
+    } else {
+      Long value = overflow.get(address);
+      if (value != null)
+        return value;
+    }
+    io.message("Reading from uninitialized memory");
+    return 0;
+  }
+
+  void store(long address, long value) {
+    if (address >= 0 && (address & 7) == 0 && address / 8 < memory.length) {
+      int index = (int) (address / 8);
+      memory[index] = value;
+      written[index] = true;
+    } else {
+      overflow.put(address, value);
+    }
+  }
+
+  /**
+   * The sequences the translator fuses into one node, named for the report, with the number of
+   * instructions each one runs.
+   */
+  enum Superinstruction {
+    /** {@code AddressAt} of a global and the {@code LoadInst} from it. */
+    LOAD_GLOBAL("load-global", 2),
+    /** {@code AddressAt} of an array element and the {@code LoadInst} from it. */
+    LOAD_INDEXED("load-indexed", 2),
+    /** {@code AddressAt} of a global and the {@code StoreInst} to it. */
+    STORE_GLOBAL("store-global", 2),
+    /** {@code AddressAt} of an array element and the {@code StoreInst} to it. */
+    STORE_INDEXED("store-indexed", 2),
+    /** A {@code CopyInst} of an integer literal and the addition that uses it. */
+    ADD_IMMEDIATE("add-immediate", 2),
+    /** A {@code CopyInst} of an integer literal and the subtraction that uses it. */
+    SUB_IMMEDIATE("sub-immediate", 2),
+    /** A {@code CompareInst} and the {@code JumpInst} on its result. */
+    COMPARE_BRANCH("compare-branch", 2),
+    /** A {@code CopyInst} of an integer literal, a comparison with it and the jump. */
+    COMPARE_IMMEDIATE_BRANCH("compare-immediate-branch", 3);
+
+    final String name;
+    final int width;
+
+    Superinstruction(String name, int width) {
+      this.name = name;
+      this.width = width;
+    }
+  }
+
+  /** A function after translation: the size of its frame and its first node. */
+  static final class CompiledFunction {
+    final Function function;
+    int numSlots;
+    Node entry;
+
+    CompiledFunction(Function function) {
+      this.function = function;
+    }
+  }
+
+  private static final class Frame {
+    long[] slots;
+    final Frame caller;
+    final Node resume;
+    final int resultSlot;
+
+    Frame(long[] slots, Frame caller, Node resume, int resultSlot) {
+      this.slots = slots;
+      this.caller = caller;
+      this.resume = resume;
+      this.resultSlot = resultSlot;
+    }
+  }
+
+  /**
+   * Builds the nodes of one function. Each variable lives in the slot given by its id, and the
+   * arguments have the first ids, so a call can copy its arguments straight into the start of the
+   * callee's frame.
+   */
+  private static final class Translator {
+    private final CompiledFunction compiled;
+    private final Map<String, CompiledFunction> byName;
+    private final Map<Symbol, Long> offsets;
+    private final int[] sites;
+    private final Map<Instruction, Node> nodes = new IdentityHashMap<>();
+    /** The last instruction of each superinstruction, whose successors it continues with. */
+    private final Map<Node, Instruction> last = new IdentityHashMap<>();
+
+    Translator(CompiledFunction compiled, Map<String, CompiledFunction> byName,
+        Map<Symbol, Long> offsets, int[] sites) {
+      this.compiled = compiled;
+      this.byName = byName;
+      this.offsets = offsets;
+      this.sites = sites;
+    }
+
+    void translate() {
+      var function = compiled.function;
+      for (BasicBlock block : function.getBlocks()) {
+        for (int k = 0; k < block.size(); k++) {
+          Instruction inst = block.get(k);
+          nodes.put(inst, node(inst));
+        }
+      }
+      for (BasicBlock block : function.getBlocks()) {
+        for (int k = 0; k < block.size(); k++) {
+          Instruction inst = block.get(k);
+          Node fused = superinstruction(inst);
+          if (fused != null) {
+            nodes.put(inst, fused);
+            sites[fused.kind.ordinal()]++;
+          }
+        }
+      }
+      for (var entry : nodes.entrySet())
+        link(last.getOrDefault(entry.getValue(), entry.getKey()), entry.getValue());
+      compiled.entry = resolve(function.getStart());
+      compiled.numSlots = function.getNumVariables();
+    }
+
+    private int slot(Value variable) {
+      if (variable == null)
+        return -1;
+      return ((Variable) variable).getId();
+    }
+
+    private void link(Instruction inst, Node node) {
+      if (node == RETURN_VOID || node instanceof Return)
+        return;
+      if (node instanceof Conditional) {
+        ((Conditional) node).onFalse = resolve(inst.getNext(0));
+        ((Conditional) node).onTrue = resolve(inst.getNext(1));
+      } else {
+        node.next = resolve(inst.getNext(0));
+      }
+    }
+
+    /**
+     * Returns the node that runs inst, skipping nops. Falling off the end of a function returns
+     * from it.
+     */
+    private Node resolve(Instruction inst) {
+      inst = skipNops(inst);
+      return inst == null ? RETURN_VOID : nodes.get(inst);
+    }
+
+    private Instruction skipNops(Instruction inst) {
+      int nops = 0;
+      while (inst instanceof NopInst && nops++ < nodes.size())
+        inst = inst.getNext(0);
+      return inst;
+    }
+
+    /**
+     * Returns the instruction that always runs right after inst, or null if there is none.
+     */
+    private Instruction following(Instruction inst) {
+      if (inst instanceof JumpInst || inst instanceof ReturnInst)
+        return null;
+      if (inst instanceof CallInst && ((CallInst) inst).isTailCall())
+        return null;
+      return skipNops(inst.getNext(0));
+    }
+
+    /**
+     * Returns a node that runs inst and the instructions after it in one dispatch, or null if
+     * they are not a {@link Superinstruction}. The node writes every destination of the
+     * sequence, so it does not matter whether its temporaries are used again.
+     */
+    private Node superinstruction(Instruction inst) {
+      Instruction second = following(inst);
+      if (inst instanceof AddressAt)
+        return fuseAddress((AddressAt) inst, second);
+      if (inst instanceof CompareInst && isBranchOn(second, ((CompareInst) inst).getDst())) {
+        var compare = (CompareInst) inst;
+        return fused(compareBranch(compare.getPredicate(), slot(compare.getDst()),
+            slot(compare.getLeftOperand()), slot(compare.getRightOperand())),
+            Superinstruction.COMPARE_BRANCH, second);
+      }
+      if (!(inst instanceof CopyInst)
+          || !(((CopyInst) inst).getSrcValue() instanceof IntegerConstant))
+        return null;
+      var copy = (CopyInst) inst;
+      int tmp = slot(copy.getDstVar());
+      long value = ((IntegerConstant) copy.getSrcValue()).getValue();
+      if (second instanceof BinaryOperator
+          && ((BinaryOperator) second).getRightOperand() == copy.getDstVar()) {
+        var binary = (BinaryOperator) second;
+        int dst = slot(binary.getDst());
+        int left = slot(binary.getLeftOperand());
+        switch (binary.getOperator()) {
+          case Add:
+            return fused(new AddImmediate(dst, left, tmp, value),
+                Superinstruction.ADD_IMMEDIATE, second);
+          case Sub:
+            return fused(new SubImmediate(dst, left, tmp, value),
+                Superinstruction.SUB_IMMEDIATE, second);
+          default:
+            return null;
+        }
+      }
+      if (second instanceof CompareInst
+          && ((CompareInst) second).getRightOperand() == copy.getDstVar()) {
+        var compare = (CompareInst) second;
+        Instruction third = following(compare);
+        if (!isBranchOn(third, compare.getDst()))
+          return null;
+        return fused(compareImmediateBranch(compare.getPredicate(), slot(compare.getDst()),
+            slot(compare.getLeftOperand()), tmp, value),
+            Superinstruction.COMPARE_IMMEDIATE_BRANCH, third);
+      }
+      return null;
+    }
+
+    private Node fuseAddress(AddressAt address, Instruction second) {
+      long base = offsets.get(address.getBase());
+      int dst = slot(address.getDst());
+      int index = slot(address.getOffset());
+      if (second instanceof LoadInst
+          && ((LoadInst) second).getSrcAddress() == address.getDst()) {
+        var load = (LoadInst) second;
+        boolean bool = load.getSrcAddress().getType() instanceof BoolType;
+        if (index < 0)
+          return fused(new LoadGlobal(slot(load.getDst()), dst, base, bool),
+              Superinstruction.LOAD_GLOBAL, second);
+        return fused(new LoadIndexed(slot(load.getDst()), dst, base, index, bool),
+            Superinstruction.LOAD_INDEXED, second);
+      }
+      if (second instanceof StoreInst
+          && ((StoreInst) second).getDestAddress() == address.getDst()) {
+        int src = slot(((StoreInst) second).getSrcValue());
+        if (index < 0)
+          return fused(new StoreGlobal(src, dst, base), Superinstruction.STORE_GLOBAL, second);
+        return fused(new StoreIndexed(src, dst, base, index), Superinstruction.STORE_INDEXED,
+            second);
+      }
+      return null;
+    }
+
+    private boolean isBranchOn(Instruction inst, Variable predicate) {
+      return inst instanceof JumpInst && ((JumpInst) inst).getPredicate() == predicate;
+    }
+
+    private Node fused(Node node, Superinstruction kind, Instruction end) {
+      node.kind = kind;
+      last.put(node, end);
+      return node;
+    }
+
+    private Node compareBranch(CompareInst.Predicate predicate, int dst, int left, int right) {
+      switch (predicate) {
+        case GE:
+          return new BranchGE(dst, left, right);
+        case GT:
+          return new BranchGT(dst, left, right);
+        case LE:
+          return new BranchLE(dst, left, right);
+        case LT:
+          return new BranchLT(dst, left, right);
+        case EQ:
+          return new BranchEQ(dst, left, right);
+        default:
+          return new BranchNE(dst, left, right);
+      }
+    }
+
+    private Node compareImmediateBranch(CompareInst.Predicate predicate, int dst, int left,
+        int tmp, long value) {
+      switch (predicate) {
+        case GE:
+          return new BranchGEImmediate(dst, left, tmp, value);
+        case GT:
+          return new BranchGTImmediate(dst, left, tmp, value);
+        case LE:
+          return new BranchLEImmediate(dst, left, tmp, value);
+        case LT:
+          return new BranchLTImmediate(dst, left, tmp, value);
+        case EQ:
+          return new BranchEQImmediate(dst, left, tmp, value);
+        default:
+          return new BranchNEImmediate(dst, left, tmp, value);
+      }
+    }
+
+    private Node node(Instruction inst) {
+      var translator = new InstVisitor() {
+        Node node;
+
+        public void visit(AddressAt i) {
+          long base = offsets.get(i.getBase());
+          node = i.getOffset() == null ? new Immediate(slot(i.getDst()), base)
+              : new AddressIndexed(slot(i.getDst()), base, slot(i.getOffset()));
+        }
+
+        public void visit(BinaryOperator i) {
+          int dst = slot(i.getDst());
+          int left = slot(i.getLeftOperand());
+          int right = slot(i.getRightOperand());
+          switch (i.getOperator()) {
+            case Add:
+              node = new Add(dst, left, right);
+              break;
+            case Sub:
+              node = new Sub(dst, left, right);
+              break;
+            case Mul:
+              node = new Mul(dst, left, right);
+              break;
+            case Div:
+              node = new Div(dst, left, right);
+              break;
+          }
+        }
+
+        public void visit(CompareInst i) {
+          int dst = slot(i.getDst());
+          int left = slot(i.getLeftOperand());
+          int right = slot(i.getRightOperand());
+          switch (i.getPredicate()) {
+            case GE:
+              node = new CompareGE(dst, left, right);
+              break;
+            case GT:
+              node = new CompareGT(dst, left, right);
+              break;
+            case LE:
+              node = new CompareLE(dst, left, right);
+              break;
+            case LT:
+              node = new CompareLT(dst, left, right);
+              break;
+            case EQ:
+              node = new CompareEQ(dst, left, right);
+              break;
+            case NE:
+              node = new CompareNE(dst, left, right);
+              break;
+          }
+        }
+
+        public void visit(CopyInst i) {
+          Value src = i.getSrcValue();
+          if (src instanceof IntegerConstant)
+            node = new Immediate(slot(i.getDstVar()), ((IntegerConstant) src).getValue());
+          else if (src instanceof BooleanConstant)
+            node = new Immediate(slot(i.getDstVar()), ((BooleanConstant) src).getValue() ? 1 : 0);
+          else
+            node = new Move(slot(i.getDstVar()), slot(src));
+        }
+
+        public void visit(JumpInst i) {
+          node = new Branch(slot(i.getPredicate()));
+        }
+
+        public void visit(LoadInst i) {
+          node = new Load(slot(i.getDst()), slot(i.getSrcAddress()),
+              i.getSrcAddress().getType() instanceof BoolType);
+        }
+
+        public void visit(NopInst i) {
+          node = new Nop();
+        }
+
+        public void visit(StoreInst i) {
+          node = new Store(slot(i.getSrcValue()), slot(i.getDestAddress()));
+        }
+
+        public void visit(UnaryNotInst i) {
+          node = new Not(slot(i.getDst()), slot(i.getInner()));
+        }
+
+        public void visit(CallInst i) {
+          int dst = slot(i.getDst());
+          int[] args = new int[i.getParams().size()];
+          for (int j = 0; j < args.length; j++)
+            args[j] = slot(i.getParams().get(j));
+          String name = i.getCallee().getName();
+          switch (name) {
+            case "readInt":
+              node = new ReadInt(dst);
+              return;
+            case "readChar":
+              node = new ReadChar(dst);
+              return;
+            case "printBool":
+              node = new PrintBool(args[0]);
+              return;
+            case "printInt":
+              node = new PrintInt(args[0]);
+              return;
+            case "printChar":
+              node = new PrintChar(args[0]);
+              return;
+            case "println":
+              node = new Println();
+              return;
+            default:
+              break;
+          }
+          var callee = byName.get(name);
+          node = i.isTailCall() ? new TailCall(callee, args) : new Call(callee, args, dst);
+        }
+
+        public void visit(ReturnInst i) {
+          node = i.getReturnValue() == null ? RETURN_VOID : new Return(slot(i.getReturnValue()));
+        }
+      };
+      inst.accept(translator);
+      return translator.node;
+    }
+  }
+
+  /**
+   * One translated instruction, or several for a superinstruction of the given kind.
+   * Straight-line nodes continue with next.
+   */
+  abstract static class Node {
+    Node next;
+    Superinstruction kind;
+
+    abstract Node exec(CompiledEmulator m);
+  }
+
+  private static final Node RETURN_VOID = new Node() {
+    Node exec(CompiledEmulator m) {
+      return m.ret(false, 0);
+    }
+  };
+
+  private static final class Nop extends Node {
+    Node exec(CompiledEmulator m) {
+      return next;
+    }
+  }
+
+  private static final class Immediate extends Node {
+    final int dst;
+    final long value;
+
+    Immediate(int dst, long value) {
+      this.dst = dst;
+      this.value = value;
+    }
+
+    Node exec(CompiledEmulator m) {
+      m.slots[dst] = value;
+      return next;
+    }
+  }
+
+  private static final class Move extends Node {
+    final int dst;
+    final int src;
+
+    Move(int dst, int src) {
+      this.dst = dst;
+      this.src = src;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[src];
+      return next;
+    }
+  }
+
+  private static final class AddressIndexed extends Node {
+    final int dst;
+    final long base;
+    final int index;
+
+    AddressIndexed(int dst, long base, int index) {
+      this.dst = dst;
+      this.base = base;
+      this.index = index;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = base + 8 * r[index];
+      return next;
+    }
+  }
+
+  private abstract static class Binary extends Node {
+    final int dst;
+    final int left;
+    final int right;
+
+    Binary(int dst, int left, int right) {
+      this.dst = dst;
+      this.left = left;
+      this.right = right;
+    }
+  }
+
+  private static final class Add extends Binary {
+    Add(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] + r[right];
+      return next;
+    }
+  }
+
+  private static final class Sub extends Binary {
+    Sub(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] - r[right];
+      return next;
+    }
+  }
+
+  private static final class Mul extends Binary {
+    Mul(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] * r[right];
+      return next;
+    }
+  }
+
+  private static final class Div extends Binary {
+    Div(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] / r[right];
+      return next;
+    }
+  }
+
+  private static final class AddImmediate extends Node {
+    final int dst;
+    final int left;
+    final int tmp;
+    final long value;
+
+    AddImmediate(int dst, int left, int tmp, long value) {
+      this.dst = dst;
+      this.left = left;
+      this.tmp = tmp;
+      this.value = value;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[tmp] = value;
+      r[dst] = r[left] + value;
+      return next;
+    }
+  }
+
+  private static final class SubImmediate extends Node {
+    final int dst;
+    final int left;
+    final int tmp;
+    final long value;
+
+    SubImmediate(int dst, int left, int tmp, long value) {
+      this.dst = dst;
+      this.left = left;
+      this.tmp = tmp;
+      this.value = value;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[tmp] = value;
+      r[dst] = r[left] - value;
+      return next;
+    }
+  }
+
+  private static final class CompareGE extends Binary {
+    CompareGE(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] >= r[right] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class CompareGT extends Binary {
+    CompareGT(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] > r[right] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class CompareLE extends Binary {
+    CompareLE(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] <= r[right] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class CompareLT extends Binary {
+    CompareLT(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] < r[right] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class CompareEQ extends Binary {
+    CompareEQ(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] == r[right] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class CompareNE extends Binary {
+    CompareNE(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[left] != r[right] ? 1 : 0;
+      return next;
+    }
+  }
+
+  private static final class Not extends Node {
+    final int dst;
+    final int src;
+
+    Not(int dst, int src) {
+      this.dst = dst;
+      this.src = src;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[dst] = r[src] ^ 1;
+      return next;
+    }
+  }
+
+  /**
+   * A node that continues with onTrue or onFalse instead of next.
+   */
+  private abstract static class Conditional extends Node {
+    Node onTrue;
+    Node onFalse;
+  }
+
+  private static final class Branch extends Conditional {
+    final int predicate;
+
+    Branch(int predicate) {
+      this.predicate = predicate;
+    }
+
+    Node exec(CompiledEmulator m) {
+      return m.slots[predicate] != 0 ? onTrue : onFalse;
+    }
+  }
+
+  private abstract static class CompareBranch extends Conditional {
+    final int dst;
+    final int left;
+    final int right;
+
+    CompareBranch(int dst, int left, int right) {
+      this.dst = dst;
+      this.left = left;
+      this.right = right;
+    }
+  }
+
+  private static final class BranchGE extends CompareBranch {
+    BranchGE(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      boolean taken = r[left] >= r[right];
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchGT extends CompareBranch {
+    BranchGT(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      boolean taken = r[left] > r[right];
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchLE extends CompareBranch {
+    BranchLE(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      boolean taken = r[left] <= r[right];
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchLT extends CompareBranch {
+    BranchLT(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      boolean taken = r[left] < r[right];
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchEQ extends CompareBranch {
+    BranchEQ(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      boolean taken = r[left] == r[right];
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchNE extends CompareBranch {
+    BranchNE(int dst, int left, int right) {
+      super(dst, left, right);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      boolean taken = r[left] != r[right];
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private abstract static class CompareImmediateBranch extends Conditional {
+    final int dst;
+    final int left;
+    final int tmp;
+    final long value;
+
+    CompareImmediateBranch(int dst, int left, int tmp, long value) {
+      this.dst = dst;
+      this.left = left;
+      this.tmp = tmp;
+      this.value = value;
+    }
+  }
+
+  private static final class BranchGEImmediate extends CompareImmediateBranch {
+    BranchGEImmediate(int dst, int left, int tmp, long value) {
+      super(dst, left, tmp, value);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[tmp] = value;
+      boolean taken = r[left] >= value;
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchGTImmediate extends CompareImmediateBranch {
+    BranchGTImmediate(int dst, int left, int tmp, long value) {
+      super(dst, left, tmp, value);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[tmp] = value;
+      boolean taken = r[left] > value;
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchLEImmediate extends CompareImmediateBranch {
+    BranchLEImmediate(int dst, int left, int tmp, long value) {
+      super(dst, left, tmp, value);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[tmp] = value;
+      boolean taken = r[left] <= value;
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchLTImmediate extends CompareImmediateBranch {
+    BranchLTImmediate(int dst, int left, int tmp, long value) {
+      super(dst, left, tmp, value);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[tmp] = value;
+      boolean taken = r[left] < value;
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchEQImmediate extends CompareImmediateBranch {
+    BranchEQImmediate(int dst, int left, int tmp, long value) {
+      super(dst, left, tmp, value);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[tmp] = value;
+      boolean taken = r[left] == value;
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class BranchNEImmediate extends CompareImmediateBranch {
+    BranchNEImmediate(int dst, int left, int tmp, long value) {
+      super(dst, left, tmp, value);
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[tmp] = value;
+      boolean taken = r[left] != value;
+      r[dst] = taken ? 1 : 0;
+      return taken ? onTrue : onFalse;
+    }
+  }
+
+  private static final class Load extends Node {
+    final int dst;
+    final int address;
+    final boolean bool;
+
+    Load(int dst, int address, boolean bool) {
+      this.dst = dst;
+      this.address = address;
+      this.bool = bool;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long value = m.load(m.slots[address]);
+      m.slots[dst] = bool ? (value != 0 ? 1 : 0) : value;
+      return next;
+    }
+  }
+
+  private static final class Store extends Node {
+    final int src;
+    final int address;
+
+    Store(int src, int address) {
+      this.src = src;
+      this.address = address;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      m.store(r[address], r[src]);
+      return next;
+    }
+  }
+
+  private static final class LoadGlobal extends Node {
+    final int dst;
+    final int address;
+    final long base;
+    final boolean bool;
+
+    LoadGlobal(int dst, int address, long base, boolean bool) {
+      this.dst = dst;
+      this.address = address;
+      this.base = base;
+      this.bool = bool;
+    }
+
+    Node exec(CompiledEmulator m) {
+      m.slots[address] = base;
+      long value = m.load(base);
+      m.slots[dst] = bool ? (value != 0 ? 1 : 0) : value;
+      return next;
+    }
+  }
+
+  private static final class LoadIndexed extends Node {
+    final int dst;
+    final int address;
+    final long base;
+    final int index;
+    final boolean bool;
+
+    LoadIndexed(int dst, int address, long base, int index, boolean bool) {
+      this.dst = dst;
+      this.address = address;
+      this.base = base;
+      this.index = index;
+      this.bool = bool;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      long at = base + 8 * r[index];
+      r[address] = at;
+      long value = m.load(at);
+      r[dst] = bool ? (value != 0 ? 1 : 0) : value;
+      return next;
+    }
+  }
+
+  private static final class StoreGlobal extends Node {
+    final int src;
+    final int address;
+    final long base;
+
+    StoreGlobal(int src, int address, long base) {
+      this.src = src;
+      this.address = address;
+      this.base = base;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      r[address] = base;
+      m.store(base, r[src]);
+      return next;
+    }
+  }
+
+  private static final class StoreIndexed extends Node {
+    final int src;
+    final int address;
+    final long base;
+    final int index;
+
+    StoreIndexed(int src, int address, long base, int index) {
+      this.src = src;
+      this.address = address;
+      this.base = base;
+      this.index = index;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      long at = base + 8 * r[index];
+      r[address] = at;
+      m.store(at, r[src]);
+      return next;
+    }
+  }
+
+  private static final class Call extends Node {
+    final CompiledFunction callee;
+    final int[] args;
+    final int dst;
+
+    Call(CompiledFunction callee, int[] args, int dst) {
+      this.callee = callee;
+      this.args = args;
+      this.dst = dst;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      long[] frame = new long[callee.numSlots];
+      for (int j = 0; j < args.length; j++)
+        frame[j] = r[args[j]];
+      return m.call(callee, frame, next, dst);
+    }
+  }
+
+  private static final class TailCall extends Node {
+    final CompiledFunction callee;
+    final int[] args;
+
+    TailCall(CompiledFunction callee, int[] args) {
+      this.callee = callee;
+      this.args = args;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long[] r = m.slots;
+      long[] frame = new long[callee.numSlots];
+      for (int j = 0; j < args.length; j++)
+        frame[j] = r[args[j]];
+      return m.tailCall(callee, frame);
+    }
+  }
+
+  private static final class Return extends Node {
+    final int value;
+
+    Return(int value) {
+      this.value = value;
+    }
+
+    Node exec(CompiledEmulator m) {
+      return m.ret(true, m.slots[value]);
+    }
+  }
+
+  private static final class ReadInt extends Node {
+    final int dst;
+
+    ReadInt(int dst) {
+      this.dst = dst;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long value = m.io.readInt();
+      if (dst >= 0)
+        m.slots[dst] = value;
+      return next;
+    }
+  }
+
+  private static final class ReadChar extends Node {
+    final int dst;
+
+    ReadChar(int dst) {
+      this.dst = dst;
+    }
+
+    Node exec(CompiledEmulator m) {
+      long value = m.io.readChar();
+      if (dst >= 0)
+        m.slots[dst] = value;
+      return next;
+    }
+  }
+
+  private static final class PrintBool extends Node {
+    final int src;
+
+    PrintBool(int src) {
+      this.src = src;
+    }
+
+    Node exec(CompiledEmulator m) {
+      m.io.printBool(m.slots[src] != 0);
+      return next;
+    }
+  }
+
+  private static final class PrintInt extends Node {
+    final int src;
+
+    PrintInt(int src) {
+      this.src = src;
+    }
+
+    Node exec(CompiledEmulator m) {
+      m.io.printInt(m.slots[src]);
+      return next;
+    }
+  }
+
+  private static final class PrintChar extends Node {
+    final int src;
+
+    PrintChar(int src) {
+      this.src = src;
+    }
+
+    Node exec(CompiledEmulator m) {
+      m.io.printChar(m.slots[src]);
+      return next;
+    }
+  }
+
+  private static final class Println extends Node {
+    Node exec(CompiledEmulator m) {
+      m.io.println();
+      return next;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package crux.ir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs many programs at once. Every run gets its own emulator, so its memory, call stack and I/O
+ * are its own, and programs may be shared between runs: the runner builds everything a program
+ * caches lazily before the runs start, after which the emulators only read it. Runs of the same
+ * program on the {@link CompiledEmulator} share one translation.
+ * <p>
+ * By default each run is a virtual thread. On a JDK without them the runs share a pool of one
+ * thread per processor.
+ */
+public final class ConcurrentRunner implements AutoCloseable {
+  /** A program and the input it reads, with a name for the run. */
+  public static final class Job {
+    final String name;
+    final Program program;
+    final byte[] input;
+
+    public Job(String name, Program program, byte[] input) {
+      this.name = name;
+      this.program = program;
+      this.input = input;
+    }
+
+    public Job(Program program, byte[] input) {
+      this(null, program, input);
+    }
+  }
+
+  /** What a run printed, and the error it stopped with, if any. */
+  public static final class Result {
+    private final String name;
+    private final byte[] output;
+    private final Throwable error;
+
+    Result(String name, byte[] output, Throwable error) {
+      this.name = name;
+      this.output = output;
+      this.error = error;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public byte[] getOutput() {
+      return output.clone();
+    }
+
+    public Throwable getError() {
+      return error;
+    }
+  }
+
+  private final ExecutorService executor;
+  private final boolean compiled;
+
+  /**
+   * Make a runner that runs programs on the {@link CompiledEmulator} if compiled is set, and on
+   * the {@link Emulator} otherwise, using {@link #newExecutor}.
+   */
+  public ConcurrentRunner(boolean compiled) {
+    this(newExecutor(), compiled);
+  }
+
+  public ConcurrentRunner(ExecutorService executor, boolean compiled) {
+    this.executor = executor;
+    this.compiled = compiled;
+  }
+
+  /**
+   * Returns an executor that starts a virtual thread per task, or a fixed pool of platform
+   * threads where virtual threads are not available.
+   */
+  public static ExecutorService newExecutor() {
+    try {
+      Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) virtual.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+  }
+
+  /**
+   * Run every job and return their results in the same order, once all of them are done.
+   */
+  public List<Result> runAll(List<Job> jobs) {
+    var results = new ArrayList<Result>();
+    runAll(jobs, results::add);
+    return results;
+  }
+
+  /**
+   * Run every job and pass each result to sink on the calling thread, in the order of jobs, as
+   * soon as it and the ones before it are done.
+   */
+  public void runAll(List<Job> jobs, Consumer<Result> sink) {
+    var translations = new IdentityHashMap<Program, CompiledEmulator.Code>();
+    for (var job : jobs) {
+      if (!translations.containsKey(job.program)) {
+        prepare(job.program);
+        translations.put(job.program, compiled ? CompiledEmulator.translate(job.program) : null);
+      }
+    }
+    var futures = new ArrayList<Future<Result>>();
+    for (var job : jobs) {
+      var code = translations.get(job.program);
+      futures.add(executor.submit(() -> run(job, code)));
+    }
+    for (int j = 0; j < futures.size(); j++) {
+      try {
+        sink.accept(futures.get(j).get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("interrupted while waiting for runs", e);
+      } catch (ExecutionException e) {
+        sink.accept(new Result(jobs.get(j).name, new byte[0], e.getCause()));
+      }
+      // Let the finished run's output be collected.
+      futures.set(j, null);
+    }
+  }
+
+  private Result run(Job job, CompiledEmulator.Code code) {
+    var output = new ByteArrayOutputStream();
+    var io = ProgramIO.of(new ByteArrayInputStream(job.input), output);
+    try {
+      if (compiled)
+        new CompiledEmulator(code, io).run();
+      else
+        new Emulator(job.program, io).run();
+    } catch (RuntimeException | Error e) {
+      return new Result(job.name, output.toByteArray(), e);
+    }
+    return new Result(job.name, output.toByteArray(), null);
+  }
+
+  /**
+   * Build the basic blocks of every function, which are otherwise built on first use.
+   */
+  static void prepare(Program program) {
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();)
+      it.next().getBlocks();
+  }
+
+  public void close() {
+    executor.shutdown();
+  }
+}
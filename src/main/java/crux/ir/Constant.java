@@ -2,15 +2,12 @@ package crux.ir;
 
 import crux.ast.types.Type;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * A constant represents any kind of constant value. In our language that is integers and booleans.
  */
 public abstract class Constant extends Value {
-  protected static Map<Program, Map<Long, IntegerConstant>> mIntConstantPool = new HashMap<>();
-  protected static Map<Program, Map<Boolean, BooleanConstant>> mBoolConstantPool = new HashMap<>();
+  /** The id the class had when it held the constant pools, which older streams name. */
+  static final long serialVersionUID = 2436184821860290159L;
 
   protected Constant(Type type) {
     super(type);
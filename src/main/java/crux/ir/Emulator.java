@@ -5,24 +5,50 @@ import java.io.*;
 import crux.ir.insts.*;
 import crux.ast.SymbolTable.Symbol;
 import crux.ast.types.*;
+import crux.ir.pass.Purity;
 
 public class Emulator {
+  Program program;
   HashMap<String, Function> functions = new HashMap<>();
-  Stack<CallContext> stack = new Stack<>();
+  IdentityHashMap<Function, FrameLayout> layouts = new IdentityHashMap<>();
   HashMap<Long, Long> globalMap = new HashMap<>();
   HashMap<Symbol, Long> offsetMap = new HashMap<>();
 
-  BufferedReader br;
-  PrintStream out;
-  public static boolean DEBUG = false;
+  ProgramIO io;
+  boolean debug = false;
+  Profile profile;
+
+  /**
+   * The variables of all active calls. Each call owns a window of values starting at its base,
+   * and its callee's window starts right after it. Integers are stored as they are and booleans
+   * as 0 or 1.
+   */
+  long[] values = new long[256];
+  /** The active calls, main first. Contexts above depth are kept for the next calls. */
+  CallContext[] frames = new CallContext[16];
+  int depth = 0;
+  int maxDepth = 0;
+
+  /** Results of pure calls, and the index of each function that may use it. */
+  MemoTable memo;
+  IdentityHashMap<Function, Integer> memoIds = new IdentityHashMap<>();
 
   public Emulator(Program p, InputStream emulatorInput, OutputStream emulatorOutput) {
-    br = new BufferedReader(new InputStreamReader(emulatorInput));
-    out = new PrintStream(emulatorOutput);
+    this(p, ProgramIO.of(emulatorInput, emulatorOutput));
+  }
+
+  /**
+   * Make an emulator whose program reads and prints through io, which also gets the debug
+   * output.
+   */
+  public Emulator(Program p, ProgramIO io) {
+    program = p;
+    this.io = io;
 
     for (Iterator<Function> func_it = p.getFunctions(); func_it.hasNext();) {
       Function f = func_it.next();
       functions.put(f.getName(), f);
+      layouts.put(f, new FrameLayout(f));
     }
     long offset = 0;
     for (Iterator<GlobalDecl> glob_it = p.getGlobals(); glob_it.hasNext();) {
@@ -32,43 +58,221 @@ public class Emulator {
     }
   }
 
+  /**
+   * Print every instruction the program executes, with its operands.
+   */
+  public void setDebug(boolean debug) {
+    this.debug = debug;
+  }
+
+  /**
+   * Count what the program executes in profile while it runs. Without a profile the emulator
+   * only checks for one before each instruction.
+   */
+  public void setProfile(Profile profile) {
+    this.profile = profile;
+  }
+
+  /**
+   * Reuse the results of calls to pure functions with the same arguments, keeping up to capacity
+   * of them. Only the functions {@link Purity} finds pure and that return a value are memoized,
+   * so the program prints the same as without. Returns the table, for its statistics.
+   */
+  public MemoTable enableMemoization(int capacity) {
+    var purity = new Purity(program);
+    var names = new ArrayList<String>();
+    int maxArity = 0;
+    for (Function f : functions.values()) {
+      if (purity.isPure(f) && !(f.getFuncType().getRet() instanceof VoidType)) {
+        memoIds.put(f, names.size());
+        names.add(f.getName());
+        maxArity = Math.max(maxArity, f.getArguments().size());
+      }
+    }
+    memo = new MemoTable(capacity, names.toArray(new String[0]), maxArity);
+    return memo;
+  }
+
   public void run() {
     Function main = functions.get("main");
-    CallContext mainc = new CallContext(main, null, null);
-    stack.push(mainc);
-    while (!stack.isEmpty()) {
-      CallContext c = stack.peek();
+    push(0, -1).enter(main, 0);
+    while (depth > 0) {
+      CallContext c = frames[depth - 1];
       if (c.pc == null) {
         // Handle implicit return from void function
-        stack.pop();
+        pop();
       } else {
+        if (profile != null)
+          profile.execute(c.block, c.index);
         c.pc.accept(c);
       }
     }
   }
 
+  /**
+   * Returns the most calls that were active at once, main included. A tail call replaces its
+   * caller, so it does not add to this.
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
   void debug(String msg) {
-    if (DEBUG)
-      out.println(msg);
+    if (debug)
+      io.message(msg);
+  }
+
+  /**
+   * Returns the context for a new call whose window starts at base, reusing the one a
+   * finished call left at this depth. The callee's result goes to slot retSlot of the caller.
+   */
+  CallContext push(int base, int retSlot) {
+    if (depth == frames.length)
+      frames = Arrays.copyOf(frames, depth * 2);
+    CallContext c = frames[depth];
+    if (c == null)
+      c = frames[depth] = new CallContext();
+    depth++;
+    maxDepth = Math.max(maxDepth, depth);
+    c.f = null;
+    c.base = base;
+    c.retSlot = retSlot;
+    c.memoFunction = -1;
+    return c;
+  }
+
+  void pop() {
+    depth--;
+    if (profile != null)
+      profile.exit();
+  }
+
+  /**
+   * Make sure values has room for the first size values.
+   */
+  void reserve(int size) {
+    if (size > values.length)
+      values = Arrays.copyOf(values, Math.max(size, values.length * 2));
+  }
+
+  /**
+   * The size of a function's window and which of its variables hold booleans, for the debug
+   * output. Each variable lives in the slot given by its id, and the arguments have the first
+   * ids, so a call can copy them straight into the start of the callee's window.
+   * <p>
+   * The instructions that write a variable tell whether it is a boolean, as the types of
+   * temporaries are not always right.
+   */
+  static final class FrameLayout {
+    final Set<Variable> bools = Collections.newSetFromMap(new IdentityHashMap<>());
+    final int size;
+
+    FrameLayout(Function f) {
+      for (LocalVar arg : f.getArguments()) {
+        if (arg.getType() instanceof BoolType)
+          bools.add(arg);
+      }
+      size = f.getNumVariables();
+
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (BasicBlock block : f.getBlocks()) {
+          for (int k = 0; k < block.size(); k++) {
+            Instruction inst = block.get(k);
+            if (inst.getDestination() != null && isBool(inst))
+              changed |= bools.add(inst.getDestination());
+          }
+        }
+      }
+    }
+
+    private boolean isBool(Instruction inst) {
+      if (inst instanceof CompareInst || inst instanceof UnaryNotInst)
+        return true;
+      if (inst instanceof LoadInst)
+        return ((LoadInst) inst).getSrcAddress().getType() instanceof BoolType;
+      if (inst instanceof CallInst) {
+        Type callee = ((CallInst) inst).getCallee().getType();
+        return callee instanceof FuncType && ((FuncType) callee).getRet() instanceof BoolType;
+      }
+      if (inst instanceof CopyInst) {
+        Value src = ((CopyInst) inst).getSrcValue();
+        return src instanceof BooleanConstant || bools.contains(src);
+      }
+      return false;
+    }
   }
 
   class CallContext extends InstVisitor {
     Function f;
+    FrameLayout layout;
     Instruction pc;
-    HashMap<Variable, Object> localMap;
-    LocalVar retval;
+    BasicBlock block;
+    int index;
+    /** The start of this call's window in values. */
+    int base;
+    /** The caller's slot for the result, or -1 if it has none. */
+    int retSlot;
+    /**
+     * The memo index of the function this call was made to and its arguments, if its result
+     * goes into the memo table, or -1. A tail call returns the same result, so it keeps them.
+     */
+    int memoFunction;
+    int memoArity;
+    long[] memoKey;
 
-    CallContext(Function f, Object[] arguments, LocalVar retval) {
+    /**
+     * Start running f from its first instruction with the arguments already in the first slots
+     * of the window, and clear the rest of it. A call in tail position enters the callee in the
+     * caller's context, which is not needed any more, so the callee returns straight to the
+     * caller's caller and the stack does not grow.
+     */
+    void enter(Function f, int numArguments) {
+      if (profile != null) {
+        if (this.f != null)
+          profile.exit();
+        profile.enter(f);
+      }
       this.f = f;
-      pc = f.getStart();
-      localMap = new HashMap<>();
-      if (arguments != null) {
-        int index = 0;
-        for (LocalVar arg : f.getArguments()) {
-          localMap.put(arg, arguments[index++]);
-        }
+      layout = layouts.get(f);
+      block = f.getEntryBlock();
+      index = 0;
+      pc = block == null ? null : block.getFirst();
+      reserve(base + layout.size);
+      Arrays.fill(values, base + numArguments, base + layout.size, 0);
+    }
+
+    long get(Value v) {
+      return values[base + ((Variable) v).getId()];
+    }
+
+    void put(Variable v, long value) {
+      values[base + v.getId()] = value;
+    }
+
+    /**
+     * Returns the value of v as the object the debug output and printBool show.
+     */
+    Object show(Value v) {
+      long value = get(v);
+      return layout.bools.contains(v) ? (Object) (value != 0) : (Object) value;
+    }
+
+    /**
+     * Move pc along successor edge edge of the current instruction.
+     */
+    void advance(int edge) {
+      if (index + 1 < block.size()) {
+        pc = block.get(++index);
+        return;
       }
-      this.retval = retval;
+      var target = block.getSuccessor(edge);
+      if (profile != null && target != null && target.getId() <= block.getId())
+        profile.backEdge(block, target);
+      block = target;
+      index = 0;
+      pc = block == null ? null : block.getFirst();
     }
 
     public void visit(AddressAt i) {
@@ -76,40 +280,40 @@ public class Emulator {
       long address = offsetMap.get(base);
       Value v = i.getOffset();
       if (v != null) {
-        address += 8 * ((Long) localMap.get(v));
+        address += 8 * get(v);
       }
-      localMap.put(i.getDst(), address);
+      put(i.getDst(), address);
       debug("AddressAt: " + i.getDst() + " = " + address);
-      pc = pc.getNext(0);
+      advance(0);
     }
 
     public void visit(BinaryOperator i) {
-      Object left = localMap.get(i.getLeftOperand());
-      Object right = localMap.get(i.getRightOperand());
-      Object result = null;
+      long left = get(i.getLeftOperand());
+      long right = get(i.getRightOperand());
+      long result = 0;
       switch (i.getOperator()) {
         case Add:
-          result = ((Long) left) + ((Long) right);
+          result = left + right;
           break;
         case Sub:
-          result = ((Long) left) - ((Long) right);
+          result = left - right;
           break;
         case Mul:
-          result = ((Long) left) * ((Long) right);
+          result = left * right;
           break;
         case Div:
-          result = ((Long) left) / ((Long) right);
+          result = left / right;
           break;
       }
-      localMap.put(i.getDst(), result);
+      put(i.getDst(), result);
       debug("BinaryOperator: " + i.getDst() + "=" + left + i.getOperator() + right);
-      pc = pc.getNext(0);
+      advance(0);
     }
 
     public void visit(CompareInst i) {
-      Long left = (Long) localMap.get(i.getLeftOperand());
-      Long right = (Long) localMap.get(i.getRightOperand());
-      Boolean result = null;
+      long left = get(i.getLeftOperand());
+      long right = get(i.getRightOperand());
+      boolean result = false;
       switch (i.getPredicate()) {
         case GE:
           result = left >= right;
@@ -124,144 +328,169 @@ public class Emulator {
           result = left < right;
           break;
         case EQ:
-          result = left.equals(right);
+          result = left == right;
           break;
         case NE:
-          result = !left.equals(right);
+          result = left != right;
           break;
       }
-      localMap.put(i.getDst(), result);
+      put(i.getDst(), result ? 1 : 0);
       debug("CompareInst: " + i.getDst() + "=" + left + i.getPredicate() + right);
-      pc = pc.getNext(0);
+      advance(0);
     }
 
     public void visit(CopyInst i) {
       Value srcval = i.getSrcValue();
-      Object val;
+      long val;
       if (srcval instanceof IntegerConstant) {
-        val = Long.valueOf(((IntegerConstant) srcval).getValue());
+        val = ((IntegerConstant) srcval).getValue();
       } else if (srcval instanceof BooleanConstant) {
-        val = ((BooleanConstant) srcval).getValue();
+        val = ((BooleanConstant) srcval).getValue() ? 1 : 0;
       } else {
-        val = localMap.get(srcval);
+        val = get(srcval);
       }
 
-      debug("CopyInst: " + i.getDstVar() + "=" + val);
-      localMap.put(i.getDstVar(), val);
-      pc = pc.getNext(0);
+      put(i.getDstVar(), val);
+      if (debug)
+        debug("CopyInst: " + i.getDstVar() + "=" + show(i.getDstVar()));
+      advance(0);
     }
 
     public void visit(JumpInst i) {
-      Boolean pred = (Boolean) localMap.get(i.getPredicate());
+      boolean pred = get(i.getPredicate()) != 0;
       debug("Jump: " + i.getPredicate() + "=" + pred);
-      pc = pred ? pc.getNext(1) : pc.getNext(0);
+      if (profile != null && pred)
+        profile.taken(block);
+      advance(pred ? 1 : 0);
     }
 
     public void visit(LoadInst i) {
       AddressVar var = i.getSrcAddress();
-      Long address = (Long) localMap.get(var);
+      long address = get(var);
       Long value = globalMap.get(address);
       if (value == null) {
-        out.println("Reading from uninitialized memory");
+        io.message("Reading from uninitialized memory");
         value = Long.valueOf(0);
       }
 
-      Object val;
+      long val;
       if (var.getType() instanceof IntType) {
         val = value;
       } else {
-        val = Boolean.valueOf(value != 0);
+        val = value != 0 ? 1 : 0;
       }
 
-      debug("LoadInst: " + i.getDst() + "=" + val);
-      localMap.put(i.getDst(), val);
-      pc = pc.getNext(0);
+      put(i.getDst(), val);
+      if (debug)
+        debug("LoadInst: " + i.getDst() + "=" + show(i.getDst()));
+      advance(0);
     }
 
     public void visit(NopInst i) {
       // Do nothing
       debug("Nop:");
-      pc = pc.getNext(0);
+      advance(0);
     }
 
     public void visit(StoreInst i) {
       Value srcval = i.getSrcValue();
-      Object val = localMap.get(srcval);
+      long val = get(srcval);
       AddressVar dst = i.getDestAddress();
-      Long address = (Long) localMap.get(dst);
-      debug("StoreInst: *" + address + "=" + val);
+      long address = get(dst);
+      if (debug)
+        debug("StoreInst: *" + address + "=" + show(srcval));
 
-      if (val instanceof Long) {
-        globalMap.put(address, (Long) val);
-      } else if (val instanceof Boolean) {
-        globalMap.put(address, ((Boolean) val) ? Long.valueOf(1) : Long.valueOf(0));
-      }
-      pc = pc.getNext(0);
+      globalMap.put(address, val);
+      advance(0);
     }
 
     public void visit(ReturnInst i) {
-      Object val = i.getReturnValue() != null ? localMap.get(i.getReturnValue()) : null;
-      debug("ReturnInst: " + val);
+      Value result = i.getReturnValue();
+      if (debug)
+        debug("ReturnInst: " + (result != null ? show(result) : null));
+      long val = result != null ? get(result) : 0;
+      if (memoFunction >= 0 && result != null)
+        memo.put(memoFunction, memoKey, 0, memoArity, val);
       // Remove ourselves from the stack
-      stack.pop();
+      pop();
       // Return value to caller
-      if (!stack.isEmpty()) {
-        CallContext caller = stack.peek();
-        if (retval != null)
-          caller.localMap.put(retval, val);
-      }
+      if (depth > 0 && result != null && retSlot >= 0)
+        values[frames[depth - 1].base + retSlot] = val;
     }
 
     public void visit(CallInst i) {
       List<LocalVar> params = i.getParams();
-      Object[] args = new Object[params.size()];
-      for (int j = 0; j < args.length; j++) {
-        args[j] = localMap.get(params.get(j));
-      }
-
       Symbol varCallee = i.getCallee();
       String fName = varCallee.getName();
-      debug("Calling " + fName + " with " + Arrays.toString(args));
+      if (debug) {
+        Object[] args = new Object[params.size()];
+        for (int j = 0; j < args.length; j++) {
+          args[j] = show(params.get(j));
+        }
+        debug("Calling " + fName + " with " + Arrays.toString(args));
+      }
 
       if (fName.equals("readInt")) {
-        try {
-          out.print("int?");
-          String line = br.readLine();
-          localMap.put(i.mDestVar, Long.valueOf(line));
-        } catch (IOException e) {
-          throw new Error("Error in inputting Integer.");
-        }
+        long val = io.readInt();
+        if (i.mDestVar != null)
+          put(i.mDestVar, val);
       } else if (fName.equals("readChar")) {
-        try {
-          int val = br.read();
-          if (val == -1)
-            throw new Error("Reading past end of stream.");
-          localMap.put(i.mDestVar, new Long(val));
-        } catch (IOException e) {
-          throw new Error("Error in inputting Integer.");
-        }
+        long val = io.readChar();
+        if (i.mDestVar != null)
+          put(i.mDestVar, val);
       } else if (fName.equals("printBool")) {
-        out.print(args[0]);
+        io.printBool(get(params.get(0)) != 0);
       } else if (fName.equals("printInt")) {
-        out.print(args[0]);
+        io.printInt(get(params.get(0)));
       } else if (fName.equals("printChar")) {
-        out.print((char) ((Long) args[0]).longValue());
+        io.printChar(get(params.get(0)));
       } else if (fName.equals("println")) {
-        out.println("");
+        io.println();
+      } else if (i.isTailCall()) {
+        // Copy the arguments above the window first, as they may overlap their own slots.
+        int above = base + layout.size;
+        reserve(above + params.size());
+        for (int j = 0; j < params.size(); j++) {
+          values[above + j] = get(params.get(j));
+        }
+        System.arraycopy(values, above, values, base, params.size());
+        enter(functions.get(fName), params.size());
+        return;
       } else {
         Function f = functions.get(fName);
-        CallContext callee = new CallContext(f, args, (LocalVar) i.getDst());
-        stack.push(callee);
+        int calleeBase = base + layout.size;
+        reserve(calleeBase + params.size());
+        for (int j = 0; j < params.size(); j++) {
+          values[calleeBase + j] = get(params.get(j));
+        }
+        int retSlot = i.getDst() != null ? i.getDst().getId() : -1;
+        Integer memoId = memo != null ? memoIds.get(f) : null;
+        if (memoId == null) {
+          push(calleeBase, retSlot).enter(f, params.size());
+        } else {
+          int entry = memo.lookup(memoId, values, calleeBase, params.size());
+          if (entry >= 0) {
+            if (retSlot >= 0)
+              values[base + retSlot] = memo.result(entry);
+          } else {
+            CallContext callee = push(calleeBase, retSlot);
+            callee.memoFunction = memoId;
+            callee.memoArity = params.size();
+            if (callee.memoKey == null || callee.memoKey.length < params.size())
+              callee.memoKey = new long[params.size()];
+            System.arraycopy(values, calleeBase, callee.memoKey, 0, params.size());
+            callee.enter(f, params.size());
+          }
+        }
       }
-      pc = pc.getNext(0);
+      advance(0);
     }
 
     public void visit(UnaryNotInst i) {
-      Object left = localMap.get(i.getInner());
-      Object result = !((Boolean) left);
-      localMap.put(i.getDst(), result);
+      boolean result = get(i.getInner()) == 0;
+      put(i.getDst(), result ? 1 : 0);
       debug("UnaryNotInst: " + result);
-      pc = pc.getNext(0);
+      advance(0);
     }
   }
 }
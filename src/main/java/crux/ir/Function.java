@@ -3,6 +3,12 @@ package crux.ir;
 import crux.ast.types.FuncType;
 import crux.ast.types.Type;
 import crux.backend.CodeGen;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.JumpInst;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -19,14 +25,33 @@ public final class Function implements Formattable, java.io.Serializable {
   private FuncType mFuncType;
 
   private static final int FUNC_FORMAT_INDENT = 2;
-  private int mTempVarCounter, mTempAddressVarCounter;
+  private int mNumVariables;
   private Instruction startInstruction;
+  /** The basic blocks in reverse post-order, built on demand from startInstruction. */
+  private transient BasicBlock[] mBlocks;
+  private transient List<BasicBlock> mBlockList;
+  private int mNumSites = 0;
+  /** Execution counts from an earlier run, see {@link #setSiteCounts}. */
+  private transient SiteCounts mSiteCounts;
+
+  /**
+   * Besides the fields above, the instructions are written as one flat array with their successor
+   * edges encoded as indices into it, see {@link #writeObject}.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("mFuncName", String.class),
+      new ObjectStreamField("mArgs", List.class),
+      new ObjectStreamField("mFuncType", FuncType.class),
+      new ObjectStreamField("mNumVariables", int.class),
+      new ObjectStreamField("startInstruction", Instruction.class),
+      new ObjectStreamField("mInstructions", Instruction[].class),
+      new ObjectStreamField("mEdges", int[].class),
+      new ObjectStreamField("mNumSites", int.class)};
 
   public Function(String name, FuncType funcType) {
     mFuncName = name;
     mFuncType = funcType;
-    mTempVarCounter = 0;
-    mTempAddressVarCounter = 0;
+    mNumVariables = 0;
   }
 
   public void setArguments(List<LocalVar> args) {
@@ -45,27 +70,27 @@ public final class Function implements Formattable, java.io.Serializable {
     return mFuncType;
   }
 
-  public LocalVar getTempVar(Type type, String prefix) {
-    var name = String.format("%s%d", prefix, mTempVarCounter++);
-    return new LocalVar(type, name);
+  /**
+   * Returns a new variable for the source variable called name.
+   */
+  public LocalVar getTempVar(Type type, String name) {
+    return new LocalVar(type, mNumVariables++, name);
   }
 
   public LocalVar getTempVar(Type type) {
-    var name = String.format("t%d", mTempVarCounter++);
-    return new LocalVar(type, name);
-  }
-
-  public int getNumTempVars() {
-    return mTempVarCounter;
+    return new LocalVar(type, mNumVariables++, null);
   }
 
   public AddressVar getTempAddressVar(Type type) {
-    var name = String.format("av%d", mTempAddressVarCounter++);
-    return new AddressVar(type, name);
+    return new AddressVar(type, mNumVariables++, null);
   }
 
-  public int getNumTempAddressVars() {
-    return mTempAddressVarCounter;
+  /**
+   * Returns the number of variables made so far, which is one more than the largest
+   * {@link Variable#getId}.
+   */
+  public int getNumVariables() {
+    return mNumVariables;
   }
 
   public Instruction getStart() {
@@ -74,6 +99,182 @@ public final class Function implements Formattable, java.io.Serializable {
 
   public void setStart(Instruction inst) {
     startInstruction = inst;
+    invalidateBlocks();
+  }
+
+  /**
+   * Number the branches and calls of the freshly lowered CFG, in reverse post-order, as the sites
+   * of an execution profile. The numbers only depend on the shape of the function, so a profile
+   * taken at one optimization level applies to the same source at another, and edits to other
+   * functions do not invalidate it.
+   */
+  public void numberSites() {
+    mNumSites = 0;
+    for (BasicBlock block : getBlocks()) {
+      for (int i = 0; i < block.size(); i++) {
+        Instruction inst = block.get(i);
+        if (inst instanceof JumpInst || inst instanceof CallInst)
+          inst.mSite = mNumSites++;
+      }
+    }
+  }
+
+  public int getNumSites() {
+    return mNumSites;
+  }
+
+  /**
+   * Returns the execution counts of this function's sites, or null if there is no profile.
+   */
+  public SiteCounts getSiteCounts() {
+    return mSiteCounts;
+  }
+
+  public void setSiteCounts(SiteCounts counts) {
+    mSiteCounts = counts;
+  }
+
+  /**
+   * Returns the basic blocks of the CFG in reverse post-order, so block i has id i and the entry
+   * block comes first. The blocks are cached until {@link #invalidateBlocks()}.
+   */
+  public List<BasicBlock> getBlocks() {
+    if (mBlocks == null) {
+      mBlocks = BasicBlock.build(startInstruction);
+      mBlockList = Collections.unmodifiableList(Arrays.asList(mBlocks));
+    }
+    return mBlockList;
+  }
+
+  public int numBlocks() {
+    return getBlocks().size();
+  }
+
+  public BasicBlock getBlock(int id) {
+    getBlocks();
+    return mBlocks[id];
+  }
+
+  /**
+   * Returns the block containing the start instruction, or null for an empty function.
+   */
+  public BasicBlock getEntryBlock() {
+    return numBlocks() == 0 ? null : mBlocks[0];
+  }
+
+  /**
+   * Drop the cached blocks. Must be called after changing the successor edges of any
+   * instruction of this function.
+   */
+  public void invalidateBlocks() {
+    mBlocks = null;
+    mBlockList = null;
+  }
+
+  /**
+   * Unlink the given instructions from the CFG. Every edge into a removed instruction is
+   * redirected to the first instruction after it that is kept, so each removed instruction must
+   * have exactly one successor.
+   */
+  public void removeInstructions(Set<Instruction> removed) {
+    if (removed.isEmpty())
+      return;
+    startInstruction = skip(startInstruction, removed);
+    for (BasicBlock block : getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        Instruction inst = block.get(k);
+        if (removed.contains(inst))
+          continue;
+        for (int i = 0; i < inst.numNext(); i++) {
+          Instruction target = inst.getNext(i);
+          if (target != null && removed.contains(target))
+            inst.setNext(i, skip(target, removed));
+        }
+      }
+    }
+    invalidateBlocks();
+  }
+
+  /**
+   * Put the value of each entry of replaced in the CFG in place of its key: every edge into a
+   * replaced instruction is pointed at its replacement, which takes over its successors.
+   */
+  public void replaceInstructions(Map<Instruction, Instruction> replaced) {
+    if (replaced.isEmpty())
+      return;
+    startInstruction = replaced.getOrDefault(startInstruction, startInstruction);
+    for (BasicBlock block : getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        Instruction inst = block.get(k);
+        for (int i = 0; i < inst.numNext(); i++) {
+          Instruction target = inst.getNext(i);
+          if (target != null && replaced.containsKey(target))
+            inst.setNext(i, replaced.get(target));
+        }
+      }
+    }
+    for (var entry : replaced.entrySet()) {
+      Instruction old = entry.getKey();
+      for (int i = 0; i < old.numNext(); i++)
+        entry.getValue().setNext(i, old.getNext(i));
+    }
+    invalidateBlocks();
+  }
+
+  /**
+   * Insert the instructions of each entry of chains, which must not be linked yet, before its
+   * key: every edge into the key is pointed at the first instruction of the chain, each one falls
+   * through to the next, and the last one falls through to the key.
+   */
+  public void insertBefore(Map<Instruction, List<Instruction>> chains) {
+    var firsts = new HashMap<Instruction, Instruction>();
+    for (var entry : chains.entrySet()) {
+      var chain = entry.getValue();
+      if (chain.isEmpty())
+        continue;
+      for (int i = 0; i + 1 < chain.size(); i++)
+        chain.get(i).setNext(0, chain.get(i + 1));
+      firsts.put(entry.getKey(), chain.get(0));
+    }
+    if (firsts.isEmpty())
+      return;
+    startInstruction = firsts.getOrDefault(startInstruction, startInstruction);
+    for (BasicBlock block : getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        Instruction inst = block.get(k);
+        for (int i = 0; i < inst.numNext(); i++) {
+          Instruction target = inst.getNext(i);
+          if (target != null && firsts.containsKey(target))
+            inst.setNext(i, firsts.get(target));
+        }
+      }
+    }
+    for (var entry : chains.entrySet()) {
+      var chain = entry.getValue();
+      if (!chain.isEmpty())
+        chain.get(chain.size() - 1).setNext(0, entry.getKey());
+    }
+    invalidateBlocks();
+  }
+
+  /**
+   * Returns the first instruction from inst on that is not removed. The removed instructions on
+   * the way are pointed straight at it, so later edges into the same run skip it in one step.
+   */
+  private static Instruction skip(Instruction inst, Set<Instruction> removed) {
+    Instruction target = inst;
+    while (target != null && removed.contains(target)) {
+      if (target.numNext() != 1)
+        throw new IllegalArgumentException("cannot remove an instruction with "
+            + target.numNext() + " successors");
+      target = target.getNext(0);
+    }
+    while (inst != target) {
+      Instruction next = inst.getNext(0);
+      inst.setNext(0, target);
+      inst = next;
+    }
+    return target;
   }
 
   /**
@@ -85,26 +286,33 @@ public final class Function implements Formattable, java.io.Serializable {
 
   public HashMap<Instruction, String> assignLabels(int count[]) {
     HashMap<Instruction, String> labelMap = new HashMap<>();
-    Stack<Instruction> tovisit = new Stack<>();
-    HashSet<Instruction> discovered = new HashSet<>();
-    if (getStart() != null)
-      tovisit.push(getStart());
-    while (!tovisit.isEmpty()) {
-      Instruction inst = tovisit.pop();
+    List<BasicBlock> blocks = getBlocks();
+    // Only block leaders can be merge points or jump targets, so walking the blocks finds the
+    // same labels, in the same order, as walking every instruction.
+    boolean[] discovered = new boolean[blocks.size()];
+    int[] tovisit = new int[blocks.size() + 1];
+    int top = 0;
+    if (!blocks.isEmpty())
+      tovisit[top++] = 0;
+    while (top > 0) {
+      BasicBlock block = blocks.get(tovisit[--top]);
 
-      for (int childIdx = 0; childIdx < inst.numNext(); childIdx++) {
-        Instruction child = inst.getNext(childIdx);
-        if (discovered.contains(child)) {
+      for (int childIdx = 0; childIdx < block.numSuccessors(); childIdx++) {
+        BasicBlock child = block.getSuccessor(childIdx);
+        if (child == null)
+          continue;
+        Instruction leader = child.getFirst();
+        if (discovered[child.getId()]) {
           // Found the node for a second time...need a label for merge points
-          if (!labelMap.containsKey(child)) {
-            labelMap.put(child, "L" + (++count[0]));
+          if (!labelMap.containsKey(leader)) {
+            labelMap.put(leader, "L" + (++count[0]));
           }
         } else {
-          discovered.add(child);
-          tovisit.push(child);
+          discovered[child.getId()] = true;
+          tovisit[top++] = child.getId();
           // Need a label for jump targets also
-          if (childIdx == 1 && !labelMap.containsKey(child)) {
-            labelMap.put(child, "L" + (++count[0]));
+          if (childIdx == 1 && !labelMap.containsKey(leader)) {
+            labelMap.put(leader, "L" + (++count[0]));
           }
         }
       }
@@ -112,6 +320,100 @@ public final class Function implements Formattable, java.io.Serializable {
     return labelMap;
   }
 
+  /**
+   * Returns every instruction reachable from the start, block by block in reverse post-order.
+   */
+  private List<Instruction> reachableInstructions() {
+    List<Instruction> order = new ArrayList<>();
+    for (BasicBlock block : getBlocks()) {
+      for (int i = 0; i < block.size(); i++) {
+        order.add(block.get(i));
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Write the CFG without recursing along the instruction chain. For each instruction, mEdges
+   * holds its number of successors followed by their indices in mInstructions, or -1 for null.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    List<Instruction> instructions = reachableInstructions();
+    Map<Instruction, Integer> index = new IdentityHashMap<>();
+    int edgeCount = 0;
+    for (Instruction inst : instructions) {
+      index.put(inst, index.size());
+      edgeCount += 1 + inst.numNext();
+    }
+    int[] edges = new int[edgeCount];
+    int pos = 0;
+    for (Instruction inst : instructions) {
+      edges[pos++] = inst.numNext();
+      for (int i = 0; i < inst.numNext(); i++) {
+        Instruction child = inst.getNext(i);
+        edges[pos++] = child == null ? -1 : index.get(child);
+      }
+    }
+
+    var fields = out.putFields();
+    fields.put("mFuncName", mFuncName);
+    fields.put("mArgs", mArgs);
+    fields.put("mFuncType", mFuncType);
+    fields.put("mNumVariables", mNumVariables);
+    fields.put("startInstruction", startInstruction);
+    fields.put("mInstructions", instructions.toArray(new Instruction[0]));
+    fields.put("mEdges", edges);
+    fields.put("mNumSites", mNumSites);
+    out.writeFields();
+  }
+
+  /**
+   * Older streams have no mEdges; their instructions carry their own successors.
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    var fields = in.readFields();
+    mFuncName = (String) fields.get("mFuncName", null);
+    mArgs = (List<LocalVar>) fields.get("mArgs", null);
+    mFuncType = (FuncType) fields.get("mFuncType", null);
+    mNumVariables = fields.get("mNumVariables", 0);
+    startInstruction = (Instruction) fields.get("startInstruction", null);
+    mNumSites = fields.get("mNumSites", 0);
+
+    var instructions = (Instruction[]) fields.get("mInstructions", null);
+    var edges = (int[]) fields.get("mEdges", null);
+    if (instructions != null && edges != null) {
+      int pos = 0;
+      for (Instruction inst : instructions) {
+        int numNext = edges[pos++];
+        for (int i = 0; i < numNext; i++) {
+          int target = edges[pos++];
+          inst.setNext(i, target == -1 ? null : instructions[target]);
+        }
+      }
+    }
+    if (fields.defaulted("mNumVariables"))
+      numberVariables();
+  }
+
+  /**
+   * Give the variables of a function read from an older stream their ids, the arguments first.
+   */
+  private void numberVariables() {
+    for (LocalVar arg : mArgs)
+      number(arg);
+    for (Instruction inst : reachableInstructions()) {
+      for (Value operand : inst.getOperands())
+        number(operand);
+      number(inst.getDestination());
+    }
+  }
+
+  private void number(Value value) {
+    if (value instanceof Variable && ((Variable) value).getId() < 0)
+      ((Variable) value).renumber(mNumVariables++);
+  }
+
   @Override
   public String format(java.util.function.Function<Value, String> valueFormatter) {
     var funcName = getName();
@@ -0,0 +1,274 @@
+package crux.ir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Records the input and output of a run in a compact binary log, and replays a log from memory,
+ * so that a program can be run again, on any engine, with exactly the same input and without
+ * the cost of reading and formatting.
+ * <p>
+ * A log starts with {@link #MAGIC} and is followed by one event per read or print: a tag byte,
+ * then the value as a zigzag varint, or for a message its length and UTF-8 bytes.
+ */
+public final class IOTranscript {
+  private static final byte[] MAGIC = {'C', 'R', 'X', 'I', 'O', 1};
+
+  private static final int READ_INT = 1;
+  private static final int READ_CHAR = 2;
+  private static final int PRINT_INT = 3;
+  private static final int PRINT_TRUE = 4;
+  private static final int PRINT_FALSE = 5;
+  private static final int PRINT_CHAR = 6;
+  private static final int PRINTLN = 7;
+  private static final int MESSAGE = 8;
+
+  private IOTranscript() {}
+
+  /**
+   * Returns I/O that does what io does and writes every event to log. The log is complete once
+   * {@link Recorder#close} was called.
+   */
+  public static Recorder record(ProgramIO io, OutputStream log) {
+    return new Recorder(io, log);
+  }
+
+  /**
+   * Returns I/O that serves the input recorded in log and prints nothing. If verify is set, what
+   * the program prints is compared to the recorded output, and a difference is an error.
+   */
+  public static Replay replay(InputStream log, boolean verify) {
+    try {
+      return new Replay(log.readAllBytes(), verify);
+    } catch (IOException e) {
+      throw new RuntimeException("cannot read I/O log", e);
+    }
+  }
+
+  public static final class Recorder extends ProgramIO {
+    private final ProgramIO io;
+    private final OutputStream log;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    Recorder(ProgramIO io, OutputStream log) {
+      this.io = io;
+      this.log = log;
+      buffer.writeBytes(MAGIC);
+    }
+
+    public long readInt() {
+      long value = io.readInt();
+      event(READ_INT, value);
+      return value;
+    }
+
+    public long readChar() {
+      long value = io.readChar();
+      event(READ_CHAR, value);
+      return value;
+    }
+
+    public void printInt(long value) {
+      event(PRINT_INT, value);
+      io.printInt(value);
+    }
+
+    public void printBool(boolean value) {
+      buffer.write(value ? PRINT_TRUE : PRINT_FALSE);
+      io.printBool(value);
+    }
+
+    public void printChar(long value) {
+      event(PRINT_CHAR, value);
+      io.printChar(value);
+    }
+
+    public void println() {
+      buffer.write(PRINTLN);
+      io.println();
+    }
+
+    public void message(String line) {
+      byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+      event(MESSAGE, bytes.length);
+      buffer.writeBytes(bytes);
+      io.message(line);
+    }
+
+    private void event(int tag, long value) {
+      buffer.write(tag);
+      long zigzag = (value << 1) ^ (value >> 63);
+      while ((zigzag & ~0x7fL) != 0) {
+        buffer.write((int) (zigzag & 0x7f) | 0x80);
+        zigzag >>>= 7;
+      }
+      buffer.write((int) zigzag);
+    }
+
+    /**
+     * Write the log.
+     */
+    public void close() throws IOException {
+      buffer.writeTo(log);
+      log.close();
+    }
+  }
+
+  /**
+   * A log decoded into arrays, the reads apart from the prints, with a position in each.
+   */
+  public static final class Replay extends ProgramIO {
+    private final boolean verify;
+    private long[] inputs = new long[16];
+    private int[] inputTags = new int[16];
+    private int numInputs = 0;
+    private long[] outputs = new long[16];
+    private int[] outputTags = new int[16];
+    private String[] messages = new String[16];
+    private int numOutputs = 0;
+    private int nextInput = 0;
+    private int nextOutput = 0;
+
+    Replay(byte[] log, boolean verify) {
+      this.verify = verify;
+      if (log.length < MAGIC.length
+          || !Arrays.equals(Arrays.copyOf(log, MAGIC.length), MAGIC))
+        throw new RuntimeException("not an I/O log");
+      int at = MAGIC.length;
+      while (at < log.length) {
+        int tag = log[at++];
+        long value = 0;
+        String message = null;
+        if (tag != PRINT_TRUE && tag != PRINT_FALSE && tag != PRINTLN) {
+          long zigzag = 0;
+          for (int shift = 0;; shift += 7) {
+            int b = log[at++];
+            zigzag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+              break;
+          }
+          value = (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+        if (tag == MESSAGE) {
+          message = new String(log, at, (int) value, StandardCharsets.UTF_8);
+          at += (int) value;
+        }
+        if (tag == READ_INT || tag == READ_CHAR)
+          addInput(tag, value);
+        else
+          addOutput(tag, value, message);
+      }
+    }
+
+    private void addInput(int tag, long value) {
+      if (numInputs == inputs.length) {
+        inputs = Arrays.copyOf(inputs, numInputs * 2);
+        inputTags = Arrays.copyOf(inputTags, numInputs * 2);
+      }
+      inputs[numInputs] = value;
+      inputTags[numInputs++] = tag;
+    }
+
+    private void addOutput(int tag, long value, String message) {
+      if (numOutputs == outputs.length) {
+        outputs = Arrays.copyOf(outputs, numOutputs * 2);
+        outputTags = Arrays.copyOf(outputTags, numOutputs * 2);
+        messages = Arrays.copyOf(messages, numOutputs * 2);
+      }
+      outputs[numOutputs] = value;
+      messages[numOutputs] = message;
+      outputTags[numOutputs++] = tag;
+    }
+
+    public long readInt() {
+      return input(READ_INT);
+    }
+
+    public long readChar() {
+      return input(READ_CHAR);
+    }
+
+    private long input(int tag) {
+      if (nextInput == numInputs)
+        throw new Error("Reading past end of stream.");
+      if (inputTags[nextInput] != tag)
+        throw new Error(String.format("Input %d was not read with %s when it was recorded.",
+            nextInput, tag == READ_INT ? "readInt" : "readChar"));
+      return inputs[nextInput++];
+    }
+
+    public void printInt(long value) {
+      if (verify)
+        output(PRINT_INT, value, null);
+    }
+
+    public void printBool(boolean value) {
+      if (verify)
+        output(value ? PRINT_TRUE : PRINT_FALSE, 0, null);
+    }
+
+    public void printChar(long value) {
+      if (verify)
+        output(PRINT_CHAR, value, null);
+    }
+
+    public void println() {
+      if (verify)
+        output(PRINTLN, 0, null);
+    }
+
+    public void message(String line) {
+      if (verify)
+        output(MESSAGE, line.getBytes(StandardCharsets.UTF_8).length, line);
+    }
+
+    private void output(int tag, long value, String message) {
+      if (nextOutput == numOutputs || outputTags[nextOutput] != tag
+          || outputs[nextOutput] != value
+          || (message != null && !message.equals(messages[nextOutput])))
+        throw new Error(String.format("Output %d differs from the recording: expected %s, got %s.",
+            nextOutput, describe(nextOutput), describe(tag, value, message)));
+      nextOutput++;
+    }
+
+    private String describe(int output) {
+      if (output == numOutputs)
+        return "the end";
+      return describe(outputTags[output], outputs[output], messages[output]);
+    }
+
+    private static String describe(int tag, long value, String message) {
+      switch (tag) {
+        case PRINT_INT:
+          return "printInt(" + value + ")";
+        case PRINT_TRUE:
+          return "printBool(true)";
+        case PRINT_FALSE:
+          return "printBool(false)";
+        case PRINT_CHAR:
+          return "printChar(" + value + ")";
+        case PRINTLN:
+          return "println()";
+        default:
+          return "\"" + message + "\"";
+      }
+    }
+
+    /**
+     * Check that the program printed all of the recorded output, if verifying, and print how
+     * much of the log the run used.
+     */
+    public void finish(PrintStream err) {
+      if (verify && nextOutput != numOutputs)
+        throw new Error(String.format("Output %d differs from the recording: expected %s, got %s.",
+            nextOutput, describe(nextOutput), "the end"));
+      err.printf("replayed %d of %d inputs, %s %d outputs%n", nextInput, numInputs,
+          verify ? "verified" : "skipped", numOutputs);
+    }
+  }
+}
@@ -1,6 +1,12 @@
 package crux.ir;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import crux.ir.insts.InstVisitor;
 
@@ -14,36 +20,128 @@ public abstract class Instruction implements Formattable, java.io.Serializable {
   static final long serialVersionUID = 12022L;
   protected Variable mDestVar;
   protected List<Value> mOperands;
-  protected Vector<Instruction> next;
+  protected Instruction[] next;
+
+  private static final Instruction[] NO_NEXT = new Instruction[0];
+
+  /** The block containing this instruction, as of the last {@link BasicBlock#build}. */
+  transient BasicBlock mBlock;
+  /** The position of this instruction in mBlock. */
+  transient int mIndex;
+  /** The profile site of a branch or call, see {@link Function#numberSites()}, or -1. */
+  int mSite = -1;
+
+  /**
+   * The stream format still names a Vector of successors, see {@link #writeObject}.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("mDestVar", Variable.class),
+      new ObjectStreamField("mOperands", List.class),
+      new ObjectStreamField("next", Vector.class),
+      new ObjectStreamField("mSite", int.class)};
 
   protected Instruction(Variable destVar, List<Value> operands) {
     mDestVar = destVar;
     mOperands = List.copyOf(operands);
-    next = new Vector<>();
+    next = NO_NEXT;
   }
 
   protected Instruction(List<Value> operands) {
     mDestVar = null;
     mOperands = List.copyOf(operands);
-    next = new Vector<>();
+    next = NO_NEXT;
   }
 
   public abstract void accept(InstVisitor v);
 
+  /**
+   * Returns the variable this instruction writes, or null.
+   */
+  public Variable getDestination() {
+    return mDestVar;
+  }
+
+  /**
+   * Returns the values this instruction reads. Constants and null operands are included as they
+   * are stored.
+   */
+  public List<Value> getOperands() {
+    return mOperands;
+  }
+
+  /**
+   * Replace each operand that is a key of replacements with its value, and return whether any
+   * operand changed. A replacement must be the same kind of value as the operand it replaces.
+   */
+  public boolean replaceOperands(Map<? extends Value, ? extends Value> replacements) {
+    Value[] operands = null;
+    for (int i = 0; i < mOperands.size(); i++) {
+      Value replacement = replacements.get(mOperands.get(i));
+      if (replacement != null) {
+        if (operands == null)
+          operands = mOperands.toArray(new Value[0]);
+        operands[i] = replacement;
+      }
+    }
+    if (operands == null)
+      return false;
+    mOperands = List.of(operands);
+    return true;
+  }
+
+  /**
+   * Returns the number that identifies this branch or call in an execution profile of its
+   * function, or -1 if it has none.
+   */
+  public int getSite() {
+    return mSite;
+  }
+
   public Instruction getNext(int i) {
     if (i >= numNext())
       return null;
     else
-      return next.get(i);
+      return next[i];
   }
 
   public int numNext() {
-    return next.size();
+    return next.length;
   }
 
+  /**
+   * Set successor i, growing the successor list with nulls if needed. A function caches its
+   * basic blocks, so passes that change edges after lowering must call
+   * {@link Function#invalidateBlocks()}.
+   */
   public void setNext(int i, Instruction inst) {
-    if (next.size() <= i)
-      next.setSize(i + 1);
-    next.set(i, inst);
+    if (next.length <= i)
+      next = Arrays.copyOf(next, i + 1);
+    next[i] = inst;
+  }
+
+  /**
+   * The successor edges are written by the owning {@link Function}, so that serializing a long
+   * chain of instructions does not recurse once per instruction.
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    var fields = out.putFields();
+    fields.put("mDestVar", mDestVar);
+    fields.put("mOperands", mOperands);
+    fields.put("next", null);
+    fields.put("mSite", mSite);
+    out.writeFields();
+  }
+
+  /**
+   * Streams written before {@link Function} stored the edges still carry them here.
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    var fields = in.readFields();
+    mDestVar = (Variable) fields.get("mDestVar", null);
+    mOperands = (List<Value>) fields.get("mOperands", null);
+    var legacyNext = (Vector<Instruction>) fields.get("next", null);
+    next = legacyNext == null ? NO_NEXT : legacyNext.toArray(NO_NEXT);
+    mSite = fields.get("mSite", -1);
   }
 }
@@ -12,21 +12,15 @@ public final class LocalVar extends Variable implements java.io.Serializable {
   /**
    * Do not directly create a LocalVar. Instead use the getTempVar method in the Function class.
    */
-
-  public LocalVar(Type type) {
-    super(type);
+  LocalVar(Type type, int id, String name) {
+    super(type, id, name);
   }
 
-  /**
-   * Do not directly create a LocalVar. Instead use the getTempVar method in the Function class.
-   */
-
-  public LocalVar(Type type, String name) {
-    super(type, name);
-    mName = String.format("$%s", mName);
+  char sigil() {
+    return '$';
   }
 
-  public String toString() {
-    return mName;
+  String tempName() {
+    return "t";
   }
 }
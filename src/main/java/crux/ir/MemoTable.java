@@ -0,0 +1,191 @@
+package crux.ir;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * The results of calls to pure functions, keyed on the function and its arguments, for the
+ * {@link Emulator} to reuse. The table holds at most capacity results and evicts the one used
+ * least recently to make room for a new one.
+ * <p>
+ * Keys and results are kept in primitive arrays: the entries form a doubly linked list in order
+ * of use, and are found through a hash table of chains, so neither a lookup nor an insertion
+ * allocates.
+ */
+public final class MemoTable {
+  private static final int NONE = -1;
+
+  private final int capacity;
+  private final int maxArity;
+  private int size = 0;
+
+  private final int[] function;
+  private final int[] arity;
+  private final long[] keys;
+  private final long[] results;
+  /** The entries in order of use, most recent first. */
+  private final int[] newer;
+  private final int[] older;
+  private int mostRecent = NONE;
+  private int leastRecent = NONE;
+  /** The first entry of each hash chain, and the next entry in it. */
+  private final int[] buckets;
+  private final int[] chain;
+
+  private final String[] names;
+  private final long[] hits;
+  private final long[] misses;
+  private long evictions = 0;
+
+  /**
+   * Make a table for the functions with the given names, which are referred to by their index,
+   * taking at most maxArity arguments.
+   */
+  public MemoTable(int capacity, String[] names, int maxArity) {
+    this.capacity = capacity;
+    this.maxArity = maxArity;
+    this.names = names;
+    function = new int[capacity];
+    arity = new int[capacity];
+    keys = new long[capacity * maxArity];
+    results = new long[capacity];
+    newer = new int[capacity];
+    older = new int[capacity];
+    chain = new int[capacity];
+    buckets = new int[Integer.highestOneBit(Math.max(1, capacity - 1)) << 2];
+    Arrays.fill(buckets, NONE);
+    hits = new long[names.length];
+    misses = new long[names.length];
+  }
+
+  /**
+   * Returns the entry for a call of function fn with the n arguments at offset in args, or -1
+   * if its result is not in the table. A hit makes the entry the most recently used one.
+   */
+  public int lookup(int fn, long[] args, int offset, int n) {
+    int entry = buckets[hash(fn, args, offset, n)];
+    while (entry != NONE && !matches(entry, fn, args, offset, n))
+      entry = chain[entry];
+    if (entry == NONE) {
+      misses[fn]++;
+      return NONE;
+    }
+    hits[fn]++;
+    unlink(entry);
+    linkFirst(entry);
+    return entry;
+  }
+
+  public long result(int entry) {
+    return results[entry];
+  }
+
+  /**
+   * Record result as the result of function fn for the n arguments at offset in args, evicting
+   * the least recently used entry if the table is full.
+   */
+  public void put(int fn, long[] args, int offset, int n, long result) {
+    if (capacity == 0)
+      return;
+    int bucket = hash(fn, args, offset, n);
+    int entry = buckets[bucket];
+    while (entry != NONE && !matches(entry, fn, args, offset, n))
+      entry = chain[entry];
+    if (entry != NONE) {
+      results[entry] = result;
+      unlink(entry);
+      linkFirst(entry);
+      return;
+    }
+    if (size < capacity) {
+      entry = size++;
+    } else {
+      entry = leastRecent;
+      unlink(entry);
+      unchain(entry);
+      evictions++;
+    }
+    function[entry] = fn;
+    arity[entry] = n;
+    System.arraycopy(args, offset, keys, entry * maxArity, n);
+    results[entry] = result;
+    chain[entry] = buckets[bucket];
+    buckets[bucket] = entry;
+    linkFirst(entry);
+  }
+
+  private int hash(int fn, long[] args, int offset, int n) {
+    long h = fn;
+    for (int j = 0; j < n; j++)
+      h = h * 0x9e3779b97f4a7c15L + args[offset + j];
+    h ^= h >>> 29;
+    h *= 0xbf58476d1ce4e5b9L;
+    h ^= h >>> 32;
+    return (int) h & (buckets.length - 1);
+  }
+
+  private boolean matches(int entry, int fn, long[] args, int offset, int n) {
+    if (function[entry] != fn || arity[entry] != n)
+      return false;
+    int base = entry * maxArity;
+    for (int j = 0; j < n; j++) {
+      if (keys[base + j] != args[offset + j])
+        return false;
+    }
+    return true;
+  }
+
+  private void unchain(int entry) {
+    int bucket = hash(function[entry], keys, entry * maxArity, arity[entry]);
+    if (buckets[bucket] == entry) {
+      buckets[bucket] = chain[entry];
+      return;
+    }
+    int previous = buckets[bucket];
+    while (chain[previous] != entry)
+      previous = chain[previous];
+    chain[previous] = chain[entry];
+  }
+
+  private void unlink(int entry) {
+    if (newer[entry] != NONE)
+      older[newer[entry]] = older[entry];
+    else
+      mostRecent = older[entry];
+    if (older[entry] != NONE)
+      newer[older[entry]] = newer[entry];
+    else
+      leastRecent = newer[entry];
+  }
+
+  private void linkFirst(int entry) {
+    newer[entry] = NONE;
+    older[entry] = mostRecent;
+    if (mostRecent != NONE)
+      newer[mostRecent] = entry;
+    mostRecent = entry;
+    if (leastRecent == NONE)
+      leastRecent = entry;
+  }
+
+  public long getHits() {
+    return Arrays.stream(hits).sum();
+  }
+
+  public long getMisses() {
+    return Arrays.stream(misses).sum();
+  }
+
+  /**
+   * Print the hits and misses of each function that was called, and the evictions.
+   */
+  public void printStatistics(PrintStream out) {
+    out.printf("%-28s %12s %12s%n", "memoized function", "hits", "misses");
+    for (int fn = 0; fn < names.length; fn++) {
+      if (hits[fn] + misses[fn] > 0)
+        out.printf("%-28s %12d %12d%n", names[fn], hits[fn], misses[fn]);
+    }
+    out.printf("%d hits, %d misses, %d evictions, %d of %d entries used%n", getHits(),
+        getMisses(), evictions, size, capacity);
+  }
+}
@@ -0,0 +1,314 @@
+package crux.ir;
+
+import crux.ir.insts.JumpInst;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Execution counts collected by the {@link Emulator}: how often each instruction ran, how often
+ * each function was called and how many instructions it ran with and without its callees, and how
+ * often each loop back edge was taken. Calls are also recorded as a tree of call stacks, which
+ * {@link #writeCollapsedStacks} writes in the format flame graph tools read.
+ * <p>
+ * Counts per opcode and per function are derived from the instruction counts when the profile is
+ * written, so the emulator only has to bump two counters for each instruction it runs. A back
+ * edge is an edge to a block that does not come later in reverse post-order.
+ */
+public final class Profile {
+  private static final class FunctionProfile {
+    final Function function;
+    final long[][] counts;
+    final long[] taken;
+    final Map<Long, long[]> backEdges = new TreeMap<>();
+    long calls = 0;
+    long inclusive = 0;
+    int active = 0;
+
+    FunctionProfile(Function function) {
+      this.function = function;
+      var blocks = function.getBlocks();
+      counts = new long[blocks.size()][];
+      for (var block : blocks)
+        counts[block.getId()] = new long[block.size()];
+      taken = new long[blocks.size()];
+    }
+
+    long exclusive() {
+      long total = 0;
+      for (var block : counts) {
+        for (long count : block)
+          total += count;
+      }
+      return total;
+    }
+  }
+
+  /**
+   * A call stack: the functions called from main down to this one.
+   */
+  private static final class Node {
+    final Node parent;
+    final FunctionProfile function;
+    final Map<FunctionProfile, Node> children = new LinkedHashMap<>();
+    long self = 0;
+
+    Node(Node parent, FunctionProfile function) {
+      this.parent = parent;
+      this.function = function;
+    }
+  }
+
+  /**
+   * A running call: the stack of its caller, the function it runs, and the instruction count
+   * when it started.
+   */
+  private static final class Frame {
+    final Node caller;
+    final FunctionProfile function;
+    final long start;
+
+    Frame(Node caller, FunctionProfile function, long start) {
+      this.caller = caller;
+      this.function = function;
+      this.start = start;
+    }
+  }
+
+  private final Map<Function, FunctionProfile> functions = new LinkedHashMap<>();
+  private final Node root = new Node(null, null);
+  private final List<Frame> frames = new ArrayList<>();
+  private Node current = root;
+  private FunctionProfile running;
+  private long executed = 0;
+
+  /**
+   * Record that function starts running in a new frame. A recursive call runs in the stack of the
+   * call it recurses into, so deep recursion does not make deep stacks.
+   */
+  void enter(Function function) {
+    var profile = functions.computeIfAbsent(function, FunctionProfile::new);
+    frames.add(new Frame(current, profile, executed));
+    var node = current;
+    while (node != root && node.function != profile)
+      node = node.parent;
+    if (node == root) {
+      var caller = current;
+      node = caller.children.computeIfAbsent(profile, p -> new Node(caller, p));
+    }
+    current = node;
+    running = profile;
+    profile.calls++;
+    profile.active++;
+  }
+
+  /**
+   * Record that the innermost running function has returned.
+   */
+  void exit() {
+    var frame = frames.remove(frames.size() - 1);
+    // A recursive call's instructions are already part of the outermost call's total.
+    if (--frame.function.active == 0)
+      frame.function.inclusive += executed - frame.start;
+    current = frame.caller;
+    running = frames.isEmpty() ? null : frames.get(frames.size() - 1).function;
+  }
+
+  /**
+   * Record that the innermost running function executes instruction index of block.
+   */
+  void execute(BasicBlock block, int index) {
+    running.counts[block.getId()][index]++;
+    current.self++;
+    executed++;
+  }
+
+  /**
+   * Record that the branch ending block takes its true edge.
+   */
+  void taken(BasicBlock block) {
+    running.taken[block.getId()]++;
+  }
+
+  /**
+   * Record that the innermost running function jumps from block to target, which does not come
+   * after it in reverse post-order.
+   */
+  void backEdge(BasicBlock block, BasicBlock target) {
+    long key = ((long) block.getId() << 32) | target.getId();
+    running.backEdges.computeIfAbsent(key, k -> new long[1])[0]++;
+  }
+
+  /**
+   * Returns the number of instructions executed so far.
+   */
+  public long getExecuted() {
+    return executed;
+  }
+
+  /**
+   * Returns how often inst has been executed.
+   */
+  public long getCount(Function function, Instruction inst) {
+    var profile = functions.get(function);
+    if (profile == null)
+      return 0;
+    for (var block : function.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        if (block.get(k) == inst)
+          return profile.counts[block.getId()][k];
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns how often function has been called.
+   */
+  public long getCalls(Function function) {
+    var profile = functions.get(function);
+    return profile == null ? 0 : profile.calls;
+  }
+
+  /**
+   * Write the profile as a JSON object. Instructions are identified by their block and position
+   * in it and shown with valueFormatter, as in the printed IR.
+   */
+  public void writeJson(PrintStream out,
+      java.util.function.Function<Value, String> valueFormatter) {
+    Map<String, long[]> opcodes = new TreeMap<>();
+    for (var profile : functions.values()) {
+      for (var block : profile.function.getBlocks()) {
+        for (int k = 0; k < block.size(); k++) {
+          long count = profile.counts[block.getId()][k];
+          if (count > 0)
+            opcodes.computeIfAbsent(opcode(block.get(k)), o -> new long[1])[0] += count;
+        }
+      }
+    }
+
+    out.println("{");
+    out.printf("  \"instructions\": %d,%n", executed);
+    out.println("  \"opcodes\": {");
+    var separator = "";
+    for (var opcode : opcodes.entrySet()) {
+      out.printf("%s    %s: %d", separator, quote(opcode.getKey()), opcode.getValue()[0]);
+      separator = ",\n";
+    }
+    out.println();
+    out.println("  },");
+    out.println("  \"functions\": [");
+    separator = "";
+    for (var profile : functions.values()) {
+      out.print(separator);
+      writeFunction(out, profile, valueFormatter);
+      separator = ",\n";
+    }
+    out.println();
+    out.println("  ]");
+    out.println("}");
+  }
+
+  private static void writeFunction(PrintStream out, FunctionProfile profile,
+      java.util.function.Function<Value, String> valueFormatter) {
+    out.println("    {");
+    out.printf("      \"name\": %s,%n", quote(profile.function.getName()));
+    out.printf("      \"calls\": %d,%n", profile.calls);
+    out.printf("      \"inclusive\": %d,%n", profile.inclusive);
+    out.printf("      \"exclusive\": %d,%n", profile.exclusive());
+    out.println("      \"backEdges\": [");
+    var separator = "";
+    for (var edge : profile.backEdges.entrySet()) {
+      long key = edge.getKey();
+      out.printf("%s        {\"from\": \"B%d\", \"to\": \"B%d\", \"count\": %d}", separator,
+          key >>> 32, key & 0xffffffffL, edge.getValue()[0]);
+      separator = ",\n";
+    }
+    out.println();
+    out.println("      ],");
+    out.println("      \"instructions\": [");
+    separator = "";
+    for (var block : profile.function.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        out.printf("%s        {\"block\": \"%s\", \"index\": %d, \"opcode\": %s, "
+            + "\"text\": %s, \"count\": %d}", separator, block, k, quote(opcode(block.get(k))),
+            quote(block.get(k).format(valueFormatter)), profile.counts[block.getId()][k]);
+        separator = ",\n";
+      }
+    }
+    out.println();
+    out.println("      ]");
+    out.print("    }");
+  }
+
+  /**
+   * Write how often each branch and call of program ran, keyed by their sites, for a later
+   * compile of the same program to read with {@link SiteCounts#read}.
+   */
+  public void writeSiteCounts(PrintStream out, Program program) {
+    SiteCounts.writeHeader(out);
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      var counts = new SiteCounts(function.getNumSites());
+      var profile = functions.get(function);
+      if (profile != null) {
+        for (var block : function.getBlocks()) {
+          for (int k = 0; k < block.size(); k++) {
+            var inst = block.get(k);
+            if (inst.getSite() < 0 || inst.getSite() >= counts.getNumSites())
+              continue;
+            long count = profile.counts[block.getId()][k];
+            long taken = inst instanceof JumpInst ? profile.taken[block.getId()] : 0;
+            counts.add(inst.getSite(), count, taken);
+          }
+        }
+      }
+      counts.write(out, function);
+    }
+  }
+
+  /**
+   * Write one line for every call stack that executed instructions itself: the functions from
+   * main down, separated by semicolons, and the number of instructions.
+   */
+  public void writeCollapsedStacks(PrintStream out) {
+    var path = new StringBuilder();
+    for (var child : root.children.values())
+      writeStacks(out, child, path);
+  }
+
+  private static void writeStacks(PrintStream out, Node node, StringBuilder path) {
+    int length = path.length();
+    if (length > 0)
+      path.append(';');
+    path.append(node.function.function.getName());
+    if (node.self > 0)
+      out.printf("%s %d%n", path, node.self);
+    for (var child : node.children.values())
+      writeStacks(out, child, path);
+    path.setLength(length);
+  }
+
+  private static String opcode(Instruction inst) {
+    return inst.getClass().getSimpleName();
+  }
+
+  private static String quote(String text) {
+    var builder = new StringBuilder("\"");
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\')
+        builder.append('\\').append(c);
+      else if (c < ' ')
+        builder.append(String.format("\\u%04x", (int) c));
+      else
+        builder.append(c);
+    }
+    return builder.append('"').toString();
+  }
+}
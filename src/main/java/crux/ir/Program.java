@@ -1,8 +1,10 @@
 package crux.ir;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Iterator;
+import java.util.Map;
 
 
 /**
@@ -12,6 +14,12 @@ public final class Program implements Formattable, java.io.Serializable {
   static final long serialVersionUID = 12022L;
   private List<Function> mFunctions;
   private List<GlobalDecl> mGlobalVars;
+  /**
+   * One constant object per value, created on demand. Like the rest of a program, they belong to
+   * the compilation that builds it.
+   */
+  private transient Map<Long, IntegerConstant> mIntConstants;
+  private transient Map<Boolean, BooleanConstant> mBoolConstants;
 
   private static final int PROGRAM_FORMAT_INDENT = 2;
 
@@ -36,6 +44,18 @@ public final class Program implements Formattable, java.io.Serializable {
     return mFunctions.iterator();
   }
 
+  Map<Long, IntegerConstant> intConstants() {
+    if (mIntConstants == null)
+      mIntConstants = new HashMap<>();
+    return mIntConstants;
+  }
+
+  Map<Boolean, BooleanConstant> boolConstants() {
+    if (mBoolConstants == null)
+      mBoolConstants = new HashMap<>();
+    return mBoolConstants;
+  }
+
   @Override
   public String format(java.util.function.Function<Value, String> valueFormatter) {
     var builder = new StringBuilder();
@@ -0,0 +1,96 @@
+package crux.ir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * The input and output of a running program: what its built-ins read and print, and the
+ * messages the emulators print along with it. {@link #of} talks to streams, and
+ * {@link IOTranscript} records a run or replays it from memory.
+ */
+public abstract class ProgramIO {
+  /**
+   * Read an integer for readInt.
+   */
+  public abstract long readInt();
+
+  /**
+   * Read a character for readChar.
+   */
+  public abstract long readChar();
+
+  public abstract void printInt(long value);
+
+  public abstract void printBool(boolean value);
+
+  public abstract void printChar(long value);
+
+  public abstract void println();
+
+  /**
+   * Print a line the emulator writes about the run, such as a debug trace or a warning.
+   */
+  public abstract void message(String line);
+
+  /**
+   * Returns I/O that reads lines and characters from in and prints to out.
+   */
+  public static ProgramIO of(InputStream in, OutputStream out) {
+    return new Console(in, out);
+  }
+
+  private static final class Console extends ProgramIO {
+    private final BufferedReader br;
+    private final PrintStream out;
+
+    Console(InputStream in, OutputStream out) {
+      br = new BufferedReader(new InputStreamReader(in));
+      this.out = new PrintStream(out);
+    }
+
+    public long readInt() {
+      try {
+        out.print("int?");
+        String line = br.readLine();
+        return Long.valueOf(line);
+      } catch (IOException e) {
+        throw new Error("Error in inputting Integer.");
+      }
+    }
+
+    public long readChar() {
+      try {
+        int val = br.read();
+        if (val == -1)
+          throw new Error("Reading past end of stream.");
+        return val;
+      } catch (IOException e) {
+        throw new Error("Error in inputting Integer.");
+      }
+    }
+
+    public void printInt(long value) {
+      out.print(value);
+    }
+
+    public void printBool(boolean value) {
+      out.print(value);
+    }
+
+    public void printChar(long value) {
+      out.print((char) value);
+    }
+
+    public void println() {
+      out.println("");
+    }
+
+    public void message(String line) {
+      out.println(line);
+    }
+  }
+}
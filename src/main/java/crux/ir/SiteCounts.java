@@ -0,0 +1,126 @@
+package crux.ir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How often each branch and call of a function ran in an earlier run of the program, indexed by
+ * the sites of {@link Function#numberSites()}. For a branch it also counts how often its true
+ * edge was taken.
+ * <p>
+ * A profile file starts with the line {@code crux-profile 1}. Each function follows as a line
+ * {@code function <name> <number of sites>} and one line {@code site <site> <count> <taken>} for
+ * every site that ran. Functions are matched by name; a function whose number of sites has
+ * changed since the profile was taken is left without counts.
+ */
+public final class SiteCounts {
+  private static final String HEADER = "crux-profile 1";
+
+  private final long[] mCounts;
+  private final long[] mTaken;
+
+  public SiteCounts(int numSites) {
+    mCounts = new long[numSites];
+    mTaken = new long[numSites];
+  }
+
+  public int getNumSites() {
+    return mCounts.length;
+  }
+
+  /**
+   * Returns how often inst ran, or -1 if it is not a site of this profile.
+   */
+  public long getCount(Instruction inst) {
+    int site = inst.getSite();
+    return site >= 0 && site < mCounts.length ? mCounts[site] : -1;
+  }
+
+  /**
+   * Returns how often the branch inst took its true edge, or -1 if it is not a site of this
+   * profile.
+   */
+  public long getTaken(Instruction inst) {
+    int site = inst.getSite();
+    return site >= 0 && site < mTaken.length ? mTaken[site] : -1;
+  }
+
+  void add(int site, long count, long taken) {
+    mCounts[site] += count;
+    mTaken[site] += taken;
+  }
+
+  static void writeHeader(PrintStream out) {
+    out.println(HEADER);
+  }
+
+  /**
+   * Write these counts as the counts of function.
+   */
+  void write(PrintStream out, Function function) {
+    out.printf("function %s %d%n", function.getName(), mCounts.length);
+    for (int site = 0; site < mCounts.length; site++) {
+      if (mCounts[site] > 0)
+        out.printf("site %d %d %d%n", site, mCounts[site], mTaken[site]);
+    }
+  }
+
+  /**
+   * Read a profile file and return its counts by function name.
+   */
+  public static Map<String, SiteCounts> read(InputStream in) throws IOException {
+    var reader = new BufferedReader(new InputStreamReader(in));
+    if (!HEADER.equals(reader.readLine()))
+      throw new IOException("line 1: not a crux profile");
+    Map<String, SiteCounts> functions = new LinkedHashMap<>();
+    SiteCounts current = null;
+    String line;
+    int lineNumber = 1;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      var fields = line.trim().split("\\s+");
+      try {
+        if (fields[0].equals("function") && fields.length == 3) {
+          current = new SiteCounts(Integer.parseInt(fields[2]));
+          functions.put(fields[1], current);
+        } else if (fields[0].equals("site") && fields.length == 4 && current != null) {
+          current.add(Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+              Long.parseLong(fields[3]));
+        } else if (!line.isBlank()) {
+          throw new IOException(String.format("line %d: unexpected '%s'", lineNumber, line));
+        }
+      } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+        throw new IOException(String.format("line %d: malformed '%s'", lineNumber, line), e);
+      }
+    }
+    return functions;
+  }
+
+  /**
+   * Give each function of program its counts from profile. Returns the names of the functions
+   * whose counts were dropped because the function has changed.
+   */
+  public static List<String> apply(Program program, Map<String, SiteCounts> profile) {
+    var stale = new ArrayList<String>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      var counts = profile.get(function.getName());
+      if (counts == null)
+        continue;
+      if (counts.getNumSites() != function.getNumSites()) {
+        stale.add(function.getName());
+        continue;
+      }
+      function.setSiteCounts(counts);
+    }
+    return stale;
+  }
+}
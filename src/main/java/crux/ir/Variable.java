@@ -2,24 +2,95 @@ package crux.ir;
 
 import crux.ast.types.Type;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+
 /**
  * Any sort of value in the memory which holds a value that can be read or written by instructions.
  * This includes both variables declared in the AST, as well as temporaries.
+ * <p>
+ * A variable is identified by its id, a number that is dense within its function. Its name, such
+ * as {@code $t4}, is only built when it is printed.
  */
 public abstract class Variable extends Value implements java.io.Serializable {
   static final long serialVersionUID = 12022L;
-  protected String mName = "";
+  private int mId;
+  private String mName;
+  /** The printed name, for variables read from streams written before variables had ids. */
+  private transient String mLegacyName;
+
+  private static final ObjectStreamField[] serialPersistentFields = {
+      new ObjectStreamField("mName", String.class),
+      new ObjectStreamField("mId", int.class)};
 
-  protected Variable(Type type) {
+  protected Variable(Type type, int id, String name) {
     super(type);
+    mId = id;
+    mName = name;
   }
 
-  protected Variable(Type type, String name) {
-    this(type);
-    mName = name;
+  /**
+   * Returns the number of this variable in its function, below {@link Function#getNumVariables}.
+   * Backends can use it as the index of the variable's slot.
+   */
+  public int getId() {
+    return mId;
   }
 
+  /**
+   * Returns the name of the source variable this holds, or null for a temporary.
+   */
   public String getName() {
     return mName;
   }
+
+  /**
+   * Append the printed name of this variable to out: the sigil, then the source name or the
+   * default name of a temporary, then the id.
+   */
+  public void appendTo(StringBuilder out) {
+    if (mLegacyName != null) {
+      out.append(mLegacyName);
+      return;
+    }
+    out.append(sigil()).append(mName != null ? mName : tempName()).append(mId);
+  }
+
+  abstract char sigil();
+
+  abstract String tempName();
+
+  public String toString() {
+    var out = new StringBuilder();
+    appendTo(out);
+    return out.toString();
+  }
+
+  void renumber(int id) {
+    mId = id;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    var fields = out.putFields();
+    fields.put("mName", mName);
+    fields.put("mId", mId);
+    out.writeFields();
+  }
+
+  /**
+   * Older streams only hold the printed name. Their variables get ids from
+   * {@link Function#readObject}.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    var fields = in.readFields();
+    if (fields.defaulted("mId")) {
+      mId = -1;
+      mLegacyName = (String) fields.get("mName", null);
+    } else {
+      mId = fields.get("mId", 0);
+      mName = (String) fields.get("mName", null);
+    }
+  }
 }
@@ -59,6 +59,20 @@ public final class CallInst extends Instruction implements java.io.Serializable
     return (LocalVar) mDestVar;
   }
 
+  /**
+   * Returns whether this call is in tail position: only nops lie between it and either a return
+   * of its result or, for a call without result, the end of the function.
+   */
+  public boolean isTailCall() {
+    Instruction inst = getNext(0);
+    while (inst instanceof NopInst && inst.numNext() <= 1)
+      inst = inst.getNext(0);
+    if (inst == null)
+      return mDestVar == null;
+    return mDestVar != null && inst instanceof ReturnInst
+        && ((ReturnInst) inst).getReturnValue() == mDestVar;
+  }
+
   @Override
   public void accept(InstVisitor v) {
     v.visit(this);
@@ -0,0 +1,14 @@
+package crux.ir.pass;
+
+import crux.ir.Function;
+
+/**
+ * Computes a fact about a function, such as its liveness or dominator tree. Results are cached
+ * by the {@link AnalysisManager} until a pass changes the function, and an analysis can ask the
+ * manager for the other analyses it is built on.
+ */
+public interface Analysis<R> {
+  String getName();
+
+  R compute(Function function, AnalysisManager analyses);
+}
@@ -0,0 +1,43 @@
+package crux.ir.pass;
+
+import crux.ir.Function;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Computes analyses on demand and caches them per function.
+ */
+public final class AnalysisManager {
+  private final Map<Function, Map<Analysis<?>, Object>> cache = new IdentityHashMap<>();
+  private final PassStatistics statistics;
+
+  public AnalysisManager(PassStatistics statistics) {
+    this.statistics = statistics;
+  }
+
+  /**
+   * Returns the result of analysis for function, computing it if it is not cached.
+   */
+  @SuppressWarnings("unchecked")
+  public <R> R get(Analysis<R> analysis, Function function) {
+    var results = cache.computeIfAbsent(function, f -> new HashMap<>());
+    var result = results.get(analysis);
+    if (result == null) {
+      long start = System.nanoTime();
+      result = analysis.compute(function, this);
+      statistics.recordAnalysis(analysis.getName(), System.nanoTime() - start);
+      results.put(analysis, result);
+    }
+    return (R) result;
+  }
+
+  /**
+   * Drop the cached analyses and basic blocks of function after it changed.
+   */
+  public void invalidate(Function function) {
+    cache.remove(function);
+    function.invalidateBlocks();
+  }
+}
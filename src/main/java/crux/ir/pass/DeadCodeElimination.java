@@ -0,0 +1,87 @@
+package crux.ir.pass;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Value;
+import crux.ir.Variable;
+import crux.ir.insts.AddressAt;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.CompareInst;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.UnaryNotInst;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes instructions whose result is never read. Only instructions without side effects are
+ * candidates: loads stay because reading uninitialized memory is reported, and divisions stay
+ * because they can trap.
+ */
+public final class DeadCodeElimination implements FunctionPass {
+  @Override
+  public String getName() {
+    return "dead-code-elimination";
+  }
+
+  @Override
+  public List<Analysis<?>> getRequiredAnalyses() {
+    return List.of(Liveness.ANALYSIS);
+  }
+
+  @Override
+  public boolean run(Function function, AnalysisManager analyses) {
+    boolean changed = false;
+    while (true) {
+      var liveness = analyses.get(Liveness.ANALYSIS, function);
+      Set<Instruction> dead = new HashSet<>();
+      var live = new VariableSet(liveness.numVariables());
+      for (BasicBlock block : function.getBlocks())
+        findDead(block, liveness, live, dead);
+      if (dead.isEmpty())
+        return changed;
+      function.removeInstructions(dead);
+      // Removing an instruction can make the definitions of its operands dead in other blocks.
+      analyses.invalidate(function);
+      changed = true;
+    }
+  }
+
+  /**
+   * Walk block backwards from its live-out set, collecting dead instructions. The operands of a
+   * dead instruction are not counted as uses, so chains of dead instructions in one block go in
+   * one sweep.
+   */
+  private static void findDead(BasicBlock block, Liveness liveness, VariableSet live,
+      Set<Instruction> dead) {
+    live.clear();
+    live.addAll(liveness.getLiveOut(block));
+    for (int k = block.size() - 1; k >= 0; k--) {
+      Instruction inst = block.get(k);
+      Variable dest = inst.getDestination();
+      if (dest != null) {
+        int number = liveness.indexOf(dest);
+        if (!live.contains(number) && isRemovable(inst)) {
+          dead.add(inst);
+          continue;
+        }
+        live.remove(number);
+      }
+      for (Value operand : inst.getOperands()) {
+        if (operand instanceof Variable)
+          live.add(liveness.indexOf((Variable) operand));
+      }
+    }
+  }
+
+  private static boolean isRemovable(Instruction inst) {
+    if (inst.numNext() != 1 || inst.getNext(0) == null)
+      return false;
+    if (inst instanceof BinaryOperator)
+      return ((BinaryOperator) inst).getOperator() != BinaryOperator.Op.Div;
+    return inst instanceof CompareInst || inst instanceof CopyInst
+        || inst instanceof UnaryNotInst || inst instanceof AddressAt;
+  }
+}
@@ -0,0 +1,147 @@
+package crux.ir.pass;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The dominator tree of a function, computed with the algorithm of Cooper, Harvey and Kennedy
+ * over the reverse post-order block ids.
+ */
+public final class Dominators {
+  public static final Analysis<Dominators> ANALYSIS = new Analysis<>() {
+    @Override
+    public String getName() {
+      return "dominators";
+    }
+
+    @Override
+    public Dominators compute(Function function, AnalysisManager analyses) {
+      return new Dominators(function);
+    }
+  };
+
+  private final Function function;
+  private final int[] idom;
+  private final int[][] children;
+  /** Pre-order number of each block in the tree, and the largest one in its subtree. */
+  private final int[] enter;
+  private final int[] exit;
+  private final int[] preOrder;
+
+  private Dominators(Function function) {
+    this.function = function;
+    var blocks = function.getBlocks();
+    int n = blocks.size();
+    idom = new int[n];
+    Arrays.fill(idom, -1);
+    if (n > 0)
+      idom[0] = 0;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int b = 1; b < n; b++) {
+        var block = blocks.get(b);
+        int newIdom = -1;
+        for (int i = 0; i < block.numPredecessors(); i++) {
+          int p = block.getPredecessor(i).getId();
+          if (idom[p] == -1)
+            continue;
+          newIdom = newIdom == -1 ? p : intersect(p, newIdom);
+        }
+        if (idom[b] != newIdom) {
+          idom[b] = newIdom;
+          changed = true;
+        }
+      }
+    }
+
+    int[] childCount = new int[n];
+    for (int b = 1; b < n; b++)
+      childCount[idom[b]]++;
+    children = new int[n][];
+    for (int b = 0; b < n; b++)
+      children[b] = new int[childCount[b]];
+    Arrays.fill(childCount, 0);
+    for (int b = 1; b < n; b++)
+      children[idom[b]][childCount[idom[b]]++] = b;
+
+    enter = new int[n];
+    exit = new int[n];
+    preOrder = new int[n];
+    int counter = 0;
+    int[] stack = new int[n];
+    int[] next = new int[n];
+    int top = 0;
+    if (n > 0) {
+      stack[top++] = 0;
+      preOrder[counter] = 0;
+      enter[0] = counter++;
+    }
+    while (top > 0) {
+      int b = stack[top - 1];
+      if (next[top - 1] < children[b].length) {
+        int child = children[b][next[top - 1]++];
+        preOrder[counter] = child;
+        enter[child] = counter++;
+        stack[top] = child;
+        next[top] = 0;
+        top++;
+      } else {
+        exit[b] = counter - 1;
+        top--;
+      }
+    }
+  }
+
+  private int intersect(int a, int b) {
+    while (a != b) {
+      while (a > b)
+        a = idom[a];
+      while (b > a)
+        b = idom[b];
+    }
+    return a;
+  }
+
+  /**
+   * Returns the immediate dominator of block, or null for the entry block.
+   */
+  public BasicBlock getImmediateDominator(BasicBlock block) {
+    int b = block.getId();
+    return b == 0 ? null : function.getBlock(idom[b]);
+  }
+
+  /**
+   * Returns whether a dominates b. Every block dominates itself.
+   */
+  public boolean dominates(BasicBlock a, BasicBlock b) {
+    int x = a.getId();
+    int y = b.getId();
+    return enter[x] <= enter[y] && exit[y] <= exit[x];
+  }
+
+  /**
+   * Returns the blocks immediately dominated by block.
+   */
+  public List<BasicBlock> getChildren(BasicBlock block) {
+    var result = new ArrayList<BasicBlock>();
+    for (int child : children[block.getId()])
+      result.add(function.getBlock(child));
+    return result;
+  }
+
+  /**
+   * Returns all blocks in a pre-order walk of the dominator tree, so every block comes after its
+   * dominators.
+   */
+  public List<BasicBlock> getPreOrder() {
+    var result = new ArrayList<BasicBlock>(preOrder.length);
+    for (int b : preOrder)
+      result.add(function.getBlock(b));
+    return result;
+  }
+}
@@ -0,0 +1,26 @@
+package crux.ir.pass;
+
+import crux.ir.Function;
+
+import java.util.List;
+
+/**
+ * A pass that transforms one function at a time.
+ */
+public interface FunctionPass {
+  String getName();
+
+  /**
+   * Analyses this pass reads. They are computed before the pass runs, so their cost is reported
+   * separately from the pass itself.
+   */
+  default List<Analysis<?>> getRequiredAnalyses() {
+    return List.of();
+  }
+
+  /**
+   * Transform function and return whether it changed. When it did, every cached analysis of the
+   * function and its basic blocks are dropped.
+   */
+  boolean run(Function function, AnalysisManager analyses);
+}
@@ -0,0 +1,493 @@
+package crux.ir.pass;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ir.BasicBlock;
+import crux.ir.BooleanConstant;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.IntegerConstant;
+import crux.ir.LocalVar;
+import crux.ir.Value;
+import crux.ir.Variable;
+import crux.ir.insts.AddressAt;
+import crux.ir.insts.BinaryOperator;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.CompareInst;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.LoadInst;
+import crux.ir.insts.StoreInst;
+import crux.ir.insts.UnaryNotInst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes recomputations of values that are already available. Arithmetic, comparisons, address
+ * computations and loads are numbered by walking the dominator tree, so a computation is reused
+ * by every instruction it dominates.
+ * <p>
+ * The IR is not in SSA form. A variable that is assigned once, by an instruction that dominates
+ * all its reads, is stable: it holds the same value wherever it is read. Other variables, like
+ * the locals of the source program, keep their value number only along a straight run of blocks
+ * that each have their dominator as only predecessor. A redundant instruction whose destination
+ * and available value are both stable is removed and its reads renamed; otherwise it becomes a
+ * copy.
+ * <p>
+ * Stores and calls start a new memory state, and a block whose predecessors leave memory in
+ * different states, or that is entered by a back edge, starts one as well. A load is only reused
+ * in the same memory state. A store makes the stored value available to loads of its address.
+ * <p>
+ * A reused load reads memory once, so the emulator reports an uninitialized location once where
+ * the program read it several times.
+ */
+public final class GlobalValueNumbering implements FunctionPass {
+  @Override
+  public String getName() {
+    return "global-value-numbering";
+  }
+
+  @Override
+  public List<Analysis<?>> getRequiredAnalyses() {
+    return List.of(Dominators.ANALYSIS);
+  }
+
+  @Override
+  public boolean run(Function function, AnalysisManager analyses) {
+    return new Numbering(function, analyses.get(Dominators.ANALYSIS, function)).run();
+  }
+
+  private static final int ADDRESS = 0;
+  private static final int LOAD = 1;
+  private static final int NOT = 2;
+  private static final int INTEGER = 3;
+  private static final int BOOLEAN = 4;
+  private static final int BINARY = 8;
+  private static final int COMPARE = 16;
+
+  /**
+   * An expression over value numbers. For loads, b is the memory state.
+   */
+  private static final class Key {
+    final int kind;
+    final long a;
+    final long b;
+
+    Key(int kind, long a, long b) {
+      this.kind = kind;
+      this.a = a;
+      this.b = b;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      var that = (Key) o;
+      return kind == that.kind && a == that.a && b == that.b;
+    }
+
+    @Override
+    public int hashCode() {
+      return (kind * 31 + Long.hashCode(a)) * 31 + Long.hashCode(b);
+    }
+  }
+
+  private static final class Numbering {
+    private final Function function;
+    private final Dominators dominators;
+    private final List<BasicBlock> blocks;
+
+    private final Map<Variable, Integer> variables = new HashMap<>();
+    private final List<Variable> variableList = new ArrayList<>();
+    /**
+     * The variables of each instruction, by its position in block order: the destination, or -1,
+     * and the operands, -1 for constants. Looked up once instead of once per use.
+     */
+    private int[] blockStart;
+    private int[] destinations;
+    private int[] operandStart;
+    private int[] operands;
+
+    private boolean[] stable;
+    /** The value number of each variable, 0 if it has none yet, and the region it was set in. */
+    private int[] number;
+    private int[] numberRegion;
+    /** A variable that holds each value number, or -1. */
+    private final IntList leaders = new IntList();
+    private final Map<Key, Integer> constants = new HashMap<>();
+    private final Map<Key, Integer> available = new HashMap<>();
+    private final Map<Symbol, Integer> symbols = new IdentityHashMap<>();
+
+    /** Undo logs, so leaving a dominator subtree forgets what was numbered in it. */
+    private final List<Key> keyLog = new ArrayList<>();
+    private final List<Integer> keyOld = new ArrayList<>();
+    private int[] varLog = new int[48];
+    private int varLogSize = 0;
+
+    private long[] entryMemory;
+    private int[] region;
+    private int currentRegion;
+    private long memory;
+
+    private final Set<Instruction> removed = new HashSet<>();
+    private final Map<Instruction, Instruction> replaced = new HashMap<>();
+    private final Map<Variable, Variable> renamed = new IdentityHashMap<>();
+
+    Numbering(Function function, Dominators dominators) {
+      this.function = function;
+      this.dominators = dominators;
+      this.blocks = function.getBlocks();
+    }
+
+    boolean run() {
+      if (blocks.isEmpty())
+        return false;
+      indexVariables();
+      findStableVariables();
+      computeMemoryStates();
+      leaders.add(-1);
+      walkDominatorTree();
+      if (removed.isEmpty() && replaced.isEmpty())
+        return false;
+      function.removeInstructions(removed);
+      function.replaceInstructions(replaced);
+      if (!renamed.isEmpty()) {
+        for (BasicBlock block : function.getBlocks()) {
+          for (int k = 0; k < block.size(); k++)
+            block.get(k).replaceOperands(renamed);
+        }
+      }
+      return true;
+    }
+
+    private void indexVariables() {
+      int n = blocks.size();
+      blockStart = new int[n + 1];
+      for (int b = 0; b < n; b++)
+        blockStart[b + 1] = blockStart[b] + blocks.get(b).size();
+      int total = blockStart[n];
+      destinations = new int[total];
+      operandStart = new int[total + 1];
+      var operandList = new IntList();
+      for (var arg : function.getArguments())
+        indexOf(arg);
+      for (BasicBlock block : blocks) {
+        int pos = blockStart[block.getId()];
+        for (int k = 0; k < block.size(); k++, pos++) {
+          Instruction inst = block.get(k);
+          destinations[pos] = inst.getDestination() == null ? -1 : indexOf(inst.getDestination());
+          operandStart[pos] = operandList.size();
+          for (Value operand : inst.getOperands())
+            operandList.add(operand instanceof Variable ? indexOf((Variable) operand) : -1);
+        }
+      }
+      operandStart[total] = operandList.size();
+      operands = operandList.toArray();
+    }
+
+    private int indexOf(Variable variable) {
+      var index = variables.get(variable);
+      if (index == null) {
+        index = variableList.size();
+        variables.put(variable, index);
+        variableList.add(variable);
+      }
+      return index;
+    }
+
+    private int operand(int pos, int i) {
+      return operands[operandStart[pos] + i];
+    }
+
+    private void findStableVariables() {
+      int n = variableList.size();
+      // An argument is assigned before the entry block, which dominates every read.
+      int[] defCount = new int[n];
+      int[] defBlock = new int[n];
+      int[] defIndex = new int[n];
+      Arrays.fill(defBlock, -1);
+      for (var arg : function.getArguments())
+        defCount[indexOf(arg)]++;
+      for (BasicBlock block : blocks) {
+        int b = block.getId();
+        for (int k = 0; k < block.size(); k++) {
+          int v = destinations[blockStart[b] + k];
+          if (v >= 0) {
+            defCount[v]++;
+            defBlock[v] = b;
+            defIndex[v] = k;
+          }
+        }
+      }
+      stable = new boolean[n];
+      for (int v = 0; v < n; v++)
+        stable[v] = defCount[v] <= 1;
+      for (BasicBlock block : blocks) {
+        int b = block.getId();
+        for (int k = 0; k < block.size(); k++) {
+          int pos = blockStart[b] + k;
+          for (int i = operandStart[pos]; i < operandStart[pos + 1]; i++) {
+            int v = operands[i];
+            if (v < 0 || defBlock[v] < 0 || !stable[v])
+              continue;
+            if (defBlock[v] == b ? defIndex[v] >= k
+                : !dominators.dominates(blocks.get(defBlock[v]), block))
+              stable[v] = false;
+          }
+        }
+      }
+      number = new int[n];
+      numberRegion = new int[n];
+    }
+
+    /**
+     * Number the memory state at the entry of each block, visiting blocks in reverse post-order.
+     */
+    private void computeMemoryStates() {
+      int n = blocks.size();
+      entryMemory = new long[n];
+      long[] exitMemory = new long[n];
+      for (int b = 0; b < n; b++) {
+        var block = blocks.get(b);
+        long state = merged(b);
+        for (int i = 0; b > 0 && i < block.numPredecessors(); i++) {
+          int p = block.getPredecessor(i).getId();
+          if (p >= b || (i > 0 && exitMemory[p] != state)) {
+            state = merged(b);
+            break;
+          }
+          state = exitMemory[p];
+        }
+        entryMemory[b] = state;
+        for (int k = 0; k < block.size(); k++) {
+          if (isClobber(block.get(k)))
+            state = clobbered(b, k);
+        }
+        exitMemory[b] = state;
+      }
+    }
+
+    private static long merged(int block) {
+      return (long) block << 32;
+    }
+
+    private static long clobbered(int block, int index) {
+      return ((long) block << 32) | (index + 1);
+    }
+
+    private static boolean isClobber(Instruction inst) {
+      return inst instanceof StoreInst || inst instanceof CallInst;
+    }
+
+    private void walkDominatorTree() {
+      int n = blocks.size();
+      region = new int[n];
+      int[] stack = new int[n];
+      int[] nextChild = new int[n];
+      int[] keyMark = new int[n];
+      int[] varMark = new int[n];
+      List<List<BasicBlock>> children = new ArrayList<>(n);
+      for (int b = 0; b < n; b++)
+        children.add(null);
+      int top = 0;
+      stack[top] = 0;
+      top++;
+      enter(blocks.get(0));
+      while (top > 0) {
+        int b = stack[top - 1];
+        if (children.get(b) == null)
+          children.set(b, dominators.getChildren(blocks.get(b)));
+        if (nextChild[top - 1] < children.get(b).size()) {
+          var child = children.get(b).get(nextChild[top - 1]++);
+          keyMark[top] = keyLog.size();
+          varMark[top] = varLogSize;
+          stack[top] = child.getId();
+          nextChild[top] = 0;
+          top++;
+          enter(child);
+          continue;
+        }
+        children.set(b, null);
+        top--;
+        if (top > 0)
+          undo(keyMark[top], varMark[top]);
+      }
+    }
+
+    private void enter(BasicBlock block) {
+      int b = block.getId();
+      var idom = dominators.getImmediateDominator(block);
+      if (idom != null && block.numPredecessors() == 1 && block.getPredecessor(0) == idom)
+        region[b] = region[idom.getId()];
+      else
+        region[b] = b;
+      currentRegion = region[b];
+      memory = entryMemory[b];
+      for (int k = 0; k < block.size(); k++)
+        number(block.get(k), blockStart[b] + k, b, k);
+    }
+
+    private void number(Instruction inst, int pos, int block, int index) {
+      if (inst instanceof BinaryOperator) {
+        var binary = (BinaryOperator) inst;
+        var op = binary.getOperator();
+        long a = valueOf(binary.getLeftOperand(), operand(pos, 0));
+        long b = valueOf(binary.getRightOperand(), operand(pos, 1));
+        if ((op == BinaryOperator.Op.Add || op == BinaryOperator.Op.Mul) && a > b) {
+          long swap = a;
+          a = b;
+          b = swap;
+        }
+        define(inst, pos, new Key(BINARY + op.ordinal(), a, b));
+      } else if (inst instanceof CompareInst) {
+        var compare = (CompareInst) inst;
+        var predicate = compare.getPredicate();
+        long a = valueOf(compare.getLeftOperand(), operand(pos, 0));
+        long b = valueOf(compare.getRightOperand(), operand(pos, 1));
+        if (a > b) {
+          long swap = a;
+          a = b;
+          b = swap;
+          predicate = mirror(predicate);
+        }
+        define(inst, pos, new Key(COMPARE + predicate.ordinal(), a, b));
+      } else if (inst instanceof UnaryNotInst) {
+        var inner = ((UnaryNotInst) inst).getInner();
+        define(inst, pos, new Key(NOT, valueOf(inner, operand(pos, 0)), 0));
+      } else if (inst instanceof AddressAt) {
+        var address = (AddressAt) inst;
+        int base = symbols.computeIfAbsent(address.getBase(), s -> symbols.size());
+        var offset = address.getOffset();
+        define(inst, pos, new Key(ADDRESS, base, offset == null ? 0 : valueOf(offset,
+            operand(pos, 0))));
+      } else if (inst instanceof LoadInst) {
+        var source = ((LoadInst) inst).getSrcAddress();
+        define(inst, pos, new Key(LOAD, valueOf(source, operand(pos, 0)), memory));
+      } else if (inst instanceof CopyInst) {
+        int value = valueOf(((CopyInst) inst).getSrcValue(), operand(pos, 0));
+        setNumber(destinations[pos], value);
+        // A constant, or a value whose variable was overwritten, is now held by the copy.
+        if (!isAvailable(value))
+          leaders.set(value, destinations[pos]);
+      } else if (inst instanceof StoreInst) {
+        var store = (StoreInst) inst;
+        memory = clobbered(block, index);
+        put(new Key(LOAD, valueOf(store.getDestAddress(), operand(pos, 1)), memory),
+            valueOf(store.getSrcValue(), operand(pos, 0)));
+      } else {
+        if (isClobber(inst))
+          memory = clobbered(block, index);
+        int dest = destinations[pos];
+        if (dest >= 0)
+          setNumber(dest, newNumber(dest));
+      }
+    }
+
+    /**
+     * Number the destination of inst, which computes key, and replace inst if key is available.
+     */
+    private void define(Instruction inst, int pos, Key key) {
+      int dest = destinations[pos];
+      Integer known = available.get(key);
+      if (known != null && isAvailable(known)) {
+        int leader = leaders.get(known);
+        var destVar = variableList.get(dest);
+        var leaderVar = variableList.get(leader);
+        if (stable[dest] && stable[leader] && inst.numNext() == 1 && inst.getNext(0) != null) {
+          removed.add(inst);
+          renamed.put(destVar, leaderVar);
+        } else if (destVar instanceof LocalVar && leaderVar instanceof LocalVar) {
+          replaced.put(inst, new CopyInst((LocalVar) destVar, leaderVar));
+        }
+        setNumber(dest, known);
+        return;
+      }
+      int fresh = newNumber(dest);
+      setNumber(dest, fresh);
+      put(key, fresh);
+    }
+
+    /**
+     * Returns whether the variable recorded for value still holds it here.
+     */
+    private boolean isAvailable(int value) {
+      int v = leaders.get(value);
+      return v >= 0 && number[v] == value && (stable[v] || numberRegion[v] == currentRegion);
+    }
+
+    /**
+     * Returns the value number of value, whose variable index is v or -1 for a constant.
+     */
+    private int valueOf(Value value, int v) {
+      if (value instanceof IntegerConstant)
+        return constant(new Key(INTEGER, ((IntegerConstant) value).getValue(), 0));
+      if (value instanceof BooleanConstant)
+        return constant(new Key(BOOLEAN, ((BooleanConstant) value).getValue() ? 1 : 0, 0));
+      if (number[v] == 0 || (!stable[v] && numberRegion[v] != currentRegion))
+        setNumber(v, newNumber(v));
+      return number[v];
+    }
+
+    private int constant(Key key) {
+      return constants.computeIfAbsent(key, k -> newNumber(-1));
+    }
+
+    private int newNumber(int leader) {
+      leaders.add(leader);
+      return leaders.size() - 1;
+    }
+
+    private void setNumber(int v, int value) {
+      if (varLogSize + 3 > varLog.length)
+        varLog = Arrays.copyOf(varLog, varLog.length * 2);
+      varLog[varLogSize++] = v;
+      varLog[varLogSize++] = number[v];
+      varLog[varLogSize++] = numberRegion[v];
+      number[v] = value;
+      numberRegion[v] = currentRegion;
+    }
+
+    private void put(Key key, int value) {
+      keyLog.add(key);
+      keyOld.add(available.put(key, value));
+    }
+
+    private void undo(int keyMark, int varMark) {
+      for (int i = keyLog.size() - 1; i >= keyMark; i--) {
+        Integer old = keyOld.remove(i);
+        Key key = keyLog.remove(i);
+        if (old == null)
+          available.remove(key);
+        else
+          available.put(key, old);
+      }
+      while (varLogSize > varMark) {
+        varLogSize -= 3;
+        int v = varLog[varLogSize];
+        number[v] = varLog[varLogSize + 1];
+        numberRegion[v] = varLog[varLogSize + 2];
+      }
+    }
+
+    private static CompareInst.Predicate mirror(CompareInst.Predicate predicate) {
+      switch (predicate) {
+        case GE:
+          return CompareInst.Predicate.LE;
+        case GT:
+          return CompareInst.Predicate.LT;
+        case LE:
+          return CompareInst.Predicate.GE;
+        case LT:
+          return CompareInst.Predicate.GT;
+        default:
+          return predicate;
+      }
+    }
+  }
+}
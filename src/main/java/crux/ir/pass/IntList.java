@@ -0,0 +1,41 @@
+package crux.ir.pass;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, for per-block and per-variable data that would otherwise box.
+ */
+final class IntList {
+  private int[] items = new int[2];
+  private int size = 0;
+
+  void add(int item) {
+    if (size == items.length)
+      items = Arrays.copyOf(items, size * 2);
+    items[size++] = item;
+  }
+
+  int get(int i) {
+    return items[i];
+  }
+
+  void set(int i, int item) {
+    items[i] = item;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int pop() {
+    return items[--size];
+  }
+
+  int last() {
+    return size == 0 ? -1 : items[size - 1];
+  }
+
+  int[] toArray() {
+    return Arrays.copyOf(items, size);
+  }
+}
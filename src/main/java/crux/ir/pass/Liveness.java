@@ -0,0 +1,179 @@
+package crux.ir.pass;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Value;
+import crux.ir.Variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The variables live on entry to and exit from every basic block. Variables are numbered densely
+ * per function, and the live sets are arrays of those numbers.
+ * <p>
+ * Most temporaries live for a few instructions, so instead of iterating dense bit sets over all
+ * blocks, the live range of each variable is explored backwards from the blocks that read it
+ * until its definitions are reached. The cost is proportional to the total size of the live
+ * ranges.
+ */
+public final class Liveness {
+  public static final Analysis<Liveness> ANALYSIS = new Analysis<>() {
+    @Override
+    public String getName() {
+      return "liveness";
+    }
+
+    @Override
+    public Liveness compute(Function function, AnalysisManager analyses) {
+      return new Liveness(function);
+    }
+  };
+
+  private static final int[] EMPTY = new int[0];
+
+  /** The number of each variable by id, or -1 if the function does not mention it. */
+  private final int[] index;
+  private final List<Variable> variables = new ArrayList<>();
+  private final int[][] liveIn;
+  private final int[][] liveOut;
+
+  private Liveness(Function function) {
+    var blocks = function.getBlocks();
+    int n = blocks.size();
+    index = new int[function.getNumVariables()];
+    Arrays.fill(index, -1);
+
+    // For each variable, the blocks that read it before writing it and the blocks that write it.
+    var exposedIn = new ArrayList<IntList>();
+    var definedIn = new ArrayList<IntList>();
+    for (var block : blocks) {
+      int id = block.getId();
+      for (int k = 0; k < block.size(); k++) {
+        Instruction inst = block.get(k);
+        for (Value operand : inst.getOperands()) {
+          if (!(operand instanceof Variable))
+            continue;
+          int v = number((Variable) operand, exposedIn, definedIn);
+          if (exposedIn.get(v).last() != id && definedIn.get(v).last() != id)
+            exposedIn.get(v).add(id);
+        }
+        if (inst.getDestination() != null) {
+          int v = number(inst.getDestination(), exposedIn, definedIn);
+          if (definedIn.get(v).last() != id)
+            definedIn.get(v).add(id);
+        }
+      }
+    }
+
+    var in = new IntList[n];
+    var out = new IntList[n];
+    int[] inStamp = new int[n];
+    int[] outStamp = new int[n];
+    int[] defStamp = new int[n];
+    Arrays.fill(inStamp, -1);
+    Arrays.fill(outStamp, -1);
+    Arrays.fill(defStamp, -1);
+    var worklist = new IntList();
+    for (int v = 0; v < variables.size(); v++) {
+      var defs = definedIn.get(v);
+      for (int i = 0; i < defs.size(); i++)
+        defStamp[defs.get(i)] = v;
+      var uses = exposedIn.get(v);
+      for (int i = 0; i < uses.size(); i++) {
+        int b = uses.get(i);
+        inStamp[b] = v;
+        add(in, b, v);
+        worklist.add(b);
+      }
+      while (worklist.size() > 0) {
+        var block = blocks.get(worklist.pop());
+        for (int i = 0; i < block.numPredecessors(); i++) {
+          int p = block.getPredecessor(i).getId();
+          if (outStamp[p] != v) {
+            outStamp[p] = v;
+            add(out, p, v);
+          }
+          if (defStamp[p] != v && inStamp[p] != v) {
+            inStamp[p] = v;
+            add(in, p, v);
+            worklist.add(p);
+          }
+        }
+      }
+    }
+
+    liveIn = new int[n][];
+    liveOut = new int[n][];
+    for (int b = 0; b < n; b++) {
+      liveIn[b] = in[b] == null ? EMPTY : in[b].toArray();
+      liveOut[b] = out[b] == null ? EMPTY : out[b].toArray();
+    }
+  }
+
+  private int number(Variable variable, List<IntList> exposedIn, List<IntList> definedIn) {
+    int number = index[variable.getId()];
+    if (number < 0) {
+      number = variables.size();
+      index[variable.getId()] = number;
+      variables.add(variable);
+      exposedIn.add(new IntList());
+      definedIn.add(new IntList());
+    }
+    return number;
+  }
+
+  private static void add(IntList[] sets, int block, int variable) {
+    if (sets[block] == null)
+      sets[block] = new IntList();
+    sets[block].add(variable);
+  }
+
+  public int numVariables() {
+    return variables.size();
+  }
+
+  /**
+   * Returns the number of variable, or -1 if the function never mentions it.
+   */
+  public int indexOf(Variable variable) {
+    int id = variable.getId();
+    return id < index.length ? index[id] : -1;
+  }
+
+  public Variable getVariable(int number) {
+    return variables.get(number);
+  }
+
+  /**
+   * Returns the numbers of the variables live on entry to block.
+   */
+  public int[] getLiveIn(BasicBlock block) {
+    return liveIn[block.getId()].clone();
+  }
+
+  /**
+   * Returns the numbers of the variables live on exit from block.
+   */
+  public int[] getLiveOut(BasicBlock block) {
+    return liveOut[block.getId()].clone();
+  }
+
+  public boolean isLiveIn(BasicBlock block, Variable variable) {
+    return contains(liveIn[block.getId()], indexOf(variable));
+  }
+
+  public boolean isLiveOut(BasicBlock block, Variable variable) {
+    return contains(liveOut[block.getId()], indexOf(variable));
+  }
+
+  private static boolean contains(int[] set, int number) {
+    for (int member : set) {
+      if (member == number)
+        return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,163 @@
+package crux.ir.pass;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The natural loops of a function. A loop is formed by the back edges into one header, i.e. edges
+ * whose target dominates their source, and contains every block that reaches a back edge without
+ * passing through the header.
+ */
+public final class Loops {
+  public static final Analysis<Loops> ANALYSIS = new Analysis<>() {
+    @Override
+    public String getName() {
+      return "loops";
+    }
+
+    @Override
+    public Loops compute(Function function, AnalysisManager analyses) {
+      return new Loops(function, analyses.get(Dominators.ANALYSIS, function));
+    }
+  };
+
+  /**
+   * One natural loop.
+   */
+  public static final class Loop {
+    private final Function function;
+    private final BasicBlock header;
+    private final BitSet blocks = new BitSet();
+    private final List<BasicBlock> latches = new ArrayList<>();
+    private Loop parent;
+    private int depth;
+
+    private Loop(Function function, BasicBlock header) {
+      this.function = function;
+      this.header = header;
+    }
+
+    public BasicBlock getHeader() {
+      return header;
+    }
+
+    /**
+     * Returns the blocks with a back edge to the header.
+     */
+    public List<BasicBlock> getLatches() {
+      return Collections.unmodifiableList(latches);
+    }
+
+    public boolean contains(BasicBlock block) {
+      return blocks.get(block.getId());
+    }
+
+    /**
+     * Returns the blocks of the loop, including nested loops, in reverse post-order.
+     */
+    public List<BasicBlock> getBlocks() {
+      var result = new ArrayList<BasicBlock>(blocks.cardinality());
+      for (int b = blocks.nextSetBit(0); b >= 0; b = blocks.nextSetBit(b + 1))
+        result.add(function.getBlock(b));
+      return result;
+    }
+
+    /**
+     * Returns the innermost loop containing this one, or null.
+     */
+    public Loop getParent() {
+      return parent;
+    }
+
+    /**
+     * Returns the nesting depth, 1 for an outermost loop.
+     */
+    public int getDepth() {
+      return depth;
+    }
+  }
+
+  private final List<Loop> loops = new ArrayList<>();
+  private final Loop[] innermost;
+
+  private Loops(Function function, Dominators dominators) {
+    var blocks = function.getBlocks();
+    innermost = new Loop[blocks.size()];
+    var byHeader = new HashMap<BasicBlock, Loop>();
+    for (var block : blocks) {
+      for (int i = 0; i < block.numSuccessors(); i++) {
+        var header = block.getSuccessor(i);
+        if (header == null || !dominators.dominates(header, block))
+          continue;
+        var loop = byHeader.get(header);
+        if (loop == null) {
+          loop = new Loop(function, header);
+          loop.blocks.set(header.getId());
+          byHeader.put(header, loop);
+          loops.add(loop);
+        }
+        if (!loop.latches.contains(block))
+          loop.latches.add(block);
+        collectBody(loop, block);
+      }
+    }
+
+    // Enclosing loops are larger, so assigning blocks from the largest loop down leaves each
+    // block with its innermost loop.
+    loops.sort(Comparator.comparingInt((Loop loop) -> -loop.blocks.cardinality())
+        .thenComparingInt(loop -> loop.header.getId()));
+    for (var loop : loops) {
+      loop.parent = innermost[loop.header.getId()];
+      loop.depth = loop.parent == null ? 1 : loop.parent.depth + 1;
+      for (int b = loop.blocks.nextSetBit(0); b >= 0; b = loop.blocks.nextSetBit(b + 1))
+        innermost[b] = loop;
+    }
+  }
+
+  private static void collectBody(Loop loop, BasicBlock latch) {
+    var worklist = new ArrayList<BasicBlock>();
+    if (!loop.blocks.get(latch.getId())) {
+      loop.blocks.set(latch.getId());
+      worklist.add(latch);
+    }
+    while (!worklist.isEmpty()) {
+      var block = worklist.remove(worklist.size() - 1);
+      for (int i = 0; i < block.numPredecessors(); i++) {
+        var pred = block.getPredecessor(i);
+        if (!loop.blocks.get(pred.getId())) {
+          loop.blocks.set(pred.getId());
+          worklist.add(pred);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns all loops, enclosing loops before the loops nested in them.
+   */
+  public List<Loop> getLoops() {
+    return Collections.unmodifiableList(loops);
+  }
+
+  /**
+   * Returns the innermost loop containing block, or null.
+   */
+  public Loop getLoopFor(BasicBlock block) {
+    return innermost[block.getId()];
+  }
+
+  /**
+   * Returns the number of loops containing block.
+   */
+  public int getDepth(BasicBlock block) {
+    var loop = innermost[block.getId()];
+    return loop == null ? 0 : loop.depth;
+  }
+}
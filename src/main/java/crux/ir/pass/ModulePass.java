@@ -0,0 +1,16 @@
+package crux.ir.pass;
+
+import crux.ir.Program;
+
+/**
+ * A pass that looks at the whole program at once, e.g. to work across calls.
+ */
+public interface ModulePass {
+  String getName();
+
+  /**
+   * Transform program and return whether it changed. A module pass that changes a function must
+   * call {@link AnalysisManager#invalidate} for it.
+   */
+  boolean run(Program program, AnalysisManager analyses);
+}
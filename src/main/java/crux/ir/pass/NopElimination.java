@@ -0,0 +1,34 @@
+package crux.ir.pass;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.insts.NopInst;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes the no-op instructions that lowering inserts as join points of branches and loops.
+ * A nop that ends the function is kept, so no edge ever has to point nowhere.
+ */
+public final class NopElimination implements FunctionPass {
+  @Override
+  public String getName() {
+    return "nop-elimination";
+  }
+
+  @Override
+  public boolean run(Function function, AnalysisManager analyses) {
+    Set<Instruction> nops = new HashSet<>();
+    for (BasicBlock block : function.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        Instruction inst = block.get(k);
+        if (inst instanceof NopInst && inst.numNext() == 1 && inst.getNext(0) != null)
+          nops.add(inst);
+      }
+    }
+    function.removeInstructions(nops);
+    return !nops.isEmpty();
+  }
+}
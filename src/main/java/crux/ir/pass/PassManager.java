@@ -0,0 +1,118 @@
+package crux.ir.pass;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Program;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs a pipeline of function and module passes over a program, sharing one
+ * {@link AnalysisManager} and recording {@link PassStatistics} for every pass.
+ */
+public final class PassManager {
+  private static final int MAX_ITERATIONS = 4;
+
+  /** Each entry is a {@link FunctionPass} or a {@link ModulePass}. */
+  private final List<Object> pipeline = new ArrayList<>();
+  private final PassStatistics statistics = new PassStatistics();
+  private final AnalysisManager analyses = new AnalysisManager(statistics);
+  private boolean untilFixedPoint = false;
+
+  /**
+   * Returns the standard pipeline for an optimization level. -O0 runs nothing, -O1 runs every
+   * pass once and -O2 repeats the pipeline until it stops changing the program.
+   */
+  public static PassManager forLevel(int level) {
+    var manager = new PassManager();
+    if (level >= 1) {
+      manager.add(new NopElimination());
+      manager.add(new TailRecursionElimination());
+      manager.add(new GlobalValueNumbering());
+      manager.add(new ScalarPromotion());
+      manager.add(new DeadCodeElimination());
+    }
+    if (level >= 2) {
+      manager.untilFixedPoint = true;
+    }
+    return manager;
+  }
+
+  public PassManager add(FunctionPass pass) {
+    pipeline.add(pass);
+    return this;
+  }
+
+  public PassManager add(ModulePass pass) {
+    pipeline.add(pass);
+    return this;
+  }
+
+  public PassStatistics getStatistics() {
+    return statistics;
+  }
+
+  public AnalysisManager getAnalyses() {
+    return analyses;
+  }
+
+  /**
+   * Run the pipeline over program and return whether any pass changed it.
+   */
+  public boolean run(Program program) {
+    boolean changedAny = false;
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+      boolean changed = false;
+      for (var pass : pipeline) {
+        if (pass instanceof FunctionPass)
+          changed |= runFunctionPass((FunctionPass) pass, program);
+        else
+          changed |= runModulePass((ModulePass) pass, program);
+      }
+      changedAny |= changed;
+      if (!changed || !untilFixedPoint)
+        break;
+    }
+    return changedAny;
+  }
+
+  private boolean runFunctionPass(FunctionPass pass, Program program) {
+    long before = countInstructions(program);
+    boolean changed = false;
+    long nanos = 0;
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      Function function = it.next();
+      for (var analysis : pass.getRequiredAnalyses())
+        analyses.get(analysis, function);
+      long start = System.nanoTime();
+      boolean changedFunction = pass.run(function, analyses);
+      nanos += System.nanoTime() - start;
+      if (changedFunction) {
+        analyses.invalidate(function);
+        changed = true;
+      }
+    }
+    statistics.recordPass(pass.getName(), nanos, before, countInstructions(program), changed);
+    return changed;
+  }
+
+  private boolean runModulePass(ModulePass pass, Program program) {
+    long before = countInstructions(program);
+    long start = System.nanoTime();
+    boolean changed = pass.run(program, analyses);
+    long nanos = System.nanoTime() - start;
+    statistics.recordPass(pass.getName(), nanos, before, countInstructions(program), changed);
+    return changed;
+  }
+
+  private static long countInstructions(Program program) {
+    long count = 0;
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      for (BasicBlock block : it.next().getBlocks())
+        count += block.size();
+    }
+    return count;
+  }
+}
@@ -0,0 +1,55 @@
+package crux.ir.pass;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall-clock time and instruction counts of every pass and analysis of a pipeline run.
+ */
+public final class PassStatistics {
+  private static final class Entry {
+    long nanos = 0;
+    int runs = 0;
+    int changed = 0;
+    /** Instructions added by all runs, negative if they removed more. */
+    long delta = 0;
+  }
+
+  private final Map<String, Entry> passes = new LinkedHashMap<>();
+  private final Map<String, Entry> analyses = new LinkedHashMap<>();
+
+  /**
+   * Record one run of a pass over the whole program, with the program's instruction count before
+   * and after it.
+   */
+  void recordPass(String name, long nanos, long before, long after, boolean changed) {
+    var entry = passes.computeIfAbsent(name, n -> new Entry());
+    entry.nanos += nanos;
+    entry.runs++;
+    if (changed)
+      entry.changed++;
+    entry.delta += after - before;
+  }
+
+  void recordAnalysis(String name, long nanos) {
+    var entry = analyses.computeIfAbsent(name, n -> new Entry());
+    entry.nanos += nanos;
+    entry.runs++;
+  }
+
+  public void print(PrintStream out) {
+    out.printf("%-28s %6s %8s %10s %10s%n", "pass", "runs", "changed", "time(ms)",
+        "insts +/-");
+    for (var pass : passes.entrySet()) {
+      var entry = pass.getValue();
+      out.printf("%-28s %6d %8d %10.3f %+10d%n", pass.getKey(), entry.runs, entry.changed,
+          entry.nanos / 1e6, entry.delta);
+    }
+    for (var analysis : analyses.entrySet()) {
+      var entry = analysis.getValue();
+      out.printf("%-28s %6d %8s %10.3f %10s%n", "analysis: " + analysis.getKey(), entry.runs, "",
+          entry.nanos / 1e6, "");
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package crux.ir.pass;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.LoadInst;
+import crux.ir.insts.StoreInst;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the functions whose result depends only on their arguments and which have no effect
+ * besides it, so that calling one twice with the same arguments can reuse the first result.
+ * <p>
+ * A function is pure if it neither stores to nor loads from memory and only calls pure
+ * functions. Loads are excluded too, since a global may change between two calls, and calls to
+ * built-ins, which do I/O, are not pure. Functions that call each other are pure together
+ * unless one of them does something else.
+ */
+public final class Purity {
+  private final Set<Function> pure = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  public Purity(Program program) {
+    var byName = new HashMap<String, Function>();
+    for (Iterator<Function> it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      byName.put(function.getName(), function);
+    }
+    var callees = new IdentityHashMap<Function, List<Function>>();
+    for (var function : byName.values()) {
+      var called = calls(function, byName);
+      if (called != null) {
+        pure.add(function);
+        callees.put(function, called);
+      }
+    }
+    // Drop the functions that call one that is not pure, until none does.
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (var entry : callees.entrySet()) {
+        if (pure.contains(entry.getKey()) && !pure.containsAll(entry.getValue())) {
+          pure.remove(entry.getKey());
+          changed = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the functions function calls, or null if it accesses memory or calls a built-in.
+   */
+  private static List<Function> calls(Function function, Map<String, Function> byName) {
+    var called = new ArrayList<Function>();
+    for (BasicBlock block : function.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        Instruction inst = block.get(k);
+        if (inst instanceof StoreInst || inst instanceof LoadInst)
+          return null;
+        if (inst instanceof CallInst) {
+          var callee = byName.get(((CallInst) inst).getCallee().getName());
+          if (callee == null)
+            return null;
+          called.add(callee);
+        }
+      }
+    }
+    return called;
+  }
+
+  public boolean isPure(Function function) {
+    return pure.contains(function);
+  }
+}
@@ -0,0 +1,335 @@
+package crux.ir.pass;
+
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.types.ArrayType;
+import crux.ir.AddressVar;
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.Variable;
+import crux.ir.insts.AddressAt;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.LoadInst;
+import crux.ir.insts.StoreInst;
+import crux.ir.pass.Loops.Loop;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps global scalars in local variables while a loop runs. The global is loaded into a
+ * temporary before the loop header, its loads and stores in the loop become copies, and it is
+ * stored back on every edge that leaves the loop. A call in the loop may read or write the
+ * global, so it is stored before the call and loaded again after it; the loop is only promoted
+ * when it accesses the global more often than that costs.
+ * <p>
+ * The load before the header must not read memory the program never would have, or the emulator
+ * would report an uninitialized read. A global is only promoted when a store to it dominates the
+ * loop, or when the header itself loads it before writing it or calling anything.
+ * <p>
+ * Loops nested in a promoted loop are left alone in the same run; they are promoted when the
+ * pipeline runs again at -O2.
+ * <p>
+ * With a profile, calls that never ran do not count against promotion. They still get their
+ * stores and loads, which then only cost code size.
+ */
+public final class ScalarPromotion implements FunctionPass {
+  @Override
+  public String getName() {
+    return "scalar-promotion";
+  }
+
+  @Override
+  public List<Analysis<?>> getRequiredAnalyses() {
+    return List.of(Dominators.ANALYSIS, Loops.ANALYSIS);
+  }
+
+  /**
+   * The loads and stores of one global in one loop.
+   */
+  private static final class Access {
+    final Symbol global;
+    final List<Instruction> loads = new ArrayList<>();
+    final List<Instruction> stores = new ArrayList<>();
+    LocalVar temp;
+
+    Access(Symbol global) {
+      this.global = global;
+    }
+
+    boolean isDirty() {
+      return !stores.isEmpty();
+    }
+  }
+
+  /**
+   * A loop chosen for promotion, with everything needed from the CFG it was found in.
+   */
+  private static final class Promotion {
+    final BasicBlock header;
+    final List<BasicBlock> blocks;
+    final Set<BasicBlock> members;
+    final List<CallInst> calls;
+    final List<Access> accesses = new ArrayList<>();
+
+    Promotion(Loop loop, List<CallInst> calls) {
+      header = loop.getHeader();
+      blocks = loop.getBlocks();
+      members = new HashSet<>(blocks);
+      this.calls = calls;
+    }
+  }
+
+  @Override
+  public boolean run(Function function, AnalysisManager analyses) {
+    var loops = analyses.get(Loops.ANALYSIS, function);
+    if (loops.getLoops().isEmpty())
+      return false;
+    var dominators = analyses.get(Dominators.ANALYSIS, function);
+
+    Map<Variable, Symbol> addresses = new IdentityHashMap<>();
+    for (BasicBlock block : function.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        if (block.get(k) instanceof AddressAt) {
+          var address = (AddressAt) block.get(k);
+          if (address.getOffset() == null && !(address.getBase().getType() instanceof ArrayType))
+            addresses.put(address.getDst(), address.getBase());
+        }
+      }
+    }
+    if (addresses.isEmpty())
+      return false;
+
+    Map<Symbol, List<BasicBlock>> storedIn = new HashMap<>();
+    for (BasicBlock block : function.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        var global = globalOf(block.get(k), addresses);
+        if (global != null && block.get(k) instanceof StoreInst)
+          storedIn.computeIfAbsent(global, g -> new ArrayList<>()).add(block);
+      }
+    }
+
+    List<Promotion> promotions = new ArrayList<>();
+    Set<Loop> promoted = new HashSet<>();
+    for (Loop loop : loops.getLoops()) {
+      if (hasPromotedParent(loop, promoted))
+        continue;
+      var promotion = choose(function, loop, addresses, storedIn, dominators);
+      if (promotion != null) {
+        promoted.add(loop);
+        promotions.add(promotion);
+      }
+    }
+    if (promotions.isEmpty())
+      return false;
+
+    // Preheaders first: an exit edge of one loop may enter another, and then its stores must
+    // run before the other loop's loads.
+    for (var promotion : promotions) {
+      for (var access : promotion.accesses)
+        access.temp = function.getTempVar(access.global.getType());
+      insertPreheader(function, promotion);
+    }
+    for (var promotion : promotions)
+      insertExitStores(function, promotion);
+    function.invalidateBlocks();
+
+    Map<Instruction, Instruction> replaced = new HashMap<>();
+    Map<Instruction, List<Instruction>> spills = new HashMap<>();
+    for (var promotion : promotions) {
+      for (var access : promotion.accesses) {
+        for (var load : access.loads)
+          replaced.put(load, new CopyInst((LocalVar) load.getDestination(), access.temp));
+        for (var store : access.stores) {
+          var source = ((StoreInst) store).getSrcValue();
+          replaced.put(store, new CopyInst(access.temp, source));
+        }
+      }
+      for (var call : promotion.calls)
+        spills.put(call, storeBack(function, promotion.accesses));
+    }
+    function.replaceInstructions(replaced);
+    function.insertBefore(spills);
+    for (var promotion : promotions) {
+      for (var call : promotion.calls) {
+        var reload = load(function, promotion.accesses);
+        reload.get(reload.size() - 1).setNext(0, call.getNext(0));
+        call.setNext(0, reload.get(0));
+      }
+    }
+    function.invalidateBlocks();
+    return true;
+  }
+
+  private static boolean hasPromotedParent(Loop loop, Set<Loop> promoted) {
+    for (var parent = loop.getParent(); parent != null; parent = parent.getParent()) {
+      if (promoted.contains(parent))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the global that inst loads or stores, or null.
+   */
+  private static Symbol globalOf(Instruction inst, Map<Variable, Symbol> addresses) {
+    if (inst instanceof LoadInst)
+      return addresses.get(((LoadInst) inst).getSrcAddress());
+    if (inst instanceof StoreInst)
+      return addresses.get(((StoreInst) inst).getDestAddress());
+    return null;
+  }
+
+  /**
+   * Returns the globals worth promoting in loop, or null if there are none.
+   */
+  private static Promotion choose(Function function, Loop loop, Map<Variable, Symbol> addresses,
+      Map<Symbol, List<BasicBlock>> storedIn, Dominators dominators) {
+    var siteCounts = function.getSiteCounts();
+    Map<Symbol, Access> accesses = new LinkedHashMap<>();
+    List<CallInst> calls = new ArrayList<>();
+    int hotCalls = 0;
+    for (BasicBlock block : loop.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        var inst = block.get(k);
+        if (inst instanceof CallInst) {
+          calls.add((CallInst) inst);
+          if (siteCounts == null || siteCounts.getCount(inst) != 0)
+            hotCalls++;
+          continue;
+        }
+        var global = globalOf(inst, addresses);
+        if (global == null)
+          continue;
+        var access = accesses.computeIfAbsent(global, Access::new);
+        if (inst instanceof LoadInst)
+          access.loads.add(inst);
+        else
+          access.stores.add(inst);
+      }
+    }
+
+    var promotion = new Promotion(loop, calls);
+    for (var access : accesses.values()) {
+      int saved = access.loads.size() + access.stores.size();
+      int cost = hotCalls * (access.isDirty() ? 2 : 1);
+      if (saved > cost && isInitialized(access.global, loop, addresses, storedIn, dominators))
+        promotion.accesses.add(access);
+    }
+    return promotion.accesses.isEmpty() ? null : promotion;
+  }
+
+  /**
+   * Returns whether loading global before the header of loop can only read memory the program
+   * has written or reads anyway.
+   */
+  private static boolean isInitialized(Symbol global, Loop loop, Map<Variable, Symbol> addresses,
+      Map<Symbol, List<BasicBlock>> storedIn, Dominators dominators) {
+    var header = loop.getHeader();
+    for (BasicBlock block : storedIn.getOrDefault(global, List.of())) {
+      if (!loop.contains(block) && dominators.dominates(block, header))
+        return true;
+    }
+    for (int k = 0; k < header.size(); k++) {
+      var inst = header.get(k);
+      if (inst instanceof CallInst)
+        return false;
+      if (globalOf(inst, addresses) == global)
+        return inst instanceof LoadInst;
+    }
+    return false;
+  }
+
+  /**
+   * Load the promoted globals on every edge that enters the loop from outside.
+   */
+  private static void insertPreheader(Function function, Promotion promotion) {
+    var header = promotion.header.getFirst();
+    var chain = load(function, promotion.accesses);
+    var first = chain.get(0);
+    chain.get(chain.size() - 1).setNext(0, header);
+    for (int i = 0; i < promotion.header.numPredecessors(); i++) {
+      var predecessor = promotion.header.getPredecessor(i);
+      if (promotion.members.contains(predecessor))
+        continue;
+      var last = predecessor.getLast();
+      for (int j = 0; j < last.numNext(); j++) {
+        if (last.getNext(j) == header)
+          last.setNext(j, first);
+      }
+    }
+    if (function.getStart() == header)
+      function.setStart(first);
+  }
+
+  /**
+   * Store the promoted globals that the loop writes on every edge that leaves it.
+   */
+  private static void insertExitStores(Function function, Promotion promotion) {
+    var dirty = new ArrayList<Access>();
+    for (var access : promotion.accesses) {
+      if (access.isDirty())
+        dirty.add(access);
+    }
+    if (dirty.isEmpty())
+      return;
+    for (BasicBlock block : promotion.blocks) {
+      var last = block.getLast();
+      for (int i = 0; i < last.numNext(); i++) {
+        var target = block.getSuccessor(i);
+        if (target != null && promotion.members.contains(target))
+          continue;
+        var chain = storeBack(function, dirty);
+        chain.get(chain.size() - 1).setNext(0, last.getNext(i));
+        last.setNext(i, chain.get(0));
+      }
+    }
+  }
+
+  /**
+   * Returns a chain of instructions that loads each global into its temporary.
+   */
+  private static List<Instruction> load(Function function, List<Access> accesses) {
+    var chain = new ArrayList<Instruction>();
+    for (var access : accesses) {
+      var address = addressOf(function, access, chain);
+      chain.add(new LoadInst(access.temp, address));
+    }
+    link(chain);
+    return chain;
+  }
+
+  /**
+   * Returns a chain of instructions that stores each dirty global from its temporary.
+   */
+  private static List<Instruction> storeBack(Function function, List<Access> accesses) {
+    var chain = new ArrayList<Instruction>();
+    for (var access : accesses) {
+      if (!access.isDirty())
+        continue;
+      var address = addressOf(function, access, chain);
+      chain.add(new StoreInst(access.temp, address));
+    }
+    link(chain);
+    return chain;
+  }
+
+  private static AddressVar addressOf(Function function, Access access, List<Instruction> chain) {
+    var address = function.getTempAddressVar(access.global.getType());
+    chain.add(new AddressAt(address, access.global));
+    return address;
+  }
+
+  private static void link(List<Instruction> chain) {
+    for (int i = 0; i + 1 < chain.size(); i++)
+      chain.get(i).setNext(0, chain.get(i + 1));
+  }
+}
@@ -0,0 +1,91 @@
+package crux.ir.pass;
+
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.LocalVar;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.CopyInst;
+import crux.ir.insts.NopInst;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns calls of a function to itself in tail position into jumps back to its start. The
+ * arguments are copied into the parameters first, through temporaries where an argument is
+ * another parameter, so that the copies do not overwrite each other.
+ * <p>
+ * Tail calls to other functions stay calls; the emulator and the code generator run them in the
+ * caller's frame.
+ */
+public final class TailRecursionElimination implements FunctionPass {
+  @Override
+  public String getName() {
+    return "tail-recursion-elimination";
+  }
+
+  @Override
+  public boolean run(Function function, AnalysisManager analyses) {
+    List<CallInst> calls = new ArrayList<>();
+    for (BasicBlock block : function.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        if (block.get(k) instanceof CallInst) {
+          var call = (CallInst) block.get(k);
+          if (call.getCallee().getName().equals(function.getName()) && call.isTailCall())
+            calls.add(call);
+        }
+      }
+    }
+    if (calls.isEmpty())
+      return false;
+
+    var parameters = function.getArguments();
+    Map<Instruction, List<Instruction>> chains = new HashMap<>();
+    for (var call : calls)
+      chains.put(call, assignParameters(function, parameters, call.getParams()));
+    // The chains end in a jump back to the start, which leaves the calls unreachable. A call
+    // that is the first instruction gets a nop in front of it so that the loop does not run
+    // its chain on every iteration.
+    var start = function.getStart();
+    if (chains.containsKey(start)) {
+      var entry = new NopInst();
+      entry.setNext(0, start);
+      function.setStart(entry);
+      start = entry;
+    }
+    function.insertBefore(chains);
+    for (var chain : chains.values())
+      chain.get(chain.size() - 1).setNext(0, start);
+    function.invalidateBlocks();
+    return true;
+  }
+
+  /**
+   * Returns a chain of copies that give each parameter the value of its argument.
+   */
+  private static List<Instruction> assignParameters(Function function, List<LocalVar> parameters,
+      List<LocalVar> arguments) {
+    var saves = new ArrayList<Instruction>();
+    var copies = new ArrayList<Instruction>();
+    for (int i = 0; i < parameters.size(); i++) {
+      var parameter = parameters.get(i);
+      var argument = arguments.get(i);
+      if (argument == parameter)
+        continue;
+      if (parameters.contains(argument)) {
+        var saved = function.getTempVar(argument.getType());
+        saves.add(new CopyInst(saved, argument));
+        argument = saved;
+      }
+      copies.add(new CopyInst(parameter, argument));
+    }
+    var chain = new ArrayList<Instruction>(saves);
+    chain.addAll(copies);
+    if (chain.isEmpty())
+      chain.add(new NopInst());
+    return chain;
+  }
+}
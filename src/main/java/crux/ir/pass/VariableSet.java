@@ -0,0 +1,35 @@
+package crux.ir.pass;
+
+/**
+ * A set of variable numbers (see {@link Liveness#indexOf}) with constant time add, remove and
+ * clear, for scanning blocks backwards one at a time.
+ */
+public final class VariableSet {
+  private final int[] stamps;
+  private int generation = 1;
+
+  public VariableSet(int numVariables) {
+    stamps = new int[numVariables];
+  }
+
+  public boolean contains(int variable) {
+    return stamps[variable] == generation;
+  }
+
+  public void add(int variable) {
+    stamps[variable] = generation;
+  }
+
+  public void addAll(int[] variables) {
+    for (int variable : variables)
+      stamps[variable] = generation;
+  }
+
+  public void remove(int variable) {
+    stamps[variable] = 0;
+  }
+
+  public void clear() {
+    generation++;
+  }
+}
@@ -2,11 +2,12 @@ package crux.printing;
 
 import crux.ast.*;
 import crux.ast.SymbolTable.Symbol;
-import crux.ast.traversal.DefaultNodeVisitor;
+import crux.ast.traversal.IterativeNodeVisitor;
+import crux.ast.traversal.NullNodeVisitor;
 import crux.ast.types.TypeChecker;
 
 import java.io.PrintStream;
-import java.util.stream.Collectors;
+import java.util.List;
 
 public final class ASTPrinter {
   private static final String indent = "  ";
@@ -28,166 +29,160 @@ public final class ASTPrinter {
   }
 
   public void print(Node node) {
-    stdout.println(node.accept(printer));
+    var builder = new StringBuilder();
+    printer.print(node, builder);
+    stdout.println(builder);
   }
 
-  private final class PrinterVisitor extends DefaultNodeVisitor<String> {
+  /**
+   * Appends the text of each node to one buffer while walking the tree with an explicit stack.
+   * Text in front of a node's children is written by {@link Opener} before they are visited,
+   * separators are written in {@link #postChild}, and the visit methods write the closing text.
+   */
+  private final class PrinterVisitor extends IterativeNodeVisitor<Void> {
     private final TypeChecker checker;
+    private final Opener opener = new Opener();
+    private StringBuilder out;
     int indentlevel = 0;
 
     private PrinterVisitor(TypeChecker checker) {
       this.checker = checker;
     }
 
-    public String visitDefault(Node n) {
-      return null;
+    void print(Node node, StringBuilder builder) {
+      out = builder;
+      traverse(node);
+      out = null;
     }
 
     @Override
-    public String visit(ArrayAccess aaccess) {
-      String str = aaccess.getBase().getName();
-      if (checker != null)
-        str = "(/*" + aaccess.getBase().getType() + "*/ " + str + ")";
-      str += "[" + aaccess.getIndex().accept(this) + "]";
-      if (checker != null && checker.getType(aaccess) != null)
-        str = "/*" + checker.getType(aaccess).toString() + "*/ " + str;
-      return str;
+    protected boolean preVisit(Node node) {
+      node.accept(opener);
+      return true;
     }
 
     @Override
-    public String visit(ArrayDeclaration arrayDeclaration) {
-      return visit(arrayDeclaration.getSymbol());
+    protected List<? extends Node> children(Node node) {
+      if (node instanceof For) {
+        var loop = (For) node;
+        return List.of(loop.getInit(), loop.getCond(), loop.getIncrement(), loop.getBody());
+      }
+      return node.getChildren();
     }
 
     @Override
-    public String visit(Assignment assign) {
-      return assign.getLocation().accept(this) + " = " + assign.getValue().accept(this);
+    protected void postChild(Node node, int index, Void result) {
+      if (node instanceof DeclarationList) {
+        out.append(needSemi()).append("\n");
+      } else if (node instanceof StatementList) {
+        out.append(needSemi()).append("\n");
+        if (index + 1 < numChildren()) {
+          out.append(indent());
+        }
+      } else if (node instanceof Assignment && index == 0) {
+        out.append(" = ");
+      } else if (node instanceof Call) {
+        if (index + 1 < numChildren()) {
+          out.append(", ");
+        }
+      } else if (node instanceof OpExpr) {
+        if (((OpExpr) node).getRight() != null && index == 0) {
+          out.append(" ").append(((OpExpr) node).getOp()).append(" ");
+        }
+      } else if (node instanceof IfElseBranch) {
+        out.append(index == 0 ? ") " : index == 1 ? " else " : "");
+      } else if (node instanceof For) {
+        out.append(index < 2 ? ";" : index == 2 ? ") " : "");
+      }
+    }
+
+    private String typePrefix(Node node) {
+      if (checker != null && checker.getType(node) != null)
+        return "/*" + checker.getType(node).toString() + "*/ ";
+      return "";
     }
 
     @Override
-    public String visit(Break cont) {
-      return "break";
+    public Void visit(ArrayAccess aaccess) {
+      out.append("]");
+      return null;
     }
 
     @Override
-    public String visit(Call call) {
-      String str = call.getCallee().getName() + "(";
-      boolean isFirst = true;
-      for (Expression e : call.getArguments()) {
-        if (isFirst)
-          isFirst = false;
-        else
-          str += ", ";
-        str += e.accept(this);
-      }
-      str += ")";
-      return str;
+    public Void visit(ArrayDeclaration arrayDeclaration) {
+      return null;
     }
 
     @Override
-    public String visit(DeclarationList dlist) {
-      String str = "\n";
-      for (Node s : dlist.getChildren()) {
-        str += s.accept(this);
-        str += needSemi(str) + "\n";
-      }
-      return str;
+    public Void visit(Assignment assign) {
+      return null;
     }
 
     @Override
-    public String visit(FunctionDefinition functionDefinition) {
-      String str = functionDefinition.getSymbol().getName() + "(";
-      boolean isFirst = true;
-      for (Symbol p : functionDefinition.getParameters()) {
-        if (isFirst)
-          isFirst = false;
-        else
-          str += ", ";
-        str += visit(p);
-      }
-      str += ") ";
-      str += functionDefinition.getStatements().accept(this);
-      return str;
+    public Void visit(Break cont) {
+      return null;
     }
 
     @Override
-    public String visit(IfElseBranch iebranch) {
-      String str = "if (" + iebranch.getCondition().accept(this) + ")";
-      String thenblock = iebranch.getThenBlock().accept(this);
-      String elseblock = iebranch.getElseBlock().accept(this);
-      str += " " + thenblock + " else " + elseblock;
-      return str;
+    public Void visit(Call call) {
+      out.append(")");
+      return null;
     }
 
     @Override
-    public String visit(LiteralBool literalBool) {
-      var valueString = literalBool.getValue() ? "true" : "false";
-      if (checker != null && checker.getType(literalBool) != null)
-        valueString = "/*" + checker.getType(literalBool).toString() + "*/ " + valueString;
-      return valueString;
+    public Void visit(DeclarationList dlist) {
+      return null;
     }
 
     @Override
-    public String visit(LiteralInt literalInt) {
-      String valueString = Long.toString(literalInt.getValue());
-      if (checker != null && checker.getType(literalInt) != null)
-        valueString = "/*" + checker.getType(literalInt).toString() + "*/ " + valueString;
-      return valueString;
+    public Void visit(FunctionDefinition functionDefinition) {
+      return null;
     }
 
     @Override
-    public String visit(For loop) {
-      String str = "for(" + loop.getInit().accept(this) + ";" + loop.getCond().accept(this) + ";"
-          + loop.getIncrement().accept(this) + ") " + loop.getBody().accept(this);
-      return str;
+    public Void visit(IfElseBranch iebranch) {
+      return null;
     }
 
     @Override
-    public String visit(OpExpr op) {
-      if (op.getRight() == null) {
-        String str = "(" + op.getOp() + op.getLeft().accept(this) + ")";
-        if (checker != null && checker.getType(op) != null)
-          str = "/*" + checker.getType(op).toString() + "*/ " + str;
-        return str;
-      } else {
-        String str = "(" + op.getLeft().accept(this) + " " + op.getOp() + " "
-            + op.getRight().accept(this) + ")";
-        if (checker != null && checker.getType(op) != null)
-          str = "/*" + checker.getType(op).toString() + "*/ " + str;
-        return str;
-      }
+    public Void visit(LiteralBool literalBool) {
+      return null;
     }
 
     @Override
-    public String visit(Return ret) {
-      if (ret.getValue() != null)
-        return "return " + ret.getValue().accept(this);
-      else
-        return "return";
+    public Void visit(LiteralInt literalInt) {
+      return null;
+    }
+
+    @Override
+    public Void visit(For loop) {
+      return null;
+    }
+
+    @Override
+    public Void visit(OpExpr op) {
+      out.append(")");
+      return null;
+    }
+
+    @Override
+    public Void visit(Return ret) {
+      return null;
     }
 
     public String indent() {
-      String str = "";
-      for (int i = 0; i < indentlevel; i++)
-        str += "  ";
-      return str;
+      return indent.repeat(indentlevel);
     }
 
     @Override
-    public String visit(StatementList list) {
-      String str = "{\n";
-      indentlevel++;
-      for (Node s : list.getChildren()) {
-        str += indent() + s.accept(this);
-        str += needSemi(str) + "\n";
-      }
+    public Void visit(StatementList list) {
       indentlevel--;
-      str += indent() + "}";
-      return str;
+      out.append(indent()).append("}");
+      return null;
     }
 
-    public String needSemi(String str) {
-      if (str.charAt(str.length() - 1) == '}')
+    public String needSemi() {
+      if (out.charAt(out.length() - 1) == '}')
         return "";
       else
         return ";";
@@ -201,16 +196,125 @@ public final class ASTPrinter {
     }
 
     @Override
-    public String visit(VarAccess name) {
-      String str = name.getSymbol().getName();
-      if (checker != null && checker.getType(name) != null)
-        str = "/*" + checker.getType(name).toString() + "*/ " + str;
-      return str;
+    public Void visit(VarAccess name) {
+      return null;
     }
 
     @Override
-    public String visit(VariableDeclaration variableDeclaration) {
-      return visit(variableDeclaration.getSymbol());
+    public Void visit(VariableDeclaration variableDeclaration) {
+      return null;
+    }
+
+    /**
+     * Writes the text that comes before the children of a node.
+     */
+    private final class Opener extends NullNodeVisitor<Void> {
+      @Override
+      public Void visit(ArrayAccess aaccess) {
+        String str = aaccess.getBase().getName();
+        if (checker != null)
+          str = "(/*" + aaccess.getBase().getType() + "*/ " + str + ")";
+        out.append(typePrefix(aaccess)).append(str).append("[");
+        return null;
+      }
+
+      @Override
+      public Void visit(ArrayDeclaration arrayDeclaration) {
+        out.append(PrinterVisitor.this.visit(arrayDeclaration.getSymbol()));
+        return null;
+      }
+
+      @Override
+      public Void visit(Break cont) {
+        out.append("break");
+        return null;
+      }
+
+      @Override
+      public Void visit(Call call) {
+        out.append(call.getCallee().getName()).append("(");
+        return null;
+      }
+
+      @Override
+      public Void visit(DeclarationList dlist) {
+        out.append("\n");
+        return null;
+      }
+
+      @Override
+      public Void visit(FunctionDefinition functionDefinition) {
+        out.append(functionDefinition.getSymbol().getName()).append("(");
+        boolean isFirst = true;
+        for (Symbol p : functionDefinition.getParameters()) {
+          if (isFirst)
+            isFirst = false;
+          else
+            out.append(", ");
+          out.append(PrinterVisitor.this.visit(p));
+        }
+        out.append(") ");
+        return null;
+      }
+
+      @Override
+      public Void visit(IfElseBranch iebranch) {
+        out.append("if (");
+        return null;
+      }
+
+      @Override
+      public Void visit(LiteralBool literalBool) {
+        out.append(typePrefix(literalBool)).append(literalBool.getValue() ? "true" : "false");
+        return null;
+      }
+
+      @Override
+      public Void visit(LiteralInt literalInt) {
+        out.append(typePrefix(literalInt)).append(literalInt.getValue());
+        return null;
+      }
+
+      @Override
+      public Void visit(For loop) {
+        out.append("for(");
+        return null;
+      }
+
+      @Override
+      public Void visit(OpExpr op) {
+        out.append(typePrefix(op)).append("(");
+        if (op.getRight() == null)
+          out.append(op.getOp());
+        return null;
+      }
+
+      @Override
+      public Void visit(Return ret) {
+        out.append(ret.getValue() != null ? "return " : "return");
+        return null;
+      }
+
+      @Override
+      public Void visit(StatementList list) {
+        out.append("{\n");
+        indentlevel++;
+        if (!list.getChildren().isEmpty())
+          out.append(indent());
+        return null;
+      }
+
+      @Override
+      public Void visit(VarAccess name) {
+        out.append(typePrefix(name)).append(name.getSymbol().getName());
+        return null;
+      }
+
+      @Override
+      public Void visit(VariableDeclaration variableDeclaration) {
+        out.append(PrinterVisitor.this.visit(variableDeclaration.getSymbol()));
+        return null;
+      }
     }
   }
 }
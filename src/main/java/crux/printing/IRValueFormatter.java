@@ -5,11 +5,7 @@ import crux.ir.*;
 import java.util.function.Function;
 
 public final class IRValueFormatter implements Function<Value, String> {
-  private int mAnonymousTempVarCount;
-
-  public IRValueFormatter() {
-    mAnonymousTempVarCount = 0;
-  }
+  private final StringBuilder mName = new StringBuilder();
 
   @Override
   public String apply(Value value) {
@@ -19,17 +15,10 @@ public final class IRValueFormatter implements Function<Value, String> {
     } else if (value instanceof IntegerConstant) {
       var intConst = (IntegerConstant) value;
       return String.format("%d", intConst.getValue());
-    } else if (value instanceof LocalVar) {
-      var scalarVar = (LocalVar) value;
-      if (scalarVar.getName().length() == 0) {
-        // Assign a name
-        return String.format("$t%d", mAnonymousTempVarCount++);
-      } else {
-        return scalarVar.getName();
-      }
-    } else if (value instanceof AddressVar) {
-      var addressVar = (AddressVar) value;
-      return addressVar.getName();
+    } else if (value instanceof Variable) {
+      mName.setLength(0);
+      ((Variable) value).appendTo(mName);
+      return mName.toString();
     }
     return null;
   }
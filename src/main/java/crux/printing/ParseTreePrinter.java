@@ -4,28 +4,41 @@ import crux.pt.CruxParser;
 import org.antlr.v4.runtime.ParserRuleContext;
 
 import java.io.PrintStream;
+import java.util.ArrayDeque;
 
 public final class ParseTreePrinter {
   private static final String indent = "  ";
 
   private final PrintStream stdout;
-  private int level = 0;
 
   public ParseTreePrinter(PrintStream stdout) {
     this.stdout = stdout;
   }
 
+  /**
+   * Print ctx and the rule contexts below it in pre-order, using an explicit stack so deeply
+   * nested expressions do not overflow the call stack.
+   */
   public void print(ParserRuleContext ctx) {
-    var ruleName = CruxParser.ruleNames[ctx.getRuleIndex()];
-    stdout.printf("%s%s%n", indent.repeat(level), ruleName);
+    var nodes = new ArrayDeque<ParserRuleContext>();
+    var levels = new ArrayDeque<Integer>();
+    nodes.push(ctx);
+    levels.push(0);
+    while (!nodes.isEmpty()) {
+      var node = nodes.pop();
+      int level = levels.pop();
+      var ruleName = CruxParser.ruleNames[node.getRuleIndex()];
+      stdout.printf("%s%s%n", indent.repeat(level), ruleName);
 
-    if (ctx.children != null) {
-      ++level;
-      for (var child : ctx.children) {
-        if (child instanceof ParserRuleContext)
-          print((ParserRuleContext) child);
+      if (node.children != null) {
+        for (int i = node.children.size() - 1; i >= 0; i--) {
+          var child = node.children.get(i);
+          if (child instanceof ParserRuleContext) {
+            nodes.push((ParserRuleContext) child);
+            levels.push(level + 1);
+          }
+        }
       }
-      --level;
     }
   }
 }
@@ -0,0 +1,337 @@
+package crux.pt;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A table-driven lexer for Crux that produces the same tokens as the generated {@link CruxLexer}.
+ * <p>
+ * The whole input is scanned once into parallel int arrays (token kind, start, stop, line and
+ * column), so no {@link Token} objects exist unless a consumer asks for them. Parsers that are not
+ * generated by ANTLR can walk the arrays directly through {@link #kind(int)}, {@link #start(int)}
+ * and friends. The ANTLR parser uses the scanner through the {@link TokenSource} interface, for
+ * example wrapped in a {@link org.antlr.v4.runtime.CommonTokenStream}.
+ * <p>
+ * Token kinds are the token types of {@link CruxLexer}; the literal tokens are looked up in its
+ * vocabulary so the numbering always matches the grammar.
+ */
+public final class CruxScanner implements TokenSource {
+  private static final byte OTHER = 0;
+  private static final byte LETTER = 1;
+  private static final byte DIGIT = 2;
+  private static final byte SPACE = 3;
+  private static final byte OPERATOR = 4;
+
+  private static final byte[] CHAR_CLASS = new byte[128];
+  /** Token kind of an operator that is a single character, or 0. */
+  private static final int[] SINGLE = new int[128];
+  /** Second character of the two character operator starting with the index, or 0. */
+  private static final char[] PAIR_CHAR = new char[128];
+  /** Token kind of the two character operator starting with the index. */
+  private static final int[] PAIR_KIND = new int[128];
+
+  private static final String[] KEYWORDS = {"if", "else", "for", "break", "return", "true", "false"};
+  private static final int[] KEYWORD_KINDS = new int[KEYWORDS.length];
+
+  static {
+    for (char c = 'a'; c <= 'z'; c++) {
+      CHAR_CLASS[c] = LETTER;
+      CHAR_CLASS[Character.toUpperCase(c)] = LETTER;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      CHAR_CLASS[c] = DIGIT;
+    }
+    for (char c : new char[] {' ', '\t', '\r', '\n'}) {
+      CHAR_CLASS[c] = SPACE;
+    }
+    for (int type = 1; type <= CruxLexer.VOCABULARY.getMaxTokenType(); type++) {
+      var literal = CruxLexer.VOCABULARY.getLiteralName(type);
+      if (literal == null) {
+        continue;
+      }
+      var text = literal.substring(1, literal.length() - 1);
+      var first = text.charAt(0);
+      if (CHAR_CLASS[first] == LETTER) {
+        KEYWORD_KINDS[Arrays.asList(KEYWORDS).indexOf(text)] = type;
+      } else if (text.length() == 1) {
+        CHAR_CLASS[first] = OPERATOR;
+        SINGLE[first] = type;
+      } else {
+        CHAR_CLASS[first] = OPERATOR;
+        PAIR_CHAR[first] = text.charAt(1);
+        PAIR_KIND[first] = type;
+      }
+    }
+    // A comment starts like the '/' operator.
+    PAIR_CHAR['/'] = '/';
+    PAIR_KIND['/'] = CruxLexer.Comment;
+  }
+
+  private final MappedCharStream input;
+  private final Pair<TokenSource, CharStream> source;
+  private TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+  private final List<ANTLRErrorListener> listeners = new ArrayList<>(List.of(ConsoleErrorListener.INSTANCE));
+
+  private int[] kinds;
+  private int[] starts;
+  private int[] stops;
+  private int[] lines;
+  private int[] columns;
+  private int count = -1;
+
+  private int line = 1;
+  private int column = 0;
+  private int cursor = 0;
+
+  public CruxScanner(MappedCharStream input) {
+    this.input = input;
+    this.source = new Pair<>(this, input);
+  }
+
+  public void addErrorListener(ANTLRErrorListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeErrorListeners() {
+    listeners.clear();
+  }
+
+  /**
+   * Returns the number of tokens, not counting the end of file.
+   */
+  public int size() {
+    scan();
+    return count;
+  }
+
+  /**
+   * Returns the token kind of token i, one of the token types in {@link CruxLexer}.
+   */
+  public int kind(int i) {
+    scan();
+    return kinds[i];
+  }
+
+  /**
+   * Returns the offset of the first character of token i.
+   */
+  public int start(int i) {
+    scan();
+    return starts[i];
+  }
+
+  /**
+   * Returns the offset of the last character of token i (inclusive, like {@link Token#getStopIndex}).
+   */
+  public int stop(int i) {
+    scan();
+    return stops[i];
+  }
+
+  public int line(int i) {
+    scan();
+    return lines[i];
+  }
+
+  public int column(int i) {
+    scan();
+    return columns[i];
+  }
+
+  public String text(int i) {
+    scan();
+    return input.substring(starts[i], stops[i] + 1);
+  }
+
+  /**
+   * Lex the entire input into the token arrays. Called on first use, so error listeners can be
+   * registered after construction.
+   */
+  private void scan() {
+    if (count >= 0) {
+      return;
+    }
+    int size = input.size();
+    int capacity = size / 4 + 16;
+    kinds = new int[capacity];
+    starts = new int[capacity];
+    stops = new int[capacity];
+    lines = new int[capacity];
+    columns = new int[capacity];
+    count = 0;
+
+    int pos = 0;
+    int currentLine = 1;
+    int lineStart = 0;
+    while (pos < size) {
+      int c = input.byteAt(pos);
+      int start = pos;
+      int kind;
+      switch (c < 128 ? CHAR_CLASS[c] : OTHER) {
+        case SPACE:
+          if (c == '\n') {
+            currentLine++;
+            lineStart = pos + 1;
+          }
+          pos++;
+          continue;
+        case LETTER:
+          pos++;
+          while (pos < size) {
+            int d = input.byteAt(pos);
+            if (d >= 128 || (CHAR_CLASS[d] != LETTER && CHAR_CLASS[d] != DIGIT && d != '_')) {
+              break;
+            }
+            pos++;
+          }
+          kind = keyword(start, pos);
+          break;
+        case DIGIT:
+          pos++;
+          if (c != '0') {
+            while (pos < size && isDigit(input.byteAt(pos))) {
+              pos++;
+            }
+          }
+          kind = CruxLexer.Integer;
+          break;
+        case OPERATOR:
+          pos++;
+          if (PAIR_CHAR[c] != 0 && pos < size && input.byteAt(pos) == PAIR_CHAR[c]) {
+            pos++;
+            kind = PAIR_KIND[c];
+            if (kind == CruxLexer.Comment) {
+              while (pos < size && input.byteAt(pos) != '\n' && input.byteAt(pos) != '\r') {
+                pos++;
+              }
+              continue;
+            }
+          } else if (SINGLE[c] != 0) {
+            kind = SINGLE[c];
+          } else {
+            // A lone '|' or '&'. Like the generated lexer, report it together with the character
+            // that failed to complete the operator, and skip both.
+            int stop = Math.min(pos, size - 1);
+            reportError(start, stop, currentLine, start - lineStart);
+            if (pos < size) {
+              if (input.byteAt(pos) == '\n') {
+                currentLine++;
+                lineStart = pos + 1;
+              }
+              pos++;
+            }
+            continue;
+          }
+          break;
+        default:
+          reportError(start, start, currentLine, start - lineStart);
+          pos++;
+          continue;
+      }
+      add(kind, start, pos - 1, currentLine, start - lineStart);
+    }
+    this.line = currentLine;
+    this.column = size - lineStart;
+  }
+
+  private static boolean isDigit(int c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private int keyword(int start, int end) {
+    int length = end - start;
+    for (int k = 0; k < KEYWORDS.length; k++) {
+      var keyword = KEYWORDS[k];
+      if (keyword.length() != length) {
+        continue;
+      }
+      int i = 0;
+      while (i < length && input.byteAt(start + i) == keyword.charAt(i)) {
+        i++;
+      }
+      if (i == length) {
+        return KEYWORD_KINDS[k];
+      }
+    }
+    return CruxLexer.Identifier;
+  }
+
+  private void add(int kind, int start, int stop, int line, int column) {
+    if (count == kinds.length) {
+      int capacity = kinds.length * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      stops = Arrays.copyOf(stops, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      columns = Arrays.copyOf(columns, capacity);
+    }
+    kinds[count] = kind;
+    starts[count] = start;
+    stops[count] = stop;
+    lines[count] = line;
+    columns[count] = column;
+    count++;
+  }
+
+  private void reportError(int start, int stop, int line, int column) {
+    var text = input.substring(start, stop + 1).replace("\n", "\\n").replace("\r", "\\r")
+        .replace("\t", "\\t");
+    var message = "token recognition error at: '" + text + "'";
+    for (var listener : listeners) {
+      listener.syntaxError(null, null, line, column, message, null);
+    }
+  }
+
+  @Override
+  public Token nextToken() {
+    scan();
+    if (cursor < count) {
+      int i = cursor++;
+      return factory.create(source, kinds[i], null, Token.DEFAULT_CHANNEL, starts[i], stops[i],
+          lines[i], columns[i]);
+    }
+    int end = input.size();
+    return factory.create(source, Token.EOF, null, Token.DEFAULT_CHANNEL, end, end - 1, line,
+        column);
+  }
+
+  @Override
+  public int getLine() {
+    return cursor < count ? lines[cursor] : line;
+  }
+
+  @Override
+  public int getCharPositionInLine() {
+    return cursor < count ? columns[cursor] : column;
+  }
+
+  @Override
+  public CharStream getInputStream() {
+    return input;
+  }
+
+  @Override
+  public String getSourceName() {
+    return input.getSourceName();
+  }
+
+  @Override
+  public void setTokenFactory(TokenFactory<?> factory) {
+    this.factory = factory;
+  }
+
+  @Override
+  public TokenFactory<?> getTokenFactory() {
+    return factory;
+  }
+}
@@ -0,0 +1,146 @@
+package crux.pt;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link CharStream} that reads Crux source directly out of a byte buffer. Crux programs are
+ * pure ASCII (see Crux.g4), so every byte is one character and no decoding into a code point
+ * array is needed. Files are memory-mapped with {@link FileChannel#map}, streams are read into a
+ * single heap buffer.
+ * <p>
+ * Besides the ANTLR interface, {@link #byteAt(int)} and {@link #size()} give hand-written lexers
+ * direct access to the bytes.
+ */
+public final class MappedCharStream implements CharStream {
+  private final ByteBuffer buffer;
+  private final int size;
+  private final String name;
+  private int position = 0;
+
+  private MappedCharStream(ByteBuffer buffer, String name) {
+    this.buffer = buffer;
+    this.size = buffer.limit();
+    this.name = name;
+  }
+
+  /**
+   * Memory-map the file at path. The mapping stays valid after the underlying channel is closed.
+   */
+  public static MappedCharStream fromPath(Path path) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      var length = channel.size();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException(String.format("file '%s' is too large to map", path));
+      }
+      var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+      return new MappedCharStream(buffer, path.toString());
+    }
+  }
+
+  public static MappedCharStream fromFileName(String fileName) throws IOException {
+    return fromPath(Path.of(fileName));
+  }
+
+  /**
+   * Read the remainder of the stream into a heap buffer. Used when the source is not a file.
+   */
+  public static MappedCharStream fromStream(InputStream in) throws IOException {
+    return new MappedCharStream(ByteBuffer.wrap(in.readAllBytes()), IntStream.UNKNOWN_SOURCE_NAME);
+  }
+
+  public static MappedCharStream fromBytes(byte[] bytes, String name) {
+    return new MappedCharStream(ByteBuffer.wrap(bytes), name);
+  }
+
+  /**
+   * Returns the character at the absolute offset, as an unsigned byte value.
+   */
+  public int byteAt(int offset) {
+    return buffer.get(offset) & 0xFF;
+  }
+
+  /**
+   * Returns the characters in [start, stop) as a String without going through an Interval.
+   */
+  public String substring(int start, int stop) {
+    var bytes = new byte[stop - start];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(start + i);
+    }
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+
+  @Override
+  public String getText(Interval interval) {
+    int startIdx = Math.min(interval.a, size);
+    int len = Math.min(interval.b - interval.a + 1, size - startIdx);
+    return substring(startIdx, startIdx + len);
+  }
+
+  @Override
+  public void consume() {
+    if (position >= size) {
+      throw new IllegalStateException("cannot consume EOF");
+    }
+    position++;
+  }
+
+  @Override
+  public int LA(int i) {
+    int offset;
+    if (i > 0) {
+      offset = position + i - 1;
+    } else if (i < 0) {
+      offset = position + i;
+    } else {
+      return 0;
+    }
+    if (offset < 0 || offset >= size) {
+      return IntStream.EOF;
+    }
+    return buffer.get(offset) & 0xFF;
+  }
+
+  @Override
+  public int mark() {
+    return -1;
+  }
+
+  @Override
+  public void release(int marker) {}
+
+  @Override
+  public int index() {
+    return position;
+  }
+
+  @Override
+  public void seek(int index) {
+    position = index;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String getSourceName() {
+    return name == null || name.isEmpty() ? IntStream.UNKNOWN_SOURCE_NAME : name;
+  }
+
+  @Override
+  public String toString() {
+    return getText(Interval.of(0, size - 1));
+  }
+}
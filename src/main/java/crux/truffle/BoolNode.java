@@ -0,0 +1,15 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+
+/**
+ * An expression of type bool.
+ */
+abstract class BoolNode extends ExpressionNode {
+  abstract boolean executeBoolean(VirtualFrame frame);
+
+  @Override
+  final Object executeGeneric(VirtualFrame frame) {
+    return executeBoolean(frame);
+  }
+}
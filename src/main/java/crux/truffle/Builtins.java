@@ -0,0 +1,100 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+
+/**
+ * The built-in functions, which read from and print to the streams of the {@link CruxRuntime}
+ * exactly like the {@link crux.ir.Emulator}.
+ */
+final class Builtins {
+  private Builtins() {
+  }
+
+  static final class ReadInt extends IntNode {
+    private final CruxRuntime runtime;
+
+    ReadInt(CruxRuntime runtime) {
+      this.runtime = runtime;
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return runtime.readInt();
+    }
+  }
+
+  static final class ReadChar extends IntNode {
+    private final CruxRuntime runtime;
+
+    ReadChar(CruxRuntime runtime) {
+      this.runtime = runtime;
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return runtime.readChar();
+    }
+  }
+
+  static final class PrintInt extends ExpressionNode {
+    private final CruxRuntime runtime;
+    @Child IntNode value;
+
+    PrintInt(CruxRuntime runtime, IntNode value) {
+      this.runtime = runtime;
+      this.value = value;
+    }
+
+    @Override
+    Object executeGeneric(VirtualFrame frame) {
+      runtime.print(value.executeLong(frame));
+      return null;
+    }
+  }
+
+  static final class PrintBool extends ExpressionNode {
+    private final CruxRuntime runtime;
+    @Child BoolNode value;
+
+    PrintBool(CruxRuntime runtime, BoolNode value) {
+      this.runtime = runtime;
+      this.value = value;
+    }
+
+    @Override
+    Object executeGeneric(VirtualFrame frame) {
+      runtime.print(value.executeBoolean(frame));
+      return null;
+    }
+  }
+
+  static final class PrintChar extends ExpressionNode {
+    private final CruxRuntime runtime;
+    @Child IntNode value;
+
+    PrintChar(CruxRuntime runtime, IntNode value) {
+      this.runtime = runtime;
+      this.value = value;
+    }
+
+    @Override
+    Object executeGeneric(VirtualFrame frame) {
+      runtime.printChar(value.executeLong(frame));
+      return null;
+    }
+  }
+
+  static final class Println extends ExpressionNode {
+    private final CruxRuntime runtime;
+
+    Println(CruxRuntime runtime) {
+      this.runtime = runtime;
+    }
+
+    @Override
+    Object executeGeneric(VirtualFrame frame) {
+      runtime.println();
+      return null;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.DirectCallNode;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * Calls of functions defined in the program. Crux has no function values, so every call site
+ * knows its callee and calls it through a {@link DirectCallNode}, which lets the compiler inline
+ * hot callees.
+ */
+final class Calls {
+  private Calls() {
+  }
+
+  /**
+   * A function of the program. Its call target is set once its tree is built, so calls in its
+   * own body, which are built first, link to it when they first run.
+   */
+  static final class CruxFunction {
+    final String name;
+    @CompilationFinal RootCallTarget callTarget;
+
+    CruxFunction(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * Evaluates the arguments from left to right and calls the callee.
+   */
+  static final class Invoke extends Node {
+    private final CruxFunction callee;
+    @Children private final ExpressionNode[] arguments;
+    @Child DirectCallNode callNode;
+
+    Invoke(CruxFunction callee, ExpressionNode[] arguments) {
+      this.callee = callee;
+      this.arguments = arguments;
+    }
+
+    @ExplodeLoop
+    Object execute(VirtualFrame frame) {
+      Object[] values = new Object[arguments.length];
+      for (int i = 0; i < arguments.length; i++)
+        values[i] = arguments[i].executeGeneric(frame);
+      if (callNode == null) {
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        callNode = insert(DirectCallNode.create(callee.callTarget));
+      }
+      return callNode.call(values);
+    }
+  }
+
+  static final class IntCall extends IntNode {
+    @Child Invoke invoke;
+
+    IntCall(Invoke invoke) {
+      this.invoke = invoke;
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return (Long) invoke.execute(frame);
+    }
+  }
+
+  static final class BoolCall extends BoolNode {
+    @Child Invoke invoke;
+
+    BoolCall(Invoke invoke) {
+      this.invoke = invoke;
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return (Boolean) invoke.execute(frame);
+    }
+  }
+
+  static final class VoidCall extends ExpressionNode {
+    @Child Invoke invoke;
+
+    VoidCall(Invoke invoke) {
+      this.invoke = invoke;
+    }
+
+    @Override
+    Object executeGeneric(VirtualFrame frame) {
+      invoke.execute(frame);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ControlFlowException;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.LoopNode;
+import com.oracle.truffle.api.nodes.RepeatingNode;
+import com.oracle.truffle.api.profiles.CountingConditionProfile;
+
+/**
+ * Statement lists, branches and loops. {@code break} and {@code return} unwind with control flow
+ * exceptions, which the compiler turns into jumps once a function is compiled.
+ */
+final class ControlFlow {
+  private ControlFlow() {
+  }
+
+  static final class Block extends StatementNode {
+    @Children private final StatementNode[] statements;
+
+    Block(StatementNode[] statements) {
+      this.statements = statements;
+    }
+
+    @Override
+    @ExplodeLoop
+    void executeVoid(VirtualFrame frame) {
+      for (StatementNode statement : statements)
+        statement.executeVoid(frame);
+    }
+  }
+
+  /**
+   * A call or other expression whose value is not used.
+   */
+  static final class ExpressionStatement extends StatementNode {
+    @Child ExpressionNode expression;
+
+    ExpressionStatement(ExpressionNode expression) {
+      this.expression = expression;
+    }
+
+    @Override
+    void executeVoid(VirtualFrame frame) {
+      expression.executeGeneric(frame);
+    }
+  }
+
+  static final class If extends StatementNode {
+    @Child BoolNode condition;
+    @Child StatementNode thenBlock;
+    @Child StatementNode elseBlock;
+    private final CountingConditionProfile profile = CountingConditionProfile.create();
+
+    If(BoolNode condition, StatementNode thenBlock, StatementNode elseBlock) {
+      this.condition = condition;
+      this.thenBlock = thenBlock;
+      this.elseBlock = elseBlock;
+    }
+
+    @Override
+    void executeVoid(VirtualFrame frame) {
+      if (profile.profile(condition.executeBoolean(frame)))
+        thenBlock.executeVoid(frame);
+      else
+        elseBlock.executeVoid(frame);
+    }
+  }
+
+  /**
+   * A for loop. The condition, body and increment run in a Truffle {@link LoopNode}, which counts
+   * iterations and can replace a long running loop with compiled code while it runs.
+   */
+  static final class For extends StatementNode {
+    @Child StatementNode init;
+    @Child LoopNode loop;
+
+    For(StatementNode init, BoolNode condition, StatementNode body, StatementNode increment) {
+      this.init = init;
+      this.loop = Truffle.getRuntime().createLoopNode(new Iteration(condition, body, increment));
+    }
+
+    @Override
+    void executeVoid(VirtualFrame frame) {
+      init.executeVoid(frame);
+      loop.execute(frame);
+    }
+  }
+
+  private static final class Iteration extends com.oracle.truffle.api.nodes.Node
+      implements RepeatingNode {
+    @Child BoolNode condition;
+    @Child StatementNode body;
+    @Child StatementNode increment;
+
+    Iteration(BoolNode condition, StatementNode body, StatementNode increment) {
+      this.condition = condition;
+      this.body = body;
+      this.increment = increment;
+    }
+
+    @Override
+    public boolean executeRepeating(VirtualFrame frame) {
+      if (!condition.executeBoolean(frame))
+        return false;
+      try {
+        body.executeVoid(frame);
+      } catch (BreakException e) {
+        return false;
+      }
+      increment.executeVoid(frame);
+      return true;
+    }
+  }
+
+  static final class Break extends StatementNode {
+    @Override
+    void executeVoid(VirtualFrame frame) {
+      throw BreakException.INSTANCE;
+    }
+  }
+
+  static final class Return extends StatementNode {
+    @Child ExpressionNode value;
+
+    Return(ExpressionNode value) {
+      this.value = value;
+    }
+
+    @Override
+    void executeVoid(VirtualFrame frame) {
+      throw new ReturnException(value.executeGeneric(frame));
+    }
+  }
+
+  static final class BreakException extends ControlFlowException {
+    private static final long serialVersionUID = 1L;
+    static final BreakException INSTANCE = new BreakException();
+  }
+
+  static final class ReturnException extends ControlFlowException {
+    private static final long serialVersionUID = 1L;
+    final Object value;
+
+    ReturnException(Object value) {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.HashMap;
+
+/**
+ * The state a running program shares between its functions: global memory and the streams of the
+ * built-ins. Memory behaves like the {@link crux.ir.Emulator}'s: globals are laid out one after
+ * another, 8 bytes per element, array indices are not checked and reading memory that was never
+ * written prints a warning and yields 0.
+ */
+final class CruxRuntime {
+  private final long[] memory;
+  private final boolean[] written;
+  private final HashMap<Long, Long> overflow = new HashMap<>();
+  private final BufferedReader in;
+  private final PrintStream out;
+
+  CruxRuntime(long size, InputStream in, PrintStream out) {
+    memory = new long[(int) (size / 8)];
+    written = new boolean[memory.length];
+    this.in = new BufferedReader(new InputStreamReader(in));
+    this.out = out;
+  }
+
+  long load(long address) {
+    if (address >= 0 && (address & 7) == 0 && address / 8 < memory.length) {
+      int index = (int) (address / 8);
+      if (written[index])
+        return memory[index];
+    }
+    return loadSlow(address);
+  }
+
+  @TruffleBoundary
+  private long loadSlow(long address) {
+    if (address < 0 || (address & 7) != 0 || address / 8 >= memory.length) {
+      Long value = overflow.get(address);
+      if (value != null)
+        return value;
+    }
+    out.println("Reading from uninitialized memory");
+    return 0;
+  }
+
+  void store(long address, long value) {
+    if (address >= 0 && (address & 7) == 0 && address / 8 < memory.length) {
+      int index = (int) (address / 8);
+      memory[index] = value;
+      written[index] = true;
+    } else {
+      storeSlow(address, value);
+    }
+  }
+
+  @TruffleBoundary
+  private void storeSlow(long address, long value) {
+    overflow.put(address, value);
+  }
+
+  @TruffleBoundary
+  long readInt() {
+    try {
+      out.print("int?");
+      String line = in.readLine();
+      return Long.valueOf(line);
+    } catch (IOException e) {
+      throw new Error("Error in inputting Integer.");
+    }
+  }
+
+  @TruffleBoundary
+  long readChar() {
+    try {
+      int val = in.read();
+      if (val == -1)
+        throw new Error("Reading past end of stream.");
+      return val;
+    } catch (IOException e) {
+      throw new Error("Error in inputting Integer.");
+    }
+  }
+
+  @TruffleBoundary
+  void print(Object value) {
+    out.print(value);
+  }
+
+  @TruffleBoundary
+  void printChar(long value) {
+    out.print((char) value);
+  }
+
+  @TruffleBoundary
+  void println() {
+    out.println("");
+  }
+}
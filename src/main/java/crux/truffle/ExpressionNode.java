@@ -0,0 +1,14 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * A Crux expression. The type checker has already decided the type of every expression, so
+ * integer and boolean expressions are separate node classes, {@link IntNode} and {@link BoolNode},
+ * that produce unboxed values. Only call arguments and return values go through
+ * {@link #executeGeneric}.
+ */
+abstract class ExpressionNode extends Node {
+  abstract Object executeGeneric(VirtualFrame frame);
+}
@@ -0,0 +1,61 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
+import com.oracle.truffle.api.nodes.RootNode;
+
+/**
+ * The root of a function's tree. Parameters take the first frame slots and are copied there from
+ * the call's arguments; every other local starts out as 0 or false.
+ */
+final class FunctionRoot extends RootNode {
+  private final String name;
+  private final int numParameters;
+  /** Whether each slot holds a bool rather than an int. */
+  @CompilationFinal(dimensions = 1) private final boolean[] boolSlots;
+  @Child StatementNode body;
+
+  FunctionRoot(String name, FrameDescriptor descriptor, int numParameters, boolean[] boolSlots,
+      StatementNode body) {
+    super(null, descriptor);
+    this.name = name;
+    this.numParameters = numParameters;
+    this.boolSlots = boolSlots;
+    this.body = body;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public Object execute(VirtualFrame frame) {
+    enter(frame);
+    try {
+      body.executeVoid(frame);
+    } catch (ControlFlow.ReturnException e) {
+      return e.value;
+    }
+    return null;
+  }
+
+  @ExplodeLoop
+  private void enter(VirtualFrame frame) {
+    Object[] arguments = frame.getArguments();
+    for (int slot = 0; slot < boolSlots.length; slot++) {
+      if (boolSlots[slot]) {
+        frame.setBoolean(slot, slot < numParameters && (Boolean) arguments[slot]);
+      } else {
+        frame.setLong(slot, slot < numParameters ? (Long) arguments[slot] : 0);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,15 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+
+/**
+ * An expression of type int.
+ */
+abstract class IntNode extends ExpressionNode {
+  abstract long executeLong(VirtualFrame frame);
+
+  @Override
+  final Object executeGeneric(VirtualFrame frame) {
+    return executeLong(frame);
+  }
+}
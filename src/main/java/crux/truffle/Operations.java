@@ -0,0 +1,234 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.profiles.CountingConditionProfile;
+
+/**
+ * Literals and the nodes of {@link crux.ast.OpExpr}, one class per operation and operand type.
+ * {@code &&} and {@code ||} only evaluate their right operand when they need it.
+ */
+final class Operations {
+  private Operations() {
+  }
+
+  static final class IntLiteral extends IntNode {
+    private final long value;
+
+    IntLiteral(long value) {
+      this.value = value;
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return value;
+    }
+  }
+
+  static final class BoolLiteral extends BoolNode {
+    private final boolean value;
+
+    BoolLiteral(boolean value) {
+      this.value = value;
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return value;
+    }
+  }
+
+  abstract static class Arithmetic extends IntNode {
+    @Child IntNode left;
+    @Child IntNode right;
+
+    Arithmetic(IntNode left, IntNode right) {
+      this.left = left;
+      this.right = right;
+    }
+  }
+
+  static final class Add extends Arithmetic {
+    Add(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return left.executeLong(frame) + right.executeLong(frame);
+    }
+  }
+
+  static final class Sub extends Arithmetic {
+    Sub(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return left.executeLong(frame) - right.executeLong(frame);
+    }
+  }
+
+  static final class Mul extends Arithmetic {
+    Mul(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return left.executeLong(frame) * right.executeLong(frame);
+    }
+  }
+
+  static final class Div extends Arithmetic {
+    Div(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return left.executeLong(frame) / right.executeLong(frame);
+    }
+  }
+
+  abstract static class Compare extends BoolNode {
+    @Child IntNode left;
+    @Child IntNode right;
+
+    Compare(IntNode left, IntNode right) {
+      this.left = left;
+      this.right = right;
+    }
+  }
+
+  static final class GE extends Compare {
+    GE(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return left.executeLong(frame) >= right.executeLong(frame);
+    }
+  }
+
+  static final class GT extends Compare {
+    GT(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return left.executeLong(frame) > right.executeLong(frame);
+    }
+  }
+
+  static final class LE extends Compare {
+    LE(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return left.executeLong(frame) <= right.executeLong(frame);
+    }
+  }
+
+  static final class LT extends Compare {
+    LT(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return left.executeLong(frame) < right.executeLong(frame);
+    }
+  }
+
+  static final class EQ extends Compare {
+    EQ(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return left.executeLong(frame) == right.executeLong(frame);
+    }
+  }
+
+  static final class NE extends Compare {
+    NE(IntNode left, IntNode right) {
+      super(left, right);
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return left.executeLong(frame) != right.executeLong(frame);
+    }
+  }
+
+  /**
+   * {@code ==} and {@code !=} on booleans; negate flips the result.
+   */
+  static final class BoolEquals extends BoolNode {
+    @Child BoolNode left;
+    @Child BoolNode right;
+    private final boolean negate;
+
+    BoolEquals(BoolNode left, BoolNode right, boolean negate) {
+      this.left = left;
+      this.right = right;
+      this.negate = negate;
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return (left.executeBoolean(frame) == right.executeBoolean(frame)) != negate;
+    }
+  }
+
+  static final class And extends BoolNode {
+    @Child BoolNode left;
+    @Child BoolNode right;
+    private final CountingConditionProfile profile = CountingConditionProfile.create();
+
+    And(BoolNode left, BoolNode right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return profile.profile(left.executeBoolean(frame)) && right.executeBoolean(frame);
+    }
+  }
+
+  static final class Or extends BoolNode {
+    @Child BoolNode left;
+    @Child BoolNode right;
+    private final CountingConditionProfile profile = CountingConditionProfile.create();
+
+    Or(BoolNode left, BoolNode right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return profile.profile(left.executeBoolean(frame)) || right.executeBoolean(frame);
+    }
+  }
+
+  static final class Not extends BoolNode {
+    @Child BoolNode operand;
+
+    Not(BoolNode operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return !operand.executeBoolean(frame);
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * A Crux statement.
+ */
+abstract class StatementNode extends Node {
+  abstract void executeVoid(VirtualFrame frame);
+}
@@ -0,0 +1,322 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.FrameSlotKind;
+import com.oracle.truffle.api.nodes.Node;
+import crux.ast.ArrayAccess;
+import crux.ast.ArrayDeclaration;
+import crux.ast.Assignment;
+import crux.ast.BaseNode;
+import crux.ast.Break;
+import crux.ast.Call;
+import crux.ast.DeclarationList;
+import crux.ast.Expression;
+import crux.ast.For;
+import crux.ast.FunctionDefinition;
+import crux.ast.IfElseBranch;
+import crux.ast.LiteralBool;
+import crux.ast.LiteralInt;
+import crux.ast.OpExpr;
+import crux.ast.Return;
+import crux.ast.StatementList;
+import crux.ast.SymbolTable.Symbol;
+import crux.ast.VarAccess;
+import crux.ast.VariableDeclaration;
+import crux.ast.traversal.NodeVisitor;
+import crux.ast.types.ArrayType;
+import crux.ast.types.BoolType;
+import crux.ast.types.IntType;
+import crux.ast.types.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the Truffle trees of a type checked program. Globals are laid out in memory in the
+ * order they are declared, like {@link crux.ir.ASTLower} does, and every function gets a
+ * {@link FunctionRoot} whose frame has a slot for each parameter and local variable.
+ */
+final class TruffleBuilder implements NodeVisitor<Node> {
+  private final CruxRuntime runtime;
+  private final Map<Symbol, Long> globals;
+  private final Map<String, Calls.CruxFunction> functions = new HashMap<>();
+
+  /** The frame slots of the function being built, by symbol. */
+  private Map<Symbol, Integer> locals;
+  private List<Boolean> boolSlots;
+  private FrameDescriptor.Builder frame;
+
+  private TruffleBuilder(CruxRuntime runtime, Map<Symbol, Long> globals) {
+    this.runtime = runtime;
+    this.globals = globals;
+  }
+
+  /**
+   * Returns the offset of every global of program and their total size in bytes, under the key
+   * null.
+   */
+  static Map<Symbol, Long> layOutGlobals(DeclarationList program) {
+    var offsets = new HashMap<Symbol, Long>();
+    long offset = 0;
+    for (var declaration : program.getChildren()) {
+      if (declaration instanceof VariableDeclaration) {
+        offsets.put(((VariableDeclaration) declaration).getSymbol(), offset);
+        offset += 8;
+      } else if (declaration instanceof ArrayDeclaration) {
+        var symbol = ((ArrayDeclaration) declaration).getSymbol();
+        offsets.put(symbol, offset);
+        offset += ((ArrayType) symbol.getType()).getExtent() * 8;
+      }
+    }
+    offsets.put(null, offset);
+    return offsets;
+  }
+
+  /**
+   * Build every function of program and return them by name.
+   */
+  static Map<String, Calls.CruxFunction> build(DeclarationList program, CruxRuntime runtime,
+      Map<Symbol, Long> globals) {
+    var builder = new TruffleBuilder(runtime, globals);
+    program.accept(builder);
+    return builder.functions;
+  }
+
+  private static boolean isBool(Type type) {
+    return type instanceof BoolType;
+  }
+
+  private static boolean isBool(Expression expression) {
+    return isBool(((BaseNode) expression).getType());
+  }
+
+  private int addLocal(Symbol symbol) {
+    boolean bool = isBool(symbol.getType());
+    int slot = frame.addSlot(bool ? FrameSlotKind.Boolean : FrameSlotKind.Long, symbol.getName(),
+        null);
+    locals.put(symbol, slot);
+    boolSlots.add(bool);
+    return slot;
+  }
+
+  private StatementNode statement(crux.ast.Node node) {
+    var result = node.accept(this);
+    return result instanceof ExpressionNode
+        ? new ControlFlow.ExpressionStatement((ExpressionNode) result) : (StatementNode) result;
+  }
+
+  private ExpressionNode expression(Expression node) {
+    return (ExpressionNode) node.accept(this);
+  }
+
+  private IntNode intExpression(Expression node) {
+    return (IntNode) node.accept(this);
+  }
+
+  private BoolNode boolExpression(Expression node) {
+    return (BoolNode) node.accept(this);
+  }
+
+  @Override
+  public Node visit(DeclarationList declarationList) {
+    for (var declaration : declarationList.getChildren())
+      declaration.accept(this);
+    return null;
+  }
+
+  @Override
+  public Node visit(FunctionDefinition functionDefinition) {
+    var symbol = functionDefinition.getSymbol();
+    var function = new Calls.CruxFunction(symbol.getName());
+    functions.put(symbol.getName(), function);
+
+    locals = new HashMap<>();
+    boolSlots = new ArrayList<>();
+    frame = FrameDescriptor.newBuilder();
+    for (var parameter : functionDefinition.getParameters())
+      addLocal(parameter);
+    var body = statement(functionDefinition.getStatements());
+
+    var bools = new boolean[boolSlots.size()];
+    for (int slot = 0; slot < bools.length; slot++)
+      bools[slot] = boolSlots.get(slot);
+    var root = new FunctionRoot(symbol.getName(), frame.build(),
+        functionDefinition.getParameters().size(), bools, body);
+    function.callTarget = root.getCallTarget();
+    locals = null;
+    return null;
+  }
+
+  @Override
+  public Node visit(VariableDeclaration variableDeclaration) {
+    if (locals == null)
+      return null;
+    addLocal(variableDeclaration.getSymbol());
+    return new ControlFlow.Block(new StatementNode[0]);
+  }
+
+  @Override
+  public Node visit(ArrayDeclaration arrayDeclaration) {
+    return null;
+  }
+
+  @Override
+  public Node visit(StatementList statementList) {
+    var statements = new ArrayList<StatementNode>();
+    for (var statement : statementList.getChildren())
+      statements.add(statement(statement));
+    return new ControlFlow.Block(statements.toArray(new StatementNode[0]));
+  }
+
+  @Override
+  public Node visit(Assignment assignment) {
+    var location = assignment.getLocation();
+    var value = assignment.getValue();
+    if (location instanceof VarAccess) {
+      var symbol = ((VarAccess) location).getSymbol();
+      var slot = locals.get(symbol);
+      if (slot != null) {
+        return isBool(symbol.getType()) ? new Variables.BoolLocalWrite(slot, boolExpression(value))
+            : new Variables.IntLocalWrite(slot, intExpression(value));
+      }
+      return store(new Variables.Address(globals.get(symbol), null), value);
+    }
+    var access = (ArrayAccess) location;
+    var address =
+        new Variables.Address(globals.get(access.getBase()), intExpression(access.getIndex()));
+    return store(address, value);
+  }
+
+  private StatementNode store(Variables.Address address, Expression value) {
+    return isBool(value) ? new Variables.BoolStore(runtime, address, boolExpression(value))
+        : new Variables.IntStore(runtime, address, intExpression(value));
+  }
+
+  @Override
+  public Node visit(VarAccess vaccess) {
+    var symbol = vaccess.getSymbol();
+    var slot = locals.get(symbol);
+    boolean bool = isBool(vaccess.getType());
+    if (slot != null)
+      return bool ? new Variables.BoolLocalRead(slot) : new Variables.IntLocalRead(slot);
+    return load(new Variables.Address(globals.get(symbol), null), bool);
+  }
+
+  @Override
+  public Node visit(ArrayAccess arrayAccess) {
+    var address = new Variables.Address(globals.get(arrayAccess.getBase()),
+        intExpression(arrayAccess.getIndex()));
+    return load(address, isBool(arrayAccess.getType()));
+  }
+
+  private ExpressionNode load(Variables.Address address, boolean bool) {
+    return bool ? new Variables.BoolLoad(runtime, address)
+        : new Variables.IntLoad(runtime, address);
+  }
+
+  @Override
+  public Node visit(Call call) {
+    var arguments = call.getArguments();
+    String name = call.getCallee().getName();
+    switch (name) {
+      case "readInt":
+        return new Builtins.ReadInt(runtime);
+      case "readChar":
+        return new Builtins.ReadChar(runtime);
+      case "printInt":
+        return new Builtins.PrintInt(runtime, intExpression(arguments.get(0)));
+      case "printBool":
+        return new Builtins.PrintBool(runtime, boolExpression(arguments.get(0)));
+      case "printChar":
+        return new Builtins.PrintChar(runtime, intExpression(arguments.get(0)));
+      case "println":
+        return new Builtins.Println(runtime);
+      default:
+        break;
+    }
+    var values = new ExpressionNode[arguments.size()];
+    for (int i = 0; i < values.length; i++)
+      values[i] = expression(arguments.get(i));
+    var invoke = new Calls.Invoke(functions.get(name), values);
+    if (isBool(call.getType()))
+      return new Calls.BoolCall(invoke);
+    if (call.getType() instanceof IntType)
+      return new Calls.IntCall(invoke);
+    return new Calls.VoidCall(invoke);
+  }
+
+  @Override
+  public Node visit(OpExpr operation) {
+    var left = operation.getLeft();
+    var right = operation.getRight();
+    switch (operation.getOp()) {
+      case ADD:
+        return new Operations.Add(intExpression(left), intExpression(right));
+      case SUB:
+        return new Operations.Sub(intExpression(left), intExpression(right));
+      case MULT:
+        return new Operations.Mul(intExpression(left), intExpression(right));
+      case DIV:
+        return new Operations.Div(intExpression(left), intExpression(right));
+      case GE:
+        return new Operations.GE(intExpression(left), intExpression(right));
+      case GT:
+        return new Operations.GT(intExpression(left), intExpression(right));
+      case LE:
+        return new Operations.LE(intExpression(left), intExpression(right));
+      case LT:
+        return new Operations.LT(intExpression(left), intExpression(right));
+      case EQ:
+      case NE:
+        boolean negate = operation.getOp() == OpExpr.Operation.NE;
+        if (isBool(left))
+          return new Operations.BoolEquals(boolExpression(left), boolExpression(right), negate);
+        return negate ? new Operations.NE(intExpression(left), intExpression(right))
+            : new Operations.EQ(intExpression(left), intExpression(right));
+      case LOGIC_AND:
+        return new Operations.And(boolExpression(left), boolExpression(right));
+      case LOGIC_OR:
+        return new Operations.Or(boolExpression(left), boolExpression(right));
+      case LOGIC_NOT:
+        return new Operations.Not(boolExpression(left));
+      default:
+        throw new AssertionError(operation.getOp());
+    }
+  }
+
+  @Override
+  public Node visit(LiteralBool literalBool) {
+    return new Operations.BoolLiteral(literalBool.getValue());
+  }
+
+  @Override
+  public Node visit(LiteralInt literalInt) {
+    return new Operations.IntLiteral(literalInt.getValue());
+  }
+
+  @Override
+  public Node visit(Return ret) {
+    return new ControlFlow.Return(expression(ret.getValue()));
+  }
+
+  @Override
+  public Node visit(Break brk) {
+    return new ControlFlow.Break();
+  }
+
+  @Override
+  public Node visit(IfElseBranch ifElseBranch) {
+    var elseBlock = ifElseBranch.getElseBlock();
+    return new ControlFlow.If(boolExpression(ifElseBranch.getCondition()),
+        statement(ifElseBranch.getThenBlock()),
+        elseBlock == null ? new ControlFlow.Block(new StatementNode[0]) : statement(elseBlock));
+  }
+
+  @Override
+  public Node visit(For forloop) {
+    return new ControlFlow.For(statement(forloop.getInit()), boolExpression(forloop.getCond()),
+        statement(forloop.getBody()), statement(forloop.getIncrement()));
+  }
+}
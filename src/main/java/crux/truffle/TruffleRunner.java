@@ -0,0 +1,30 @@
+package crux.truffle;
+
+import crux.ast.DeclarationList;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * Runs a type checked Crux program as a Truffle AST interpreter. On GraalVM, or with the Truffle
+ * runtime on the class path, hot functions and loops are compiled by partial evaluation of their
+ * trees; on a stock JVM the trees are interpreted.
+ * <p>
+ * The {@link crux.Driver} loads this class by reflection, since it is only built with the
+ * {@code truffle} Maven profile.
+ */
+public final class TruffleRunner {
+  private TruffleRunner() {
+  }
+
+  /**
+   * Run the main function of program, reading the built-ins' input from in and printing to out.
+   */
+  public static void run(DeclarationList program, InputStream in, PrintStream out) {
+    var globals = TruffleBuilder.layOutGlobals(program);
+    var runtime = new CruxRuntime(globals.remove(null), in, out);
+    var functions = TruffleBuilder.build(program, runtime, globals);
+    functions.get("main").callTarget.call();
+    out.flush();
+  }
+}
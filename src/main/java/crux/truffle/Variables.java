@@ -0,0 +1,156 @@
+package crux.truffle;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+
+/**
+ * Reads and writes of local variables, which live in frame slots, and of globals and array
+ * elements, which live in the {@link CruxRuntime}'s memory at offsets fixed when the tree is
+ * built.
+ */
+final class Variables {
+  private Variables() {
+  }
+
+  static final class IntLocalRead extends IntNode {
+    private final int slot;
+
+    IntLocalRead(int slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return frame.getLong(slot);
+    }
+  }
+
+  static final class BoolLocalRead extends BoolNode {
+    private final int slot;
+
+    BoolLocalRead(int slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return frame.getBoolean(slot);
+    }
+  }
+
+  static final class IntLocalWrite extends StatementNode {
+    private final int slot;
+    @Child IntNode value;
+
+    IntLocalWrite(int slot, IntNode value) {
+      this.slot = slot;
+      this.value = value;
+    }
+
+    @Override
+    void executeVoid(VirtualFrame frame) {
+      frame.setLong(slot, value.executeLong(frame));
+    }
+  }
+
+  static final class BoolLocalWrite extends StatementNode {
+    private final int slot;
+    @Child BoolNode value;
+
+    BoolLocalWrite(int slot, BoolNode value) {
+      this.slot = slot;
+      this.value = value;
+    }
+
+    @Override
+    void executeVoid(VirtualFrame frame) {
+      frame.setBoolean(slot, value.executeBoolean(frame));
+    }
+  }
+
+  /**
+   * The address of a global or of an element of a global array. The index is null for scalars.
+   */
+  static final class Address extends IntNode {
+    private final long base;
+    @Child IntNode index;
+
+    Address(long base, IntNode index) {
+      this.base = base;
+      this.index = index;
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return index == null ? base : base + 8 * index.executeLong(frame);
+    }
+  }
+
+  static final class IntLoad extends IntNode {
+    private final CruxRuntime runtime;
+    @Child Address address;
+
+    IntLoad(CruxRuntime runtime, Address address) {
+      this.runtime = runtime;
+      this.address = address;
+    }
+
+    @Override
+    long executeLong(VirtualFrame frame) {
+      return runtime.load(address.executeLong(frame));
+    }
+  }
+
+  static final class BoolLoad extends BoolNode {
+    private final CruxRuntime runtime;
+    @Child Address address;
+
+    BoolLoad(CruxRuntime runtime, Address address) {
+      this.runtime = runtime;
+      this.address = address;
+    }
+
+    @Override
+    boolean executeBoolean(VirtualFrame frame) {
+      return runtime.load(address.executeLong(frame)) != 0;
+    }
+  }
+
+  /**
+   * A store to a global or array element. Like the IR, it computes the address before the value.
+   */
+  static final class IntStore extends StatementNode {
+    private final CruxRuntime runtime;
+    @Child Address address;
+    @Child IntNode value;
+
+    IntStore(CruxRuntime runtime, Address address, IntNode value) {
+      this.runtime = runtime;
+      this.address = address;
+      this.value = value;
+    }
+
+    @Override
+    void executeVoid(VirtualFrame frame) {
+      long at = address.executeLong(frame);
+      runtime.store(at, value.executeLong(frame));
+    }
+  }
+
+  static final class BoolStore extends StatementNode {
+    private final CruxRuntime runtime;
+    @Child Address address;
+    @Child BoolNode value;
+
+    BoolStore(CruxRuntime runtime, Address address, BoolNode value) {
+      this.runtime = runtime;
+      this.address = address;
+      this.value = value;
+    }
+
+    @Override
+    void executeVoid(VirtualFrame frame) {
+      long at = address.executeLong(frame);
+      runtime.store(at, value.executeBoolean(frame) ? 1 : 0);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package crux;
+
+import crux.backend.Assembler;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the machine code of {@link Assembler} against the bytes GNU as produces for the same
+ * instructions, so the native backend can be tested without an assembler installed.
+ */
+final class AssemblerTests {
+  private static String assemble(String... lines) {
+    var assembler = new Assembler();
+    for (var line : lines) {
+      if (line.endsWith(":"))
+        assembler.label(line.substring(0, line.length() - 1));
+      else
+        assembler.line(line);
+    }
+    var sb = new StringBuilder();
+    for (byte b : assembler.finish().getText())
+      sb.append(String.format("%02x", b));
+    return sb.toString();
+  }
+
+  @Test
+  void encodesCodeGenInstructions() {
+    Assertions.assertEquals("c8180000" + "48897df8" + "4c8b55f0" + "4c899d00fcffff"
+        + "49c7c205000000" + "49ba0000000001000000" + "4d8b1a" + "4d891a" + "4d01d3" + "4d29da"
+        + "4d0fafd3" + "4d6bd208" + "4899" + "48f77de8" + "4c3b5df8" + "4983fb01" + "490f4dc2"
+        + "49f7d2" + "c9" + "c3",
+        assemble("enter $(8 * 3), $0", "movq %rdi, -8(%rbp)", "movq -16(%rbp), %r10",
+            "movq %r11 , -1024(%rbp)", "movq $5, %r10", "movq $4294967296, %r10",
+            "movq 0(%r10), %r11", "movq %r11, 0(%r10)", "addq %r10, %r11", "subq %r11, %r10",
+            "imulq %r11, %r10", "imulq $8, %r10", "cqto", "idivq -24(%rbp)",
+            "cmp -8(%rbp), %r11", "cmp $1, %r11", "cmovge %r10, %rax", "not %r10", "leave",
+            "ret"));
+  }
+
+  @Test
+  void resolvesLocalJumpsAndLeavesSymbolsToTheLinker() {
+    Assertions.assertEquals("0f8405000000" + "e900000000" + "e800000000" + "e9f6ffffff"
+        + "488b1d00000000",
+        assemble(".globl main", "main:", "je L1", "jmp print", "L1:", "call main", "jmp L1",
+            "movq x@GOTPCREL(%rip), %rbx"));
+  }
+}
@@ -0,0 +1,112 @@
+package crux;
+
+import crux.backend.BlockLayout;
+import crux.ir.BasicBlock;
+import crux.ir.Emulator;
+import crux.ir.Function;
+import crux.ir.Profile;
+import crux.ir.Program;
+import crux.ir.SiteCounts;
+import crux.ir.pass.AnalysisManager;
+import crux.ir.pass.Loops;
+import crux.ir.pass.PassStatistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Checks the block order {@link BlockLayout} gives code generation: loops are rotated, the entry
+ * block stays first and blocks a profile says never ran go to the bottom.
+ */
+final class BlockLayoutTests {
+  @Test
+  void rotatesForLoop() throws IOException {
+    var source = "void main() {\n  int i;\n"
+        + "  for (i = 0; i < 10; i = i + 1) {\n    printInt(i);\n  }\n  println();\n}\n";
+    var program = CompilerStageTests.compile(source);
+    var main = CompilerStageTests.function(program, "main");
+    checkRotated(main);
+    // With a profile the edge into the body weighs as much as the back edge and is merged
+    // first, so only the rotation moves the condition down.
+    profile(program);
+    checkRotated(main);
+  }
+
+  @Test
+  void placesColdBranchLast() throws IOException {
+    // Without a profile the else branch falls through, so only the profile can move it down.
+    var source = "void f(int a) {\n"
+        + "  if (a < 0) {\n    printInt(1);\n  } else {\n    printInt(2);\n  }\n"
+        + "  println();\n}\n"
+        + "void main() {\n  int i;\n"
+        + "  for (i = 0; i < 20; i = i + 1) {\n    f(i - 100);\n  }\n}\n";
+    var program = CompilerStageTests.compile(source);
+    var f = CompilerStageTests.function(program, "f");
+    var unprofiled = BlockLayout.order(f);
+
+    var profile = profile(program);
+    var order = BlockLayout.order(f);
+
+    Assertions.assertSame(f.getBlocks().get(0), order.get(0));
+    int hot = 0;
+    while (hot < order.size() && profile.getCount(f, order.get(hot).get(0)) > 0)
+      hot++;
+    Assertions.assertTrue(hot < order.size(), "No block of f is cold.");
+    for (var block : order.subList(hot, order.size())) {
+      Assertions.assertEquals(0, profile.getCount(f, block.get(0)),
+          String.format("Block %d ran but is below a cold block in %s.", block.getId(),
+              ids(order)));
+    }
+    Assertions.assertNotEquals(0, profile.getCount(f, unprofiled.get(unprofiled.size() - 1)
+        .get(0)), String.format("The cold block is already last without a profile in %s.",
+            ids(unprofiled)));
+  }
+
+  /**
+   * Check that the loop condition of function is laid out below the loop body and the entry block
+   * first.
+   */
+  private static void checkRotated(Function function) {
+    var order = BlockLayout.order(function);
+    var loops = new AnalysisManager(new PassStatistics()).get(Loops.ANALYSIS, function);
+    Assertions.assertEquals(1, loops.getLoops().size());
+    var loop = loops.getLoops().get(0);
+    int header = order.indexOf(loop.getHeader());
+    for (var block : loop.getBlocks()) {
+      Assertions.assertTrue(order.indexOf(block) <= header,
+          String.format("Block %d of the loop is below its condition in %s.", block.getId(),
+              ids(order)));
+    }
+    Assertions.assertSame(function.getBlocks().get(0), order.get(0));
+    Assertions.assertEquals(function.getBlocks().size(), order.size());
+  }
+
+  /**
+   * Run program on the emulator and give its functions the counts of that run.
+   */
+  private static Profile profile(Program program) throws IOException {
+    var profile = new Profile();
+    var emulator = new Emulator(program, new ByteArrayInputStream(new byte[0]),
+        new ByteArrayOutputStream());
+    emulator.setProfile(profile);
+    emulator.run();
+    var counts = new ByteArrayOutputStream();
+    profile.writeSiteCounts(new PrintStream(counts), program);
+    Assertions.assertTrue(SiteCounts
+        .apply(program, SiteCounts.read(new ByteArrayInputStream(counts.toByteArray())))
+        .isEmpty());
+    return profile;
+  }
+
+  private static String ids(List<BasicBlock> order) {
+    var result = new StringBuilder();
+    for (var block : order)
+      result.append(result.length() == 0 ? "" : " ").append(block.getId());
+    return result.toString();
+  }
+}
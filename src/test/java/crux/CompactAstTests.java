@@ -0,0 +1,141 @@
+package crux;
+
+import crux.ast.CompactAst;
+import crux.ast.ParseTreeLower;
+import crux.ast.types.TypeChecker;
+import crux.printing.ASTPrinter;
+import crux.pt.CruxParser;
+import crux.pt.CruxScanner;
+import crux.pt.MappedCharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that {@link CompactAst} holds the same tree as the {@link crux.ast.Node} objects, that
+ * the compiler prints and type checks the same with {@code --compact-ast} and that the encoding
+ * takes well under the heap of the nodes.
+ */
+final class CompactAstTests {
+  /** Functions in the program the heap is measured on. */
+  private static final int FUNCTIONS = 2000;
+
+  @TestFactory
+  List<DynamicTest> roundTripsAst() throws IOException {
+    return CompilerStageTests.getPrograms("ast").stream().map(program -> DynamicTest.dynamicTest(
+        program, () -> {
+          var source = CompilerStageTests.readResourceToString(program);
+          var lower = new ParseTreeLower(new PrintStream(new ByteArrayOutputStream()));
+          var ast = lower.lower(parse(source));
+          var expected = print(ast);
+          var encoded = CompactAst.encode(ast);
+          Assertions.assertEquals(expected, print(encoded.view(encoded.root())));
+          var lowered = lower.lowerCompact(parse(source));
+          Assertions.assertEquals(expected, print(lowered.view(lowered.root())));
+          Assertions.assertEquals(compile(source, Driver::enablePrintAst, false),
+              compile(source, Driver::enablePrintAst, true));
+        })).collect(Collectors.toList());
+  }
+
+  @TestFactory
+  List<DynamicTest> typeChecksSame() throws IOException {
+    return CompilerStageTests.getPrograms("type-check").stream()
+        .map(program -> DynamicTest.dynamicTest(program, () -> {
+          var source = CompilerStageTests.readResourceToString(program);
+          Assertions.assertEquals(compile(source, Driver::enableTypeCheck, false),
+              compile(source, Driver::enableTypeCheck, true));
+        })).collect(Collectors.toList());
+  }
+
+  @Test
+  void takesLessHeap() {
+    var tree = parse(source());
+    var sink = new PrintStream(new ByteArrayOutputStream());
+
+    long base = usedHeap();
+    var ast = new ParseTreeLower(sink).lower(tree);
+    var checker = new TypeChecker();
+    checker.check(ast);
+    Assertions.assertEquals(0, checker.getErrors().size(), checker.getErrors().toString());
+    long nodes = usedHeap() - base;
+    Reference.reachabilityFence(ast);
+    Reference.reachabilityFence(checker);
+    ast = null;
+    checker = null;
+
+    base = usedHeap();
+    var compact = new ParseTreeLower(sink).lowerCompact(tree);
+    var compactChecker = new TypeChecker();
+    compactChecker.check(compact);
+    Assertions.assertEquals(0, compactChecker.getErrors().size());
+    long encoded = usedHeap() - base;
+    Reference.reachabilityFence(compact);
+    Reference.reachabilityFence(compactChecker);
+
+    Assertions.assertTrue(encoded * 3 < nodes * 2,
+        String.format("The compact AST takes %d bytes, the nodes %d.", encoded, nodes));
+  }
+
+  /**
+   * Returns a program of FUNCTIONS functions that each declare, assign, branch and loop.
+   */
+  private static String source() {
+    var source = new StringBuilder();
+    for (int i = 0; i < FUNCTIONS; i++) {
+      source.append(String.format("int f%d(int a, bool b) {%n", i));
+      source.append("  int x;\n  int i;\n  x = a * 2 + 1;\n");
+      source.append("  if (b && (x > 3)) {\n    x = x - a;\n  } else {\n    x = 0 - x;\n  }\n");
+      source.append("  for (i = 0; i < a; i = i + 1) {\n    x = x + i * i;\n  }\n");
+      source.append("  printInt(x);\n  return x;\n}\n");
+    }
+    source.append("void main() {\n  printInt(f0(3, true));\n}\n");
+    return source.toString();
+  }
+
+  private static String print(crux.ast.Node node) {
+    var out = new ByteArrayOutputStream();
+    new ASTPrinter(new PrintStream(out)).print(node);
+    return out.toString();
+  }
+
+  /**
+   * Run the driver on source with the stage configure selects and return what it prints.
+   */
+  private static String compile(String source, Consumer<Driver> configure, boolean compact) {
+    var out = new ByteArrayOutputStream();
+    var driver = new Driver(new PrintStream(out), new PrintStream(out));
+    driver.setInputStream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+    configure.accept(driver);
+    if (compact)
+      driver.enableCompactAst();
+    driver.run();
+    return out.toString();
+  }
+
+  private static CruxParser.ProgramContext parse(String source) {
+    var input = MappedCharStream.fromBytes(source.getBytes(StandardCharsets.UTF_8), "test.crx");
+    var parser = new CruxParser(new CommonTokenStream(new CruxScanner(input)));
+    var tree = parser.program();
+    Assertions.assertEquals(0, parser.getNumberOfSyntaxErrors());
+    return tree;
+  }
+
+  private static long usedHeap() {
+    var runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+      System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,70 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Runs the IR test programs on the {@link crux.ir.CompiledEmulator}, unoptimized and at the
+ * highest optimization level, and checks their output against the Emulator's expected output.
+ */
+final class CompiledEmulatorTests {
+  private static final int[] LEVELS = {0, 2};
+
+  @TestFactory
+  Stream<DynamicTest> runCompiledIR() throws IOException {
+    var tests = new ArrayList<DynamicTest>();
+    for (int level : LEVELS) {
+      for (var program : CompilerStageTests.getPrograms("ir")) {
+        tests.add(dynamicTest(String.format("-O%d %s", level, program), () -> {
+          var loader = getClass().getClassLoader();
+          var base = program.substring(0, program.length() - 4);
+
+          var outStream = new ByteArrayOutputStream();
+          var outPrintStream = new PrintStream(outStream);
+          var driver = new Driver(outPrintStream, outPrintStream);
+          driver.enableCompiledEmulator();
+          driver.setOptimizationLevel(level);
+          driver.setEmulatorInput(loader.getResourceAsStream(base + ".in"));
+          driver.setInputStream(loader.getResourceAsStream(program));
+          driver.run();
+
+          var expected = CompilerStageTests.readResourceToString(base + ".out");
+          Assertions.assertEquals(CompilerStageTests.sanitize(expected).trim(),
+              CompilerStageTests.sanitize(outStream.toString()).trim(),
+              String.format("The compiled emulator changes the output of %s at -O%d.", program,
+                  level));
+        }));
+      }
+    }
+    return tests.stream();
+  }
+
+  @Test
+  void superinstructionsSaveDispatches() {
+    var loader = getClass().getClassLoader();
+    var errStream = new ByteArrayOutputStream();
+    var driver =
+        new Driver(new PrintStream(new ByteArrayOutputStream()), new PrintStream(errStream));
+    driver.enableDispatchStats();
+    driver.setEmulatorInput(loader.getResourceAsStream("crux/stages/codegen/test26.in"));
+    driver.setInputStream(loader.getResourceAsStream("crux/stages/codegen/test26.crx"));
+    driver.run();
+
+    var lines = errStream.toString().trim().split("\n");
+    var words = lines[lines.length - 1].split(" ");
+    long dispatches = Long.parseLong(words[0]);
+    long instructions = Long.parseLong(words[3]);
+    Assertions.assertTrue(dispatches < instructions,
+        String.format("Expected fewer dispatches than instructions: %s", lines[lines.length - 1]));
+  }
+}
@@ -1,5 +1,7 @@
 package crux;
 
+import crux.ir.Function;
+import crux.ir.Program;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.TestFactory;
@@ -239,7 +241,6 @@ final class CompilerStageTests {
     }
 
     var tests = getTests("codegen");
-    Runtime runtime = Runtime.getRuntime();
 
     return tests.stream().map(test -> dynamicTest(test.in, () -> {
       ExecutorService executor = Executors.newSingleThreadExecutor();
@@ -259,28 +260,58 @@ final class CompilerStageTests {
             driver.run();
           }
 
-          Process build = runtime.exec("gcc a.s src/runtime/runtime.c -o autotest.bin");
-          try {
-            if (build.waitFor() != 0) {
-              throw new Error("Assembling and linking failed");
-            }
-          } catch (Exception e) {
-            throw new Error("Assembling and linking failed");
-          }
-          Process run = runtime.exec("./autotest.bin");
-          OutputStream runinput = run.getOutputStream();
+          var actualOutput = runNative("a.s", input);
+          var expectedOutput = readResourceToString(test.out);
+          return new StringPair(expectedOutput, actualOutput);
+        }
+      });
+      StringPair sp = null;
+      try {
+        sp = future.get(TIMEOUT, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        future.cancel(true);
+      }
+      if (sp == null) {
+        Assertions.fail(String.format("Timeout for CodeGen for program %s.", test.in));
+      } else {
+        Assertions.assertEquals(sanitize(sp.a).trim(), sanitize(sp.b).trim(),
+            String.format("CodeGen for program %s differs from expected output.", test.in));
+      }
+    }));
+  }
 
-          int val;
-          while ((val = input.read()) != -1)
-            runinput.write(val);
-          runinput.close();
+  /**
+   * The same programs as {@link #codegen()}, written as an object file by the compiler's own
+   * encoder and linked by gcc without assembling.
+   */
+  @TestFactory
+  Stream<DynamicTest> codegenObject() throws IOException {
+    if (skipStage("stage5") || !hasGcc()) {
+      return Stream.empty();
+    }
 
-          InputStream inputStream = run.getInputStream();
-          StringBuffer sb = new StringBuffer();
-          while ((val = inputStream.read()) != -1)
-            sb.append((char) val);
+    var tests = getTests("codegen");
 
-          var actualOutput = sb.toString();
+    return tests.stream().map(test -> dynamicTest(test.in, () -> {
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      Future<StringPair> future = executor.submit(new Callable<StringPair>() {
+        public StringPair call() throws IOException {
+          var loader = getClass().getClassLoader();
+          var in = loader.getResourceAsStream(test.in);
+          var input = loader.getResourceAsStream(test.input);
+
+          var driver = new Driver();
+          driver.enableObjectOutput();
+
+          if (!driver.hasSupportEndToEnd()) {
+            driver.readIR(loader.getResourceAsStream(test.inputdeserial));
+            driver.run();
+          } else {
+            driver.setInputStream(in);
+            driver.run();
+          }
+
+          var actualOutput = runNative("a.o", input);
           var expectedOutput = readResourceToString(test.out);
           return new StringPair(expectedOutput, actualOutput);
         }
@@ -292,10 +323,11 @@ final class CompilerStageTests {
         future.cancel(true);
       }
       if (sp == null) {
-        Assertions.fail(String.format("Timeout for CodeGen for program %s.", test.in));
+        Assertions.fail(String.format("Timeout for object CodeGen for program %s.", test.in));
       } else {
         Assertions.assertEquals(sanitize(sp.a).trim(), sanitize(sp.b).trim(),
-            String.format("CodeGen for program %s differs from expected output.", test.in));
+            String.format("Object CodeGen for program %s differs from expected output.",
+                test.in));
       }
     }));
   }
@@ -317,8 +349,22 @@ final class CompilerStageTests {
     }
   }
 
-  private String readResourceToString(String resourceName) throws IOException {
-    var loader = getClass().getClassLoader();
+  /**
+   * Returns the resource names of the .crx programs of a stage's test folder.
+   */
+  static List<String> getPrograms(String stageName) throws IOException {
+    var loader = CompilerStageTests.class.getClassLoader();
+    var folder = String.format("crux/stages/%s", stageName);
+    try (var programs = loader.getResourceAsStream(folder);
+        BufferedReader br =
+            new BufferedReader(new InputStreamReader(Objects.requireNonNull(programs)))) {
+      return br.lines().filter(resourceName -> resourceName.endsWith(".crx"))
+          .map(resourceName -> folder + "/" + resourceName).collect(Collectors.toList());
+    }
+  }
+
+  static String readResourceToString(String resourceName) throws IOException {
+    var loader = CompilerStageTests.class.getClassLoader();
     try (var inputStream = Objects.requireNonNull(loader.getResourceAsStream(resourceName))) {
       var result = new ByteArrayOutputStream();
       byte[] buffer = new byte[1024];
@@ -330,6 +376,68 @@ final class CompilerStageTests {
     }
   }
 
+  /**
+   * Returns whether gcc can be run to link the native tests.
+   */
+  static boolean hasGcc() {
+    try {
+      return Runtime.getRuntime().exec("gcc --version").waitFor() == 0;
+    } catch (IOException | InterruptedException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Link object, an assembly file or an object file, with the runtime, run it on input and return
+   * what it prints.
+   */
+  static String runNative(String object, InputStream input) throws IOException {
+    Runtime runtime = Runtime.getRuntime();
+    Process build = runtime.exec("gcc " + object + " src/runtime/runtime.c -o autotest.bin");
+    try {
+      if (build.waitFor() != 0) {
+        throw new Error("Assembling and linking failed");
+      }
+    } catch (Exception e) {
+      throw new Error("Assembling and linking failed");
+    }
+    Process run = runtime.exec("./autotest.bin");
+    OutputStream runinput = run.getOutputStream();
+
+    int val;
+    while (input != null && (val = input.read()) != -1)
+      runinput.write(val);
+    runinput.close();
+
+    InputStream inputStream = run.getInputStream();
+    StringBuffer sb = new StringBuffer();
+    while ((val = inputStream.read()) != -1)
+      sb.append((char) val);
+    return sb.toString();
+  }
+
+  /**
+   * Lower source to IR without optimizing it and return the program. Fails on compile errors.
+   */
+  static Program compile(String source) {
+    var errors = new ByteArrayOutputStream();
+    var sink = new PrintStream(errors);
+    var driver = new Driver(sink, sink);
+    driver.setInputStream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+    var program = driver.compile();
+    Assertions.assertNotNull(program, errors.toString());
+    return program;
+  }
+
+  static Function function(Program program, String name) {
+    for (var it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      if (function.getName().equals(name))
+        return function;
+    }
+    throw new AssertionError("no function " + name);
+  }
+
   private static final class InOut {
     final String in;
     final String input;
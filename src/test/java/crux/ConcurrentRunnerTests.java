@@ -0,0 +1,86 @@
+package crux;
+
+import crux.ir.ConcurrentRunner;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs every IR test program several times at once, on both emulators, sharing one compiled
+ * program between the runs, and checks each run's output.
+ */
+final class ConcurrentRunnerTests {
+  private static final int COPIES = 3;
+
+  @Test
+  void runsProgramsConcurrently() throws IOException {
+    var loader = getClass().getClassLoader();
+    var jobs = new ArrayList<ConcurrentRunner.Job>();
+    var expected = new ArrayList<String>();
+    for (var program : CompilerStageTests.getPrograms("ir")) {
+      var base = program.substring(0, program.length() - 4);
+      var driver = new Driver(new PrintStream(new ByteArrayOutputStream()),
+          new PrintStream(new ByteArrayOutputStream()));
+      driver.setOptimizationLevel(2);
+      driver.setInputStream(loader.getResourceAsStream(program));
+      var compiled = driver.compile();
+      Assertions.assertNotNull(compiled, program);
+      var in = loader.getResourceAsStream(base + ".in");
+      byte[] input = in == null ? new byte[0] : in.readAllBytes();
+      for (int copy = 0; copy < COPIES; copy++) {
+        jobs.add(new ConcurrentRunner.Job(compiled, input));
+        expected.add(base);
+      }
+    }
+
+    for (boolean engine : new boolean[] {false, true}) {
+      List<ConcurrentRunner.Result> results;
+      try (var runner = new ConcurrentRunner(Executors.newFixedThreadPool(8), engine)) {
+        results = runner.runAll(jobs);
+      }
+      for (int j = 0; j < jobs.size(); j++) {
+        var result = results.get(j);
+        Assertions.assertNull(result.getError(), expected.get(j));
+        Assertions.assertEquals(
+            CompilerStageTests
+                .sanitize(CompilerStageTests.readResourceToString(expected.get(j) + ".out")).trim(),
+            CompilerStageTests
+                .sanitize(new String(result.getOutput(), StandardCharsets.UTF_8)).trim(),
+            String.format("Run %d of %s differs.", j % COPIES, expected.get(j)));
+      }
+    }
+  }
+
+  @Test
+  void runsBatchOfInputs(@TempDir Path inputs, @TempDir Path outputs) throws IOException {
+    var loader = getClass().getClassLoader();
+    var program = "crux/stages/codegen/test11";
+    Files.write(inputs.resolve("first.in"),
+        loader.getResourceAsStream(program + ".in").readAllBytes());
+    Files.writeString(inputs.resolve("second.in"), "x\n");
+    var errors = new ByteArrayOutputStream();
+    var driver = new Driver(new PrintStream(new ByteArrayOutputStream()), new PrintStream(errors));
+    driver.enableCompiledEmulator();
+    driver.setBatchDirectory(inputs.toString());
+    driver.setBatchOutputDirectory(outputs.toString());
+    driver.setInputStream(loader.getResourceAsStream(program + ".crx"));
+    driver.run();
+
+    Assertions.assertEquals(
+        CompilerStageTests
+            .sanitize(CompilerStageTests.readResourceToString(program + ".out")).trim(),
+        CompilerStageTests.sanitize(Files.readString(outputs.resolve("first.out"))).trim());
+    Assertions.assertTrue(Files.exists(outputs.resolve("second.out")));
+    Assertions.assertTrue(errors.toString().startsWith("second: "), errors.toString());
+  }
+}
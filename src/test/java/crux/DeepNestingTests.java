@@ -0,0 +1,103 @@
+package crux;
+
+import crux.ast.ParseTreeLower;
+import crux.ast.types.TypeChecker;
+import crux.ir.ASTLower;
+import crux.ir.Emulator;
+import crux.pt.CruxParser;
+import crux.pt.CruxScanner;
+import crux.pt.MappedCharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compiles a generated program whose statements and expressions nest a few thousand levels deep.
+ * Everything after parsing runs on a thread with the default stack size, so none of those passes
+ * may recurse once per level.
+ */
+final class DeepNestingTests {
+  private static final int DEPTH = 3000;
+  /** The parser ANTLR generates recurses once per level, so it gets a stack big enough for it. */
+  private static final long PARSER_STACK = 64 << 20;
+
+  @Test
+  void compilesOnDefaultStack() throws Exception {
+    var tree = onThread(() -> parse(source()), PARSER_STACK);
+    var ir = onThread(() -> {
+      var err = new ByteArrayOutputStream();
+      var lower = new ParseTreeLower(new PrintStream(err));
+      var ast = lower.lower(tree);
+      Assertions.assertFalse(lower.hasEncounteredError(), err.toString());
+      var checker = new TypeChecker();
+      checker.check(ast);
+      Assertions.assertEquals(0, checker.getErrors().size(), checker.getErrors().toString());
+      var program = new ASTLower().lower(ast);
+      try (var out = new ObjectOutputStream(new ByteArrayOutputStream())) {
+        out.writeObject(program);
+      }
+      return program;
+    }, 0);
+
+    var out = new ByteArrayOutputStream();
+    onThread(() -> {
+      new Emulator(ir, new ByteArrayInputStream(new byte[0]), out).run();
+      return null;
+    }, 0);
+    Assertions.assertEquals(String.format("%d%n%d", DEPTH, 2 * DEPTH), out.toString().trim());
+  }
+
+  /**
+   * Returns a program that nests DEPTH if statements, adds DEPTH terms in one left-nested chain
+   * and DEPTH parenthesized ones in a right-nested chain.
+   */
+  private static String source() {
+    var source = new StringBuilder("void main() {\n  int x;\n  x = 0;\n");
+    source.append("  ").append("if (x < 1) { ".repeat(DEPTH)).append("x = 0");
+    source.append(" + 1".repeat(DEPTH)).append(";").append(" }".repeat(DEPTH)).append("\n");
+    source.append("  printInt(x);\n  println();\n");
+    source.append("  x = ").append("(1 + ".repeat(DEPTH)).append("x").append(")".repeat(DEPTH));
+    source.append(";\n  printInt(x);\n}\n");
+    return source.toString();
+  }
+
+  private static CruxParser.ProgramContext parse(String source) {
+    var input = MappedCharStream.fromBytes(source.getBytes(StandardCharsets.UTF_8), "deep.crx");
+    var parser = new CruxParser(new CommonTokenStream(new CruxScanner(input)));
+    var tree = parser.program();
+    Assertions.assertEquals(0, parser.getNumberOfSyntaxErrors());
+    return tree;
+  }
+
+  /**
+   * Run task on a new thread with the given stack size, 0 for the default, and return its
+   * result.
+   */
+  static <T> T onThread(Callable<T> task, long stackSize) throws Exception {
+    var result = new AtomicReference<Object>();
+    var thread = new Thread(null, () -> {
+      try {
+        result.set(task.call());
+      } catch (Exception | Error e) {
+        result.set(e);
+      }
+    }, "compiler", stackSize);
+    thread.start();
+    thread.join();
+    if (result.get() instanceof Exception)
+      throw (Exception) result.get();
+    if (result.get() instanceof Error)
+      throw (Error) result.get();
+    @SuppressWarnings("unchecked")
+    T value = (T) result.get();
+    return value;
+  }
+}
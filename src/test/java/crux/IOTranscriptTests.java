@@ -0,0 +1,77 @@
+package crux;
+
+import crux.ir.IOTranscript;
+import crux.ir.ProgramIO;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Records the I/O of a run and replays it through {@link IOTranscript}.
+ */
+final class IOTranscriptTests {
+  private static byte[] record(String input) throws IOException {
+    var log = new ByteArrayOutputStream();
+    var console = ProgramIO.of(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayOutputStream());
+    var recorder = IOTranscript.record(console, log);
+    Assertions.assertEquals(-300000000000L, recorder.readInt());
+    Assertions.assertEquals('x', recorder.readChar());
+    recorder.printInt(42);
+    recorder.printBool(true);
+    recorder.printChar('y');
+    recorder.println();
+    recorder.message("Reading from uninitialized memory");
+    recorder.close();
+    return log.toByteArray();
+  }
+
+  @Test
+  void replaysInputAndVerifiesOutput() throws IOException {
+    var replay = IOTranscript.replay(new ByteArrayInputStream(record("-300000000000\nx")), true);
+    Assertions.assertEquals(-300000000000L, replay.readInt());
+    Assertions.assertEquals('x', replay.readChar());
+    replay.printInt(42);
+    replay.printBool(true);
+    replay.printChar('y');
+    replay.println();
+    replay.message("Reading from uninitialized memory");
+    replay.finish(new PrintStream(new ByteArrayOutputStream()));
+  }
+
+  @Test
+  void rejectsDifferentOutput() throws IOException {
+    var replay = IOTranscript.replay(new ByteArrayInputStream(record("-300000000000\nx")), true);
+    replay.readInt();
+    replay.readChar();
+    Assertions.assertThrows(Error.class, () -> replay.printInt(43));
+    Assertions.assertThrows(Error.class, replay::readInt);
+  }
+
+  @Test
+  void warnsThatTruffleCannotRecord() throws IOException {
+    var file = Files.createTempFile("crux", ".transcript");
+    try {
+      var out = new ByteArrayOutputStream();
+      var err = new ByteArrayOutputStream();
+      var driver = new Driver(new PrintStream(out), new PrintStream(err));
+      driver.enableTruffle();
+      driver.setRecordFile(file.toString());
+      driver.setInputStream(new ByteArrayInputStream(
+          "void main() {\n  printInt(7);\n}\n".getBytes(StandardCharsets.UTF_8)));
+      driver.run();
+      Assertions.assertTrue(err.toString().contains("Truffle is not available with --record"),
+          err.toString());
+      Assertions.assertEquals("7", out.toString().trim());
+      Assertions.assertTrue(Files.size(file) > 0);
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
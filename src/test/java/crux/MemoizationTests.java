@@ -0,0 +1,56 @@
+package crux;
+
+import crux.ir.MemoTable;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Runs the IR test programs with memoization of pure calls and checks that their output does not
+ * change, and checks the eviction order of the {@link MemoTable}.
+ */
+final class MemoizationTests {
+  @TestFactory
+  Stream<DynamicTest> runMemoizedIR() throws IOException {
+    return CompilerStageTests.getPrograms("ir").stream().map(program -> dynamicTest(program, () -> {
+      var loader = getClass().getClassLoader();
+      var base = program.substring(0, program.length() - 4);
+
+      var outStream = new ByteArrayOutputStream();
+      var driver =
+          new Driver(new PrintStream(outStream), new PrintStream(new ByteArrayOutputStream()));
+      driver.enableMemoization();
+      driver.setEmulatorInput(loader.getResourceAsStream(base + ".in"));
+      driver.setInputStream(loader.getResourceAsStream(program));
+      driver.run();
+
+      var expected = CompilerStageTests.readResourceToString(base + ".out");
+      Assertions.assertEquals(CompilerStageTests.sanitize(expected).trim(),
+          CompilerStageTests.sanitize(outStream.toString()).trim(),
+          String.format("Memoization changes the output of %s.", program));
+    }));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsed() {
+    var memo = new MemoTable(2, new String[] {"f"}, 2);
+    memo.put(0, new long[] {1, 10}, 0, 2, 100);
+    memo.put(0, new long[] {2, 20}, 0, 2, 200);
+    Assertions.assertEquals(100, memo.result(memo.lookup(0, new long[] {1, 10}, 0, 2)));
+    memo.put(0, new long[] {3, 30}, 0, 2, 300);
+
+    Assertions.assertEquals(-1, memo.lookup(0, new long[] {2, 20}, 0, 2));
+    Assertions.assertEquals(100, memo.result(memo.lookup(0, new long[] {1, 10}, 0, 2)));
+    Assertions.assertEquals(300, memo.result(memo.lookup(0, new long[] {0, 3, 30}, 1, 2)));
+    Assertions.assertEquals(3, memo.getHits());
+    Assertions.assertEquals(1, memo.getMisses());
+  }
+}
@@ -0,0 +1,288 @@
+package crux;
+
+import crux.ir.Emulator;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.Variable;
+import crux.ir.BasicBlock;
+import crux.ir.insts.AddressAt;
+import crux.ir.insts.CallInst;
+import crux.ir.insts.LoadInst;
+import crux.ir.insts.StoreInst;
+import crux.ir.pass.AnalysisManager;
+import crux.ir.pass.FunctionPass;
+import crux.ir.pass.GlobalValueNumbering;
+import crux.ir.pass.Loops;
+import crux.ir.pass.PassManager;
+import crux.ir.pass.PassStatistics;
+import crux.ir.pass.ScalarPromotion;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Runs the IR test programs through the emulator after each optimization pipeline and checks that
+ * their output is unchanged, and checks what the individual passes do to small functions.
+ */
+final class OptimizationTests {
+  private static final int[] LEVELS = {1, 2};
+
+  @TestFactory
+  Stream<DynamicTest> emulateOptimizedIR() throws IOException {
+    var tests = new ArrayList<DynamicTest>();
+    for (int level : LEVELS) {
+      for (var program : CompilerStageTests.getPrograms("ir")) {
+        tests.add(dynamicTest(String.format("-O%d %s", level, program), () -> {
+          var loader = getClass().getClassLoader();
+          var base = program.substring(0, program.length() - 4);
+
+          var outStream = new ByteArrayOutputStream();
+          var outPrintStream = new PrintStream(outStream);
+          var driver = new Driver(outPrintStream, outPrintStream);
+          driver.enableEmulator();
+          driver.setOptimizationLevel(level);
+          driver.setEmulatorInput(loader.getResourceAsStream(base + ".in"));
+          driver.setInputStream(loader.getResourceAsStream(program));
+          driver.run();
+
+          var expected = CompilerStageTests.readResourceToString(base + ".out");
+          Assertions.assertEquals(CompilerStageTests.sanitize(expected).trim(),
+              CompilerStageTests.sanitize(outStream.toString()).trim(),
+              String.format("-O%d changes the output of %s.", level, program));
+        }));
+      }
+    }
+    return tests.stream();
+  }
+
+  @Test
+  void numbersRepeatedLoads() {
+    var program = optimize("int a[10];\nint g;\n"
+        + "int f(int i) {\n  return a[i] + a[i];\n}\n"
+        + "int h() {\n  int x;\n  x = g + g;\n  g = x;\n  return x;\n}\n"
+        + "void main() {\n  a[2] = 3;\n  g = 4;\n  printInt(f(2));\n  printInt(h());\n}\n",
+        new GlobalValueNumbering());
+    var f = CompilerStageTests.function(program, "f");
+    Assertions.assertEquals(1, count(f, AddressAt.class, "a"));
+    Assertions.assertEquals(1, count(f, LoadInst.class, "a"));
+    var h = CompilerStageTests.function(program, "h");
+    Assertions.assertEquals(1, count(h, AddressAt.class, "g"));
+    Assertions.assertEquals(1, count(h, LoadInst.class, "g"));
+  }
+
+  @Test
+  void reloadsAfterStoreOrCall() {
+    var program = optimize("int a[10];\nint g;\n"
+        + "int f() {\n  int x;\n  x = g;\n  a[0] = 1;\n  return x + g;\n}\n"
+        + "int h() {\n  int x;\n  x = g;\n  printInt(0);\n  return x + g;\n}\n"
+        + "void main() {\n  g = 4;\n  printInt(f());\n  printInt(h());\n}\n",
+        new GlobalValueNumbering());
+    Assertions.assertEquals(2, count(CompilerStageTests.function(program, "f"), LoadInst.class,
+        "g"));
+    Assertions.assertEquals(2, count(CompilerStageTests.function(program, "h"), LoadInst.class,
+        "g"));
+  }
+
+  @Test
+  void reusesOnlyDominatingValues() {
+    // The load in the then branch does not dominate the return, so the return loads again.
+    var program = optimize("int a[10];\n"
+        + "int f(int i, bool c) {\n  int x;\n  x = 0;\n"
+        + "  if (c) {\n    x = a[i];\n  }\n  return x + a[i];\n}\n"
+        + "void main() {\n  a[1] = 5;\n  printInt(f(1, true));\n  printInt(f(1, false));\n}\n",
+        new GlobalValueNumbering());
+    var f = CompilerStageTests.function(program, "f");
+    Assertions.assertEquals(2, count(f, AddressAt.class, "a"));
+    Assertions.assertEquals(2, count(f, LoadInst.class, "a"));
+  }
+
+  @Test
+  void promotesAccumulator() {
+    var program = optimize("int s;\nvoid main() {\n  int i;\n  s = 0;\n"
+        + "  for (i = 0; i < 10; i = i + 1) {\n    s = s + i;\n  }\n  printInt(s);\n}\n",
+        new ScalarPromotion());
+    var main = CompilerStageTests.function(program, "main");
+    var addresses = addresses(main);
+    var loop = loops(main).get(0);
+    checkPromoted(loop, addresses, "s");
+
+    var members = new HashSet<>(loop.getBlocks());
+    int entries = 0;
+    for (int i = 0; i < loop.getHeader().numPredecessors(); i++) {
+      var predecessor = loop.getHeader().getPredecessor(i);
+      if (members.contains(predecessor))
+        continue;
+      entries++;
+      var last = predecessor.getLast();
+      Assertions.assertTrue(last instanceof LoadInst && "s".equals(globalOf(last, addresses)),
+          "The loop is entered without loading s: " + predecessor);
+    }
+    Assertions.assertEquals(1, entries);
+    int exits = 0;
+    for (var block : loop.getBlocks()) {
+      for (int i = 0; i < block.numSuccessors(); i++) {
+        var target = block.getSuccessor(i);
+        if (target == null || members.contains(target))
+          continue;
+        exits++;
+        Assertions.assertEquals("s", globalOf(target.get(1), addresses));
+        Assertions.assertTrue(target.get(1) instanceof StoreInst,
+            "The loop is left without storing s: " + target);
+      }
+    }
+    Assertions.assertTrue(exits > 0);
+    Assertions.assertEquals(1 + exits, count(main, StoreInst.class, "s"));
+    Assertions.assertEquals(2, count(main, LoadInst.class, "s"));
+  }
+
+  @Test
+  void spillsAroundCall() {
+    var program = optimize("int s;\nvoid main() {\n  int i;\n  s = 0;\n"
+        + "  for (i = 0; i < 10; i = i + 1) {\n    s = s + i;\n    s = s * 2;\n"
+        + "    printInt(i);\n  }\n  printInt(s);\n}\n", new ScalarPromotion());
+    var main = CompilerStageTests.function(program, "main");
+    var addresses = addresses(main);
+    var loop = loops(main).get(0);
+    int calls = 0;
+    for (var block : loop.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        if (!(block.get(k) instanceof CallInst))
+          continue;
+        calls++;
+        var store = block.get(k - 1);
+        Assertions.assertTrue(store instanceof StoreInst
+            && "s".equals(globalOf(store, addresses)), "No store of s before the call.");
+        var reload = block.get(k).getNext(0).getNext(0);
+        Assertions.assertTrue(reload instanceof LoadInst
+            && "s".equals(globalOf(reload, addresses)), "No load of s after the call.");
+      }
+    }
+    Assertions.assertEquals(1, calls);
+  }
+
+  @Test
+  void leavesUninitializedGlobal() {
+    // Loading s before the loop would read memory the program only writes in it.
+    var source = "int s;\nvoid main() {\n  int i;\n  int x;\n  x = 0;\n"
+        + "  for (i = 0; i < 3; i = i + 1) {\n    s = i;\n    x = x + s;\n  }\n"
+        + "  printInt(x);\n}\n";
+    var program = optimize(source, new ScalarPromotion());
+    var main = CompilerStageTests.function(program, "main");
+    var original = CompilerStageTests.function(CompilerStageTests.compile(source), "main");
+    Assertions.assertEquals(count(original, LoadInst.class, "s"), count(main, LoadInst.class,
+        "s"));
+    Assertions.assertEquals(count(original, StoreInst.class, "s"), count(main, StoreInst.class,
+        "s"));
+    Assertions.assertFalse(emulate(program).contains("uninitialized"));
+  }
+
+  @Test
+  void promotesOuterLoopOnly() {
+    var program = optimize("int s;\nvoid main() {\n  int i;\n  int j;\n  s = 0;\n"
+        + "  for (i = 0; i < 3; i = i + 1) {\n"
+        + "    for (j = 0; j < 3; j = j + 1) {\n      s = s + j;\n    }\n  }\n"
+        + "  printInt(s);\n}\n", new ScalarPromotion());
+    var main = CompilerStageTests.function(program, "main");
+    var loops = loops(main);
+    Assertions.assertEquals(2, loops.size());
+    for (var loop : loops) {
+      if (loop.getParent() == null)
+        checkPromoted(loop, addresses(main), "s");
+    }
+    // One load before the outer loop and one for printInt, none in front of the inner loop.
+    Assertions.assertEquals(2, count(main, LoadInst.class, "s"));
+  }
+
+  /**
+   * Check that no block of loop loads or stores global.
+   */
+  private static void checkPromoted(Loops.Loop loop, Map<Variable, String> addresses,
+      String global) {
+    for (BasicBlock block : loop.getBlocks()) {
+      for (var inst : block.getInstructions()) {
+        if (inst instanceof LoadInst || inst instanceof StoreInst)
+          Assertions.assertNotEquals(global, globalOf(inst, addresses),
+              String.format("%s is still accessed in %s.", global, block));
+      }
+    }
+  }
+
+  private static List<Loops.Loop> loops(Function function) {
+    return new AnalysisManager(new PassStatistics()).get(Loops.ANALYSIS, function).getLoops();
+  }
+
+  /**
+   * Compile source, run passes over it and check that the emulator prints the same as before.
+   */
+  private static Program optimize(String source, FunctionPass... passes) {
+    var expected = emulate(CompilerStageTests.compile(source));
+    var program = CompilerStageTests.compile(source);
+    var manager = new PassManager();
+    for (var pass : passes)
+      manager.add(pass);
+    manager.run(program);
+    Assertions.assertEquals(expected, emulate(program));
+    return program;
+  }
+
+  private static String emulate(Program program) {
+    var out = new ByteArrayOutputStream();
+    new Emulator(program, new ByteArrayInputStream(new byte[0]), out).run();
+    return out.toString();
+  }
+
+  /**
+   * Returns how many instructions of kind in function compute the address of global or load or
+   * store through it.
+   */
+  private static int count(Function function, Class<? extends Instruction> kind, String global) {
+    var addresses = addresses(function);
+    int count = 0;
+    for (var block : function.getBlocks()) {
+      for (var inst : block.getInstructions()) {
+        if (kind.isInstance(inst) && global.equals(globalOf(inst, addresses)))
+          count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the name of the global each address variable of function points into.
+   */
+  private static Map<Variable, String> addresses(Function function) {
+    Map<Variable, String> addresses = new IdentityHashMap<>();
+    for (var block : function.getBlocks()) {
+      for (var inst : block.getInstructions()) {
+        if (inst instanceof AddressAt)
+          addresses.put(((AddressAt) inst).getDst(), ((AddressAt) inst).getBase().getName());
+      }
+    }
+    return addresses;
+  }
+
+  private static String globalOf(Instruction inst, Map<Variable, String> addresses) {
+    if (inst instanceof AddressAt)
+      return ((AddressAt) inst).getBase().getName();
+    if (inst instanceof LoadInst)
+      return addresses.get(((LoadInst) inst).getSrcAddress());
+    if (inst instanceof StoreInst)
+      return addresses.get(((StoreInst) inst).getDestAddress());
+    return null;
+  }
+}
@@ -0,0 +1,98 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Profiles a recursive program with {@code --profile} and {@code --profile-stacks} and checks the
+ * counts in the JSON and the collapsed stacks.
+ */
+final class ProfileTests {
+  /** main calls fact(4) five times, which recurses down to fact(1). */
+  private static final String SOURCE = "int fact(int n) {\n"
+      + "  if (n <= 1) {\n    return 1;\n  }\n  return n * fact(n - 1);\n}\n"
+      + "void main() {\n  int i;\n  int s;\n  s = 0;\n"
+      + "  for (i = 0; i < 5; i = i + 1) {\n    s = s + fact(4);\n  }\n  printInt(s);\n}\n";
+  private static final Pattern FUNCTION = Pattern.compile("\"name\": \"(\\w+)\",\\s*"
+      + "\"calls\": (\\d+),\\s*\"inclusive\": (\\d+),\\s*\"exclusive\": (\\d+),\\s*"
+      + "\"backEdges\": \\[([^\\]]*)\\]");
+  private static final Pattern COUNT = Pattern.compile("\"count\": (\\d+)");
+
+  /**
+   * The counts of one function in the JSON profile.
+   */
+  private static final class Counts {
+    final long calls;
+    final long inclusive;
+    final long exclusive;
+    final List<Long> backEdges = new ArrayList<>();
+
+    Counts(long calls, long inclusive, long exclusive) {
+      this.calls = calls;
+      this.inclusive = inclusive;
+      this.exclusive = exclusive;
+    }
+  }
+
+  @Test
+  void countsCallsAndFoldsRecursion() throws IOException {
+    var json = Files.createTempFile("crux", ".json");
+    var stacks = Files.createTempFile("crux", ".stacks");
+    try {
+      var out = new ByteArrayOutputStream();
+      var driver = new Driver(new PrintStream(out), new PrintStream(out));
+      driver.setInputStream(new ByteArrayInputStream(SOURCE.getBytes(StandardCharsets.UTF_8)));
+      driver.setProfileFile(json.toString());
+      driver.setProfileStacksFile(stacks.toString());
+      driver.run();
+      Assertions.assertEquals("120", out.toString().trim());
+
+      var profile = Files.readString(json);
+      var total = Pattern.compile("\"instructions\": (\\d+),").matcher(profile);
+      Assertions.assertTrue(total.find());
+      long instructions = Long.parseLong(total.group(1));
+      var main = counts(profile, "main");
+      var fact = counts(profile, "fact");
+
+      Assertions.assertEquals(1, main.calls);
+      Assertions.assertEquals(20, fact.calls);
+      Assertions.assertEquals(instructions, main.inclusive);
+      Assertions.assertEquals(instructions, main.exclusive + fact.exclusive);
+      // The recursive calls run inside the outermost one, so they are not counted again.
+      Assertions.assertEquals(fact.exclusive, fact.inclusive);
+      Assertions.assertEquals(List.of(5L), main.backEdges);
+      Assertions.assertEquals(List.of(), fact.backEdges);
+
+      Assertions.assertEquals(List.of("main " + main.exclusive, "main;fact " + fact.exclusive),
+          Files.readAllLines(stacks));
+    } finally {
+      Files.delete(json);
+      Files.delete(stacks);
+    }
+  }
+
+  private static Counts counts(String profile, String name) {
+    var function = FUNCTION.matcher(profile);
+    while (function.find()) {
+      if (!function.group(1).equals(name))
+        continue;
+      var counts = new Counts(Long.parseLong(function.group(2)),
+          Long.parseLong(function.group(3)), Long.parseLong(function.group(4)));
+      var edge = COUNT.matcher(function.group(5));
+      while (edge.find())
+        counts.backEdges.add(Long.parseLong(edge.group(1)));
+      return counts;
+    }
+    throw new AssertionError("no function " + name + " in " + profile);
+  }
+}
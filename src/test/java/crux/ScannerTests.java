@@ -0,0 +1,101 @@
+package crux;
+
+import crux.pt.CruxLexer;
+import crux.pt.CruxScanner;
+import crux.pt.MappedCharStream;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Checks that {@link CruxScanner} produces exactly the tokens and lexical errors of the generated
+ * {@link CruxLexer}.
+ */
+final class ScannerTests {
+  private static final String[] STAGES = {"parse-tree", "ast", "type-check", "ir", "codegen"};
+
+  /** Inputs that exercise lexical errors and boundary cases not found in the test programs. */
+  private static final String[] SNIPPETS = {"", "a|b", "a|", "x &\ny", "&&||", "a & b", "@#$", "0123",
+      "12abc", "iffy if_ if1 return_ true false", "a//b\nc", "/", "//", "a\r\nb\tc", "x = 1 >= 2 <= 3",
+      "!!=!", "{[()]};,", "|\n|", "café"};
+
+  @TestFactory
+  Stream<DynamicTest> corpus() throws IOException {
+    var tests = new ArrayList<DynamicTest>();
+    for (var stage : STAGES) {
+      for (var program : CompilerStageTests.getPrograms(stage)) {
+        tests.add(dynamicTest(program, () -> {
+          var loader = getClass().getClassLoader();
+          try (var in = Objects.requireNonNull(loader.getResourceAsStream(program))) {
+            compare(in.readAllBytes(), program);
+          }
+        }));
+      }
+    }
+    return tests.stream();
+  }
+
+  @TestFactory
+  Stream<DynamicTest> snippets() {
+    return Stream.of(SNIPPETS).map(snippet -> dynamicTest(snippet,
+        () -> compare(snippet.getBytes(StandardCharsets.ISO_8859_1), snippet)));
+  }
+
+  private void compare(byte[] source, String name) {
+    var expectedErrors = new ArrayList<String>();
+    var antlr = new CruxLexer(MappedCharStream.fromBytes(source, name));
+    antlr.removeErrorListeners();
+    antlr.addErrorListener(new Recorder(expectedErrors));
+    var expected = antlr.getAllTokens();
+
+    var actualErrors = new ArrayList<String>();
+    var scanner = new CruxScanner(MappedCharStream.fromBytes(source, name));
+    scanner.removeErrorListeners();
+    scanner.addErrorListener(new Recorder(actualErrors));
+
+    Assertions.assertEquals(expected.size(), scanner.size(), "token count");
+    for (int i = 0; i < expected.size(); i++) {
+      var token = expected.get(i);
+      var actual = scanner.nextToken();
+      Assertions.assertEquals(describe(token), describe(actual));
+      Assertions.assertEquals(token.getType(), scanner.kind(i));
+      Assertions.assertEquals(token.getText(), scanner.text(i));
+    }
+    var eof = antlr.nextToken();
+    Assertions.assertEquals(describe(eof), describe(scanner.nextToken()));
+    Assertions.assertEquals(expectedErrors, actualErrors);
+  }
+
+  private static String describe(Token token) {
+    return String.format("%d '%s' [%d..%d] %d:%d channel %d", token.getType(), token.getText(),
+        token.getStartIndex(), token.getStopIndex(), token.getLine(), token.getCharPositionInLine(),
+        token.getChannel());
+  }
+
+  private static final class Recorder extends BaseErrorListener {
+    private final List<String> messages;
+
+    private Recorder(List<String> messages) {
+      this.messages = messages;
+    }
+
+    @Override
+    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+        int charPositionInLine, String msg, RecognitionException e) {
+      messages.add(String.format("line %d:%d %s", line, charPositionInLine, msg));
+    }
+  }
+}
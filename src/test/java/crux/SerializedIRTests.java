@@ -0,0 +1,149 @@
+package crux;
+
+import crux.ir.Emulator;
+import crux.ir.Function;
+import crux.ir.Instruction;
+import crux.ir.Program;
+import crux.ir.Value;
+import crux.ir.Variable;
+import crux.printing.IRValueFormatter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Reads the serialized IR of the codegen tests, which was written by an older version of the
+ * compiler, and runs it on the {@link Emulator}. Also checks how variables are numbered and
+ * printed.
+ */
+final class SerializedIRTests {
+  /**
+   * Streams of that version nest one level per instruction, deeper than the default stack allows
+   * for the longest programs.
+   */
+  private static final long READER_STACK = 16 << 20;
+
+  @TestFactory
+  Stream<DynamicTest> runsOlderStreams() throws IOException {
+    return CompilerStageTests.getPrograms("codegen").stream().map(program -> dynamicTest(program,
+        () -> {
+          var loader = getClass().getClassLoader();
+          var base = program.substring(0, program.length() - 4);
+          var ir = read(Objects.requireNonNull(loader.getResourceAsStream(base + ".ser")));
+
+          var in = loader.getResourceAsStream(base + ".in");
+          var out = new ByteArrayOutputStream();
+          new Emulator(ir, in == null ? new ByteArrayInputStream(new byte[0]) : in, out).run();
+          Assertions.assertEquals(
+              CompilerStageTests
+                  .sanitize(CompilerStageTests.readResourceToString(base + ".out")).trim(),
+              CompilerStageTests.sanitize(out.toString()).trim(),
+              String.format("The serialized IR of %s runs differently.", program));
+        }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> numbersOlderVariables() throws IOException {
+    return CompilerStageTests.getPrograms("codegen").stream().map(program -> dynamicTest(program,
+        () -> {
+          var base = program.substring(0, program.length() - 4);
+          var ir = read(getClass().getClassLoader().getResourceAsStream(base + ".ser"));
+          for (var it = ir.getFunctions(); it.hasNext();)
+            checkIds(it.next());
+        }));
+  }
+
+  @Test
+  void keepsOlderNames() throws Exception {
+    var ir = read(getClass().getClassLoader()
+        .getResourceAsStream("crux/stages/codegen/test19.ser"));
+    var text = ir.format(new IRValueFormatter());
+    Assertions.assertTrue(text.contains("function %rec($a0) -> void"), text);
+    Assertions.assertTrue(text.contains("$t2 = $a0 > $t1"), text);
+    Assertions.assertTrue(text.contains("$t4 = $a0 - $t3"), text);
+  }
+
+  @Test
+  void numbersLocalsAndAddressesTogether() {
+    var source = "int x[3];\nint get(int i) {\n  return x[i];\n}\n"
+        + "void main() {\n  x[1] = 42;\n  printInt(get(1));\n}\n";
+    var sink = new PrintStream(new ByteArrayOutputStream());
+    var driver = new Driver(sink, sink);
+    driver.setInputStream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+    var ir = driver.compile();
+    var text = ir.format(new IRValueFormatter());
+    Assertions.assertTrue(text.contains("function %get($i0) -> int"), text);
+    Assertions.assertTrue(text.contains("%av1 = addressAt x, $i0"), text);
+    Assertions.assertTrue(text.contains("$t2 = load %av1"), text);
+    for (var it = ir.getFunctions(); it.hasNext();)
+      checkIds(it.next());
+  }
+
+  /**
+   * Check that the arguments of function have the ids 0..n-1 and that the ids of all its
+   * variables are distinct and below the function's count.
+   */
+  private static void checkIds(Function function) {
+    var arguments = function.getArguments();
+    for (int a = 0; a < arguments.size(); a++)
+      Assertions.assertEquals(a, arguments.get(a).getId(), function.getName());
+    var seen = Collections.newSetFromMap(new IdentityHashMap<Variable, Boolean>());
+    var ids = new boolean[function.getNumVariables()];
+    seen.addAll(arguments);
+    for (var argument : arguments)
+      ids[argument.getId()] = true;
+    for (var block : function.getBlocks()) {
+      for (int k = 0; k < block.size(); k++) {
+        Instruction inst = block.get(k);
+        for (Value operand : inst.getOperands())
+          checkId(operand, seen, ids, function);
+        checkId(inst.getDestination(), seen, ids, function);
+      }
+    }
+  }
+
+  private static void checkId(Value value, Set<Variable> seen, boolean[] ids,
+      Function function) {
+    if (!(value instanceof Variable) || !seen.add((Variable) value))
+      return;
+    int id = ((Variable) value).getId();
+    Assertions.assertTrue(id >= 0 && id < ids.length, function.getName() + ": " + value);
+    Assertions.assertFalse(ids[id], function.getName() + ": " + value + " shares its id");
+    ids[id] = true;
+  }
+
+  static Program read(InputStream stream) throws Exception {
+    var result = new AtomicReference<Object>();
+    var reader = new Thread(null, () -> {
+      try (var in = new ObjectInputStream(stream)) {
+        result.set(in.readObject());
+      } catch (Exception | Error e) {
+        result.set(e);
+      }
+    }, "reader", READER_STACK);
+    reader.start();
+    reader.join();
+    if (result.get() instanceof Exception)
+      throw (Exception) result.get();
+    if (result.get() instanceof Error)
+      throw (Error) result.get();
+    return (Program) result.get();
+  }
+}
@@ -0,0 +1,140 @@
+package crux;
+
+import crux.backend.BlockLayout;
+import crux.ir.BasicBlock;
+import crux.ir.Function;
+import crux.ir.Program;
+import crux.ir.SiteCounts;
+import crux.ir.insts.JumpInst;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes branch and call counts with the emulator and compiles with them again, as
+ * {@code --write-profile} and {@code --use-profile} do.
+ */
+final class SiteCountsTests {
+  /** f is always called with a negative argument, so its then branch is hot. */
+  private static final String SOURCE = "void f(int a) {\n"
+      + "  if (a < 0) {\n    printInt(1);\n  } else {\n    printInt(2);\n  }\n"
+      + "  println();\n}\n"
+      + "void main() {\n  int i;\n"
+      + "  for (i = 0; i < 20; i = i + 1) {\n    f(i - 100);\n  }\n}\n";
+
+  private Path profile;
+
+  @BeforeEach
+  void writeProfile() throws IOException {
+    profile = Files.createTempFile("crux", ".profile");
+    var driver = driver(SOURCE, new ByteArrayOutputStream());
+    driver.setWriteProfileFile(profile.toString());
+    driver.run();
+  }
+
+  @AfterEach
+  void deleteProfile() throws IOException {
+    Files.delete(profile);
+  }
+
+  @Test
+  void placesHotSuccessorNext() {
+    var f = CompilerStageTests.function(compile(SOURCE, 0, null), "f");
+    var branch = branch(f);
+    var counts = f.getSiteCounts();
+    Assertions.assertNotNull(counts);
+    var jump = branch.getLast();
+    var hot = 2 * counts.getTaken(jump) > counts.getCount(jump) ? jump.getNext(1)
+        : jump.getNext(0);
+
+    var order = BlockLayout.order(f);
+    Assertions.assertSame(hot, order.get(order.indexOf(branch) + 1).getFirst());
+    var unprofiled = CompilerStageTests.function(CompilerStageTests.compile(SOURCE), "f");
+    var unprofiledOrder = BlockLayout.order(unprofiled);
+    var unprofiledBranch = branch(unprofiled);
+    Assertions.assertNotSame(unprofiledBranch.getLast().getNext(1),
+        unprofiledOrder.get(unprofiledOrder.indexOf(unprofiledBranch) + 1).getFirst(),
+        "The hot successor already falls through without a profile.");
+  }
+
+  @Test
+  void reportsChangedFunction() throws IOException {
+    var changed = SOURCE.replace("    printInt(2);\n", "    if (a > 0) {\n      printInt(2);\n"
+        + "    }\n");
+    var err = new ByteArrayOutputStream();
+    var program = compile(changed, 0, err);
+    Assertions.assertTrue(err.toString().contains("ignoring stale profile of function 'f'"),
+        err.toString());
+    Assertions.assertNull(CompilerStageTests.function(program, "f").getSiteCounts());
+    Assertions.assertNotNull(CompilerStageTests.function(program, "main").getSiteCounts());
+    try (var in = Files.newInputStream(profile)) {
+      Assertions.assertEquals(List.of("f"),
+          SiteCounts.apply(CompilerStageTests.compile(changed), SiteCounts.read(in)));
+    }
+  }
+
+  @Test
+  void appliesAtOtherLevel() {
+    var err = new ByteArrayOutputStream();
+    var program = compile(SOURCE, 2, err);
+    Assertions.assertEquals("", err.toString());
+    for (var it = program.getFunctions(); it.hasNext();) {
+      var function = it.next();
+      Assertions.assertNotNull(function.getSiteCounts(), function.getName());
+    }
+  }
+
+  @Test
+  void rejectsMalformedProfile() {
+    checkRejected("line 1", "crux-profile 2\n");
+    checkRejected("line 2", "crux-profile 1\nsite 0 1 0\n");
+    checkRejected("line 3", "crux-profile 1\nfunction f 2\nsite x 1 0\n");
+    checkRejected("line 4", "crux-profile 1\nfunction f 2\nsite 0 1 0\nsite 5 1 0\n");
+    checkRejected("line 3", "crux-profile 1\n\nfunction f\n");
+  }
+
+  private static void checkRejected(String line, String text) {
+    var e = Assertions.assertThrows(IOException.class,
+        () -> SiteCounts.read(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+    Assertions.assertTrue(e.getMessage().startsWith(line + ":"), e.getMessage());
+  }
+
+  /**
+   * Compile source at level with the profile, sending warnings to err if it is not null.
+   */
+  private Program compile(String source, int level, ByteArrayOutputStream err) {
+    var driver = driver(source, err == null ? new ByteArrayOutputStream() : err);
+    driver.setOptimizationLevel(level);
+    driver.setUseProfileFile(profile.toString());
+    var program = driver.compile();
+    Assertions.assertNotNull(program);
+    return program;
+  }
+
+  private static Driver driver(String source, ByteArrayOutputStream err) {
+    var driver = new Driver(new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+    driver.setInputStream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+    return driver;
+  }
+
+  /**
+   * Returns the block of function that ends in its first conditional jump.
+   */
+  private static BasicBlock branch(Function function) {
+    for (var block : function.getBlocks()) {
+      if (block.getLast() instanceof JumpInst)
+        return block;
+    }
+    throw new AssertionError("no branch in " + function.getName());
+  }
+}
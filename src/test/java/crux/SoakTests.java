@@ -0,0 +1,64 @@
+package crux;
+
+import crux.ast.types.TypeFactory;
+import crux.ir.Program;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compiles many different programs in one JVM and checks that nothing the compiler keeps between
+ * compilations grows with them. Set {@code crux.soak.programs} to compile more, for example
+ * {@code mvn test -Dtest=SoakTests -Dcrux.soak.programs=100000}.
+ */
+final class SoakTests {
+  private static final int PROGRAMS = Integer.getInteger("crux.soak.programs", 2000);
+  /**
+   * Heap growth allowed over the measured programs: a fixed slack for what the JVM itself
+   * allocates plus a few bytes per program, well below what one interned type per program takes.
+   */
+  private static final long MAX_GROWTH = (64 << 10) + 32L * (PROGRAMS - PROGRAMS / 10);
+
+  @Test
+  void compilingKeepsHeapFlat() {
+    var first = new WeakReference<Program>(compile(0));
+    var type = new WeakReference<Object>(TypeFactory.arrayType(-1, TypeFactory.intType()));
+    long warm = 0;
+    for (int i = 1; i < PROGRAMS; i++) {
+      Assertions.assertNotNull(compile(i));
+      if (i == PROGRAMS / 10)
+        warm = usedHeap();
+    }
+    long growth = usedHeap() - warm;
+
+    Assertions.assertNull(first.get(), "The first program is still reachable.");
+    Assertions.assertNull(type.get(), "An unused type is still interned.");
+    Assertions.assertTrue(growth < MAX_GROWTH,
+        String.format("The heap grew by %d bytes over %d programs.", growth, PROGRAMS));
+  }
+
+  /**
+   * Compile a program with an array extent and constants of its own.
+   */
+  private static Program compile(int i) {
+    var source = String.format("int x[%d];%nvoid main() {%n  x[0] = %d;%n  printInt(x[0]);%n}%n",
+        i + 1, i);
+    var sink = new PrintStream(new ByteArrayOutputStream());
+    var driver = new Driver(sink, sink);
+    driver.setOptimizationLevel(2);
+    driver.setInputStream(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+    return driver.compile();
+  }
+
+  private static long usedHeap() {
+    var runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++)
+      System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
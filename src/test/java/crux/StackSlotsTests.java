@@ -0,0 +1,95 @@
+package crux;
+
+import crux.backend.StackSlots;
+import crux.ir.Instruction;
+import crux.ir.Value;
+import crux.ir.Variable;
+import crux.ir.pass.AnalysisManager;
+import crux.ir.pass.Liveness;
+import crux.ir.pass.PassStatistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Checks that {@link StackSlots} gives variables that are live at the same time different slots
+ * and lets the others share, and that the native code still computes the same output.
+ */
+final class StackSlotsTests {
+  private static final String SOURCE = "int f(int a) {\n"
+      + "  int x;\n  int y;\n  int s;\n  int z;\n"
+      + "  x = a * 2;\n  y = a * 3;\n  s = x + y;\n  z = s - a;\n"
+      + "  return z * z;\n"
+      + "}\n"
+      + "void main() {\n  printInt(f(5));\n  println();\n  printInt(f(7));\n}\n";
+
+  @Test
+  void sharesSlotsOfDisjointVariables() {
+    var f = CompilerStageTests.function(CompilerStageTests.compile(SOURCE), "f");
+    var slots = StackSlots.assign(f);
+    var liveness = new AnalysisManager(new PassStatistics()).get(Liveness.ANALYSIS, f);
+
+    Assertions.assertEquals(1, slots.get(f.getArguments().get(0)));
+    var mentioned = Collections.newSetFromMap(new IdentityHashMap<Variable, Boolean>());
+    for (var block : f.getBlocks()) {
+      var live = new ArrayList<Variable>();
+      for (int v : liveness.getLiveOut(block))
+        live.add(liveness.getVariable(v));
+      for (int k = block.size() - 1; k >= 0; k--) {
+        Instruction inst = block.get(k);
+        var destination = inst.getDestination();
+        if (destination != null) {
+          mentioned.add(destination);
+          checkDistinct(slots, live, destination);
+          live.remove(destination);
+        }
+        for (Value operand : inst.getOperands()) {
+          if (operand instanceof Variable && !live.contains(operand)) {
+            mentioned.add((Variable) operand);
+            checkDistinct(slots, live, (Variable) operand);
+            live.add((Variable) operand);
+          }
+        }
+      }
+    }
+    Assertions.assertTrue(slots.size() < mentioned.size(),
+        String.format("%d variables take %d slots.", mentioned.size(), slots.size()));
+  }
+
+  @Test
+  void keepsNativeOutput() throws Exception {
+    Assumptions.assumeTrue(CompilerStageTests.hasGcc(), "gcc is not installed");
+    var expected = new ByteArrayOutputStream();
+    var emulated = new Driver(new PrintStream(expected), new PrintStream(expected));
+    emulated.setInputStream(new ByteArrayInputStream(SOURCE.getBytes(StandardCharsets.UTF_8)));
+    emulated.enableEmulator();
+    emulated.run();
+
+    var driver = new Driver();
+    driver.setInputStream(new ByteArrayInputStream(SOURCE.getBytes(StandardCharsets.UTF_8)));
+    driver.run();
+    Assertions.assertEquals(expected.toString().trim(),
+        CompilerStageTests.runNative("a.s", null).trim());
+  }
+
+  /**
+   * Check that variable does not share a slot with any variable in live other than itself.
+   */
+  private static void checkDistinct(StackSlots slots, List<Variable> live, Variable variable) {
+    Assertions.assertTrue(slots.get(variable) > 0, variable + " has no slot");
+    for (var other : live) {
+      if (other != variable)
+        Assertions.assertNotEquals(slots.get(other), slots.get(variable),
+            variable + " and " + other + " are live together");
+    }
+  }
+}
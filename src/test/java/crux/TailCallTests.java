@@ -0,0 +1,98 @@
+package crux;
+
+import crux.ir.CompiledEmulator;
+import crux.ir.Emulator;
+import crux.ir.Program;
+import crux.ir.pass.PassManager;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Runs tail calls a million deep and checks that they reuse their caller's frame: self calls on
+ * both emulators with and without tail recursion elimination, and self and non-self calls in
+ * native code.
+ */
+final class TailCallTests {
+  private static final int DEPTH = 1000000;
+  private static final String COUNT = "int count(int n, int acc) {\n"
+      + "  if (n == 0) {\n    return acc;\n  }\n  return count(n - 1, acc + 1);\n}\n"
+      + "void main() {\n  printInt(count(" + DEPTH + ", 0));\n}\n";
+  /** Crux has no forward declarations, so the non-self tail call goes one way only. */
+  private static final String CHAIN = "int count(int n, int acc) {\n"
+      + "  if (n == 0) {\n    return acc;\n  }\n  return count(n - 1, acc + 1);\n}\n"
+      + "int start(int n) {\n  return count(n, 0);\n}\n"
+      + "void main() {\n  printInt(start(" + DEPTH + "));\n}\n";
+
+  @TestFactory
+  List<DynamicTest> emulatorsRunInConstantStack() {
+    var tests = new ArrayList<DynamicTest>();
+    for (int level : new int[] {0, 1}) {
+      tests.add(dynamicTest(String.format("-O%d emulator", level), () -> {
+        var out = new ByteArrayOutputStream();
+        var emulator = new Emulator(compile(COUNT, level), new ByteArrayInputStream(new byte[0]),
+            out);
+        DeepNestingTests.onThread(() -> {
+          emulator.run();
+          return null;
+        }, 0);
+        Assertions.assertEquals(String.valueOf(DEPTH), out.toString().trim());
+        Assertions.assertEquals(2, emulator.getMaxDepth());
+      }));
+      tests.add(dynamicTest(String.format("-O%d compiled emulator", level), () -> {
+        var out = new ByteArrayOutputStream();
+        var emulator = new CompiledEmulator(compile(COUNT, level),
+            new ByteArrayInputStream(new byte[0]), out);
+        DeepNestingTests.onThread(() -> {
+          emulator.run();
+          return null;
+        }, 0);
+        Assertions.assertEquals(String.valueOf(DEPTH), out.toString().trim());
+        Assertions.assertEquals(2, emulator.getMaxDepth());
+      }));
+    }
+    return tests;
+  }
+
+  @Test
+  void emitsJumpForTailCalls() throws Exception {
+    var driver = new Driver();
+    driver.setInputStream(new ByteArrayInputStream(CHAIN.getBytes(StandardCharsets.UTF_8)));
+    driver.run();
+    var lines = Files.readAllLines(Path.of("a.s"));
+    for (var caller : List.of("count", "start")) {
+      int start = lines.indexOf(caller + ":");
+      Assertions.assertTrue(start >= 0, "No function " + caller);
+      int jump = start + 1;
+      while (jump < lines.size() && !lines.get(jump).trim().startsWith(".globl")
+          && !lines.get(jump).trim().equals("jmp count"))
+        jump++;
+      Assertions.assertTrue(jump < lines.size() && lines.get(jump).trim().equals("jmp count"),
+          "The tail call in " + caller + " is not a jump.");
+      Assertions.assertEquals("leave", lines.get(jump - 1).trim(),
+          "The tail call in " + caller + " keeps its frame.");
+    }
+
+    Assumptions.assumeTrue(CompilerStageTests.hasGcc(), "gcc is not installed");
+    Assertions.assertEquals(String.valueOf(DEPTH),
+        CompilerStageTests.runNative("a.s", null).trim());
+  }
+
+  private static Program compile(String source, int level) {
+    var program = CompilerStageTests.compile(source);
+    PassManager.forLevel(level).run(program);
+    return program;
+  }
+}
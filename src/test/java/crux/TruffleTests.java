@@ -0,0 +1,56 @@
+package crux;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Runs the IR test programs with --truffle and checks that they print what the Emulator prints.
+ * Only the truffle profile builds the interpreter, so only that profile runs these tests, for
+ * example {@code mvn -Ptruffle test}. Elsewhere they fail instead of checking the fallback.
+ */
+final class TruffleTests {
+  private static final String FALLBACK = "Truffle is not available";
+
+  @Test
+  void interpreterIsBuilt() {
+    try {
+      Class.forName("crux.truffle.TruffleRunner");
+    } catch (ClassNotFoundException | LinkageError e) {
+      Assertions.fail("crux.truffle is not built; run these tests with -Ptruffle.", e);
+    }
+  }
+
+  @TestFactory
+  Stream<DynamicTest> matchEmulator() throws IOException {
+    return CompilerStageTests.getPrograms("ir").stream().map(program -> dynamicTest(program, () -> {
+      var expected = run(program, Driver::enableEmulator);
+      var actual = run(program, Driver::enableTruffle);
+      Assertions.assertEquals(expected, actual,
+          String.format("--truffle changes the output of %s.", program));
+    }));
+  }
+
+  private String run(String program, Consumer<Driver> engine) {
+    var loader = getClass().getClassLoader();
+    var base = program.substring(0, program.length() - 4);
+    var outStream = new ByteArrayOutputStream();
+    var errStream = new ByteArrayOutputStream();
+    var driver = new Driver(new PrintStream(outStream), new PrintStream(errStream));
+    engine.accept(driver);
+    driver.setEmulatorInput(loader.getResourceAsStream(base + ".in"));
+    driver.setInputStream(loader.getResourceAsStream(program));
+    driver.run();
+    Assertions.assertFalse(errStream.toString().contains(FALLBACK), errStream.toString());
+    return CompilerStageTests.sanitize(outStream.toString()).trim();
+  }
+}